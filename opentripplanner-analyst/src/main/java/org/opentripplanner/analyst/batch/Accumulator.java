@@ -13,6 +13,12 @@
 
 package org.opentripplanner.analyst.batch;
 
+/**
+ * Adds the results for one origin into a ResultSet shaped like the destinations. BatchProcessor
+ * calls accumulate from several threads at once, each thread with its own accumulated ResultSet,
+ * and sums those ResultSets once all origins are done. Implementations must therefore be
+ * thread-safe and purely additive.
+ */
 public interface Accumulator {
 
     public void accumulate(double amount, ResultSet current, ResultSet accumulated);
@@ -13,7 +13,15 @@
 
 package org.opentripplanner.analyst.batch;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.TimeZone;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
@@ -29,11 +37,17 @@ import org.opentripplanner.analyst.batch.aggregator.Aggregator;
 import org.opentripplanner.analyst.core.Sample;
 import org.opentripplanner.analyst.request.SampleFactory;
 import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.algorithm.GenericAStar;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.error.VertexNotFoundException;
+import org.opentripplanner.routing.impl.raptor.MaxWalkState;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.services.SPTService;
+import org.opentripplanner.routing.spt.IndexedShortestPathTree;
 import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -74,6 +88,26 @@ public class BatchProcessor {
     @Setter private TimeZone timeZone = TimeZone.getDefault();
     @Setter private String outputPath = "/tmp/analystOutput";
     @Setter private float checkpointIntervalMinutes = -1;
+
+    /**
+     * In BASIC mode, stream all results into the single file at outputPath instead of writing one
+     * file per origin. The file starts with the number of destinations as a big-endian int,
+     * followed by one record per origin in completion order: the origin's index, then one int per
+     * destination giving the travel time in seconds, -1 if unreachable or -2 if not linked.
+     * Setting an aggregator or accumulator as well is a configuration error.
+     */
+    @Setter private boolean binaryOutput = false;
+
+    /**
+     * If positive, search from each origin at every departureStepSeconds over this many seconds
+     * after the requested time (before it for arriveBy searches), and use a percentile of the
+     * travel times to each destination in place of the result of a single search.
+     */
+    @Setter private int departureWindowSeconds = 0;
+    private int departureStepSeconds = 60;
+
+    /** The percentile of travel times over the departure window: 0 is the minimum, 50 the median. */
+    private double windowPercentile = 50;
     
     enum Mode { BASIC, AGGREGATE, ACCUMULATE };
     private Mode mode;
@@ -81,11 +115,71 @@ public class BatchProcessor {
     private long lastLogTime = 0;
     private long lastCheckpointTime = 0;
     private ResultSet aggregateResultSet = null;
+    private DataOutputStream binaryStream = null;
+
+    /** All accumulation buffers handed out to worker threads, summed into aggregateResultSet. */
+    private final List<ResultSet> accumulationBuffers = new ArrayList<ResultSet>();
+
+    /** Each worker accumulates into its own ResultSet, so no lock is needed in ACCUMULATE mode. */
+    private final ThreadLocal<ResultSet> accumulationBuffer = new ThreadLocal<ResultSet>() {
+        @Override
+        protected ResultSet initialValue() {
+            ResultSet buffer = new ResultSet(destinations);
+            synchronized (accumulationBuffers) {
+                accumulationBuffers.add(buffer);
+            }
+            return buffer;
+        }
+    };
+
+    /** The travel times for the current origin, reused by each worker across origins. */
+    private final ThreadLocal<ResultSet> currentResults = new ThreadLocal<ResultSet>() {
+        @Override
+        protected ResultSet initialValue() {
+            return new ResultSet(destinations);
+        }
+    };
+
+    /** Each worker collects the travel times over the departure window in its own buffer. */
+    private final ThreadLocal<DepartureWindow> departureWindow = new ThreadLocal<DepartureWindow>() {
+        @Override
+        protected DepartureWindow initialValue() {
+            return new DepartureWindow(destinations, getDepartureCount());
+        }
+    };
+
+    /** Each worker encodes binary records in its own buffer before writing them out. */
+    private final ThreadLocal<ByteBuffer> recordBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(4 * (destinations.size() + 1));
+        }
+    };
     
     /** Cut off the search instead of building a full path tree. Can greatly improve run times. */
     public void setSearchCutoffMinutes(int minutes) {
         this.searchCutoffSeconds = minutes * 60;
     }
+
+    public void setDepartureWindowMinutes(int minutes) {
+        this.departureWindowSeconds = minutes * 60;
+    }
+
+    public void setDepartureStepSeconds(int seconds) {
+        if (seconds <= 0)
+            throw new IllegalArgumentException("departure step must be positive: " + seconds);
+        this.departureStepSeconds = seconds;
+    }
+
+    public void setWindowPercentile(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100))
+            throw new IllegalArgumentException("window percentile must be in [0, 100]: " + percentile);
+        this.windowPercentile = percentile;
+    }
+
+    private int getDepartureCount() {
+        return Math.max(1, departureWindowSeconds / departureStepSeconds);
+    }
     
     public static void main(String[] args) throws IOException {
         org.springframework.core.io.Resource appContextResource;
@@ -117,6 +211,10 @@ public class BatchProcessor {
         ExecutorService threadPool = Executors.newFixedThreadPool(nThreads);
         // ECS enqueues results in the order they complete (unlike invokeAll, which blocks)
         CompletionService<Void> ecs = new ExecutorCompletionService<Void>(threadPool);
+        if (binaryOutput && (aggregator != null || accumulator != null)) {
+            LOG.error("binary output cannot be combined with an aggregator or accumulator.");
+            System.exit(-1);
+        }
         if (aggregator != null) {
             /* aggregate over destinations and save one value per origin */
             mode = Mode.AGGREGATE;
@@ -129,7 +227,16 @@ public class BatchProcessor {
             /* neither aggregator nor accumulator, save a bunch of results */
             mode = Mode.BASIC;
             aggregateResultSet = null;
-            if (!outputPath.contains("{}")) {
+            if (binaryOutput) {
+                try {
+                    binaryStream = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(outputPath)));
+                    binaryStream.writeInt(destinations.size());
+                } catch (IOException e) {
+                    LOG.error("cannot open binary output file {}: {}", outputPath, e);
+                    System.exit(-1);
+                }
+            } else if (!outputPath.contains("{}")) {
                 LOG.error("output filename must contain origin placeholder.");
                 System.exit(-1);
             }
@@ -160,8 +267,17 @@ public class BatchProcessor {
             LOG.warn("run was interrupted after {} tasks", nCompleted);
         }
         threadPool.shutdown();
-        if (accumulator != null)
+        if (accumulator != null) {
+            mergeAccumulationBuffers();
             accumulator.finish();
+        }
+        if (binaryStream != null) {
+            try {
+                binaryStream.close();
+            } catch (IOException e) {
+                LOG.error("error closing binary output file: {}", e);
+            }
+        }
         if (aggregateResultSet != null)
             aggregateResultSet.writeAppropriateFormat(outputPath);
         LOG.info("DONE.");
@@ -188,12 +304,114 @@ public class BatchProcessor {
         // anyway, this is being called in the controller thread now
         if (currentTime > lastCheckpointTime + checkpointIntervalMinutes * 60 * 1000) {
             lastCheckpointTime = currentTime;
+            if (mode == Mode.ACCUMULATE)
+                mergeAccumulationBuffers();
             aggregateResultSet.writeAppropriateFormat(outputPath);
             return true;
         }
         return false;
     }
     
+    /**
+     * Sum the accumulation buffers of all workers into aggregateResultSet. While searches are
+     * still running this is only an approximate snapshot, which is good enough for checkpoints.
+     */
+    private void mergeAccumulationBuffers() {
+        double[] merged = aggregateResultSet.results;
+        Arrays.fill(merged, 0);
+        synchronized (accumulationBuffers) {
+            for (ResultSet buffer : accumulationBuffers) {
+                double[] results = buffer.results;
+                for (int i = 0; i < merged.length; i++)
+                    merged[i] += results[i];
+            }
+        }
+    }
+
+    /** Append the travel times for one origin to the binary output file. */
+    private void writeBinaryRecord(int origin, ResultSet results) throws IOException {
+        ByteBuffer record = recordBuffer.get();
+        record.clear();
+        record.putInt(origin);
+        for (double t : results.results)
+            record.putInt((int) t);
+        // a single write per origin, so records from different workers are never interleaved
+        synchronized (binaryStream) {
+            binaryStream.write(record.array(), 0, record.position());
+        }
+    }
+
+    /**
+     * Search from the origin of req at each departure time in the window, and store the chosen
+     * percentile of the travel times to each destination in results. The searches share the
+     * routing context of req, so the origin is only linked into the graph once.
+     * 
+     * The street search around the origin does not depend on the departure time, so when the
+     * SPT service is a GenericAStar it is done once: a search without transit finds the walks
+     * to the destinations and to the transit stops, and each departure only searches onward
+     * from those stops.
+     */
+    private void searchDepartureWindow(RoutingRequest req, ResultSet results) {
+        DepartureWindow window = departureWindow.get();
+        window.reset();
+        ShortestPathTree access = null;
+        List<State> stopStates = null;
+        if (sptService instanceof GenericAStar && req.getModes().isTransit()) {
+            access = accessSearch((GenericAStar) sptService, req);
+            stopStates = new ArrayList<State>();
+            for (State state : access.getAllStates()) {
+                if (state.getVertex() instanceof TransitStop)
+                    stopStates.add(state);
+            }
+        }
+        int nDepartures = getDepartureCount();
+        for (int n = 0; n < nDepartures; n++) {
+            RoutingRequest departure = req.clone();
+            long offset = (long) n * departureStepSeconds;
+            departure.dateTime = req.arriveBy ? req.dateTime - offset : req.dateTime + offset;
+            if (searchCutoffSeconds > 0) {
+                departure.worstTime = departure.dateTime
+                        + (req.arriveBy ? -searchCutoffSeconds : searchCutoffSeconds);
+            }
+            departure.rctx = req.rctx.copy(departure);
+            // the window may extend past the days whose services were looked up for req
+            departure.rctx.setServiceDays();
+            ShortestPathTree spt;
+            if (stopStates == null) {
+                spt = sptService.getShortestPathTree(departure);
+            } else if (stopStates.isEmpty()) {
+                spt = null; // no transit within walking distance
+            } else {
+                List<State> starts = new ArrayList<State>(stopStates.size());
+                for (State state : stopStates) {
+                    starts.add(state.shiftStartTime(departure, departure.dateTime));
+                }
+                spt = ((GenericAStar) sptService).getShortestPathTree(departure, starts);
+            }
+            window.addSearch(access, spt);
+            if (spt instanceof IndexedShortestPathTree)
+                ((IndexedShortestPathTree) spt).release();
+        }
+        if (access instanceof IndexedShortestPathTree)
+            ((IndexedShortestPathTree) access).release();
+        window.getPercentiles(windowPercentile, results);
+    }
+
+    /**
+     * Search the streets around the origin of req without transit, within the same walk limit as
+     * the transit search itself. Without transit the street edges do not enforce the limit, so
+     * the search starts from a MaxWalkState, which always does.
+     */
+    static ShortestPathTree accessSearch(GenericAStar sptService, RoutingRequest req) {
+        RoutingRequest accessReq = req.clone();
+        TraverseModeSet modes = req.getModes().clone();
+        modes.setTransit(false);
+        accessReq.setModes(modes);
+        accessReq.rctx = req.rctx.copy(accessReq);
+        State start = new MaxWalkState(accessReq.rctx.origin, accessReq);
+        return sptService.getShortestPathTree(accessReq, Collections.singletonList(start));
+    }
+
     private RoutingRequest buildRequest(Individual i) {
         RoutingRequest req = prototypeRoutingRequest.clone();
         req.setDateTime(date, time, timeZone);
@@ -254,20 +472,32 @@ public class BatchProcessor {
             LOG.debug("calling origin : {}", oi);
             RoutingRequest req = buildRequest(oi);
             if (req != null) {
-                ShortestPathTree spt = sptService.getShortestPathTree(req);
-                // ResultSet should be a local to avoid memory leak
-                ResultSet results = ResultSet.forTravelTimes(destinations, spt);
+                ResultSet results = currentResults.get();
+                if (departureWindowSeconds > 0) {
+                    searchDepartureWindow(req, results);
+                } else {
+                    ShortestPathTree spt = sptService.getShortestPathTree(req);
+                    results.setTravelTimes(spt);
+                    if (spt instanceof IndexedShortestPathTree)
+                        ((IndexedShortestPathTree) spt).release();
+                }
                 req.cleanup();
                 switch (mode) {
                 case ACCUMULATE:
-                    synchronized (aggregateResultSet) {
-                        accumulator.accumulate(oi.input, results, aggregateResultSet);
-                    }
+                    accumulator.accumulate(oi.input, results, accumulationBuffer.get());
                     break;
                 case AGGREGATE:
                     aggregateResultSet.results[i] = aggregator.computeAggregate(results);
                     break;
                 default:
+                    if (binaryOutput) {
+                        try {
+                            writeBinaryRecord(i, results);
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                        break;
+                    }
                     String subName = outputPath.replace("{}", String.format("%d_%s", i, oi.label));
                     results.writeAppropriateFormat(subName);
                 }
@@ -0,0 +1,116 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.batch;
+
+import java.util.Arrays;
+
+import org.opentripplanner.analyst.core.Sample;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+
+/**
+ * Collects the travel times to the individuals of a population from several searches departing
+ * at successive times, and reduces them to one percentile per individual. A single departure
+ * time gives results that depend heavily on where it falls relative to transit schedules; a
+ * percentile over a window of departures is a much more stable measure of accessibility.
+ * 
+ * Travel times use the same codes as ResultSet.setTravelTimes: -1 for unreachable and -2 for
+ * individuals that are not linked into the graph. A DepartureWindow can be reused for many
+ * origins, but not by several threads at once.
+ */
+public class DepartureWindow {
+
+    private final Population population;
+
+    private final int nSearches;
+
+    /** Travel times for each individual, each followed by the next one's. */
+    private final int[] times;
+
+    private final int[] scratch;
+
+    private int search = 0;
+
+    public DepartureWindow(Population population, int nSearches) {
+        this.population = population;
+        this.nSearches = nSearches;
+        this.times = new int[population.size() * nSearches];
+        this.scratch = new int[nSearches];
+    }
+
+    /** Forget the searches added so far, to start on a new origin. */
+    public void reset() {
+        search = 0;
+    }
+
+    /** Record the travel times found by the next search in the window. */
+    public void addSearch(ShortestPathTree spt) {
+        addSearch(null, spt);
+    }
+
+    /**
+     * Record the travel times of the next departure in the window, which are the shortest of
+     * those in a tree that does not depend on the departure time (e.g. a walk-only search from
+     * the origin) and those in the tree of the departure. Either tree may be null.
+     */
+    public void addSearch(ShortestPathTree access, ShortestPathTree spt) {
+        if (search >= nSearches)
+            throw new IllegalStateException("all searches in the window have been added");
+        int i = 0;
+        for (Individual indiv : population) {
+            Sample s = indiv.sample;
+            long t;
+            if (s == null) {
+                t = -2;
+            } else {
+                t = Long.MAX_VALUE;
+                if (access != null)
+                    t = s.eval(access);
+                if (spt != null)
+                    t = Math.min(t, s.eval(spt));
+                if (t == Long.MAX_VALUE)
+                    t = -1;
+            }
+            times[i * nSearches + search] = (int) t;
+            i++;
+        }
+        search++;
+    }
+
+    /**
+     * Store the given percentile of the travel times of the searches added so far in results,
+     * which must be shaped like the population. Percentile 0 gives the minimum and 50 the median.
+     * Unreachable individuals count as slower than all others.
+     */
+    public void getPercentiles(double percentile, ResultSet results) {
+        if (search == 0)
+            throw new IllegalStateException("no searches have been added");
+        int rank = (int) Math.round(percentile / 100 * (search - 1));
+        int n = times.length / nSearches;
+        for (int i = 0; i < n; i++) {
+            int offset = i * nSearches;
+            if (times[offset] == -2) {
+                results.results[i] = -2;
+                continue;
+            }
+            for (int j = 0; j < search; j++) {
+                int t = times[offset + j];
+                scratch[j] = (t < 0) ? Integer.MAX_VALUE : t;
+            }
+            Arrays.sort(scratch, 0, search);
+            int t = scratch[rank];
+            results.results[i] = (t == Integer.MAX_VALUE) ? -1 : t;
+        }
+    }
+
+}
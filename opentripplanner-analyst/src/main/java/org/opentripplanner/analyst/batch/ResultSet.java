@@ -14,6 +14,7 @@
 package org.opentripplanner.analyst.batch;
 
 import org.opentripplanner.analyst.core.Sample;
+import org.opentripplanner.analyst.core.TimeSurface;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,22 +27,39 @@ public class ResultSet {
     public Population population;
     public double[] results;
     
-    public static ResultSet forTravelTimes(Population population, ShortestPathTree spt) {
-        double[] results = new double[population.size()];
+    /**
+     * Overwrite the results with the travel times in seconds found in the given tree, -1 for
+     * individuals that were not reached and -2 for those not linked into the graph. This allows
+     * a single ResultSet to be reused for many searches.
+     */
+    public void setTravelTimes(ShortestPathTree spt) {
         int i = 0;
         for (Individual indiv : population) {
             Sample s = indiv.sample;
-            long t = Long.MAX_VALUE;
-            if (s == null)
-                t = -2;
-            else
-                t = s.eval(spt);
+            long t = (s == null) ? -2 : s.eval(spt);
+            if (t == Long.MAX_VALUE)
+                t = -1;
+            results[i] = t;
+            i++;
+        }
+    }
+
+    /**
+     * Overwrite the results with the travel times in the given surface, using the same codes as
+     * setTravelTimes(ShortestPathTree). Use this when a surface is already at hand, e.g. from a
+     * cache. Making a surface only to evaluate a population costs a pass over every state of the
+     * tree, which is why batch processing evaluates its samples against the tree directly.
+     */
+    public void setTravelTimes(TimeSurface surface) {
+        int i = 0;
+        for (Individual indiv : population) {
+            Sample s = indiv.sample;
+            long t = (s == null) ? -2 : s.eval(surface);
             if (t == Long.MAX_VALUE)
                 t = -1;
             results[i] = t;
             i++;
         }
-        return new ResultSet(population, results);
     }
     
     public ResultSet(Population population, double[] results) {
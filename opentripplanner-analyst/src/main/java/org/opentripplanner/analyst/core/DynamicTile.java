@@ -33,7 +33,7 @@ public class DynamicTile extends Tile {
         this.ss = sampleSource;
     }
     
-    public Sample[] getSamples() {
+    public SampleLinkage getLinkage() {
         Sample[] ret = new Sample[width * height];
         long t0 = System.currentTimeMillis();
         CoordinateReferenceSystem crs = gg.getCoordinateReferenceSystem2D();
@@ -66,8 +66,8 @@ public class DynamicTile extends Tile {
             return null;
         }
         long t1 = System.currentTimeMillis();
-        LOG.debug("filled in tile image from SPT in {}msec", t1 - t0);
-        return ret;
+        LOG.debug("sampled tile in {}msec", t1 - t0);
+        return new SampleLinkage(ret);
     }
 
 }
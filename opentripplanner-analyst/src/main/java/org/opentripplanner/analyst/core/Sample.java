@@ -28,18 +28,36 @@ public class Sample {
         this.t1 = t1;
     }
 
-    public byte evalBoardings(ShortestPathTree spt) {
-        State s0 = spt.getState(v0);
-        State s1 = spt.getState(v1);
+    public byte evalBoardings(TimeSurface surface) {
         int m0 = 255;
         int m1 = 255;
-        if (s0 != null)
-            m0 = (s0.getNumBoardings()); 
-        if (s1 != null)
-            m1 = (s1.getNumBoardings()); 
+        if (v0 != null)
+            m0 = surface.getBoardings(v0);
+        if (v1 != null)
+            m1 = surface.getBoardings(v1);
         return (byte) ((m0 < m1) ? m0 : m1); 
     }
     
+    public long eval(TimeSurface surface) {
+        long m0 = Long.MAX_VALUE;
+        long m1 = Long.MAX_VALUE;
+        if (v0 != null) {
+            int t = surface.getTime(v0);
+            if (t != TimeSurface.UNREACHABLE)
+                m0 = t + t0;
+        }
+        if (v1 != null) {
+            int t = surface.getTime(v1);
+            if (t != TimeSurface.UNREACHABLE)
+                m1 = t + t1;
+        }
+        return (m0 < m1) ? m0 : m1; 
+    }
+    
+    /**
+     * Evaluate this sample directly against a tree. This avoids making a TimeSurface when only a
+     * few samples are evaluated per tree, as in batch processing.
+     */
     public long eval(ShortestPathTree spt) {
         State s0 = spt.getState(v0);
         State s1 = spt.getState(v1);
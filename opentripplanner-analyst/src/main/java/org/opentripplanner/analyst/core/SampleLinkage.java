@@ -0,0 +1,78 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.core;
+
+/**
+ * The samples of a tile packed into parallel arrays of vertex indices and walk times, so that
+ * rendering a tile is a loop over primitive arrays rather than over Sample and Vertex objects.
+ * Like a Sample, each element refers to up to two vertices; missing samples and vertices have
+ * the index NONE.
+ */
+public class SampleLinkage {
+
+    public static final int NONE = -1;
+
+    final int[] v0, v1, t0, t1;
+
+    public SampleLinkage(Sample[] samples) {
+        int n = samples.length;
+        v0 = new int[n];
+        v1 = new int[n];
+        t0 = new int[n];
+        t1 = new int[n];
+        for (int i = 0; i < n; i++) {
+            Sample s = samples[i];
+            v0[i] = (s == null || s.v0 == null) ? NONE : s.v0.getIndex();
+            v1[i] = (s == null || s.v1 == null) ? NONE : s.v1.getIndex();
+            if (s != null) {
+                t0[i] = s.t0;
+                t1[i] = s.t1;
+            }
+        }
+    }
+
+    /** @return the number of samples, including missing ones. */
+    public int size() {
+        return v0.length;
+    }
+
+    /** @return whether sample i was linked to at least one vertex. */
+    public boolean isLinked(int i) {
+        return v0[i] != NONE || v1[i] != NONE;
+    }
+
+    /**
+     * @return the time in seconds to reach sample i in the given surface, or Long.MAX_VALUE if
+     *         it is not reachable. This is the same value as Sample.eval.
+     */
+    public long eval(int i, TimeSurface surface) {
+        long m0 = Long.MAX_VALUE;
+        long m1 = Long.MAX_VALUE;
+        int t = surface.getTime(v0[i]);
+        if (t != TimeSurface.UNREACHABLE)
+            m0 = t + t0[i];
+        t = surface.getTime(v1[i]);
+        if (t != TimeSurface.UNREACHABLE)
+            m1 = t + t1[i];
+        return (m0 < m1) ? m0 : m1;
+    }
+
+    /** @return the fewest boardings needed to reach sample i, as in Sample.evalBoardings. */
+    public byte evalBoardings(int i, TimeSurface surface) {
+        int m0 = surface.getBoardings(v0[i]);
+        int m1 = surface.getBoardings(v1[i]);
+        return (byte) ((m0 < m1) ? m0 : m1);
+    }
+
+}
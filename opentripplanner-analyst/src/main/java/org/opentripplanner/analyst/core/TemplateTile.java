@@ -26,11 +26,11 @@ import org.slf4j.LoggerFactory;
 public class TemplateTile extends Tile {
 
     private static final Logger LOG = LoggerFactory.getLogger(TemplateTile.class);
-    Sample[] samples;
+    final SampleLinkage linkage;
     
     public TemplateTile(TileRequest req, SampleSource sampleSource) {
         super(req);
-        this.samples = new Sample[width * height];
+        Sample[] samples = new Sample[width * height];
         CoordinateReferenceSystem crs = gg.getCoordinateReferenceSystem2D(); 
         int i = 0;
         try {
@@ -61,10 +61,12 @@ public class TemplateTile extends Tile {
             LOG.error(e.toString());
             e.printStackTrace();
         }
+        // the Samples are only needed to build the linkage
+        this.linkage = new SampleLinkage(samples);
     }
     
-    public Sample[] getSamples() {
-        return this.samples;
+    public SampleLinkage getLinkage() {
+        return this.linkage;
     }
 
 }
@@ -30,7 +30,6 @@ import org.geotools.coverage.grid.GridGeometry2D;
 import org.opentripplanner.analyst.request.RenderRequest;
 import org.opentripplanner.analyst.request.TileRequest;
 import org.opentripplanner.analyst.parameter.Style;
-import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -267,18 +266,19 @@ public abstract class Tile {
     
     final byte UNREACHABLE = Byte.MIN_VALUE;
 
-    public BufferedImage generateImage(ShortestPathTree spt, RenderRequest renderRequest) {
+    public BufferedImage generateImage(TimeSurface surface, RenderRequest renderRequest) {
         long t0 = System.currentTimeMillis();
         BufferedImage image = getEmptyImage(renderRequest.style);
         byte[] imagePixelData = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
-        int i = 0;
-        for (Sample s : getSamples()) {
+        SampleLinkage linkage = getLinkage();
+        boolean boardings = renderRequest.style == Style.BOARDINGS;
+        for (int i = 0; i < imagePixelData.length; i++) {
             byte pixel;
-            if (s != null) {
-                if (renderRequest.style == Style.BOARDINGS) {
-                    pixel = s.evalBoardings(spt);
+            if (linkage.isLinked(i)) {
+                if (boardings) {
+                    pixel = linkage.evalBoardings(i, surface);
                 } else {
-                    long t = s.eval(spt); // renderRequest.style
+                    long t = linkage.eval(i, surface); // renderRequest.style
                     if (t == Long.MAX_VALUE)
                         pixel = UNREACHABLE;
                     else {
@@ -294,26 +294,25 @@ public abstract class Tile {
                 pixel = UNREACHABLE;
             }
             imagePixelData[i] = pixel;
-            i++;
         }
         long t1 = System.currentTimeMillis();
-        LOG.debug("filled in tile image from SPT in {}msec", t1 - t0);
+        LOG.debug("filled in tile image from time surface in {}msec", t1 - t0);
         return image;
     }
 
     public BufferedImage linearCombination(
-            double k1, ShortestPathTree spt1, 
-            double k2, ShortestPathTree spt2, 
+            double k1, TimeSurface surface1, 
+            double k2, TimeSurface surface2, 
             double intercept, RenderRequest renderRequest) {
         long t0 = System.currentTimeMillis();
         BufferedImage image = getEmptyImage(renderRequest.style);
         byte[] imagePixelData = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
-        int i = 0;
-        for (Sample s : getSamples()) {
+        SampleLinkage linkage = getLinkage();
+        for (int i = 0; i < imagePixelData.length; i++) {
             byte pixel = UNREACHABLE;
-            if (s != null) {
-                long t1 = s.eval(spt1);
-                long t2 = s.eval(spt2);
+            if (linkage.isLinked(i)) {
+                long t1 = linkage.eval(i, surface1);
+                long t2 = linkage.eval(i, surface2);
                 if (t1 != Long.MAX_VALUE && t2 != Long.MAX_VALUE) {
                     double t = (k1 * t1 + k2 * t2) / 60 + intercept; 
                     if (t < -120)
@@ -324,10 +323,9 @@ public abstract class Tile {
                 }
             }
             imagePixelData[i] = pixel;
-            i++;
         }
         long t1 = System.currentTimeMillis();
-        LOG.debug("filled in tile image from SPT in {}msec", t1 - t0);
+        LOG.debug("filled in tile image from time surface in {}msec", t1 - t0);
         return image;
     }
 
@@ -337,7 +335,8 @@ public abstract class Tile {
         return gridCoverage;
     }
 
-    public abstract Sample[] getSamples();
+    /** @return the samples of this tile's pixels, in row-major order. */
+    public abstract SampleLinkage getLinkage();
 
     public static BufferedImage getLegend(Style style, int width, int height) {
         final int NBANDS = 150;
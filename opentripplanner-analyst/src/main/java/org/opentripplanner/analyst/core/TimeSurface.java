@@ -0,0 +1,109 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.core;
+
+import java.util.Arrays;
+
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+
+/**
+ * The travel times found by a one-to-many search, in primitive arrays indexed by vertex index.
+ * Rendering tiles and evaluating populations only need one time per vertex, so once a surface
+ * has been made the ShortestPathTree and all its States can be dropped. A surface costs four
+ * bytes per vertex (five with boardings), a small fraction of the tree it was made from.
+ * 
+ * The surface is copied from a complete tree once the search is over, rather than filled in by
+ * the search itself as it settles each vertex. The search therefore still builds the full tree;
+ * only what is kept afterwards is smaller.
+ */
+public class TimeSurface {
+
+    /** The time reported for vertices the search did not reach. */
+    public static final int UNREACHABLE = -1;
+
+    /** The number of boardings reported for vertices the search did not reach. */
+    public static final int NO_BOARDINGS = 255;
+
+    /** Active time in seconds of the best state at each vertex. */
+    private final int[] times;
+
+    /** Boardings of the best state at each vertex, as unsigned bytes. Null if not recorded. */
+    private final byte[] boardings;
+
+    /**
+     * Copy the times out of a tree. The best state at each vertex is the one returned by
+     * {@link ShortestPathTree#getState(Vertex)}.
+     * 
+     * @param keepBoardings also record the number of boardings at each vertex.
+     */
+    public TimeSurface(ShortestPathTree spt, boolean keepBoardings) {
+        int maxIndex = -1;
+        for (State s : spt.getAllStates()) {
+            int index = s.getVertex().getIndex();
+            if (index > maxIndex)
+                maxIndex = index;
+        }
+        times = new int[maxIndex + 1];
+        Arrays.fill(times, UNREACHABLE);
+        if (keepBoardings) {
+            boardings = new byte[maxIndex + 1];
+            Arrays.fill(boardings, (byte) NO_BOARDINGS);
+        } else {
+            boardings = null;
+        }
+        for (State s : spt.getAllStates()) {
+            Vertex v = s.getVertex();
+            int index = v.getIndex();
+            if (times[index] != UNREACHABLE)
+                continue; // several states at this vertex, already done
+            State best = spt.getState(v);
+            times[index] = (int) best.getActiveTime();
+            if (boardings != null)
+                boardings[index] = (byte) Math.min(best.getNumBoardings(), NO_BOARDINGS - 1);
+        }
+    }
+
+    /** @return the time in seconds needed to reach the given vertex, or UNREACHABLE. */
+    public int getTime(Vertex v) {
+        return getTime(v.getIndex());
+    }
+
+    /** @return the time to reach the vertex with the given index, which may be negative. */
+    int getTime(int index) {
+        if (index < 0 || index >= times.length)
+            return UNREACHABLE;
+        return times[index];
+    }
+
+    /**
+     * @return the number of boardings needed to reach the given vertex, or NO_BOARDINGS if the
+     *         vertex was not reached or boardings were not recorded.
+     */
+    public int getBoardings(Vertex v) {
+        return getBoardings(v.getIndex());
+    }
+
+    int getBoardings(int index) {
+        if (boardings == null || index < 0 || index >= boardings.length)
+            return NO_BOARDINGS;
+        return boardings[index] & 0xFF;
+    }
+
+    public boolean hasBoardings() {
+        return boardings != null;
+    }
+
+}
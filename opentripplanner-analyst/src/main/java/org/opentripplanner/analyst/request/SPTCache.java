@@ -13,9 +13,11 @@
 
 package org.opentripplanner.analyst.request;
 
+import org.opentripplanner.analyst.core.TimeSurface;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.services.SPTService;
+import org.opentripplanner.routing.spt.IndexedShortestPathTree;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,8 +28,12 @@ import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 
+/**
+ * Caches the result of one-to-many searches by request. Only the TimeSurface extracted from each
+ * ShortestPathTree is kept, which lets the cache hold many more results than it could trees.
+ */
 @Component
-public class SPTCache extends CacheLoader<RoutingRequest, ShortestPathTree> {
+public class SPTCache extends CacheLoader<RoutingRequest, TimeSurface> {
 
     private static final Logger LOG = LoggerFactory.getLogger(SPTCache.class);
 
@@ -35,25 +41,29 @@ public class SPTCache extends CacheLoader<RoutingRequest, ShortestPathTree> {
     
     @Autowired private GraphService graphService; 
 
-    private LoadingCache<RoutingRequest, ShortestPathTree> sptCache = CacheBuilder
+    private LoadingCache<RoutingRequest, TimeSurface> sptCache = CacheBuilder
             .newBuilder()
             .concurrencyLevel(16)
-            .maximumSize(16)
+            .maximumSize(256)
             .build(this);
 
     @Override /** completes the abstract CacheLoader superclass */
-    public ShortestPathTree load(RoutingRequest req) throws Exception {
+    public TimeSurface load(RoutingRequest req) throws Exception {
         LOG.debug("spt cache miss : {}", req);
         req.setRoutingContext(graphService.getGraph());
         long t0 = System.currentTimeMillis();
         ShortestPathTree spt = sptService.getShortestPathTree(req);
         long t1 = System.currentTimeMillis();
         LOG.debug("calculated spt in {}msec", (int) (t1 - t0));
+        // keep boardings, which are needed to render the boardings style
+        TimeSurface surface = new TimeSurface(spt, true);
+        if (spt instanceof IndexedShortestPathTree)
+            ((IndexedShortestPathTree) spt).release();
         req.cleanup();
-        return spt;
+        return surface;
     }
 
-    public ShortestPathTree get(RoutingRequest req) throws Exception {
+    public TimeSurface get(RoutingRequest req) throws Exception {
         return req == null ? null : sptCache.get(req);
     }
     
@@ -0,0 +1,250 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.request;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import org.opentripplanner.analyst.core.Sample;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.error.VertexNotFoundException;
+import org.opentripplanner.routing.services.GraphService;
+import org.opentripplanner.routing.services.SPTService;
+import org.opentripplanner.routing.spt.IndexedShortestPathTree;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Computes origin-destination travel time matrices with one one-to-many search per origin. The
+ * destinations are linked into the graph once per matrix, and the searches run in parallel on a
+ * shared thread pool. Rows are handed to a RowHandler as soon as they are complete, and only a
+ * few origins per thread are searched ahead of the handler, so a matrix can be streamed to a
+ * client without ever being held in memory as a whole. Destinations are linked with the
+ * SampleFactory, which indexes the default graph, so matrices are only computed on that graph.
+ */
+@Component
+public class TravelTimeMatrix {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TravelTimeMatrix.class);
+
+    /** The travel time reported for destinations that cannot be reached from an origin. */
+    public static final int UNREACHABLE = -1;
+
+    /** The travel time reported when an origin or destination is not near the street network. */
+    public static final int NOT_LINKED = -2;
+
+    /* origins searched ahead of the handler per thread, to keep the threads busy while it writes */
+    private static final int ORIGINS_PER_THREAD = 2;
+
+    /** Receives the rows of a matrix, one per origin, in the order they are completed. */
+    public interface RowHandler {
+        /**
+         * @param origin the index of the origin in the list of origins.
+         * @param times the travel time in seconds to each destination, in the order they were
+         *        given, or UNREACHABLE or NOT_LINKED. The array belongs to the handler.
+         */
+        public void handleRow(int origin, int[] times) throws IOException;
+    }
+
+    @Autowired @Setter
+    private GraphService graphService;
+
+    @Autowired
+    private SPTService sptService;
+
+    @Autowired
+    private SampleFactory sampleFactory;
+
+    /** The number of searches run at once, across all matrices being computed. */
+    @Setter
+    private int nThreads = Runtime.getRuntime().availableProcessors();
+
+    /** The largest number of origin-destination pairs in a single matrix. */
+    @Setter @Getter
+    private long maxPairs = 1000000;
+
+    private ExecutorService threadPool;
+
+    private synchronized ExecutorService getThreadPool() {
+        if (threadPool == null) {
+            threadPool = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "travel-time-matrix");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return threadPool;
+    }
+
+    /**
+     * Compute the travel times from each origin to each destination, calling the handler from
+     * the calling thread as each row is completed. If the handler throws an exception, the
+     * remaining searches are cancelled.
+     * 
+     * @param prototype the options for every search. For arriveBy requests, the origins are
+     *        where trips end and the searches run backward from them.
+     * @throws IllegalArgumentException if the matrix has more than maxPairs cells, or the
+     *         prototype is for another router than the default one.
+     */
+    public void compute(RoutingRequest prototype, List<GenericLocation> origins,
+            List<GenericLocation> destinations, RowHandler handler) throws IOException {
+        checkSize(origins.size(), destinations.size());
+        checkRouter(prototype.routerId);
+        final Sample[] samples = new Sample[destinations.size()];
+        int nLinked = 0;
+        for (int d = 0; d < samples.length; d++) {
+            Coordinate c = destinations.get(d).getCoordinate();
+            if (c != null)
+                samples[d] = sampleFactory.getSample(c.x, c.y);
+            if (samples[d] != null)
+                nLinked++;
+        }
+        LOG.debug("linked {} destinations out of {}", nLinked, samples.length);
+        CompletionService<Row> ecs = new ExecutorCompletionService<Row>(getThreadPool());
+        List<Future<Row>> futures = new ArrayList<Future<Row>>(origins.size());
+        // completed rows wait in the completion service until the handler takes them, so only
+        // submit another origin for each row taken
+        int maxInFlight = Math.max(1, nThreads * ORIGINS_PER_THREAD);
+        boolean done = false;
+        try {
+            while (futures.size() < origins.size() && futures.size() < maxInFlight)
+                futures.add(submitRow(ecs, prototype, futures.size(), origins, samples));
+            for (int n = 0; n < origins.size(); n++) {
+                Row row = ecs.take().get();
+                if (futures.size() < origins.size())
+                    futures.add(submitRow(ecs, prototype, futures.size(), origins, samples));
+                handler.handleRow(row.origin, row.times);
+            }
+            done = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while computing travel time matrix");
+        } catch (ExecutionException e) {
+            throw new IOException("error while computing travel time matrix", e.getCause());
+        } finally {
+            if (!done) {
+                for (Future<Row> future : futures)
+                    future.cancel(true);
+            }
+        }
+    }
+
+    private Future<Row> submitRow(CompletionService<Row> ecs, RoutingRequest prototype,
+            final int origin, List<GenericLocation> origins, final Sample[] samples) {
+        final RoutingRequest req = buildRequest(prototype, origins.get(origin));
+        return ecs.submit(new Callable<Row>() {
+            @Override
+            public Row call() {
+                return new Row(origin, computeRow(req, samples));
+            }
+        });
+    }
+
+    /**
+     * @throws IllegalArgumentException if the given router does not use the default graph, in
+     *         which the destinations are linked.
+     */
+    public void checkRouter(String routerId) {
+        if (graphService.getGraph(routerId) != graphService.getGraph())
+            throw new IllegalArgumentException("matrices can only be computed on the default router, not "
+                    + routerId);
+    }
+
+    /** @throws IllegalArgumentException if a matrix of this size has more than maxPairs cells. */
+    public void checkSize(int nOrigins, int nDestinations) {
+        if ((long) nOrigins * nDestinations > maxPairs)
+            throw new IllegalArgumentException("a matrix can have at most " + maxPairs
+                    + " origin-destination pairs, not " + nOrigins + "x" + nDestinations);
+    }
+
+    private RoutingRequest buildRequest(RoutingRequest prototype, GenericLocation origin) {
+        RoutingRequest req = prototype.clone();
+        req.batch = true;
+        if (req.arriveBy)
+            req.setTo(origin);
+        else
+            req.setFrom(origin);
+        return req;
+    }
+
+    /** Run one search and evaluate all destinations in the resulting tree. */
+    private int[] computeRow(RoutingRequest req, Sample[] samples) {
+        int[] times = new int[samples.length];
+        try {
+            req.setRoutingContext(graphService.getGraph(req.routerId));
+        } catch (VertexNotFoundException vnfe) {
+            LOG.debug("no vertex could be created near the origin point");
+            Arrays.fill(times, NOT_LINKED);
+            return times;
+        }
+        ShortestPathTree spt = null;
+        try {
+            spt = sptService.getShortestPathTree(req);
+            evaluate(spt, samples, times);
+        } finally {
+            if (spt instanceof IndexedShortestPathTree)
+                ((IndexedShortestPathTree) spt).release();
+            req.cleanup();
+        }
+        return times;
+    }
+
+    /** Store the travel time to each sample in times, or UNREACHABLE or NOT_LINKED. */
+    static void evaluate(ShortestPathTree spt, Sample[] samples, int[] times) {
+        for (int d = 0; d < samples.length; d++) {
+            Sample s = samples[d];
+            if (s == null) {
+                times[d] = NOT_LINKED;
+                continue;
+            }
+            long t = spt == null ? Long.MAX_VALUE : s.eval(spt);
+            times[d] = (t == Long.MAX_VALUE) ? UNREACHABLE : (int) t;
+        }
+    }
+
+    private static class Row {
+
+        final int origin;
+
+        final int[] times;
+
+        Row(int origin, int[] times) {
+            this.origin = origin;
+            this.times = times;
+        }
+    }
+
+}
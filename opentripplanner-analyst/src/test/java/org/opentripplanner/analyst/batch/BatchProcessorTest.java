@@ -0,0 +1,82 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.batch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.opentripplanner.analyst.core.Sample;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class BatchProcessorTest {
+
+    private static void streetEdge(StreetVertex vA, StreetVertex vB, double length) {
+        Coordinate[] coords = new Coordinate[] { vA.getCoordinate(), vB.getCoordinate() };
+        new PlainStreetEdge(vA, vB, GeometryUtils.getGeometryFactory().createLineString(coords),
+                vA.getLabel() + "_" + vB.getLabel(), length, StreetTraversalPermission.ALL, false);
+    }
+
+    /** The access search must not reach further than a transit search would on foot. */
+    @Test
+    public void testAccessSearchWalkLimit() {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", 0, 0);
+        IntersectionVertex b = new IntersectionVertex(graph, "b", 0.001, 0);
+        IntersectionVertex c = new IntersectionVertex(graph, "c", 0.002, 0);
+        IntersectionVertex d = new IntersectionVertex(graph, "d", 0.003, 0);
+        streetEdge(a, b, 100);
+        streetEdge(b, c, 100);
+        streetEdge(c, d, 100);
+
+        RoutingRequest req = new RoutingRequest();
+        req.batch = true;
+        req.setMaxWalkDistance(250);
+        req.setRoutingContext(graph, a, null);
+
+        Individual near = new Individual("near", 0.002, 0, 1);
+        near.sample = new Sample(c, 0, null, 0);
+        Individual far = new Individual("far", 0.003, 0, 1);
+        far.sample = new Sample(d, 0, null, 0);
+        BasicPopulation population = new BasicPopulation(near, far);
+        population.setup();
+
+        // with no transit in the graph, every departure's search is this plain search
+        ResultSet expected = new ResultSet(population, new double[2]);
+        expected.setTravelTimes(new GenericAStar().getShortestPathTree(req));
+
+        ShortestPathTree access = BatchProcessor.accessSearch(new GenericAStar(), req);
+        DepartureWindow window = new DepartureWindow(population, 1);
+        window.addSearch(access, null);
+        ResultSet results = new ResultSet(population, new double[2]);
+        window.getPercentiles(50, results);
+
+        assertArrayEquals(expected.results, results.results, 0.0);
+        assertTrue(results.results[0] > 0);
+        // d is 300m away, past the walk limit
+        assertEquals(-1, results.results[1], 0.0);
+    }
+
+}
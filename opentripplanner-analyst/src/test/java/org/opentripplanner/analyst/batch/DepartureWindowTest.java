@@ -0,0 +1,126 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.batch;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.analyst.core.Sample;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.BasicShortestPathTree;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+public class DepartureWindowTest {
+
+    private RoutingRequest options;
+
+    private Vertex v0;
+
+    private Vertex v1;
+
+    private BasicPopulation population;
+
+    @Before
+    public void setUp() {
+        options = new RoutingRequest();
+        Graph graph = new Graph();
+        v0 = new IntersectionVertex(graph, "v0", 0, 0);
+        v1 = new IntersectionVertex(graph, "v1", 0.01, 0);
+
+        // the times in the samples are those to the individuals once their vertices are reached
+        Individual both = new Individual("both", 0, 0, 1);
+        both.sample = new Sample(v0, 100, v1, 300);
+        Individual near1 = new Individual("near1", 0.01, 0, 1);
+        near1.sample = new Sample(null, 0, v1, 50);
+        Individual unlinked = new Individual("unlinked", 1, 1, 1);
+        Individual near0 = new Individual("near0", 0, 0, 1);
+        near0.sample = new Sample(v0, 10, null, 0);
+        population = new BasicPopulation(both, near1, unlinked, near0);
+        population.setup();
+    }
+
+    /** A tree reaching the given vertices with no elapsed time. */
+    private ShortestPathTree makeTree(Vertex... vertices) {
+        ShortestPathTree spt = new BasicShortestPathTree(options);
+        for (Vertex v : vertices) {
+            spt.add(new State(v, options));
+        }
+        return spt;
+    }
+
+    private double[] percentiles(DepartureWindow window, double percentile) {
+        ResultSet results = new ResultSet(population);
+        window.getPercentiles(percentile, results);
+        return results.results;
+    }
+
+    @Test
+    public void testPercentiles() {
+        DepartureWindow window = new DepartureWindow(population, 4);
+        window.addSearch(makeTree(v0));
+        window.addSearch(makeTree(v1));
+        window.addSearch(makeTree(v0, v1));
+        window.addSearch(makeTree());
+
+        // by individual: {100, 300, 100, -}, {-, 50, 50, -}, unlinked, {10, -, 10, -}
+        // the lowest rank is the minimum
+        assertEquals(100, percentiles(window, 0)[0], 0.0);
+        assertEquals(50, percentiles(window, 0)[1], 0.0);
+        assertEquals(-2, percentiles(window, 0)[2], 0.0);
+        assertEquals(10, percentiles(window, 0)[3], 0.0);
+
+        // 33% of 3 rounds to rank 1
+        assertEquals(100, percentiles(window, 33)[0], 0.0);
+        assertEquals(50, percentiles(window, 33)[1], 0.0);
+        assertEquals(10, percentiles(window, 33)[3], 0.0);
+
+        // 50% of 3 rounds to rank 2, unreachable counts as slowest
+        assertEquals(300, percentiles(window, 50)[0], 0.0);
+        assertEquals(-1, percentiles(window, 50)[1], 0.0);
+        assertEquals(-2, percentiles(window, 50)[2], 0.0);
+        assertEquals(-1, percentiles(window, 50)[3], 0.0);
+
+        // the maximum is unreachable for everyone but the unlinked individual
+        assertEquals(-1, percentiles(window, 100)[0], 0.0);
+        assertEquals(-2, percentiles(window, 100)[2], 0.0);
+    }
+
+    @Test
+    public void testAccessTree() {
+        DepartureWindow window = new DepartureWindow(population, 2);
+        ShortestPathTree access = makeTree(v1);
+        window.addSearch(access, makeTree(v0));
+        window.addSearch(access, null);
+
+        // the shorter of the two trees counts for each departure
+        assertEquals(100, percentiles(window, 0)[0], 0.0);
+        assertEquals(300, percentiles(window, 100)[0], 0.0);
+        assertEquals(50, percentiles(window, 100)[1], 0.0);
+        assertEquals(-2, percentiles(window, 100)[2], 0.0);
+        assertEquals(10, percentiles(window, 0)[3], 0.0);
+        assertEquals(-1, percentiles(window, 100)[3], 0.0);
+
+        // a new origin starts over
+        window.reset();
+        window.addSearch(makeTree());
+        assertEquals(-1, percentiles(window, 0)[0], 0.0);
+        assertEquals(-2, percentiles(window, 0)[2], 0.0);
+    }
+
+}
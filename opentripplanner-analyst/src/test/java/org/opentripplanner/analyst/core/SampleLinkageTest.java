@@ -0,0 +1,77 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.analyst.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class SampleLinkageTest {
+
+    /** Every sample must evaluate as the Sample it was packed from. */
+    @Test
+    public void testEval() {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", 0, 0);
+        IntersectionVertex b = new IntersectionVertex(graph, "b", 0.001, 0);
+        IntersectionVertex island = new IntersectionVertex(graph, "island", 0.01, 0.01);
+        Coordinate[] coords = new Coordinate[] { a.getCoordinate(), b.getCoordinate() };
+        new PlainStreetEdge(a, b, GeometryUtils.getGeometryFactory().createLineString(coords),
+                "a_b", 100, StreetTraversalPermission.ALL, false);
+        RoutingRequest req = new RoutingRequest();
+        req.batch = true;
+        req.setRoutingContext(graph, a, null);
+        TimeSurface surface = new TimeSurface(new GenericAStar().getShortestPathTree(req), true);
+
+        Sample[] samples = new Sample[] {
+                null,
+                new Sample(a, 10, null, 0),
+                new Sample(null, 0, b, 5),
+                new Sample(a, 500, b, 20),
+                new Sample(island, 0, b, 30),
+                new Sample(island, 0, null, 0),
+                new Sample(null, 0, null, 0) };
+        SampleLinkage linkage = new SampleLinkage(samples);
+        assertEquals(samples.length, linkage.size());
+        for (int i = 0; i < samples.length; i++) {
+            Sample s = samples[i];
+            if (s == null || (s.v0 == null && s.v1 == null)) {
+                assertFalse(linkage.isLinked(i));
+                assertEquals(Long.MAX_VALUE, linkage.eval(i, surface));
+                assertEquals((byte) TimeSurface.NO_BOARDINGS, linkage.evalBoardings(i, surface));
+                continue;
+            }
+            assertTrue(linkage.isLinked(i));
+            assertEquals(s.eval(surface), linkage.eval(i, surface));
+            assertEquals(s.evalBoardings(surface), linkage.evalBoardings(i, surface));
+        }
+        assertEquals(10, linkage.eval(1, surface));
+        // the island is unreachable, so the sample is reached through b
+        assertEquals(surface.getTime(b) + 30, linkage.eval(4, surface));
+        assertEquals(Long.MAX_VALUE, linkage.eval(5, surface));
+    }
+
+}
@@ -0,0 +1,116 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.analyst.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.analyst.batch.BasicPopulation;
+import org.opentripplanner.analyst.batch.Individual;
+import org.opentripplanner.analyst.batch.ResultSet;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+public class TimeSurfaceTest {
+
+    private IntersectionVertex a, b, c, island, beyond;
+
+    private ShortestPathTree spt;
+
+    private static void streetEdge(StreetVertex vA, StreetVertex vB, double length) {
+        Coordinate[] coords = new Coordinate[] { vA.getCoordinate(), vB.getCoordinate() };
+        new PlainStreetEdge(vA, vB, GeometryUtils.getGeometryFactory().createLineString(coords),
+                vA.getLabel() + "_" + vB.getLabel(), length, StreetTraversalPermission.ALL, false);
+    }
+
+    /**
+     * A chain a-b-c searched from a. The island is not connected to it. The vertex beyond is
+     * made after the others, so its index is past the end of the surface arrays.
+     */
+    @Before
+    public void setUp() {
+        Graph graph = new Graph();
+        island = new IntersectionVertex(graph, "island", 0.01, 0.01);
+        a = new IntersectionVertex(graph, "a", 0, 0);
+        b = new IntersectionVertex(graph, "b", 0.001, 0);
+        c = new IntersectionVertex(graph, "c", 0.002, 0);
+        streetEdge(a, b, 100);
+        streetEdge(b, c, 100);
+        RoutingRequest req = new RoutingRequest();
+        req.batch = true;
+        req.setRoutingContext(graph, a, null);
+        spt = new GenericAStar().getShortestPathTree(req);
+        beyond = new IntersectionVertex(graph, "beyond", 0.02, 0.02);
+    }
+
+    @Test
+    public void testTimes() {
+        TimeSurface surface = new TimeSurface(spt, true);
+        for (Vertex v : new Vertex[] { a, b, c }) {
+            assertEquals(spt.getState(v).getActiveTime(), surface.getTime(v));
+            assertEquals(0, surface.getBoardings(v));
+        }
+        assertEquals(0, surface.getTime(a));
+        assertTrue(surface.getTime(c) > surface.getTime(b));
+        assertEquals(TimeSurface.UNREACHABLE, surface.getTime(island));
+        assertEquals(TimeSurface.NO_BOARDINGS, surface.getBoardings(island));
+        assertEquals(TimeSurface.UNREACHABLE, surface.getTime(beyond));
+        assertEquals(TimeSurface.NO_BOARDINGS, surface.getBoardings(beyond));
+        assertEquals(TimeSurface.UNREACHABLE, surface.getTime(-1));
+        assertEquals(TimeSurface.NO_BOARDINGS, surface.getBoardings(-1));
+    }
+
+    @Test
+    public void testNoBoardings() {
+        TimeSurface surface = new TimeSurface(spt, false);
+        assertFalse(surface.hasBoardings());
+        assertEquals(spt.getState(b).getActiveTime(), surface.getTime(b));
+        assertEquals(TimeSurface.NO_BOARDINGS, surface.getBoardings(b));
+    }
+
+    /** Evaluating a population against a surface gives the same results as against the tree. */
+    @Test
+    public void testResultSet() {
+        Individual near = new Individual("near", 0.002, 0, 1);
+        near.sample = new Sample(c, 10, b, 200);
+        Individual isolated = new Individual("isolated", 0.01, 0.01, 1);
+        isolated.sample = new Sample(island, 0, null, 0);
+        Individual unlinked = new Individual("unlinked", 0.03, 0.03, 1);
+        BasicPopulation population = new BasicPopulation(near, isolated, unlinked);
+        population.setup();
+        ResultSet expected = new ResultSet(population, new double[3]);
+        expected.setTravelTimes(spt);
+        ResultSet results = new ResultSet(population, new double[3]);
+        results.setTravelTimes(new TimeSurface(spt, false));
+        assertArrayEquals(expected.results, results.results, 0.0);
+        assertEquals(-1, results.results[1], 0.0);
+        assertEquals(-2, results.results[2], 0.0);
+    }
+
+}
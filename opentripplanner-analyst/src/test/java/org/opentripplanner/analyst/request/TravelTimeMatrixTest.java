@@ -0,0 +1,111 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.analyst.request;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.opentripplanner.analyst.core.Sample;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.GraphServiceBeanImpl;
+import org.opentripplanner.routing.spt.BasicShortestPathTree;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+public class TravelTimeMatrixTest {
+
+    @Test
+    public void testEvaluate() {
+        RoutingRequest options = new RoutingRequest();
+        Graph graph = new Graph();
+        Vertex v0 = new IntersectionVertex(graph, "v0", 0, 0);
+        Vertex v1 = new IntersectionVertex(graph, "v1", 0.01, 0);
+        ShortestPathTree spt = new BasicShortestPathTree(options);
+        spt.add(new State(v0, options));
+
+        Sample[] samples = new Sample[] { new Sample(v0, 100, v1, 10), null,
+                new Sample(null, 0, v1, 50) };
+        int[] times = new int[samples.length];
+        TravelTimeMatrix.evaluate(spt, samples, times);
+        assertArrayEquals(new int[] { 100, TravelTimeMatrix.NOT_LINKED,
+                TravelTimeMatrix.UNREACHABLE }, times);
+
+        // a search that found nothing reaches no linked sample
+        TravelTimeMatrix.evaluate(null, samples, times);
+        assertArrayEquals(new int[] { TravelTimeMatrix.UNREACHABLE, TravelTimeMatrix.NOT_LINKED,
+                TravelTimeMatrix.UNREACHABLE }, times);
+    }
+
+    @Test
+    public void testMaxPairs() throws Exception {
+        TravelTimeMatrix matrix = new TravelTimeMatrix();
+        matrix.setMaxPairs(6);
+        matrix.checkSize(2, 3);
+        matrix.checkSize(6, 1);
+        try {
+            matrix.checkSize(7, 1);
+            fail("7 pairs should be too many");
+        } catch (IllegalArgumentException e) {
+        }
+        // the product must not overflow
+        matrix.setMaxPairs(Integer.MAX_VALUE);
+        try {
+            matrix.checkSize(100000, 100000);
+            fail("10^10 pairs should be too many");
+        } catch (IllegalArgumentException e) {
+        }
+
+        // the size is checked before any point is linked or searched from
+        matrix.setMaxPairs(0);
+        List<GenericLocation> points = Collections.singletonList(new GenericLocation(0, 0));
+        try {
+            matrix.compute(new RoutingRequest(), points, points, null);
+            fail("1 pair should be too many");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void testRouter() throws Exception {
+        final Graph other = new Graph();
+        TravelTimeMatrix matrix = new TravelTimeMatrix();
+        matrix.setGraphService(new GraphServiceBeanImpl(new Graph()) {
+            @Override
+            public Graph getGraph(String routerId) {
+                return "other".equals(routerId) ? other : getGraph();
+            }
+        });
+        matrix.checkRouter(null);
+        matrix.checkRouter("default");
+
+        // the destinations are linked in the default graph, they cannot be used with another one
+        RoutingRequest options = new RoutingRequest();
+        options.routerId = "other";
+        List<GenericLocation> points = Collections.singletonList(new GenericLocation(0, 0));
+        try {
+            matrix.compute(options, points, points, null);
+            fail("another router should be rejected");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+}
@@ -182,6 +182,14 @@ public abstract class RoutingResource {
     @DefaultValue("-1") @QueryParam("clampInitialWait")
     protected List<Long> clampInitialWait;
 
+    /**
+     * Plan for all departures within this many seconds after the requested time (or arrivals
+     * within this many seconds before it, if arriveBy is set), and return the itineraries that
+     * no other one in the window beats. Only has an effect when planning with RAPTOR.
+     */
+    @DefaultValue("-1") @QueryParam("departureWindow")
+    protected List<Integer> departureWindow;
+
     /**
      * If true, this trip will be reverse-optimized on the fly. Otherwise, reverse-optimization
      * will occur once a trip has been chosen (in Analyst, it will not be done at all).
@@ -350,6 +358,8 @@ public abstract class RoutingResource {
         
         request.setClampInitialWait(get(clampInitialWait, n, request.getClampInitialWait()));
 
+        request.setDepartureWindow(get(departureWindow, n, request.getDepartureWindow()));
+
         request.setReverseOptimizeOnTheFly(get(reverseOptimizeOnTheFly, n, 
                                                request.isReverseOptimizeOnTheFly()));
 
@@ -0,0 +1,44 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (props, at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.model.analyst;
+
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * The origins and destinations of a travel time matrix, for requests too large to fit in the
+ * query string.
+ */
+@XmlRootElement(name="MatrixPoints")
+public class MatrixPoints {
+
+    public List<Point> origins;
+
+    public List<Point> destinations;
+
+    public static class Point {
+        public double lat;
+        public double lon;
+
+        public Point() {
+        }
+
+        public Point(double lat, double lon) {
+            this.lat = lat;
+            this.lon = lon;
+        }
+    }
+
+}
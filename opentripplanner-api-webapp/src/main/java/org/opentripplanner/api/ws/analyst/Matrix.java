@@ -0,0 +1,233 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.ws.analyst;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.opentripplanner.analyst.request.TravelTimeMatrix;
+import org.opentripplanner.analyst.request.TravelTimeMatrix.RowHandler;
+import org.opentripplanner.api.common.RoutingResource;
+import org.opentripplanner.api.model.analyst.MatrixPoints;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.jersey.api.core.InjectParam;
+
+/**
+ * Travel times from a set of origins to a set of destinations, computed with one search per
+ * origin rather than one per pair. Origins and destinations are given as repeated "lat,lon"
+ * parameters, or for larger matrices POSTed as JSON (see {@link MatrixPoints}) or as CSV lines
+ * of the form "origin,lat,lon" or "destination,lat,lon". The other routing parameters apply to
+ * every search and are always given in the query string. Rows are streamed as the searches
+ * finish, so they are not in the order of the origins.
+ * 
+ * In CSV format each line holds the index of the origin followed by the travel time in seconds
+ * to each destination. The binary format starts with the number of destinations as a big-endian
+ * int, followed by the same rows as ints. In both formats -1 means unreachable and -2 means the
+ * point is too far from the street network.
+ */
+@Path("/matrix")
+public class Matrix extends RoutingResource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Matrix.class);
+
+    @InjectParam
+    TravelTimeMatrix matrix;
+
+    @QueryParam("origins") List<String> origins;
+    @QueryParam("destinations") List<String> destinations;
+    @QueryParam("format") @DefaultValue("csv") String format;
+
+    @GET @Produces({ "text/csv", "application/octet-stream" })
+    public Response getMatrix() throws Exception {
+        if (origins == null || destinations == null)
+            return badRequest("origins and destinations are required");
+        return respond(parseLocations(origins), parseLocations(destinations));
+    }
+
+    @POST @Produces({ "text/csv", "application/octet-stream" })
+    @Consumes({ MediaType.APPLICATION_JSON, MediaType.APPLICATION_XML, MediaType.TEXT_XML })
+    public Response postMatrix(MatrixPoints points) throws Exception {
+        if (points == null || points.origins == null || points.destinations == null)
+            return badRequest("origins and destinations are required");
+        return respond(toLocations(points.origins), toLocations(points.destinations));
+    }
+
+    @POST @Produces({ "text/csv", "application/octet-stream" }) @Consumes("text/csv")
+    public Response postMatrixCsv(String body) throws Exception {
+        List<GenericLocation> from = new ArrayList<GenericLocation>();
+        List<GenericLocation> to = new ArrayList<GenericLocation>();
+        parseCsv(body, from, to);
+        return respond(from, to);
+    }
+
+    private Response respond(final List<GenericLocation> from, final List<GenericLocation> to)
+            throws Exception {
+        if (from.isEmpty() || to.isEmpty())
+            return badRequest("origins and destinations are required");
+        final boolean binary;
+        if (format.equals("binary"))
+            binary = true;
+        else if (format.equals("csv"))
+            binary = false;
+        else
+            return badRequest("format must be csv or binary");
+        try {
+            matrix.checkSize(from.size(), to.size());
+        } catch (IllegalArgumentException e) {
+            return badRequest(e.getMessage());
+        }
+        final RoutingRequest prototype = buildRequest(0);
+        try {
+            matrix.checkRouter(prototype.routerId);
+        } catch (IllegalArgumentException e) {
+            return badRequest(e.getMessage());
+        }
+
+        StreamingOutput streamingOutput = new StreamingOutput() {
+            public void write(OutputStream outStream) throws IOException {
+                long t0 = System.currentTimeMillis();
+                if (binary)
+                    writeBinary(prototype, from, to, outStream);
+                else
+                    writeCsv(prototype, from, to, outStream);
+                long t1 = System.currentTimeMillis();
+                LOG.debug("wrote {}x{} matrix in {}msec", from.size(), to.size(), t1 - t0);
+            }
+        };
+        return Response.ok(streamingOutput)
+                .type(binary ? "application/octet-stream" : "text/csv")
+                .build();
+    }
+
+    private static Response badRequest(String message) {
+        return Response.status(Status.BAD_REQUEST).entity(message).build();
+    }
+
+    private static WebApplicationException badInput(String message) {
+        return new WebApplicationException(badRequest(message));
+    }
+
+    static List<GenericLocation> toLocations(List<MatrixPoints.Point> points) {
+        List<GenericLocation> ret = new ArrayList<GenericLocation>(points.size());
+        for (MatrixPoints.Point point : points) {
+            if (point == null)
+                throw badInput("missing point");
+            ret.add(new GenericLocation(point.lat, point.lon));
+        }
+        return ret;
+    }
+
+    /**
+     * Read lines of the form "origin,lat,lon" or "destination,lat,lon" ("o" and "d" also work)
+     * into the from and to lists. Blank lines and lines starting with # are skipped.
+     */
+    static void parseCsv(String body, List<GenericLocation> from, List<GenericLocation> to) {
+        if (body == null)
+            return;
+        int lineNumber = 0;
+        for (String line : body.split("\r?\n")) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] fields = line.split(",");
+            if (fields.length != 3)
+                throw badInput("line " + lineNumber + " is not type,lat,lon: " + line);
+            String type = fields[0].trim().toLowerCase();
+            List<GenericLocation> target;
+            if (type.equals("origin") || type.equals("o"))
+                target = from;
+            else if (type.equals("destination") || type.equals("d"))
+                target = to;
+            else
+                throw badInput("line " + lineNumber + " is neither an origin nor a destination: "
+                        + line);
+            try {
+                target.add(new GenericLocation(Double.parseDouble(fields[1].trim()),
+                        Double.parseDouble(fields[2].trim())));
+            } catch (NumberFormatException e) {
+                throw badInput("line " + lineNumber + " is not type,lat,lon: " + line);
+            }
+        }
+    }
+
+    static List<GenericLocation> parseLocations(List<String> places) {
+        List<GenericLocation> ret = new ArrayList<GenericLocation>(places.size());
+        for (String place : places) {
+            GenericLocation location = GenericLocation.fromOldStyleString(place);
+            if (location.getCoordinate() == null)
+                throw badInput("not a lat,lon pair: " + place);
+            ret.add(location);
+        }
+        return ret;
+    }
+
+    private void writeCsv(RoutingRequest prototype, List<GenericLocation> from,
+            List<GenericLocation> to, OutputStream outStream) throws IOException {
+        final Writer writer = new OutputStreamWriter(new BufferedOutputStream(outStream), "UTF-8");
+        matrix.compute(prototype, from, to, new RowHandler() {
+            @Override
+            public void handleRow(int origin, int[] times) throws IOException {
+                StringBuilder line = new StringBuilder();
+                line.append(origin);
+                for (int t : times)
+                    line.append(',').append(t);
+                line.append('\n');
+                writer.write(line.toString());
+                writer.flush();
+            }
+        });
+        writer.flush();
+    }
+
+    private void writeBinary(RoutingRequest prototype, List<GenericLocation> from,
+            List<GenericLocation> to, OutputStream outStream) throws IOException {
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outStream));
+        out.writeInt(to.size());
+        matrix.compute(prototype, from, to, new RowHandler() {
+            @Override
+            public void handleRow(int origin, int[] times) throws IOException {
+                out.writeInt(origin);
+                for (int t : times)
+                    out.writeInt(t);
+                out.flush();
+            }
+        });
+        out.flush();
+    }
+
+}
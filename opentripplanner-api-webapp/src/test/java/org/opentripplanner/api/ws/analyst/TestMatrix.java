@@ -0,0 +1,83 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.api.ws.analyst;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+import org.opentripplanner.analyst.request.TravelTimeMatrix;
+import org.opentripplanner.api.model.analyst.MatrixPoints;
+import org.opentripplanner.common.model.GenericLocation;
+
+import junit.framework.TestCase;
+
+public class TestMatrix extends TestCase {
+
+    public void testParseCsv() {
+        List<GenericLocation> from = new ArrayList<GenericLocation>();
+        List<GenericLocation> to = new ArrayList<GenericLocation>();
+        Matrix.parseCsv("# type,lat,lon\norigin,45.5,-122.6\r\n\n d , 45.4 , -122.7\n"
+                + "o,45.3,-122.8\n", from, to);
+        assertEquals(2, from.size());
+        assertEquals(1, to.size());
+        assertEquals(45.5, from.get(0).getCoordinate().y, 0.0);
+        assertEquals(-122.6, from.get(0).getCoordinate().x, 0.0);
+        assertEquals(45.3, from.get(1).getCoordinate().y, 0.0);
+        assertEquals(45.4, to.get(0).getCoordinate().y, 0.0);
+        assertEquals(-122.7, to.get(0).getCoordinate().x, 0.0);
+
+        assertBadCsv("origin,45.5\n");
+        assertBadCsv("source,45.5,-122.6\n");
+        assertBadCsv("destination,north,-122.6\n");
+    }
+
+    private void assertBadCsv(String body) {
+        try {
+            Matrix.parseCsv(body, new ArrayList<GenericLocation>(),
+                    new ArrayList<GenericLocation>());
+            fail("should reject " + body);
+        } catch (WebApplicationException e) {
+            assertEquals(400, e.getResponse().getStatus());
+        }
+    }
+
+    public void testJsonPoints() {
+        List<GenericLocation> locations = Matrix.toLocations(Arrays.asList(
+                new MatrixPoints.Point(45.5, -122.6), new MatrixPoints.Point(45.4, -122.7)));
+        assertEquals(2, locations.size());
+        assertEquals(45.4, locations.get(1).getCoordinate().y, 0.0);
+        assertEquals(-122.7, locations.get(1).getCoordinate().x, 0.0);
+    }
+
+    public void testMaxPairs() throws Exception {
+        Matrix resource = new Matrix();
+        resource.format = "csv";
+        resource.matrix = new TravelTimeMatrix();
+        resource.matrix.setMaxPairs(1);
+
+        Response response = resource.postMatrixCsv("o,45.5,-122.6\no,45.4,-122.7\nd,45.3,-122.8\n");
+        assertEquals(400, response.getStatus());
+
+        // a matrix with no origins or no destinations is also rejected
+        response = resource.postMatrixCsv("d,45.3,-122.8\n");
+        assertEquals(400, response.getStatus());
+        response = resource.postMatrix(new MatrixPoints());
+        assertEquals(400, response.getStatus());
+    }
+
+}
@@ -0,0 +1,78 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import lombok.Setter;
+
+import org.opentripplanner.graph_builder.services.GraphBuilder;
+import org.opentripplanner.routing.contraction.ContractionHierarchy;
+import org.opentripplanner.routing.contraction.ContractionHierarchySet;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Graph;
+
+/**
+ * Build contraction hierarchies over the street network, one per mode, for use by the
+ * ContractionHierarchySPTService. This builder should be run after any stage that adds or splits
+ * street edges (including transit stop linking), since the hierarchies refer to the street edges
+ * as they are at this point.
+ */
+public class ContractionHierarchyGraphBuilderImpl implements GraphBuilder {
+
+    /** The modes to build a hierarchy for. */
+    @Setter
+    private List<TraverseMode> modes = Arrays.asList(TraverseMode.WALK, TraverseMode.CAR);
+
+    /** The walking speed of the walk profile, in meters per second. */
+    @Setter
+    private double walkSpeed = new RoutingRequest().getWalkSpeed();
+
+    /** The cycling speed of the bicycle profile, in meters per second. */
+    @Setter
+    private double bikeSpeed = new RoutingRequest().getBikeSpeed();
+
+    public List<String> provides() {
+        return Arrays.asList("contractionHierarchies");
+    }
+
+    public List<String> getPrerequisites() {
+        return Arrays.asList("streets");
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        ContractionHierarchySet hierarchies = graph.getService(ContractionHierarchySet.class);
+        if (hierarchies == null)
+            hierarchies = new ContractionHierarchySet();
+        for (TraverseMode mode : modes) {
+            double speed = mode == TraverseMode.BICYCLE ? bikeSpeed : walkSpeed;
+            hierarchies.put(ContractionHierarchy.build(graph, mode, speed));
+        }
+        graph.putService(ContractionHierarchySet.class, hierarchies);
+    }
+
+    @Override
+    public void checkInputs() {
+        for (TraverseMode mode : modes) {
+            if (mode != TraverseMode.WALK && mode != TraverseMode.BICYCLE
+                    && mode != TraverseMode.CAR)
+                throw new IllegalArgumentException("Cannot build a contraction hierarchy for "
+                        + mode);
+        }
+    }
+}
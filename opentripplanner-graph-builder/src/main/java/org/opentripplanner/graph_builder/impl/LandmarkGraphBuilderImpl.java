@@ -0,0 +1,59 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import lombok.Setter;
+
+import org.opentripplanner.graph_builder.services.GraphBuilder;
+import org.opentripplanner.routing.algorithm.strategies.LandmarkTable;
+import org.opentripplanner.routing.graph.Graph;
+
+/**
+ * Add a landmark table to a graph, which provides lower bounds to the
+ * LandmarkRemainingWeightHeuristic. This builder should be run after all transit and street data,
+ * as well as transit-street links are in place.
+ */
+public class LandmarkGraphBuilderImpl implements GraphBuilder {
+
+    /**
+     * The number of landmarks. Each one makes the heuristic tighter, and costs two floats per
+     * vertex and a few lookups per state.
+     */
+    @Setter
+    private int landmarkCount = 16;
+
+    public List<String> provides() {
+        return Arrays.asList("landmarks");
+    }
+
+    public List<String> getPrerequisites() {
+        return Arrays.asList("linking");
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        graph.putService(LandmarkTable.class, new LandmarkTable(graph, landmarkCount));
+    }
+
+    @Override
+    public void checkInputs() {
+        if (landmarkCount < 1)
+            throw new IllegalArgumentException("At least one landmark is needed.");
+    }
+
+}
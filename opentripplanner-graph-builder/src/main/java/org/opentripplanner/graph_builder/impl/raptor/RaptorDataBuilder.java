@@ -27,6 +27,8 @@ import java.util.Map.Entry;
 import java.util.Random;
 import java.util.TimeZone;
 
+import lombok.Setter;
+
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.Trip;
@@ -62,6 +64,7 @@ import org.opentripplanner.routing.impl.raptor.RaptorRoute;
 import org.opentripplanner.routing.impl.raptor.RaptorState;
 import org.opentripplanner.routing.impl.raptor.RaptorStateSet;
 import org.opentripplanner.routing.impl.raptor.RaptorStop;
+import org.opentripplanner.routing.impl.raptor.RaptorTransfers;
 import org.opentripplanner.routing.impl.raptor.RegionData;
 import org.opentripplanner.routing.impl.raptor.RouteSegmentComparator;
 import org.opentripplanner.routing.services.TransitIndexService;
@@ -92,6 +95,13 @@ public class RaptorDataBuilder implements GraphBuilder {
 
     private int MAX_TRANSFERS = 7;
 
+    /**
+     * The longest walk, in meters, between two stops that is precomputed as a transfer for
+     * RAPTOR. Transfers are not precomputed if this is not positive.
+     */
+    @Setter
+    private double maxTransferDistance = 1000;
+
     @SuppressWarnings("unchecked")
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
         RaptorData data = new RaptorData();
@@ -118,6 +128,7 @@ public class RaptorDataBuilder implements GraphBuilder {
                 int nPatterns = variant.getSegments().size() / nStops;
                 RaptorRoute route = new RaptorRoute(nStops, nPatterns);
                 route.mode = ((PatternHop)variant.getSegments().get(0).hopOut).getMode();
+                route.index = data.routes.size();
                 data.routes.add(route);
 
                 interlines.addAll(variant.getInterlines());
@@ -232,6 +243,9 @@ public class RaptorDataBuilder implements GraphBuilder {
         data.stops = Arrays.copyOfRange(data.stops, 0, data.raptorStopsForStopId.size());
         nTotalStops = data.stops.length;
         // initNearbyStops();
+        if (maxTransferDistance > 0) {
+            initTransfers(data);
+        }
 
         graph.putService(RaptorDataService.class, new RaptorDataService(data));
 
@@ -510,7 +524,9 @@ public class RaptorDataBuilder implements GraphBuilder {
         int[] regionsForVertex = new int[AbstractVertex.getMaxIndex()];
         Arrays.fill(regionsForVertex, -1);
 
-        int nRegions = split(verticesForRegion, regionsForVertex, vertices, 0, true, vertices.size() / N_REGIONS);
+        // small graphs still get regions of at least one vertex
+        int nRegions = split(verticesForRegion, regionsForVertex, vertices, 0, true,
+                Math.max(1, vertices.size() / N_REGIONS));
         RegionData regions = new RegionData(regionsForVertex);
         regions.minTime = new int[nRegions][nRegions];
         regions.routes = new HashSet[nRegions][nRegions];
@@ -802,6 +818,72 @@ public class RaptorDataBuilder implements GraphBuilder {
         return rs;
     }
 
+    /**
+     * Find the walks from each stop to the stops within maxTransferDistance of it, so that RAPTOR
+     * need not search the street graph between rounds.
+     */
+    private void initTransfers(RaptorData data) {
+        final int nTotalStops = data.stops.length;
+
+        RoutingRequest walkOptions = new RoutingRequest(TraverseMode.WALK);
+        walkOptions.setMaxWalkDistance(maxTransferDistance);
+        RaptorTransfers transfers = new RaptorTransfers(nTotalStops, walkOptions.getWalkSpeed(),
+                walkOptions.maxSlope);
+        GenericDijkstra dijkstra = new GenericDijkstra(walkOptions);
+        // the shortest walk to each stop from the current one, reset after each stop
+        final float[] distances = new float[nTotalStops];
+        Arrays.fill(distances, Float.POSITIVE_INFINITY);
+        final int[] times = new int[nTotalStops];
+        Comparator<Integer> byDistance = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Float.compare(distances[a], distances[b]);
+            }
+        };
+        int nTransfers = 0;
+        for (int i = 0; i < nTotalStops; ++i) {
+            if (i % 500 == 0) {
+                log.debug("Precomputing transfers: " + i + " / " + nTotalStops);
+            }
+            RaptorStop stop = data.stops[i];
+            List<Integer> reached = new ArrayList<Integer>();
+            ShortestPathTree spt = dijkstra.getShortestPathTree(new MaxWalkState(
+                    stop.stopVertex, walkOptions));
+            for (State state : spt.getAllStates()) {
+                Vertex vertex = state.getVertex();
+                if (vertex == stop.stopVertex || !(vertex instanceof TransitStop))
+                    continue;
+                RaptorStop other = data.raptorStopsForStopId.get(((TransitStop) vertex)
+                        .getStopId());
+                if (other == null)
+                    continue;
+                final float distance = (float) state.getWalkDistance();
+                if (distances[other.index] == Float.POSITIVE_INFINITY)
+                    reached.add(other.index);
+                if (distance < distances[other.index]) {
+                    distances[other.index] = distance;
+                    times[other.index] = (int) state.getElapsedTime();
+                }
+            }
+            Collections.sort(reached, byDistance);
+            final int nReached = reached.size();
+            transfers.stops[i] = new int[nReached];
+            transfers.distances[i] = new float[nReached];
+            transfers.times[i] = new int[nReached];
+            for (int j = 0; j < nReached; ++j) {
+                int other = reached.get(j);
+                transfers.stops[i][j] = other;
+                transfers.distances[i][j] = distances[other];
+                transfers.times[i][j] = times[other];
+                distances[other] = Float.POSITIVE_INFINITY;
+            }
+            nTransfers += nReached;
+        }
+        data.transfers = transfers;
+        data.reverseTransfers = transfers.reverse();
+        log.info("Precomputed " + nTransfers + " transfers between " + nTotalStops + " stops");
+    }
+
     // this doesn't speed things up
     @SuppressWarnings({ "unchecked", "unused" })
     private void initNearbyStops(RaptorData data) {
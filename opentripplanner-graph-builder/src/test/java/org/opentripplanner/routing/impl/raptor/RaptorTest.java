@@ -0,0 +1,177 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.impl.raptor;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.graph_builder.impl.GtfsGraphBuilderImpl;
+import org.opentripplanner.graph_builder.impl.raptor.RaptorDataBuilder;
+import org.opentripplanner.graph_builder.impl.transit_index.TransitIndexBuilder;
+import org.opentripplanner.graph_builder.model.GtfsBundle;
+import org.opentripplanner.graph_builder.model.GtfsBundles;
+import org.opentripplanner.graph_builder.services.GraphBuilderWithGtfsDao;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+/**
+ * Runs RAPTOR over the transit network of the test agency.
+ */
+public class RaptorTest {
+
+    private Graph graph;
+
+    private long startTime;
+
+    @Before
+    public void setUp() {
+        graph = new Graph();
+
+        GtfsBundle bundle = new GtfsBundle();
+        bundle.setPath(new File("../opentripplanner-routing/src/test/resources/testagency.zip"));
+        GtfsBundles bundles = new GtfsBundles();
+        bundles.setBundles(Arrays.asList(bundle));
+
+        GtfsGraphBuilderImpl gtfsBuilder = new GtfsGraphBuilderImpl();
+        gtfsBuilder.setGtfsBundles(bundles);
+        List<GraphBuilderWithGtfsDao> builders = new ArrayList<GraphBuilderWithGtfsDao>();
+        builders.add(new TransitIndexBuilder());
+        gtfsBuilder.setGtfsGraphBuilders(builders);
+        gtfsBuilder.buildGraph(graph, new HashMap<Class<?>, Object>());
+
+        new RaptorDataBuilder().buildGraph(graph, new HashMap<Class<?>, Object>());
+
+        GregorianCalendar calendar = new GregorianCalendar(2009, 7, 7, 0, 0, 0);
+        calendar.setTimeZone(TimeZone.getTimeZone("America/New_York"));
+        startTime = calendar.getTimeInMillis() / 1000;
+    }
+
+    @Test
+    public void testConcurrentRouteScans() {
+        Raptor sequential = new Raptor();
+
+        Raptor concurrent = new Raptor();
+        concurrent.setParallelism(4);
+        // the test agency has only a few routes, so give every task one
+        concurrent.setMinRoutesPerTask(1);
+
+        int nStates = 0;
+        for (Vertex origin : graph.getVertices()) {
+            if (!(origin instanceof TransitStop))
+                continue;
+            RaptorStateSet expected = sequential.getStateSet(makeRequest(origin));
+            RaptorStateSet actual = concurrent.getStateSet(makeRequest(origin));
+            assertEquals(expected.statesByStop.length, actual.statesByStop.length);
+            for (int stop = 0; stop < expected.statesByStop.length; ++stop) {
+                List<String> expectedSet = paretoSet(expected.statesByStop[stop]);
+                assertEquals("states at stop " + stop + " from " + origin, expectedSet,
+                        paretoSet(actual.statesByStop[stop]));
+                nStates += expectedSet.size();
+            }
+        }
+        assertTrue(nStates > 0);
+    }
+
+    @Test
+    public void testPathsInWindow() {
+        Raptor raptor = new Raptor();
+        // there is no A* fallback here, and the test agency's stops are close together
+        raptor.setShortPathCutoff(0);
+        raptor.setRangeStep(300);
+        Vertex origin = graph.getVertex("agency_A");
+        Vertex target = graph.getVertex("agency_D");
+        int window = 3600;
+
+        RoutingRequest windowOptions = makeRequest(origin, target);
+        List<GraphPath> windowPaths = raptor.getPathsInWindow(windowOptions, window);
+        assertTrue(windowPaths.size() > 1);
+
+        // the same search, as requested through the path service
+        RoutingRequest planOptions = makeRequest(origin, target);
+        planOptions.setDepartureWindow(window);
+        List<GraphPath> planPaths = raptor.getPaths(planOptions);
+        assertEquals(windowPaths.size(), planPaths.size());
+        for (int i = 0; i < windowPaths.size(); i++) {
+            assertEquals(windowPaths.get(i).getStartTime(), planPaths.get(i).getStartTime());
+            assertEquals(windowPaths.get(i).getEndTime(), planPaths.get(i).getEndTime());
+        }
+
+        // each departure on its own, with fresh searches
+        for (long time = startTime; time <= startTime + window; time += 300) {
+            RoutingRequest options = makeRequest(origin, target);
+            options.dateTime = time;
+            List<GraphPath> paths = raptor.getPathsInWindow(options, 0);
+            if (paths.isEmpty())
+                continue;
+            long bestArrival = Long.MAX_VALUE;
+            for (GraphPath path : paths) {
+                bestArrival = Math.min(bestArrival, path.getEndTime());
+            }
+            boolean matched = false;
+            for (GraphPath path : windowPaths) {
+                if (path.getStartTime() >= time && path.getEndTime() <= bestArrival)
+                    matched = true;
+            }
+            assertTrue("no window path departing after " + time + " arrives by " + bestArrival,
+                    matched);
+        }
+    }
+
+    private RoutingRequest makeRequest(Vertex origin, Vertex target) {
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = startTime;
+        options.setMaxWalkDistance(1000);
+        options.setMaxTransfers(4);
+        options.setRoutingContext(graph, origin, target);
+        return options;
+    }
+
+    private RoutingRequest makeRequest(Vertex origin) {
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = startTime;
+        options.setMaxWalkDistance(1000);
+        options.setMaxTransfers(4);
+        options.setRoutingContext(graph, origin, null);
+        return options;
+    }
+
+    /**
+     * The criteria of the states at a stop, in a canonical order.
+     */
+    private List<String> paretoSet(List<RaptorState> states) {
+        List<String> out = new ArrayList<String>();
+        if (states == null)
+            return out;
+        for (RaptorState state : states) {
+            out.add(state.arrivalTime + " " + state.nBoardings + " " + state.walkDistance);
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+}
@@ -0,0 +1,222 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm;
+
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.OTPPriorityQueue;
+import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
+import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
+import org.opentripplanner.routing.core.RoutingContext;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.CompactAdjacency;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.services.SPTService;
+import org.opentripplanner.routing.spt.BasicShortestPathTree;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.util.DateUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Point-to-point A* search that grows one tree from the origin and one from the destination, and
+ * stops when the best path found through a vertex reached by both is provably optimal (the
+ * "symmetric approach": either frontier's minimum key is no lower than the best path weight).
+ * Paths through a vertex reached by both are weighed by joining the two halves, so that the turn
+ * made at that vertex is accounted for.
+ * The reverse tree is searched with a reversed clone of the request, so that Edge.traverse
+ * handles both directions.
+ *
+ * This only applies to non-transit, non-bike-rental searches with a single origin and destination,
+ * where there is a single state per vertex and weights do not depend on time. Other requests (and
+ * requests with a custom termination strategy) are passed on to a GenericAStar.
+ *
+ * The returned tree is the tree grown from the origin (the destination in an arriveBy search),
+ * completed by re-traversing the edges of the other half of the best path, so that getPaths()
+ * returns that path as usual. Only vertices settled by the origin-side search have states in it.
+ */
+public class BidirectionalAStar implements SPTService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BidirectionalAStar.class);
+
+    private static final Edge[] EMPTY_EDGES = new Edge[0];
+
+    private GenericAStar fallback = new GenericAStar();
+
+    /** The search to use for requests that cannot be handled bidirectionally. */
+    public void setFallback(GenericAStar fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public ShortestPathTree getShortestPathTree(RoutingRequest req) {
+        return getShortestPathTree(req, -1, null);
+    }
+
+    @Override
+    public ShortestPathTree getShortestPathTree(RoutingRequest req, double timeoutSeconds) {
+        return getShortestPathTree(req, timeoutSeconds, null);
+    }
+
+    /** @return true if the request can be answered by a bidirectional search. */
+    public static boolean isApplicable(RoutingRequest options) {
+        RoutingContext rctx = options.getRoutingContext();
+        return !options.batch && !options.getModes().isTransit()
+                && !(options.getModes().getWalk() && options.getModes().getBicycle())
+                && rctx.origin != null && rctx.target != null
+                && rctx.intermediateVertices.isEmpty();
+    }
+
+    @Override
+    public ShortestPathTree getShortestPathTree(RoutingRequest options, double relTimeout,
+            SearchTerminationStrategy terminationStrategy) {
+        if (terminationStrategy != null || !isApplicable(options))
+            return fallback.getShortestPathTree(options, relTimeout, terminationStrategy);
+
+        RoutingContext rctx = options.getRoutingContext();
+        long abortTime = DateUtils.absoluteTimeout(relTimeout);
+
+        // the reverse search starts at the target and is guided towards the origin
+        RoutingRequest reverseOptions = options.reversedClone();
+        reverseOptions.setRoutingContext(rctx.graph, rctx.fromVertex, rctx.toVertex);
+
+        int initialSize = rctx.graph.getVertices().size();
+        initialSize = (int) Math.ceil(2 * (Math.sqrt((double) initialSize + 1)));
+        Frontier forward = new Frontier(options, initialSize);
+        Frontier reverse = new Frontier(reverseOptions, initialSize);
+        final CompactAdjacency adjacency = rctx.graph.getCompactAdjacency();
+
+        // weight of the best path found so far, and its states at the meeting vertex
+        double best = Double.POSITIVE_INFINITY;
+        State bestForward = null;
+        State bestReverse = null;
+        int nVisited = 0;
+
+        while (!forward.pq.empty() && !reverse.pq.empty()) {
+            if (abortTime < Long.MAX_VALUE && System.currentTimeMillis() > abortTime) {
+                LOG.warn("Search timeout. origin={} target={}", rctx.origin, rctx.target);
+                return null;
+            }
+            if (Math.max(forward.pq.peek_min_key(), reverse.pq.peek_min_key()) >= best)
+                break;
+
+            // expand the smaller frontier
+            Frontier f = forward.pq.size() <= reverse.pq.size() ? forward : reverse;
+            Frontier other = (f == forward) ? reverse : forward;
+            State u = f.pq.extract_min();
+            if (!f.spt.visit(u))
+                continue;
+            nVisited += 1;
+
+            Vertex u_vertex = u.getVertex();
+            boolean arriveBy = f.options.isArriveBy();
+            Edge[] edges;
+            int firstEdge, lastEdge;
+            if (adjacency != null && adjacency.covers(u_vertex)) {
+                edges = adjacency.getEdges(arriveBy);
+                firstEdge = adjacency.getStart(u_vertex, arriveBy);
+                lastEdge = adjacency.getEnd(u_vertex, arriveBy);
+            } else {
+                edges = (arriveBy ? u_vertex.getIncoming() : u_vertex.getOutgoing())
+                        .toArray(EMPTY_EDGES);
+                firstEdge = 0;
+                lastEdge = edges.length;
+            }
+
+            for (int ei = firstEdge; ei < lastEdge; ei++) {
+                for (State v = edges[ei].traverse(u); v != null; v = v.getNextResult()) {
+                    double remaining_w = arriveBy ? f.heuristic.computeReverseWeight(v, f.target)
+                            : f.heuristic.computeForwardWeight(v, f.target);
+                    if (remaining_w < 0 || Double.isInfinite(remaining_w))
+                        continue;
+                    double estimate = v.getWeight() + remaining_w;
+                    if (estimate > options.maxWeight || !f.spt.add(v))
+                        continue;
+                    f.pq.insert(v, estimate);
+                    State meet = other.spt.getState(v.getVertex());
+                    // the sum of the two weights leaves out the turn at the meeting vertex, so it
+                    // is only a lower bound; the weight of the joined path is the real candidate
+                    if (meet != null && v.getWeight() + meet.getWeight() < best) {
+                        State forwardState = (f == forward) ? v : meet;
+                        State reverseState = (f == forward) ? meet : v;
+                        State joined = join(null, forwardState, reverseState);
+                        if (joined != null && joined.getWeight() < best) {
+                            best = joined.getWeight();
+                            bestForward = forwardState;
+                            bestReverse = reverseState;
+                        }
+                    }
+                }
+            }
+        }
+        LOG.debug("total vertices visited {}", nVisited);
+
+        if (bestForward == null)
+            return forward.spt;
+        if (join(forward.spt, bestForward, bestReverse) == null) {
+            LOG.warn("Could not join forward and reverse searches at {}, searching again.",
+                    bestForward.getVertex());
+            return fallback.getShortestPathTree(options, relTimeout, null);
+        }
+        return forward.spt;
+    }
+
+    /**
+     * Extend the forward state over the edges leading back to the root of the reverse state, so
+     * that turn costs and restrictions where the two meet are applied. If a tree is given, the
+     * resulting states are added to it.
+     *
+     * @return the state at the end of the joined path, or null if one of the edges could not be
+     *         traversed
+     */
+    private static State join(ShortestPathTree spt, State forwardState, State reverseState) {
+        State s = forwardState;
+        for (State r = reverseState; r.getBackState() != null; r = r.getBackState()) {
+            s = r.getBackEdge().traverse(s);
+            if (s == null)
+                return null;
+            if (spt != null)
+                spt.add(s);
+        }
+        return s;
+    }
+
+    /** The tree, queue and heuristic of one direction of the search. */
+    private static class Frontier {
+
+        final RoutingRequest options;
+
+        final Vertex target;
+
+        final RemainingWeightHeuristic heuristic;
+
+        final ShortestPathTree spt;
+
+        final OTPPriorityQueue<State> pq;
+
+        Frontier(RoutingRequest options, int initialSize) {
+            RoutingContext rctx = options.getRoutingContext();
+            this.options = options;
+            this.target = rctx.target;
+            this.heuristic = rctx.remainingWeightHeuristic;
+            this.spt = new BasicShortestPathTree(options);
+            this.pq = BinHeap.FACTORY.create(initialSize);
+            State initialState = new State(options);
+            spt.add(initialState);
+            pq.insert(initialState, heuristic.computeInitialWeight(initialState, target));
+        }
+    }
+
+}
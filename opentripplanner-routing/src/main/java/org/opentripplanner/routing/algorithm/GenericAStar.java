@@ -13,9 +13,12 @@
 
 package org.opentripplanner.routing.algorithm;
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.IndexedBinHeap;
 import org.opentripplanner.common.pqueue.OTPPriorityQueue;
 import org.opentripplanner.common.pqueue.OTPPriorityQueueFactory;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
@@ -25,10 +28,13 @@ import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHe
 import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.graph.CompactAdjacency;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.services.SPTService;
 import org.opentripplanner.routing.spt.BasicShortestPathTree;
+import org.opentripplanner.routing.spt.IndexedShortestPathTree;
 import org.opentripplanner.routing.spt.MultiShortestPathTree;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.routing.spt.ShortestPathTreeFactory;
@@ -45,6 +51,12 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
 
     private static final Logger LOG = LoggerFactory.getLogger(GenericAStar.class);
     private static final MonitoringStore store = MonitoringStoreFactory.getStore();
+    private static final Edge[] EMPTY_EDGES = new Edge[0];
+
+    /* a few indexed queues per thread is plenty, anything beyond that is left to the GC */
+    private static final int MAX_POOLED = 2 * Runtime.getRuntime().availableProcessors();
+
+    private static final List<IndexedBinHeap<State>> queuePool = new ArrayList<IndexedBinHeap<State>>();
 
     private boolean _verbose = false;
 
@@ -56,6 +68,8 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
 
     private TraverseVisitor traverseVisitor;
 
+    private boolean _useIndexedQueue = false;
+
     public void setShortestPathTreeFactory(ShortestPathTreeFactory shortestPathTreeFactory) {
         _shortestPathTreeFactory = shortestPathTreeFactory;
     }
@@ -67,6 +81,17 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
     public void setSearchTerminationStrategy(SearchTerminationStrategy searchTerminationStrategy) {
         _searchTerminationStrategy = searchTerminationStrategy;
     }
+
+    /**
+     * When true, searches that keep a single state per vertex (i.e. street searches without bike
+     * rental) enqueue states in an IndexedBinHeap keyed by vertex, so that an improved state
+     * replaces the queued one by decrease-key instead of being inserted alongside it. The indexed
+     * queue covers the vertex index range of the graph's CompactAdjacency, so it is only used once
+     * the adjacency is frozen; states at vertices outside that range go to the ordinary queue.
+     */
+    public void setUseIndexedQueue(boolean useIndexedQueue) {
+        _useIndexedQueue = useIndexedQueue;
+    }
     
     /**
      * Compute SPT using default timeout and termination strategy.
@@ -87,6 +112,20 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
     /** @return the shortest path, or null if none is found */
     public ShortestPathTree getShortestPathTree(RoutingRequest options, double relTimeout,
             SearchTerminationStrategy terminationStrategy) {
+        return getShortestPathTree(options, relTimeout, terminationStrategy,
+                Collections.singletonList(new State(options)));
+    }
+
+    /**
+     * Compute SPT from several initial states at once, using the default termination strategy
+     * and no timeout. The states must be made with options, see State.shiftStartTime().
+     */
+    public ShortestPathTree getShortestPathTree(RoutingRequest options, List<State> initialStates) {
+        return getShortestPathTree(options, -1, _searchTerminationStrategy, initialStates);
+    }
+
+    private ShortestPathTree getShortestPathTree(RoutingRequest options, double relTimeout,
+            SearchTerminationStrategy terminationStrategy, List<State> initialStates) {
 
         RoutingContext rctx = options.getRoutingContext();
         long abortTime = DateUtils.absoluteTimeout(relTimeout);
@@ -100,9 +139,8 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
                 new TrivialRemainingWeightHeuristic() : rctx.remainingWeightHeuristic; 
 
         // heuristic calc could actually be done when states are constructed, inside state
-        State initialState = new State(options);
+        State initialState = initialStates.get(0);
         double initialWeight = heuristic.computeInitialWeight(initialState, rctx.target);
-        spt.add(initialState);
 
         // Priority Queue.
         // NOTE(flamholz): the queue is self-resizing, so we initialize it to have 
@@ -113,8 +151,25 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
         int initialSize = rctx.graph.getVertices().size();
         initialSize = (int) Math.ceil(2 * (Math.sqrt((double) initialSize + 1)));
         OTPPriorityQueue<State> pq = qFactory.create(initialSize);
-        // this would allow continuing a search from an existing state
-        pq.insert(initialState, initialWeight);
+        // this allows continuing a search from existing states
+        for (State state : initialStates) {
+            if (!spt.add(state))
+                continue;
+            if (state == initialState)
+                pq.insert(state, initialWeight);
+            else
+                pq.insert(state, state.getWeight() + heuristic.computeForwardWeight(state, rctx.target));
+        }
+        // iterate over frozen edge arrays rather than the vertex edge sets where possible
+        final boolean arriveBy = options.isArriveBy();
+        final CompactAdjacency adjacency = rctx.graph.getCompactAdjacency();
+
+        // Best states by vertex, for single-criterion searches. Any extra states that the tree
+        // accepts (because of turn restrictions) still go through pq.
+        IndexedBinHeap<State> ipq = null;
+        if (_useIndexedQueue && adjacency != null && (spt instanceof BasicShortestPathTree
+                || spt instanceof IndexedShortestPathTree))
+            ipq = acquireIndexedQueue(initialSize, adjacency.getVertexSlots());
 
 //        options = options.clone();
 //        /** max walk distance cannot be less than distances to nearest transit stops */
@@ -125,9 +180,9 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
         int nVisited = 0;
 
         /* the core of the A* algorithm */
-        while (!pq.empty()) { // Until the priority queue is empty:
+        while (!pq.empty() || ipq != null && !ipq.empty()) { // Until the priority queue is empty:
             if (_verbose) {
-                double w = pq.peek_min_key();
+                double w = ipq == null || ipq.empty() ? pq.peek_min_key() : ipq.peek_min_key();
                 System.out.println("pq min key = " + w);
             }
 
@@ -140,11 +195,12 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
                 // This is distinct from the empty list of paths which implies that a result may still
                 // be found by retrying with altered options (e.g. max walk distance)
                 storeMemory();
+                releaseIndexedQueue(ipq);
                 return null; // throw timeout exception
             }
 
             // get the lowest-weight state in the queue
-            State u = pq.extract_min();
+            State u = extractMin(pq, ipq);
             // check that this state has not been dominated
             // and mark vertex as visited
             if (!spt.visit(u)) {
@@ -176,14 +232,28 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
             } else if (!options.batch && u_vertex == rctx.target && u.isFinal() && u.allPathParsersAccept()) {
                 LOG.debug("total vertices visited {}", nVisited);
                 storeMemory();
+                releaseIndexedQueue(ipq);
                 return spt;
             }
 
-            Collection<Edge> edges = options.isArriveBy() ? u_vertex.getIncoming() : u_vertex.getOutgoing();
+            Edge[] edges;
+            int firstEdge, lastEdge;
+            if (adjacency != null && adjacency.covers(u_vertex)) {
+                edges = adjacency.getEdges(arriveBy);
+                firstEdge = adjacency.getStart(u_vertex, arriveBy);
+                lastEdge = adjacency.getEnd(u_vertex, arriveBy);
+            } else {
+                // temporary vertex, or temporary edges attached since the adjacency was frozen
+                edges = (arriveBy ? u_vertex.getIncoming() : u_vertex.getOutgoing())
+                        .toArray(EMPTY_EDGES);
+                firstEdge = 0;
+                lastEdge = edges.length;
+            }
 
             nVisited += 1;
 
-            for (Edge edge : edges) {
+            for (int ei = firstEdge; ei < lastEdge; ei++) {
+                Edge edge = edges[ei];
 
                 // Iterate over traversal results. When an edge leads nowhere (as indicated by
                 // returning NULL), the iteration is over.
@@ -232,16 +302,42 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
                         if (spt.add(v)) {
                             if (traverseVisitor != null)
                                 traverseVisitor.visitEnqueue(v);
-                            pq.insert(v, estimate);
+                            if (ipq != null && spt.getState(v.getVertex()) == v)
+                                enqueueBest(ipq, pq, adjacency, v, estimate, arriveBy);
+                            else
+                                pq.insert(v, estimate);
                         } 
                     }
                 }
             }
         }
         storeMemory();
+        releaseIndexedQueue(ipq);
         return spt;
     }
 
+    private static IndexedBinHeap<State> acquireIndexedQueue(int capacity, int nIds) {
+        IndexedBinHeap<State> ipq = null;
+        synchronized (queuePool) {
+            if (!queuePool.isEmpty())
+                ipq = queuePool.remove(queuePool.size() - 1);
+        }
+        if (ipq == null)
+            return new IndexedBinHeap<State>(capacity, nIds);
+        ipq.setIdRange(nIds);
+        return ipq;
+    }
+
+    private static void releaseIndexedQueue(IndexedBinHeap<State> ipq) {
+        if (ipq == null)
+            return;
+        ipq.reset();
+        synchronized (queuePool) {
+            if (queuePool.size() < MAX_POOLED)
+                queuePool.add(ipq);
+        }
+    }
+
     private void storeMemory() {
         if (store.isMonitoring("memoryUsed")) {
             System.gc();
@@ -262,6 +358,44 @@ public class GenericAStar implements SPTService { // maybe this should be wrappe
         }
     }
 
+    private static State extractMin(OTPPriorityQueue<State> pq, IndexedBinHeap<State> ipq) {
+        if (ipq == null || ipq.empty())
+            return pq.extract_min();
+        if (pq.empty() || ipq.peek_min_key() <= pq.peek_min_key())
+            return ipq.extract_min();
+        return pq.extract_min();
+    }
+
+    /**
+     * Queue the new best state at a vertex, replacing the one already queued there. The replaced
+     * state is kept (in the ordinary queue) only where turn restrictions could make the tree
+     * accept it again when it is visited, as it would have been without decrease-key. The queue
+     * is keyed by adjacency slot; vertices that the adjacency does not know go to pq.
+     */
+    private static void enqueueBest(IndexedBinHeap<State> ipq, OTPPriorityQueue<State> pq,
+            CompactAdjacency adjacency, State v, double estimate, boolean arriveBy) {
+        Vertex vertex = v.getVertex();
+        if (adjacency.getVertex(vertex.getIndex()) != vertex) {
+            // created after the adjacency was frozen, or reusing the index of such a vertex
+            pq.insert(v, estimate);
+            return;
+        }
+        int id = vertex.getIndex() - adjacency.getBaseIndex();
+        State displaced = ipq.get(id);
+        if (displaced != null && hasTurnRestrictions(vertex, arriveBy))
+            pq.insert(displaced, ipq.key(id));
+        ipq.insert_or_rekey(id, v, estimate);
+    }
+
+    /* true if a state at this vertex could have arrived over an edge with turn restrictions */
+    private static boolean hasTurnRestrictions(Vertex vertex, boolean arriveBy) {
+        for (Edge e : arriveBy ? vertex.getOutgoing() : vertex.getIncoming()) {
+            if (e instanceof PlainStreetEdge && ((PlainStreetEdge) e).hasExplicitTurnRestrictions())
+                return true;
+        }
+        return false;
+    }
+
     private boolean isWorstTimeExceeded(State v, RoutingRequest opt) {
         if (opt.isArriveBy())
             return v.getTime() < opt.worstTime;
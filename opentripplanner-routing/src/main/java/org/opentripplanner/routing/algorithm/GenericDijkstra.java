@@ -145,9 +145,12 @@ public class GenericDijkstra {
     }
 
     protected ShortestPathTree createShortestPathTree(RoutingRequest options) {
+        ShortestPathTree spt = null;
         if (_shortestPathTreeFactory != null)
-            return _shortestPathTreeFactory.create(options);
-        return new BasicShortestPathTree(options);
+            spt = _shortestPathTreeFactory.create(options);
+        if (spt == null)
+            spt = new BasicShortestPathTree(options);
+        return spt;
     }
 
     public void setHeuristic(RemainingWeightHeuristic heuristic) {
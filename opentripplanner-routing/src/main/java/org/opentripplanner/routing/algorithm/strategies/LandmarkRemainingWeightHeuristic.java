@@ -0,0 +1,122 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+
+/**
+ * An A* heuristic based on the triangle inequality with the landmarks of a LandmarkTable (ALT).
+ * All the work is done when the graph is built; per state it only costs a few table lookups per
+ * landmark.
+ *
+ * A target that is not in the table (e.g. a temporary StreetLocation) is replaced by the nearby
+ * table vertices it can be reached from, and the bound is the smallest bound to any of them.
+ * States at vertices that are not in the table, and all states if no such table vertices are
+ * found nearby, get a zero estimate.
+ */
+public class LandmarkRemainingWeightHeuristic implements RemainingWeightHeuristic {
+
+    private static final long serialVersionUID = 1L;
+
+    /* how many temporary vertices to explore around the target to find table vertices */
+    private static final int MAX_TARGET_SEARCH = 50;
+
+    private LandmarkTable table;
+
+    private Vertex target;
+
+    private int[] targetSlots;
+
+    public LandmarkRemainingWeightHeuristic(LandmarkTable table) {
+        this.table = table;
+    }
+
+    @Override
+    public double computeInitialWeight(State s, Vertex target) {
+        if (target != this.target) {
+            this.target = target;
+            this.targetSlots = findTargetSlots(target, s.getOptions().isArriveBy());
+        }
+        return s.getOptions().isArriveBy() ? computeReverseWeight(s, target)
+                : computeForwardWeight(s, target);
+    }
+
+    @Override
+    public double computeForwardWeight(State s, Vertex target) {
+        int slot = table.getSlot(s.getVertex());
+        if (slot < 0)
+            return 0;
+        double w = Double.POSITIVE_INFINITY;
+        for (int t : targetSlots)
+            w = Math.min(w, table.lowerBound(slot, t));
+        return w == Double.POSITIVE_INFINITY ? 0 : w;
+    }
+
+    @Override
+    public double computeReverseWeight(State s, Vertex target) {
+        // an arriveBy search needs a bound on the weight from the target to the state's vertex
+        int slot = table.getSlot(s.getVertex());
+        if (slot < 0)
+            return 0;
+        double w = Double.POSITIVE_INFINITY;
+        for (int t : targetSlots)
+            w = Math.min(w, table.lowerBound(t, slot));
+        return w == Double.POSITIVE_INFINITY ? 0 : w;
+    }
+
+    /*
+     * The table vertices from which the target can be reached (or, for an arriveBy search, which
+     * can be reached from the target), looking through temporary vertices.
+     */
+    private int[] findTargetSlots(Vertex target, boolean arriveBy) {
+        List<Integer> slots = new ArrayList<Integer>();
+        Set<Vertex> seen = new HashSet<Vertex>();
+        List<Vertex> queue = new ArrayList<Vertex>();
+        queue.add(target);
+        seen.add(target);
+        for (int i = 0; i < queue.size(); i++) {
+            if (i == MAX_TARGET_SEARCH)
+                // some paths to the target were not followed back to the table
+                return new int[0];
+            Vertex v = queue.get(i);
+            int slot = table.getSlot(v);
+            if (slot >= 0) {
+                slots.add(slot);
+                continue;
+            }
+            for (Edge e : arriveBy ? v.getOutgoing() : v.getIncoming()) {
+                Vertex u = arriveBy ? e.getToVertex() : e.getFromVertex();
+                if (seen.add(u))
+                    queue.add(u);
+            }
+        }
+        int[] result = new int[slots.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = slots.get(i);
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        target = null;
+    }
+
+}
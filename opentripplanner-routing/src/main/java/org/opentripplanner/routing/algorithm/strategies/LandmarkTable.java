@@ -0,0 +1,173 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.routing.core.LowerBoundGraph;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lower-bound path weights from a few landmark vertices to every vertex in a graph, and from every
+ * vertex back to the landmarks, for the LandmarkRemainingWeightHeuristic. The weights are those of
+ * the LowerBoundGraph, i.e. of optimistic traversals with the default request options.
+ *
+ * Vertex indices are reassigned when a graph is loaded, so the table keeps its own array of
+ * vertices and rebuilds the index lookup on first use.
+ */
+public class LandmarkTable implements Serializable {
+
+    private static final long serialVersionUID = MavenVersion.VERSION.getUID();
+
+    private static final Logger LOG = LoggerFactory.getLogger(LandmarkTable.class);
+
+    private Vertex[] landmarks;
+
+    private Vertex[] vertices;
+
+    /* weight from landmark l to vertices[i] is at fromLandmark[i * landmarks.length + l] */
+    private float[] fromLandmark;
+
+    /* weight from vertices[i] to landmark l is at toLandmark[i * landmarks.length + l] */
+    private float[] toLandmark;
+
+    /** The walk speed the lower bounds were computed with. */
+    private double walkSpeed;
+
+    /** The walk reluctance the lower bounds were computed with. */
+    private double walkReluctance;
+
+    private transient int[] slots;
+
+    /**
+     * Choose landmarks on the edge of the graph, each as far as possible from those already
+     * chosen, and compute the weight tables for them.
+     */
+    public LandmarkTable(Graph graph, int nLandmarks) {
+        RoutingRequest options = new RoutingRequest();
+        walkSpeed = options.getWalkSpeed();
+        walkReluctance = options.walkReluctance;
+        LowerBoundGraph outgoing = new LowerBoundGraph(graph, LowerBoundGraph.OUTGOING);
+        LowerBoundGraph incoming = new LowerBoundGraph(graph, LowerBoundGraph.INCOMING);
+
+        vertices = graph.getVertices().toArray(new Vertex[0]);
+        List<Vertex> chosen = new ArrayList<Vertex>();
+        while (chosen.size() < nLandmarks && vertices.length > 0) {
+            // start from the vertex farthest from an arbitrary one rather than a random index
+            Vertex landmark = outgoing.farthestFrom(chosen.isEmpty() ? Arrays
+                    .asList(vertices[0]) : chosen);
+            if (landmark == null || chosen.contains(landmark))
+                break;
+            chosen.add(landmark);
+        }
+        landmarks = chosen.toArray(new Vertex[chosen.size()]);
+        int n = landmarks.length;
+        fromLandmark = new float[vertices.length * n];
+        toLandmark = new float[vertices.length * n];
+        for (int l = 0; l < n; l++) {
+            LOG.info("Computing weights for landmark {} of {}: {}", new Object[] { l + 1, n,
+                    landmarks[l] });
+            double[] from = outgoing.sssp(landmarks[l]);
+            double[] to = incoming.sssp(landmarks[l]);
+            for (int i = 0; i < vertices.length; i++) {
+                int index = vertices[i].getIndex();
+                fromLandmark[i * n + l] = (float) from[index];
+                toLandmark[i * n + l] = (float) to[index];
+            }
+        }
+    }
+
+    public int getLandmarkCount() {
+        return landmarks.length;
+    }
+
+    public Vertex getLandmark(int l) {
+        return landmarks[l];
+    }
+
+    public double getWalkSpeed() {
+        return walkSpeed;
+    }
+
+    public double getWalkReluctance() {
+        return walkReluctance;
+    }
+
+    /**
+     * The tables are lower bounds for a request if it does not use any mode faster than walking
+     * beside transit, and weighs walking at least as heavily as the options they were computed
+     * with.
+     */
+    public boolean isAdmissible(RoutingRequest options) {
+        return !options.getModes().getCar() && !options.getModes().getBicycle()
+                && options.getWalkSpeed() <= walkSpeed
+                && options.walkReluctance >= walkReluctance;
+    }
+
+    /** @return the position of a vertex in the tables, or -1 if it is not in them */
+    public int getSlot(Vertex v) {
+        int[] slots = this.slots;
+        if (slots == null)
+            slots = indexSlots();
+        int index = v.getIndex();
+        if (index >= slots.length)
+            return -1;
+        int slot = slots[index];
+        return slot >= 0 && vertices[slot] == v ? slot : -1;
+    }
+
+    private synchronized int[] indexSlots() {
+        if (slots == null) {
+            int maxIndex = 0;
+            for (Vertex v : vertices)
+                maxIndex = Math.max(maxIndex, v.getIndex());
+            int[] s = new int[maxIndex + 1];
+            Arrays.fill(s, -1);
+            for (int i = 0; i < vertices.length; i++)
+                s[vertices[i].getIndex()] = i;
+            slots = s;
+        }
+        return slots;
+    }
+
+    /**
+     * @return a lower bound on the weight of a path from the vertex in slot a to the vertex in
+     *         slot b, using the triangle inequality with every landmark
+     */
+    public double lowerBound(int a, int b) {
+        int n = landmarks.length;
+        int ai = a * n, bi = b * n;
+        double bound = 0;
+        for (int l = 0; l < n; l++) {
+            // d(L, b) <= d(L, a) + d(a, b)
+            float fa = fromLandmark[ai + l], fb = fromLandmark[bi + l];
+            if (fa != Float.POSITIVE_INFINITY && fb != Float.POSITIVE_INFINITY && fb - fa > bound)
+                bound = fb - fa;
+            // d(a, L) <= d(a, b) + d(b, L)
+            float ta = toLandmark[ai + l], tb = toLandmark[bi + l];
+            if (ta != Float.POSITIVE_INFINITY && tb != Float.POSITIVE_INFINITY && ta - tb > bound)
+                bound = ta - tb;
+        }
+        return bound;
+    }
+
+}
@@ -0,0 +1,469 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.IndexedBinHeap;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.FreeEdge;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+
+/**
+ * A contraction hierarchy over the street network for one fixed profile: a travel mode and, for
+ * walking and cycling, a speed, with the default values of all other request parameters. Edge
+ * weights are those a request with this profile gives each street edge on its own, which includes
+ * reluctances, stairs and slopes. Turns are not part of the hierarchy: the turn costs and
+ * restrictions of the profile are only applied when a route found here is re-traversed with the
+ * real request (see ContractionHierarchySPTService). Requests with other parameters cannot be
+ * answered from the hierarchy; see matches().
+ *
+ * Each street vertex is a node with a rank (its position in the contraction order). Arcs are the
+ * original street edges plus shortcuts, each shortcut standing for two consecutive arcs through a
+ * lower-ranked node. Queries are bidirectional Dijkstra searches that only ever move to
+ * higher-ranked nodes, forward from the origin and backward from the destination.
+ *
+ * The hierarchy refers to vertices and edges of the graph it was built from, and must be rebuilt if
+ * street edges are added, removed or split afterward.
+ */
+public class ContractionHierarchy implements Serializable {
+
+    private static final long serialVersionUID = MavenVersion.VERSION.getUID();
+
+    /* temporary vertices around the endpoints of a query are explored up to this many vertices */
+    private static final int MAX_LOCAL_VERTICES = 100;
+
+    private final TraverseMode mode;
+
+    private final double speed;
+
+    /* node data, indexed by node number */
+    final Vertex[] vertices;
+
+    final int[] rank;
+
+    /* arc data, indexed by arc number; original arcs have an edge, shortcuts two child arcs */
+    final int[] arcFrom;
+
+    final int[] arcTo;
+
+    final double[] arcWeight;
+
+    final Edge[] arcEdge;
+
+    final int[] arcFirst;
+
+    final int[] arcSecond;
+
+    /* arcs to higher-ranked nodes, by tail node, in CSR layout */
+    private final int[] upStart;
+
+    private final int[] upArcs;
+
+    /* arcs from higher-ranked nodes, by head node, in CSR layout */
+    private final int[] downStart;
+
+    private final int[] downArcs;
+
+    /* the request the edge weights are computed with */
+    private transient RoutingRequest profile;
+
+    private transient Map<Vertex, Integer> nodes;
+
+    private transient ThreadLocal<QueryState> queryStates;
+
+    ContractionHierarchy(TraverseMode mode, double speed, Vertex[] vertices, int[] rank,
+            int nArcs, int[] arcFrom, int[] arcTo, double[] arcWeight, Edge[] arcEdge,
+            int[] arcFirst, int[] arcSecond) {
+        this.mode = mode;
+        this.speed = speed;
+        this.vertices = vertices;
+        this.rank = rank;
+        this.arcFrom = Arrays.copyOf(arcFrom, nArcs);
+        this.arcTo = Arrays.copyOf(arcTo, nArcs);
+        this.arcWeight = Arrays.copyOf(arcWeight, nArcs);
+        this.arcEdge = Arrays.copyOf(arcEdge, nArcs);
+        this.arcFirst = Arrays.copyOf(arcFirst, nArcs);
+        this.arcSecond = Arrays.copyOf(arcSecond, nArcs);
+        int n = vertices.length;
+        upStart = new int[n + 1];
+        downStart = new int[n + 1];
+        for (int a = 0; a < nArcs; a++) {
+            if (rank[arcTo[a]] > rank[arcFrom[a]])
+                upStart[arcFrom[a] + 1]++;
+            else
+                downStart[arcTo[a] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            upStart[i + 1] += upStart[i];
+            downStart[i + 1] += downStart[i];
+        }
+        upArcs = new int[upStart[n]];
+        downArcs = new int[downStart[n]];
+        int[] upFill = Arrays.copyOf(upStart, n);
+        int[] downFill = Arrays.copyOf(downStart, n);
+        for (int a = 0; a < nArcs; a++) {
+            if (rank[arcTo[a]] > rank[arcFrom[a]])
+                upArcs[upFill[arcFrom[a]]++] = a;
+            else
+                downArcs[downFill[arcTo[a]]++] = a;
+        }
+        initTransientFields();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        initTransientFields();
+    }
+
+    private void initTransientFields() {
+        profile = makeProfile(mode, speed);
+        nodes = new IdentityHashMap<Vertex, Integer>(vertices.length);
+        for (int i = 0; i < vertices.length; i++) {
+            nodes.put(vertices[i], i);
+        }
+        queryStates = new ThreadLocal<QueryState>() {
+            @Override
+            protected QueryState initialValue() {
+                return new QueryState(vertices.length);
+            }
+        };
+    }
+
+    /** @return the request whose edge weights a hierarchy for the given mode and speed uses. */
+    static RoutingRequest makeProfile(TraverseMode mode, double speed) {
+        RoutingRequest profile = new RoutingRequest(mode);
+        if (mode == TraverseMode.WALK)
+            profile.setWalkSpeed(speed);
+        else if (mode == TraverseMode.BICYCLE)
+            profile.setBikeSpeed(speed);
+        return profile;
+    }
+
+    /**
+     * Build a contraction hierarchy over the street edges of the given graph that can be used by
+     * the given mode. The speed is ignored when driving.
+     */
+    public static ContractionHierarchy build(Graph graph, TraverseMode mode, double speed) {
+        return new ContractionHierarchyBuilder(graph, mode, speed).build();
+    }
+
+    public TraverseMode getMode() {
+        return mode;
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    public int getNodeCount() {
+        return vertices.length;
+    }
+
+    public int getArcCount() {
+        return arcFrom.length;
+    }
+
+    /** @return true if the vertex is a node of this hierarchy. */
+    public boolean contains(Vertex v) {
+        return nodes.containsKey(v);
+    }
+
+    /**
+     * @return true if routes found in this hierarchy are the shortest (turns aside) for the given
+     *         request, that is, if the request weighs street edges and turns as the profile does.
+     */
+    public boolean matches(RoutingRequest options) {
+        if (options.wheelchairAccessible || options.walkReluctance != profile.walkReluctance
+                || options.stairsReluctance != profile.stairsReluctance)
+            return false;
+        switch (mode) {
+        case WALK:
+            return options.getWalkSpeed() == profile.getWalkSpeed();
+        case BICYCLE:
+            // bicycles are walked where they cannot be ridden
+            return options.optimize == OptimizeType.QUICK
+                    && options.getBikeSpeed() == profile.getBikeSpeed()
+                    && options.getWalkSpeed() == profile.getWalkSpeed();
+        case CAR:
+            return options.driveOnRight == profile.driveOnRight
+                    && options.carAccelerationSpeed == profile.carAccelerationSpeed
+                    && options.carDecelerationSpeed == profile.carDecelerationSpeed;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * @return the profile weight of traversing the given edge, or -1 if it cannot be traversed in
+     *         this profile. Free edges (as created around temporary vertices) have no weight.
+     */
+    public double weight(Edge e) {
+        return weight(e, profile);
+    }
+
+    static double weight(Edge e, RoutingRequest profile) {
+        if (e instanceof FreeEdge)
+            return 0;
+        if (!(e instanceof PlainStreetEdge))
+            return -1;
+        // a state without a back edge, so that no turn is made onto the edge
+        State s = e.traverse(new State(e.getFromVertex(), profile));
+        return s == null ? -1 : s.getWeight();
+    }
+
+    /**
+     * Find the fastest route between two vertices in this profile. Either endpoint may be a
+     * temporary vertex (e.g. a StreetLocation) connected to the nodes of the hierarchy.
+     *
+     * @return the edges along the route in order, or null if there is none
+     */
+    public List<Edge> route(Vertex from, Vertex to) {
+        if (from == to)
+            return Collections.emptyList();
+        Map<Integer, Seed> sources = findSeeds(from, false, nodes);
+        Map<Integer, Seed> targets = findSeeds(to, true, nodes);
+        if (sources.isEmpty() || targets.isEmpty())
+            return null;
+
+        QueryState q = queryStates.get();
+        try {
+            for (Map.Entry<Integer, Seed> e : sources.entrySet())
+                q.forward.reach(e.getKey(), e.getValue().weight, -1);
+            for (Map.Entry<Integer, Seed> e : targets.entrySet())
+                q.backward.reach(e.getKey(), e.getValue().weight, -1);
+
+            double best = Double.POSITIVE_INFINITY;
+            int meet = -1;
+            // alternate directions, each stops once its queue cannot improve on the best route
+            while (true) {
+                boolean forwardDone = q.forward.queue.empty()
+                        || q.forward.queue.peek_min_key() >= best;
+                boolean backwardDone = q.backward.queue.empty()
+                        || q.backward.queue.peek_min_key() >= best;
+                if (forwardDone && backwardDone)
+                    break;
+                boolean forward = !forwardDone
+                        && (backwardDone || q.forward.queue.size() <= q.backward.queue.size());
+                Search s = forward ? q.forward : q.backward;
+                Search other = forward ? q.backward : q.forward;
+                int u = s.queue.peek_min_id();
+                s.queue.extract_min();
+                double du = s.dist[u];
+                if (other.reached(u) && du + other.dist[u] < best) {
+                    best = du + other.dist[u];
+                    meet = u;
+                }
+                int[] start = forward ? upStart : downStart;
+                int[] arcs = forward ? upArcs : downArcs;
+                for (int i = start[u]; i < start[u + 1]; i++) {
+                    int a = arcs[i];
+                    int v = forward ? arcTo[a] : arcFrom[a];
+                    s.relax(v, du + arcWeight[a], a);
+                }
+            }
+            if (meet < 0)
+                return null;
+
+            LinkedList<Edge> route = new LinkedList<Edge>();
+            // backward from the meeting node to the source seed
+            for (int node = meet; q.forward.parent[node] >= 0; node = arcFrom[q.forward.parent[node]])
+                unpack(q.forward.parent[node], route, true);
+            int source = meet;
+            while (q.forward.parent[source] >= 0)
+                source = arcFrom[q.forward.parent[source]];
+            route.addAll(0, sources.get(source).edges);
+            // forward from the meeting node to the target seed
+            int target = meet;
+            while (q.backward.parent[target] >= 0) {
+                int a = q.backward.parent[target];
+                unpack(a, route, false);
+                target = arcTo[a];
+            }
+            route.addAll(targets.get(target).edges);
+            return route;
+        } finally {
+            q.clear();
+        }
+    }
+
+    /* expand an arc into original edges, prepending them to the route or appending them */
+    private void unpack(int arc, LinkedList<Edge> route, boolean prepend) {
+        LinkedList<Integer> stack = new LinkedList<Integer>();
+        List<Edge> edges = new ArrayList<Edge>();
+        stack.push(arc);
+        while (!stack.isEmpty()) {
+            int a = stack.pop();
+            if (arcEdge[a] != null) {
+                edges.add(arcEdge[a]);
+            } else {
+                stack.push(arcSecond[a]);
+                stack.push(arcFirst[a]);
+            }
+        }
+        if (prepend)
+            route.addAll(0, edges);
+        else
+            route.addAll(edges);
+    }
+
+    /**
+     * Find the nodes of the hierarchy nearest to a vertex, searching through temporary vertices
+     * that are not themselves nodes.
+     *
+     * @param incoming search backward along incoming edges (for the destination)
+     * @return for each node reached, the weight and edges between it and the vertex, in travel
+     *         order
+     */
+    private Map<Integer, Seed> findSeeds(Vertex v, boolean incoming, Map<Vertex, Integer> nodes) {
+        Map<Integer, Seed> seeds = new HashMap<Integer, Seed>();
+        Integer node = nodes.get(v);
+        if (node != null) {
+            seeds.put(node, new Seed(0, Collections.<Edge> emptyList()));
+            return seeds;
+        }
+        Map<Vertex, Seed> settled = new IdentityHashMap<Vertex, Seed>();
+        Map<Vertex, Seed> best = new IdentityHashMap<Vertex, Seed>();
+        BinHeap<Vertex> queue = new BinHeap<Vertex>();
+        best.put(v, new Seed(0, Collections.<Edge> emptyList()));
+        queue.insert(v, 0);
+        while (!queue.empty() && settled.size() < MAX_LOCAL_VERTICES) {
+            Vertex u = queue.extract_min();
+            if (settled.containsKey(u))
+                continue;
+            Seed su = best.get(u);
+            settled.put(u, su);
+            node = nodes.get(u);
+            if (node != null) {
+                seeds.put(node, su);
+                continue;
+            }
+            for (Edge e : incoming ? u.getIncoming() : u.getOutgoing()) {
+                double w = weight(e);
+                if (w < 0)
+                    continue;
+                Vertex next = incoming ? e.getFromVertex() : e.getToVertex();
+                Seed old = best.get(next);
+                if (old == null || su.weight + w < old.weight) {
+                    List<Edge> edges = new ArrayList<Edge>(su.edges.size() + 1);
+                    if (incoming) {
+                        edges.add(e);
+                        edges.addAll(su.edges);
+                    } else {
+                        edges.addAll(su.edges);
+                        edges.add(e);
+                    }
+                    best.put(next, new Seed(su.weight + w, edges));
+                    queue.insert(next, su.weight + w);
+                }
+            }
+        }
+        return seeds;
+    }
+
+    private static class Seed {
+
+        final double weight;
+
+        final List<Edge> edges;
+
+        Seed(double weight, List<Edge> edges) {
+            this.weight = weight;
+            this.edges = edges;
+        }
+    }
+
+    /** Per-node search labels for one direction, cleared after each query in O(touched). */
+    private static class Search {
+
+        final double[] dist;
+
+        final int[] parent;
+
+        final IndexedBinHeap<Object> queue = new IndexedBinHeap<Object>();
+
+        int[] touched = new int[64];
+
+        int nTouched = 0;
+
+        Search(int n) {
+            dist = new double[n];
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+            parent = new int[n];
+        }
+
+        boolean reached(int node) {
+            return dist[node] < Double.POSITIVE_INFINITY;
+        }
+
+        void reach(int node, double d, int arc) {
+            if (!reached(node)) {
+                if (nTouched == touched.length)
+                    touched = Arrays.copyOf(touched, touched.length * 2);
+                touched[nTouched++] = node;
+            }
+            dist[node] = d;
+            parent[node] = arc;
+            queue.insert_or_rekey(node, null, d);
+        }
+
+        void relax(int node, double d, int arc) {
+            if (d < dist[node])
+                reach(node, d, arc);
+        }
+
+        void clear() {
+            for (int i = 0; i < nTouched; i++)
+                dist[touched[i]] = Double.POSITIVE_INFINITY;
+            nTouched = 0;
+            queue.reset();
+        }
+    }
+
+    private static class QueryState {
+
+        final Search forward;
+
+        final Search backward;
+
+        QueryState(int n) {
+            forward = new Search(n);
+            backward = new Search(n);
+        }
+
+        void clear() {
+            forward.clear();
+            backward.clear();
+        }
+    }
+
+}
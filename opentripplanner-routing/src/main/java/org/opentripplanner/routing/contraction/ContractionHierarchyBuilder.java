@@ -0,0 +1,305 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opentripplanner.common.pqueue.IndexedBinHeap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Contracts the street vertices of a graph one at a time, in order of increasing importance, adding
+ * a shortcut between two neighbors of the contracted vertex wherever the path through it is the
+ * only shortest path between them. Whether another path (a witness) exists is checked with a local
+ * Dijkstra search that settles a limited number of vertices; an unnecessary shortcut is harmless.
+ *
+ * Importance is estimated by the edge difference (shortcuts added minus arcs removed) plus the
+ * number of neighbors already contracted, and updated lazily as vertices are taken off the queue.
+ */
+class ContractionHierarchyBuilder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchyBuilder.class);
+
+    private static final int MAX_WITNESS_SETTLED = 500;
+
+    private final Graph graph;
+
+    private final TraverseMode mode;
+
+    private final double speed;
+
+    private int nNodes;
+
+    private Vertex[] vertices;
+
+    /* arcs */
+    private int nArcs = 0;
+
+    private int[] arcFrom = new int[1024];
+
+    private int[] arcTo = new int[1024];
+
+    private double[] arcWeight = new double[1024];
+
+    private Edge[] arcEdge = new Edge[1024];
+
+    private int[] arcFirst = new int[1024];
+
+    private int[] arcSecond = new int[1024];
+
+    /* arcs of the remaining (not yet contracted) graph */
+    private IntList[] out;
+
+    private IntList[] in;
+
+    private int[] contractedNeighbors;
+
+    /* witness search labels */
+    private double[] dist;
+
+    private IntList touched = new IntList();
+
+    private IndexedBinHeap<Object> witnessQueue = new IndexedBinHeap<Object>();
+
+    ContractionHierarchyBuilder(Graph graph, TraverseMode mode, double speed) {
+        this.graph = graph;
+        this.mode = mode;
+        this.speed = speed;
+    }
+
+    ContractionHierarchy build() {
+        RoutingRequest profile = ContractionHierarchy.makeProfile(mode, speed);
+        Map<Vertex, Integer> nodes = new IdentityHashMap<Vertex, Integer>();
+        List<Vertex> vertexList = new ArrayList<Vertex>();
+        for (Vertex v : graph.getVertices()) {
+            for (Edge e : v.getOutgoing()) {
+                if (!(e instanceof PlainStreetEdge) || e.getToVertex() == v)
+                    continue;
+                double w = ContractionHierarchy.weight(e, profile);
+                if (w < 0)
+                    continue;
+                int from = node(v, nodes, vertexList);
+                int to = node(e.getToVertex(), nodes, vertexList);
+                addArc(from, to, w, e, -1, -1);
+            }
+        }
+        nNodes = vertexList.size();
+        vertices = vertexList.toArray(new Vertex[nNodes]);
+        out = new IntList[nNodes];
+        in = new IntList[nNodes];
+        for (int i = 0; i < nNodes; i++) {
+            out[i] = new IntList();
+            in[i] = new IntList();
+        }
+        for (int a = 0; a < nArcs; a++) {
+            out[arcFrom[a]].add(a);
+            in[arcTo[a]].add(a);
+        }
+        int nOriginal = nArcs;
+        LOG.info("Contracting {} street vertices with {} edges for {}.", nNodes, nOriginal, mode);
+
+        contractedNeighbors = new int[nNodes];
+        dist = new double[nNodes];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        int[] rank = new int[nNodes];
+
+        IndexedBinHeap<Object> queue = new IndexedBinHeap<Object>(nNodes);
+        for (int v = 0; v < nNodes; v++) {
+            queue.insert(v, null, priority(v));
+        }
+        int nContracted = 0;
+        while (!queue.empty()) {
+            int v = queue.peek_min_id();
+            queue.extract_min();
+            // lazy update: contract only if still no more important than the next vertex
+            double p = priority(v);
+            if (!queue.empty() && p > queue.peek_min_key()) {
+                queue.insert(v, null, p);
+                continue;
+            }
+            contract(v, false);
+            rank[v] = nContracted++;
+            if (nContracted % 100000 == 0)
+                LOG.info("Contracted {} vertices, {} shortcuts so far.", nContracted, nArcs
+                        - nOriginal);
+        }
+        LOG.info("Contraction hierarchy for {} has {} nodes and {} shortcuts.", mode, nNodes,
+                nArcs - nOriginal);
+        return new ContractionHierarchy(mode, speed, vertices, rank, nArcs, arcFrom, arcTo,
+                arcWeight, arcEdge, arcFirst, arcSecond);
+    }
+
+    private static int node(Vertex v, Map<Vertex, Integer> nodes, List<Vertex> vertexList) {
+        Integer n = nodes.get(v);
+        if (n == null) {
+            n = vertexList.size();
+            nodes.put(v, n);
+            vertexList.add(v);
+        }
+        return n;
+    }
+
+    private int addArc(int from, int to, double weight, Edge edge, int first, int second) {
+        if (nArcs == arcFrom.length) {
+            int n = nArcs * 2;
+            arcFrom = Arrays.copyOf(arcFrom, n);
+            arcTo = Arrays.copyOf(arcTo, n);
+            arcWeight = Arrays.copyOf(arcWeight, n);
+            arcEdge = Arrays.copyOf(arcEdge, n);
+            arcFirst = Arrays.copyOf(arcFirst, n);
+            arcSecond = Arrays.copyOf(arcSecond, n);
+        }
+        arcFrom[nArcs] = from;
+        arcTo[nArcs] = to;
+        arcWeight[nArcs] = weight;
+        arcEdge[nArcs] = edge;
+        arcFirst[nArcs] = first;
+        arcSecond[nArcs] = second;
+        return nArcs++;
+    }
+
+    private double priority(int v) {
+        int shortcuts = contract(v, true);
+        int removed = in[v].size + out[v].size;
+        return shortcuts - removed + contractedNeighbors[v];
+    }
+
+    /**
+     * Contract a vertex, or only count the shortcuts that contracting it would add.
+     *
+     * @return the number of shortcuts
+     */
+    private int contract(int v, boolean simulate) {
+        int shortcuts = 0;
+        IntList inArcs = in[v];
+        IntList outArcs = out[v];
+        for (int i = 0; i < inArcs.size; i++) {
+            int a = inArcs.values[i];
+            int u = arcFrom[a];
+            double limit = -1;
+            for (int j = 0; j < outArcs.size; j++) {
+                int b = outArcs.values[j];
+                if (arcTo[b] != u)
+                    limit = Math.max(limit, arcWeight[a] + arcWeight[b]);
+            }
+            if (limit < 0)
+                continue;
+            witnessSearch(u, v, limit);
+            for (int j = 0; j < outArcs.size; j++) {
+                int b = outArcs.values[j];
+                int x = arcTo[b];
+                double w = arcWeight[a] + arcWeight[b];
+                if (x == u || dist[x] <= w)
+                    continue;
+                shortcuts++;
+                if (!simulate) {
+                    int s = addArc(u, x, w, null, a, b);
+                    out[u].add(s);
+                    in[x].add(s);
+                    // later witness searches from u may reach x over this shortcut
+                    if (dist[x] == Double.POSITIVE_INFINITY)
+                        touched.add(x);
+                    dist[x] = w;
+                }
+            }
+            clearWitnessSearch();
+        }
+        if (!simulate) {
+            for (int i = 0; i < inArcs.size; i++) {
+                int u = arcFrom[inArcs.values[i]];
+                out[u].remove(inArcs.values[i]);
+                contractedNeighbors[u]++;
+            }
+            for (int j = 0; j < outArcs.size; j++) {
+                int x = arcTo[outArcs.values[j]];
+                in[x].remove(outArcs.values[j]);
+                contractedNeighbors[x]++;
+            }
+            in[v] = null;
+            out[v] = null;
+        }
+        return shortcuts;
+    }
+
+    /* Dijkstra from a source in the remaining graph, avoiding one vertex, up to a weight limit */
+    private void witnessSearch(int source, int avoid, double limit) {
+        dist[source] = 0;
+        touched.add(source);
+        witnessQueue.insert(source, null, 0);
+        int settled = 0;
+        while (!witnessQueue.empty() && settled < MAX_WITNESS_SETTLED) {
+            if (witnessQueue.peek_min_key() > limit)
+                break;
+            int u = witnessQueue.peek_min_id();
+            witnessQueue.extract_min();
+            settled++;
+            IntList arcs = out[u];
+            for (int i = 0; i < arcs.size; i++) {
+                int a = arcs.values[i];
+                int x = arcTo[a];
+                if (x == avoid)
+                    continue;
+                double d = dist[u] + arcWeight[a];
+                if (d < dist[x]) {
+                    if (dist[x] == Double.POSITIVE_INFINITY)
+                        touched.add(x);
+                    dist[x] = d;
+                    witnessQueue.insert_or_rekey(x, null, d);
+                }
+            }
+        }
+    }
+
+    private void clearWitnessSearch() {
+        for (int i = 0; i < touched.size; i++)
+            dist[touched.values[i]] = Double.POSITIVE_INFINITY;
+        touched.size = 0;
+        witnessQueue.reset();
+    }
+
+    /** A minimal growable list of ints. */
+    private static class IntList {
+
+        int[] values = new int[4];
+
+        int size = 0;
+
+        void add(int v) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+
+        void remove(int v) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == v) {
+                    values[i] = values[--size];
+                    return;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import java.util.List;
+import java.util.ListIterator;
+
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
+import org.opentripplanner.routing.core.RoutingContext;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.services.SPTService;
+import org.opentripplanner.routing.spt.BasicShortestPathTree;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Answers single-mode street requests (walk, bicycle or car only) from the graph's contraction
+ * hierarchy for that mode, if there is one and the request weighs the streets as the profile of
+ * the hierarchy does. The route found in the hierarchy is re-traversed with the request's own
+ * options, so that the returned tree holds ordinary states with the request's weights. The tree
+ * only contains the states along that route.
+ *
+ * Other requests, requests with a termination strategy, and routes that cannot be re-traversed
+ * (e.g. because of a turn restriction, which the hierarchy does not model) are passed to a
+ * GenericAStar.
+ */
+public class ContractionHierarchySPTService implements SPTService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchySPTService.class);
+
+    private SPTService fallback = new GenericAStar();
+
+    /** The search to use for requests that cannot be answered from a contraction hierarchy. */
+    public void setFallback(SPTService fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public ShortestPathTree getShortestPathTree(RoutingRequest req) {
+        return getShortestPathTree(req, -1, null);
+    }
+
+    @Override
+    public ShortestPathTree getShortestPathTree(RoutingRequest req, double timeoutSeconds) {
+        return getShortestPathTree(req, timeoutSeconds, null);
+    }
+
+    @Override
+    public ShortestPathTree getShortestPathTree(RoutingRequest options, double relTimeout,
+            SearchTerminationStrategy terminationStrategy) {
+        ContractionHierarchy ch = null;
+        if (terminationStrategy == null)
+            ch = getHierarchy(options);
+        if (ch == null)
+            return fallback.getShortestPathTree(options, relTimeout, terminationStrategy);
+
+        RoutingContext rctx = options.getRoutingContext();
+        List<Edge> route = ch.route(rctx.fromVertex, rctx.toVertex);
+        if (route == null) {
+            LOG.debug("No route in contraction hierarchy from {} to {}.", rctx.fromVertex,
+                    rctx.toVertex);
+            return fallback.getShortestPathTree(options, relTimeout, null);
+        }
+
+        ShortestPathTree spt = new BasicShortestPathTree(options);
+        State s = new State(options);
+        spt.add(s);
+        // an arriveBy search starts at the destination and traverses the route backward
+        ListIterator<Edge> it = route.listIterator(options.isArriveBy() ? route.size() : 0);
+        while (options.isArriveBy() ? it.hasPrevious() : it.hasNext()) {
+            Edge e = options.isArriveBy() ? it.previous() : it.next();
+            s = e.traverse(s);
+            if (s == null) {
+                LOG.debug("Route from contraction hierarchy cannot be traversed at {}.", e);
+                return fallback.getShortestPathTree(options, relTimeout, null);
+            }
+            spt.add(s);
+        }
+        return spt;
+    }
+
+    /** @return the hierarchy that can answer this request, or null */
+    private static ContractionHierarchy getHierarchy(RoutingRequest options) {
+        RoutingContext rctx = options.getRoutingContext();
+        if (options.batch || rctx.fromVertex == null
+                || rctx.toVertex == null || !rctx.intermediateVertices.isEmpty())
+            return null;
+        TraverseModeSet modes = options.getModes();
+        if (modes.isTransit())
+            return null;
+        TraverseMode mode;
+        if (modes.getWalk() && !modes.getBicycle() && !modes.getCar())
+            mode = TraverseMode.WALK;
+        else if (modes.getBicycle() && !modes.getWalk() && !modes.getCar())
+            mode = TraverseMode.BICYCLE;
+        else if (modes.getCar() && !modes.getWalk() && !modes.getBicycle())
+            mode = TraverseMode.CAR;
+        else
+            return null;
+        ContractionHierarchySet hierarchies = rctx.graph.getService(ContractionHierarchySet.class);
+        if (hierarchies == null)
+            return null;
+        ContractionHierarchy ch = hierarchies.get(mode);
+        if (ch == null || !ch.matches(options)) {
+            LOG.debug("No contraction hierarchy for the {} profile of this request.", mode);
+            return null;
+        }
+        return ch;
+    }
+
+}
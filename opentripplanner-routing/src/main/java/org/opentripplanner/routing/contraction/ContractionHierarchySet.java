@@ -0,0 +1,41 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import java.io.Serializable;
+import java.util.EnumMap;
+
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.routing.core.TraverseMode;
+
+/**
+ * Graph service holding the contraction hierarchies built for a graph, at most one per mode.
+ */
+public class ContractionHierarchySet implements Serializable {
+
+    private static final long serialVersionUID = MavenVersion.VERSION.getUID();
+
+    private EnumMap<TraverseMode, ContractionHierarchy> hierarchies =
+            new EnumMap<TraverseMode, ContractionHierarchy>(TraverseMode.class);
+
+    public void put(ContractionHierarchy hierarchy) {
+        hierarchies.put(hierarchy.getMode(), hierarchy);
+    }
+
+    /** @return the hierarchy for the given mode, or null if none was built. */
+    public ContractionHierarchy get(TraverseMode mode) {
+        return hierarchies.get(mode);
+    }
+
+}
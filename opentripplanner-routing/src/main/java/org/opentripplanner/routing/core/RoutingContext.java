@@ -185,7 +185,32 @@ public class RoutingContext implements Cloneable {
     
     
     /* INSTANCE METHODS */
-    
+
+    /**
+     * Make a RoutingContext for another search between the same endpoints, which can run
+     * concurrently with searches using this one. The endpoint vertices, service days and other
+     * read-only data are shared; the heuristic, which is modified during a search, is not. The
+     * path parser array is copied, since callers may replace its elements (see
+     * TransitStartPathService), but the parsers themselves are shared: they are stateless, see
+     * PathParser. The copy must not be destroyed, since the temporary endpoints belong to
+     * this RoutingContext.
+     */
+    public RoutingContext copy(RoutingRequest routingRequest) {
+        RoutingContext ret;
+        try {
+            ret = (RoutingContext) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("This is not happening");
+        }
+        ret.opt = routingRequest;
+        ret.pathParsers = pathParsers.clone(); // shallow, PathParsers are stateless
+        if (routingRequest.batch)
+            ret.remainingWeightHeuristic = new TrivialRemainingWeightHeuristic();
+        else
+            ret.remainingWeightHeuristic = heuristicFactory.getInstanceForSearch(routingRequest);
+        return ret;
+    }
+
     public void check() {
         ArrayList<String> notFound = new ArrayList<String>();
 
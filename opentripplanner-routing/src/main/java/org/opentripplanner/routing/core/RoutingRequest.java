@@ -274,6 +274,13 @@ public class RoutingRequest implements Cloneable, Serializable {
      */
     public long clampInitialWait;
 
+    /**
+     * Plan for all departures within this many seconds after the requested time (arrivals within
+     * this many seconds before it, for arriveBy searches) rather than for that time alone. Only
+     * the RAPTOR path service searches windows; the others ignore this.
+     */
+    public int departureWindow = 0;
+
     /**
      * When true, reverse optimize this search on the fly whenever needed, rather than reverse-optimizing the entire path when it's done.
      */
@@ -781,6 +788,7 @@ public class RoutingRequest implements Cloneable, Serializable {
                 && useBikeRentalAvailabilityInformation == other.useBikeRentalAvailabilityInformation
                 && extensions.equals(other.extensions)
                 && clampInitialWait == other.clampInitialWait
+                && departureWindow == other.departureWindow
                 && reverseOptimizeOnTheFly == other.reverseOptimizeOnTheFly;
     }
 
@@ -802,6 +810,7 @@ public class RoutingRequest implements Cloneable, Serializable {
                 + new Double(triangleTimeFactor).hashCode() * 790052899
                 + new Double(stairsReluctance).hashCode() * 315595321
                 + new Long(clampInitialWait).hashCode() * 209477
+                + departureWindow * 6364141
                 + new Boolean(reverseOptimizeOnTheFly).hashCode() * 95112799;
         if (batch) {
             hashCode *= -1;
@@ -0,0 +1,73 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (props, at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import java.io.Serializable;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.onebusaway.gtfs.services.calendar.CalendarService;
+
+/**
+ * The service ids running on each date covered by the transit feeds, as sets of the numbers
+ * given to them by the ServiceIdToNumberService. ServiceDays are made for every request; this
+ * lets them pick their set by date rather than query the CalendarService. Dates with the same
+ * services, such as all the weekdays of a season, share a set.
+ */
+public class ServiceDateIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final BitSet NO_SERVICE = new BitSet();
+
+    private final Map<ServiceDate, BitSet> servicesRunningByDate = new HashMap<ServiceDate, BitSet>();
+
+    public ServiceDateIndex(CalendarService calendarService, ServiceIdToNumberService serviceNumbers) {
+        for (AgencyAndId serviceId : calendarService.getServiceIds()) {
+            int n = serviceNumbers.getNumber(serviceId);
+            if (n < 0)
+                continue;
+            for (ServiceDate date : calendarService.getServiceDatesForServiceId(serviceId)) {
+                BitSet running = servicesRunningByDate.get(date);
+                if (running == null) {
+                    running = new BitSet();
+                    servicesRunningByDate.put(date, running);
+                }
+                running.set(n);
+            }
+        }
+        // share equal sets
+        Map<BitSet, BitSet> distinct = new HashMap<BitSet, BitSet>();
+        for (Map.Entry<ServiceDate, BitSet> entry : servicesRunningByDate.entrySet()) {
+            BitSet running = distinct.get(entry.getValue());
+            if (running == null) {
+                distinct.put(entry.getValue(), entry.getValue());
+            } else {
+                entry.setValue(running);
+            }
+        }
+    }
+
+    /**
+     * The numbers of the service ids running on the given date. The set is shared and must not be
+     * modified.
+     */
+    public BitSet getServicesRunning(ServiceDate date) {
+        BitSet running = servicesRunningByDate.get(date);
+        return running == null ? NO_SERVICE : running;
+    }
+
+}
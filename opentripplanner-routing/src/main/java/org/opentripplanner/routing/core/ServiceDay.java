@@ -50,6 +50,12 @@ public class ServiceDay implements Serializable {
         ServiceDate sd = new ServiceDate(calendar);
         Date d = sd.getAsDate(timeZone);
         this.midnight = d.getTime() / 1000;
+
+        ServiceDateIndex index = graph.getService(ServiceDateIndex.class);
+        if (index != null) {
+            serviceIdsRunning = index.getServicesRunning(sd);
+            return;
+        }
         serviceIdsRunning = new BitSet(cs.getServiceIds().size());
         
         ServiceIdToNumberService service = graph.getService(ServiceIdToNumberService.class);
@@ -64,6 +64,12 @@ public class State implements Cloneable {
 
     // track the states of all path parsers -- probably changes frequently
     protected int[] pathParserStates;
+
+    // alerts that apply to the back edge; kept here rather than in StateData since they change
+    // with every edge that has alerts, and again with the next one that has none
+    protected Set<Alert> backAlerts;
+
+    private static final int[] NO_PATH_PARSER_STATES = new int[0];
     
     private static final Logger LOG = LoggerFactory.getLogger(State.class);
 
@@ -104,10 +110,14 @@ public class State implements Cloneable {
         this.walkDistance = 0;
         this.time = time;
         if (options.rctx != null) {
-        	this.pathParserStates = new int[options.rctx.pathParsers.length];
-        	Arrays.fill(this.pathParserStates, AutomatonState.START);
+            int nParsers = options.rctx.pathParsers.length;
+            if (nParsers == 0) {
+                this.pathParserStates = NO_PATH_PARSER_STATES;
+            } else {
+                this.pathParserStates = new int[nParsers];
+                Arrays.fill(this.pathParserStates, AutomatonState.START);
+            }
         }
-        stateData.routeSequence = new AgencyAndId[0];
     }
 
     /**
@@ -136,6 +146,12 @@ public class State implements Cloneable {
      * set methods are in StateEditor.
      */
 
+    /* the transit components of this state, with their initial values if none was ever set */
+    private TransitStateData transit() {
+        TransitStateData transit = stateData.transit;
+        return transit == null ? TransitStateData.EMPTY : transit;
+    }
+
     /**
      * Retrieve a State extension based on its key.
      * 
@@ -172,7 +188,7 @@ public class State implements Cloneable {
     }
 
     public TripTimes getTripTimes() {
-        return stateData.tripTimes;
+        return transit().tripTimes;
     }
 
     /** 
@@ -186,7 +202,7 @@ public class State implements Cloneable {
     public long getActiveTime () {
         long clampInitialWait = stateData.opt.clampInitialWait;
 
-        long initialWait = stateData.initialWaitTime;
+        long initialWait = transit().initialWaitTime;
 
         // only subtract up the clamp value
         if (clampInitialWait >= 0 && initialWait > clampInitialWait)
@@ -204,23 +220,23 @@ public class State implements Cloneable {
     }
 
     public AgencyAndId getTripId() {
-        return stateData.tripId;
+        return transit().tripId;
     }
 
     public String getZone() {
-        return stateData.zone;
+        return transit().zone;
     }
 
     public AgencyAndId getRoute() {
-        return stateData.route;
+        return transit().route;
     }
 
     public int getNumBoardings() {
-        return stateData.numBoardings;
+        return transit().numBoardings;
     }
 
     public boolean isAlightedLocal() {
-        return stateData.alightedLocal;
+        return transit().alightedLocal;
     }
 
     /**
@@ -228,7 +244,7 @@ public class State implements Cloneable {
      * transit vehicle
      */
     public boolean isEverBoarded() {
-        return stateData.everBoarded;
+        return transit().everBoarded;
     }
 
     public boolean isBikeRenting() {
@@ -243,11 +259,11 @@ public class State implements Cloneable {
     }
 
     public Vertex getPreviousStop() {
-        return stateData.previousStop;
+        return transit().previousStop;
     }
 
     public long getLastAlightedTime() {
-        return stateData.lastAlightedTime;
+        return transit().lastAlightedTime;
     }
 
     public double getWalkDistance() {
@@ -259,7 +275,7 @@ public class State implements Cloneable {
     }
 
     public int getLastNextArrivalDelta () {
-        return stateData.lastNextArrivalDelta;
+        return transit().lastNextArrivalDelta;
     }
 
     /**
@@ -339,7 +355,7 @@ public class State implements Cloneable {
     }
     
     public Set<Alert> getBackAlerts () {
-        return stateData.notes;
+        return backAlerts;
     }
     
     /**
@@ -350,7 +366,7 @@ public class State implements Cloneable {
         // This can happen when stop_headsign says different things at two trips on the same 
         // pattern and at the same stop.
         if (backEdge instanceof TablePatternEdge) {
-            return stateData.tripTimes.getHeadsign(((TablePatternEdge)backEdge).getStopIndex());
+            return transit().tripTimes.getHeadsign(((TablePatternEdge)backEdge).getStopIndex());
         }
         else {
             return backEdge.getDirection();
@@ -363,7 +379,7 @@ public class State implements Cloneable {
      */
     public Trip getBackTrip () {
         if (backEdge instanceof TablePatternEdge) {
-            return stateData.tripTimes.getTrip();
+            return transit().tripTimes.getTrip();
         }
         else {
             return backEdge.getTrip();
@@ -439,12 +455,37 @@ public class State implements Cloneable {
         return stateData.nonTransitMode;
     }
 
+    /**
+     * Make an initial state for another search with the given options, at this state's vertex and
+     * with its weight and walk distance, as if this state's search had started at startTime. This
+     * lets the result of a time-independent search (e.g. a walk to transit stops) seed searches
+     * at several departure times. The new state has no back state, so no path leads to it. It is
+     * always a plain State, even if this one is of a subclass with rules of its own (e.g. the
+     * walk limit of a MaxWalkState).
+     */
+    public State shiftStartTime(RoutingRequest options, long startTime) {
+        long elapsed = getElapsedTime();
+        State newState = new State(vertex,
+                options.isArriveBy() ? startTime - elapsed : startTime + elapsed, options);
+        newState.weight = weight;
+        newState.walkDistance = walkDistance;
+        newState.pathParserStates = pathParserStates;
+        newState.stateData = stateData.clone();
+        newState.stateData.opt = options;
+        newState.stateData.startTime = startTime;
+        return newState;
+    }
+
     public State reversedClone() {
         // We no longer compensate for schedule slack (minTransferTime) here.
         // It is distributed symmetrically over all preboard and prealight edges.
         State newState = new State(this.vertex, this.time, stateData.opt.reversedClone());
-        newState.stateData.tripTimes = stateData.tripTimes;
-        newState.stateData.initialWaitTime = stateData.initialWaitTime;
+        TransitStateData transit = stateData.transit;
+        if (transit != null) {
+            newState.stateData.transit = new TransitStateData();
+            newState.stateData.transit.tripTimes = transit.tripTimes;
+            newState.stateData.transit.initialWaitTime = transit.initialWaitTime;
+        }
         return newState;
     }
 
@@ -463,8 +504,8 @@ public class State implements Cloneable {
     }
 
     public boolean similarRouteSequence(State that) {
-        AgencyAndId[] rs0 = this.stateData.routeSequence;
-        AgencyAndId[] rs1 = that.stateData.routeSequence;
+        AgencyAndId[] rs0 = this.transit().routeSequence;
+        AgencyAndId[] rs1 = that.transit().routeSequence;
         if (rs0 == rs1)
             return true;
         int n = rs0.length < rs1.length ? rs0.length : rs1.length;
@@ -475,11 +516,11 @@ public class State implements Cloneable {
     }
 
     public double getWalkSinceLastTransit() {
-        return walkDistance - stateData.lastTransitWalk;
+        return walkDistance - transit().lastTransitWalk;
     }
 
     public double getWalkAtLastTransit() {
-        return stateData.lastTransitWalk;
+        return transit().lastTransitWalk;
     }
 
     public boolean multipleOptionsBefore() {
@@ -545,15 +586,17 @@ public class State implements Cloneable {
 	}
 
     public TripPattern getLastPattern() {
-        return stateData.lastPattern;
+        return transit().lastPattern;
     }
 
     public ServiceDay getServiceDay() {
-        return stateData.serviceDay;
+        return transit().serviceDay;
     }
 
     public void setServiceDay(ServiceDay sd) {
-        stateData.serviceDay = sd;
+        if (stateData.transit == null)
+            stateData.transit = new TransitStateData();
+        stateData.transit.serviceDay = sd;
     }
 
     public Set<String> getBikeRentalNetworks() {
@@ -577,7 +620,7 @@ public class State implements Cloneable {
         State orig = this;
         State unoptimized = orig;
         State ret = orig.reversedClone();
-        long newInitialWaitTime = this.stateData.initialWaitTime;
+        long newInitialWaitTime = transit().initialWaitTime;
         PathParser pathParsers[];
 
         // disable path parsing temporarily
@@ -605,7 +648,7 @@ public class State implements Cloneable {
                     ) {
 
                     ret = ((TransitBoardAlight) edge).traverse(ret, orig.getBackState().getTime());
-                    newInitialWaitTime = ret.stateData.initialWaitTime;
+                    newInitialWaitTime = ret.transit().initialWaitTime;
                 }
                 else                   
                     ret = edge.traverse(ret);
@@ -693,13 +736,13 @@ public class State implements Cloneable {
             if (getTime() != reversed.getTime())
                 LOG.warn("Times do not match");
             if (Math.abs(getWeight() - reversed.getWeight()) > 1
-                    && newInitialWaitTime == stateData.initialWaitTime)
+                    && newInitialWaitTime == transit().initialWaitTime)
                 LOG.warn("Weight is changed (before: " + getWeight() + ", after: "
                         + reversed.getWeight() + "), initial wait times " + "constant at "
                         + newInitialWaitTime);
-            if (newInitialWaitTime != reversed.stateData.initialWaitTime)
+            if (newInitialWaitTime != reversed.transit().initialWaitTime)
                 LOG.warn("Initial wait time not propagated: is "
-                        + reversed.stateData.initialWaitTime + ", should be " + newInitialWaitTime);
+                        + reversed.transit().initialWaitTime + ", should be " + newInitialWaitTime);
 
             // copy the path parser states so this path is not thrown out going forward
 //            reversed.pathParserStates = 
@@ -732,13 +775,14 @@ public class State implements Cloneable {
      * @param o The other state to initialize things from.
      */
     private void initializeFieldsFrom (State o) {
-        StateData currentStateData = this.stateData;
+        long initialWaitTime = transit().initialWaitTime;
         
         // easier to clone and copy back, plus more future proof
         this.stateData = o.stateData.clone();
-        this.stateData.initialWaitTime = currentStateData.initialWaitTime;
+        this.stateData.transit = o.transit().clone();
+        this.stateData.transit.initialWaitTime = initialWaitTime;
         // this will get re-set on the next alight (or board in a reverse search)
-        this.stateData.lastNextArrivalDelta = -1;
+        this.stateData.transit.lastNextArrivalDelta = -1;
     }
 
     public boolean getReverseOptimizing () {
@@ -746,6 +790,6 @@ public class State implements Cloneable {
     }
 
     public double getOptimizedElapsedTime() {
-        return getElapsedTime() - stateData.initialWaitTime;
+        return getElapsedTime() - transit().initialWaitTime;
     }
 }
\ No newline at end of file
@@ -16,85 +16,33 @@ package org.opentripplanner.routing.core;
 import java.util.HashMap;
 import java.util.Set;
 
-import org.onebusaway.gtfs.model.AgencyAndId;
-import org.opentripplanner.routing.edgetype.TripPattern;
-import org.opentripplanner.routing.graph.Vertex;
-import org.opentripplanner.routing.trippattern.TripTimes;
-import org.opentripplanner.routing.patch.Alert;
-
 /**
  * StateData contains the components of search state that are unlikely to be changed as often as
  * time or weight. This avoids frequent duplication, which should have a positive impact on both
- * time and space use during searches.
+ * time and space use during searches. Fields that only matter once transit is involved are kept
+ * apart in a TransitStateData, and the alerts of the back edge are kept in the State itself.
  */
 public class StateData implements Cloneable {
 
     // the time at which the search started
     protected long startTime;
 
-    // which trip index inside a pattern
-    protected TripTimes tripTimes;
-
-    protected AgencyAndId tripId;
-
-    protected double lastTransitWalk = 0;
-
-    protected String zone;
-
-    protected AgencyAndId route;
-
-    protected int numBoardings;
-
-    protected boolean alightedLocal;
-
-    protected boolean everBoarded;
-
     protected boolean usingRentedBike;
 
-    protected Vertex previousStop;
-
-    protected long lastAlightedTime;
-
-    protected AgencyAndId[] routeSequence;
-
     protected HashMap<Object, Object> extensions;
 
     protected RoutingRequest opt;
 
-    protected TripPattern lastPattern;
-
-    protected ServiceDay serviceDay;
-
     protected TraverseMode nonTransitMode;
 
-    /** 
-     * This is the wait time at the beginning of the trip (or at the end of the trip for
-     * reverse searches). In Analyst anyhow, this is is subtracted from total trip length of each
-     * final State in lieu of reverse optimization. It is initially set to zero so that it will be
-     * ineffectual on a search that does not ever board a transit vehicle.
-     */
-    protected long initialWaitTime = 0;
-
-    /**
-     * This is the time between the trip that was taken at the previous stop and the next trip
-     * that could have been taken. It is used to determine if a path needs reverse-optimization.
-     */
-    protected int lastNextArrivalDelta;
-    
-    /**
-     * This is a list of notes that should be applied to this state.
-     * This means that we clone StateData before and after a notated edge, but notated edges
-     * are rare enough this likely doesn't matter.
-     * 
-     * @author mattwigway
-     */
-    protected Set<Alert> notes = null;
-    
     /**
      * The mode that was used to traverse the backEdge
      */
     protected TraverseMode backMode;
 
+    /** The transit components of this state, allocated when the first of them is set. */
+    protected TransitStateData transit;
+
     public Set<String> bikeRentalNetworks;
 
     public StateData(RoutingRequest options) {
@@ -47,15 +47,20 @@ public class StateEditor {
 
     private boolean extensionsModified = false;
 
+    private boolean transitModified = false;
+
     private boolean spawned = false;
 
     private boolean defectiveTraversal = false;
 
     private boolean traversingBackward;
     
-    // we use our own set of notes and only replace the child notes if they're different
+    // we use our own set of notes, which replace the child's notes when the state is made
     private Set<Alert> notes = null;
 
+    // whether notes is a set from an edge, which must be copied before anything is added to it
+    private boolean notesShared = false;
+
     /* CONSTRUCTORS */
 
     protected StateEditor() {}
@@ -149,11 +154,7 @@ public class StateEditor {
         if ( ! parsePath(this.child))
         	return null;
         
-        // copy the notes if need be, keeping in mind they may both be null
-        if (this.notes != child.stateData.notes) {
-            cloneStateDataAsNeeded();
-            child.stateData.notes = this.notes;
-        }
+        child.backAlerts = this.notes;
         
         spawned = true;
         return child;
@@ -208,18 +209,33 @@ public class StateEditor {
         if (notes == null)
             return;
         
-        if (this.notes == null)
+        if (this.notes == null) {
             this.notes = new HashSet<Alert>();
+        } else if (notesShared) {
+            if (this.notes.contains(notes))
+                return;
+            this.notes = new HashSet<Alert>(this.notes);
+            notesShared = false;
+        }
         
         this.notes.add(notes);
     }
     
     /**
-     * Convenience function to add multiple alerts
+     * Convenience function to add multiple alerts. If this state has no alerts yet and a set is
+     * given, the set is used as it is rather than copied, so it must not be modified afterwards.
      */
+    @SuppressWarnings("unchecked")
     public void addAlerts(Iterable<Alert> alerts) {
         if (alerts == null)
             return;
+        if (this.notes == null && alerts instanceof Set) {
+            if (!((Set<Alert>) alerts).isEmpty()) {
+                this.notes = (Set<Alert>) alerts;
+                notesShared = true;
+            }
+            return;
+        }
         for (Alert alert : alerts) {
             this.addAlert(alert);
         }
@@ -269,26 +285,26 @@ public class StateEditor {
     }
 
     public void incrementNumBoardings() {
-        cloneStateDataAsNeeded();
-        child.stateData.numBoardings++;
+        cloneTransitDataAsNeeded();
+        child.stateData.transit.numBoardings++;
     }
 
     /* Basic Setters */
 
     public void setTripTimes(TripTimes tripTimes) {
-        cloneStateDataAsNeeded();
-        child.stateData.tripTimes = tripTimes;
+        cloneTransitDataAsNeeded();
+        child.stateData.transit.tripTimes = tripTimes;
     }
 
     public void setTripId(AgencyAndId tripId) {
-        cloneStateDataAsNeeded();
-        child.stateData.tripId = tripId;
+        cloneTransitDataAsNeeded();
+        child.stateData.transit.tripId = tripId;
     }
 
     public void setInitialWaitTime (long initialWaitTime) {
-        cloneStateDataAsNeeded();
+        cloneTransitDataAsNeeded();
         //LOG.debug("initial wait time set to {} secs", initialWaitTime);
-        child.stateData.initialWaitTime = initialWaitTime;
+        child.stateData.transit.initialWaitTime = initialWaitTime;
     }
     
     public void setBackMode (TraverseMode mode) {
@@ -304,8 +320,8 @@ public class StateEditor {
      * the planner used and the arrival of the trip after that.
      */
     public void setLastNextArrivalDelta (int lastNextArrivalDelta) {
-        cloneStateDataAsNeeded();
-        child.stateData.lastNextArrivalDelta = lastNextArrivalDelta;
+        cloneTransitDataAsNeeded();
+        child.stateData.transit.lastNextArrivalDelta = lastNextArrivalDelta;
     }
 
     public void setWalkDistance(double walkDistance) {
@@ -314,44 +330,44 @@ public class StateEditor {
 
     public void setZone(String zone) {
         if (zone == null) {
-            if (child.stateData.zone != null) {
-                cloneStateDataAsNeeded();
-                child.stateData.zone = zone;
+            if (child.getZone() != null) {
+                cloneTransitDataAsNeeded();
+                child.stateData.transit.zone = zone;
             }
-        } else if (!zone.equals(child.stateData.zone)) {
-            cloneStateDataAsNeeded();
-            child.stateData.zone = zone;
+        } else if (!zone.equals(child.getZone())) {
+            cloneTransitDataAsNeeded();
+            child.stateData.transit.zone = zone;
         }
     }
 
     public void setRoute(AgencyAndId routeId) {
-        cloneStateDataAsNeeded();
-        child.stateData.route = routeId;
+        cloneTransitDataAsNeeded();
+        child.stateData.transit.route = routeId;
         // unlike tripId, routeId is not set to null when alighting
         // but do a null check anyway
         if (routeId != null) {
-            AgencyAndId[] oldRouteSequence = child.stateData.routeSequence;
+            AgencyAndId[] oldRouteSequence = child.stateData.transit.routeSequence;
             //LOG.debug("old route seq {}", Arrays.asList(oldRouteSequence));
             int oldLength = oldRouteSequence.length;
-            child.stateData.routeSequence = Arrays.copyOf(oldRouteSequence, oldLength + 1);
-            child.stateData.routeSequence[oldLength] = routeId;
-            //LOG.debug("new route seq {}", Arrays.asList(child.stateData.routeSequence)); // array will be interpreted as varargs
+            child.stateData.transit.routeSequence = Arrays.copyOf(oldRouteSequence, oldLength + 1);
+            child.stateData.transit.routeSequence[oldLength] = routeId;
+            //LOG.debug("new route seq {}", Arrays.asList(child.stateData.transit.routeSequence)); // array will be interpreted as varargs
         }
     }
 
     public void setNumBoardings(int numBoardings) {
-        cloneStateDataAsNeeded();
-        child.stateData.numBoardings = numBoardings;
+        cloneTransitDataAsNeeded();
+        child.stateData.transit.numBoardings = numBoardings;
     }
 
     public void setAlightedLocal(boolean alightedLocal) {
-        cloneStateDataAsNeeded();
-        child.stateData.alightedLocal = alightedLocal;
+        cloneTransitDataAsNeeded();
+        child.stateData.transit.alightedLocal = alightedLocal;
     }
 
     public void setEverBoarded(boolean everBoarded) {
-        cloneStateDataAsNeeded();
-        child.stateData.everBoarded = everBoarded;
+        cloneTransitDataAsNeeded();
+        child.stateData.transit.everBoarded = everBoarded;
     }
 
     public void setBikeRenting(boolean bikeRenting) {
@@ -365,13 +381,13 @@ public class StateEditor {
     }
 
     public void setPreviousStop(Vertex previousStop) {
-        cloneStateDataAsNeeded();
-        child.stateData.previousStop = previousStop;
+        cloneTransitDataAsNeeded();
+        child.stateData.transit.previousStop = previousStop;
     }
 
     public void setLastAlightedTime(long lastAlightedTime) {
-        cloneStateDataAsNeeded();
-        child.stateData.lastAlightedTime = lastAlightedTime;
+        cloneTransitDataAsNeeded();
+        child.stateData.transit.lastAlightedTime = lastAlightedTime;
     }
 
     public void setTime(long t) {
@@ -390,11 +406,11 @@ public class StateEditor {
      * @param state
      */
     public void setFromState(State state) {
-        cloneStateDataAsNeeded();
-        child.stateData.route = state.stateData.route;
-        child.stateData.tripTimes = state.stateData.tripTimes;
-        child.stateData.tripId = state.stateData.tripId;
-        child.stateData.zone = state.stateData.zone;
+        cloneTransitDataAsNeeded();
+        child.stateData.transit.route = state.getRoute();
+        child.stateData.transit.tripTimes = state.getTripTimes();
+        child.stateData.transit.tripId = state.getTripId();
+        child.stateData.transit.zone = state.getZone();
         child.stateData.extensions = state.stateData.extensions;
         child.stateData.usingRentedBike = state.stateData.usingRentedBike;
     }
@@ -506,6 +522,19 @@ public class StateEditor {
             child.stateData = child.stateData.clone();
     }
 
+    /**
+     * To be called before modifying anything in the child's TransitStateData. Like
+     * cloneStateDataAsNeeded, and creates or copies the TransitStateData the first time.
+     */
+    private void cloneTransitDataAsNeeded() {
+        cloneStateDataAsNeeded();
+        if (!transitModified) {
+            TransitStateData transit = child.stateData.transit;
+            child.stateData.transit = transit == null ? new TransitStateData() : transit.clone();
+            transitModified = true;
+        }
+    }
+
     /** return true if all PathParsers advanced to a state other than REJECT */
     public boolean parsePath(State state) {
         if (state.stateData.opt.rctx == null)
@@ -538,13 +567,13 @@ public class StateEditor {
     }
 
     public void alightTransit() {
-        cloneStateDataAsNeeded();
-        child.stateData.lastTransitWalk = child.getWalkDistance();
+        cloneTransitDataAsNeeded();
+        child.stateData.transit.lastTransitWalk = child.getWalkDistance();
     }
 
     public void setLastPattern(TripPattern pattern) {
-        cloneStateDataAsNeeded();
-        child.stateData.lastPattern = pattern;
+        cloneTransitDataAsNeeded();
+        child.stateData.transit.lastPattern = pattern;
     }
     public void setOptions(RoutingRequest options) {
         cloneStateDataAsNeeded();
@@ -552,8 +581,8 @@ public class StateEditor {
     }
 
     public void setServiceDay(ServiceDay day) {
-        cloneStateDataAsNeeded();
-        child.stateData.serviceDay = day;
+        cloneTransitDataAsNeeded();
+        child.stateData.transit.serviceDay = day;
     }
 
     public void setBikeRentalNetwork(Set<String> networks) {
@@ -15,12 +15,20 @@ package org.opentripplanner.routing.core;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map.Entry;
 
 import org.opentripplanner.common.model.P2;
 import org.opentripplanner.routing.graph.Vertex;
 
+/**
+ * Transfer times between pairs of stops, e.g. from GTFS transfers.txt. Lookups happen at every
+ * transit boarding, so they go through an open-addressing hash table keyed on the pair of vertex
+ * indices instead of the map of vertex pairs. Vertex indices are reassigned when a graph is
+ * deserialized, so that table is not serialized; it is built at the first lookup and dropped
+ * whenever a transfer time is set.
+ */
 public class TransferTable implements Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -40,6 +48,8 @@ public class TransferTable implements Serializable {
 
     protected HashMap<P2<Vertex>, Integer> table = new HashMap<P2<Vertex>, Integer>();
     protected boolean preferredTransfers = false;
+
+    private transient volatile PackedTable packed;
     
     public void setPreferredTransfers(boolean preferredTransfers) {
         this.preferredTransfers = preferredTransfers;
@@ -50,15 +60,19 @@ public class TransferTable implements Serializable {
     }    
     /** Get the transfer time, in seconds, between the stops */
     public int getTransferTime(Vertex previousStop, Vertex vertex) {
-        Integer result = table.get(new P2<Vertex>(previousStop, vertex));
-        if (result == null) {
+        if (previousStop == null || vertex == null) {
             return UNKNOWN_TRANSFER;
         }
-        return result;
+        PackedTable packed = this.packed;
+        if (packed == null) {
+            packed = pack();
+        }
+        return packed.get(previousStop.getIndex(), vertex.getIndex());
     }
     
-    public void setTransferTime(Vertex fromStop, Vertex toStop, int transferTime) {
+    public synchronized void setTransferTime(Vertex fromStop, Vertex toStop, int transferTime) {
         table.put(new P2<Vertex>(fromStop, toStop), transferTime);
+        packed = null;
         if (transferTime == PREFERRED_TRANSFER) {
             setPreferredTransfers(true);
         }
@@ -82,4 +96,69 @@ public class TransferTable implements Serializable {
         }
         return transfers;
     }
+
+    private synchronized PackedTable pack() {
+        if (packed == null) {
+            packed = new PackedTable(table);
+        }
+        return packed;
+    }
+
+    /**
+     * A read-only map from pairs of vertex indices to transfer times, using linear probing in
+     * parallel arrays of keys and values.
+     */
+    private static final class PackedTable {
+
+        private static final long EMPTY = -1L;
+
+        private final long[] keys;
+
+        private final int[] values;
+
+        private final int mask;
+
+        private PackedTable(HashMap<P2<Vertex>, Integer> table) {
+            int capacity = 2;
+            while (capacity < table.size() * 2) {
+                capacity <<= 1;
+            }
+            keys = new long[capacity];
+            values = new int[capacity];
+            mask = capacity - 1;
+            Arrays.fill(keys, EMPTY);
+            for (Entry<P2<Vertex>, Integer> entry : table.entrySet()) {
+                P2<Vertex> p2 = entry.getKey();
+                long key = key(p2.getFirst().getIndex(), p2.getSecond().getIndex());
+                int slot = slot(key);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = entry.getValue();
+            }
+        }
+
+        private static long key(int from, int to) {
+            return ((long) from << 32) | (to & 0xffffffffL);
+        }
+
+        private int slot(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        int get(int from, int to) {
+            long key = key(from, to);
+            for (int slot = slot(key);; slot = (slot + 1) & mask) {
+                long k = keys[slot];
+                if (k == key) {
+                    return values[slot];
+                }
+                if (k == EMPTY) {
+                    return UNKNOWN_TRANSFER;
+                }
+            }
+        }
+    }
 }
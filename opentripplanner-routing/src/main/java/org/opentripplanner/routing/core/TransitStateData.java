@@ -0,0 +1,82 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.opentripplanner.routing.edgetype.TripPattern;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.trippattern.TripTimes;
+
+/**
+ * The components of StateData that are only used once a path involves transit. StateData only
+ * points to one of these after the first transit-related field is set, so that states of street
+ * searches neither allocate nor copy them.
+ */
+public class TransitStateData implements Cloneable {
+
+    /** Read in place of a missing TransitStateData. Never modified. */
+    static final TransitStateData EMPTY = new TransitStateData();
+
+    static final AgencyAndId[] EMPTY_ROUTE_SEQUENCE = new AgencyAndId[0];
+
+    // which trip index inside a pattern
+    protected TripTimes tripTimes;
+
+    protected AgencyAndId tripId;
+
+    protected double lastTransitWalk = 0;
+
+    protected String zone;
+
+    protected AgencyAndId route;
+
+    protected int numBoardings;
+
+    protected boolean alightedLocal;
+
+    protected boolean everBoarded;
+
+    protected Vertex previousStop;
+
+    protected long lastAlightedTime;
+
+    protected AgencyAndId[] routeSequence = EMPTY_ROUTE_SEQUENCE;
+
+    protected TripPattern lastPattern;
+
+    protected ServiceDay serviceDay;
+
+    /**
+     * This is the wait time at the beginning of the trip (or at the end of the trip for
+     * reverse searches). In Analyst anyhow, this is is subtracted from total trip length of each
+     * final State in lieu of reverse optimization. It is initially set to zero so that it will be
+     * ineffectual on a search that does not ever board a transit vehicle.
+     */
+    protected long initialWaitTime = 0;
+
+    /**
+     * This is the time between the trip that was taken at the previous stop and the next trip
+     * that could have been taken. It is used to determine if a path needs reverse-optimization.
+     */
+    protected int lastNextArrivalDelta;
+
+    protected TransitStateData clone() {
+        try {
+            return (TransitStateData) super.clone();
+        } catch (CloneNotSupportedException e1) {
+            throw new IllegalStateException("This is not happening");
+        }
+    }
+
+}
@@ -16,6 +16,7 @@ package org.opentripplanner.routing.edgetype;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 
@@ -53,6 +54,12 @@ public class Timetable implements Serializable {
      */
     private static final int INDEX_THRESHOLD = 16;
 
+    /**
+     * When more than this fraction of the trips in a Timetable have been updated, its index is
+     * rebuilt from scratch rather than by moving the updated trips to their new positions.
+     */
+    private static final double REINDEX_FRACTION = 0.2;
+
     private final TableTripPattern pattern;
     
     /** 
@@ -61,14 +68,48 @@ public class Timetable implements Serializable {
      */
     private final ArrayList<TripTimes> tripTimes;
 
-    /** 
-     * If the departures index is null, this timetable has not been indexed: use a linear search. 
+    /**
+     * The scheduled times of the trips in this timetable, trip after trip. Once the timetable is
+     * finished these columns are the only copy of the scheduled times: the ScheduledTripTimes
+     * read from them (see ScheduledTripTimes.pack). Each trip takes stride entries, its departure
+     * at each hop in departureTimes and its arrival at each hop in arrivalTimes. When no trip has
+     * dwell times there is no arrivals column, and each trip has one more departure instead,
+     * which is its final arrival. Only the first nPackedTrips trips are in the columns. Copies
+     * of a timetable share the columns, and read the times of updated or added trips from their
+     * TripTimes instead.
+     */
+    private int[] departureTimes = null;
+    private int[] arrivalTimes = null;
+    private int stride;
+    private int nPackedTrips = 0;
+
+    /**
+     * The trips whose TripTimes were replaced by realtime updates, whose times are therefore no
+     * longer those in the columns. Null in timetables that were never updated.
+     */
+    private BitSet realtimeTrips = null;
+
+    /**
+     * If the trip columns are null, this timetable has not been indexed: use a linear search.
+     * Otherwise they give the indexes of all trips in order of departure (arrival) at each hop,
+     * hop after hop, which allows binary searches reading the times from the columns above.
      * Unfortunately you really do need 2 indexes, because dwell times for different trips at
-     * the same stop may overlap. The indexes always contain the same elements as the main
-     * tripTimes List, but are re-sorted at each stop to allow binary searches.
+     * the same stop may overlap. When the trips are in the same order at every hop (the pattern
+     * is FIFO) each index only has one column, which is shared by the departures and arrivals
+     * when they are in the same order.
      */
-    private transient TripTimes[][] arrivalsIndex = null;
-    private transient TripTimes[][] departuresIndex = null;
+    private transient int[] departureTripsIndex = null;
+    private transient int[] arrivalTripsIndex = null;
+
+    /** The number of trips when this timetable was last finished, i.e. the length of each column. */
+    private transient int nIndexedTrips;
+
+    /**
+     * The indexes of the trips that were updated since this timetable was last finished. Null if
+     * the timetable has never been finished or was deserialized, in which case the next call to
+     * finish() rebuilds everything.
+     */
+    private transient BitSet updatedTrips = null;
 
     /** For each hop, the best running time. This serves to provide lower bounds on traversal time. */
     private transient int bestRunningTimes[];
@@ -83,12 +124,28 @@ public class Timetable implements Serializable {
     }
     
     /** 
-     * Copy constructor: create an un-indexed Timetable with the same TripTimes as the 
-     * specified timetable. 
+     * Copy constructor: create a Timetable with the same TripTimes as the specified timetable.
+     * The copy shares the index and lower bounds of the original until it is finished, which
+     * only updates the parts concerning the trips that were updated in the meantime. The
+     * shared arrays are copied before any change, so the original is never modified.
      */
     private Timetable (Timetable tt) {
         tripTimes = new ArrayList<TripTimes>(tt.tripTimes);
         this.pattern = tt.pattern;
+        departureTimes = tt.departureTimes;
+        arrivalTimes = tt.arrivalTimes;
+        stride = tt.stride;
+        nPackedTrips = tt.nPackedTrips;
+        // copies are never packed again, so that the columns remain shared
+        realtimeTrips = tt.realtimeTrips == null ? new BitSet() : (BitSet) tt.realtimeTrips.clone();
+        if (tt.updatedTrips != null && tt.updatedTrips.isEmpty()) {
+            departureTripsIndex = tt.departureTripsIndex;
+            arrivalTripsIndex = tt.arrivalTripsIndex;
+            nIndexedTrips = tt.nIndexedTrips;
+            bestRunningTimes = tt.bestRunningTimes;
+            bestDwellTimes = tt.bestDwellTimes;
+            updatedTrips = new BitSet();
+        }
     }
     
     /** 
@@ -101,46 +158,148 @@ public class Timetable implements Serializable {
     }
     
     /**
-     * Produces 2D index arrays that are stop-major and sorted, allowing binary search at any 
-     * given stop. It is of course inefficient to call this after updating only one or two 
-     * trips in a pattern since we can usually get by with swapping only the new trip into the 
-     * existing already-sorted lists. But let's see realistically how resource-intensive this 
-     * is before optimizing it.
+     * Move the scheduled times of all trips into the columns, which become their only copy. This
+     * is only possible while all the TripTimes are scheduled ones.
+     */
+    private void pack() {
+        int nHops = pattern.stops.length - 1;
+        int nTrips = tripTimes.size();
+        boolean dwells = false;
+        for (TripTimes tt : tripTimes) {
+            if ( ! tt.isScheduled())
+                return;
+            for (int h = 1; h < nHops && !dwells; h++)
+                dwells = tt.getDwellTime(h) != 0;
+        }
+        int newStride = dwells ? nHops : nHops + 1;
+        int[] departures = new int[nTrips * newStride];
+        int[] arrivals = dwells ? new int[nTrips * newStride] : null;
+        for (int t = 0; t < nTrips; t++)
+            ((ScheduledTripTimes) tripTimes.get(t)).pack(departures, arrivals, t * newStride);
+        departureTimes = departures;
+        arrivalTimes = arrivals;
+        stride = newStride;
+        nPackedTrips = nTrips;
+    }
+
+    /** @return whether the times of the given trip are those in the columns */
+    private boolean isPacked(int trip) {
+        return trip < nPackedTrips && (realtimeTrips == null || !realtimeTrips.get(trip));
+    }
+
+    private int getTime(int hop, int trip, boolean departure) {
+        return departure ? getDepartureTime(hop, trip) : getArrivalTime(hop, trip);
+    }
+
+    /**
+     * Produces index columns that are stop-major and sorted, allowing binary search at any
+     * given stop. After updating only a few trips in a pattern, reindex() should be used instead.
      */
     private void index() {
         int nHops = pattern.stops.length - 1;
-        arrivalsIndex = new TripTimes[nHops][];
-        departuresIndex = new TripTimes[nHops][];
-        boolean departuresFifo = true;
-        boolean arrivalsMatchDepartures = true;
+        departureTripsIndex = sortTrips(nHops, true);
+        arrivalTripsIndex = sortTrips(nHops, false);
+        if (Arrays.equals(arrivalTripsIndex, departureTripsIndex)) {
+            //LOG.debug("Reusing departures trip order where arrivals order is identical.");
+            arrivalTripsIndex = departureTripsIndex;
+        }
+    }
+
+    /**
+     * Sort the trips by departure (arrival) time at each hop. Ties are broken by trip index so
+     * that the order is reproducible.
+     * @return the trip columns, which are compressed to a single column for FIFO timetables.
+     */
+    private int[] sortTrips(int nHops, boolean departures) {
+        int nTrips = tripTimes.size();
+        int[] trips = new int[nHops * nTrips];
+        long[] keys = new long[nTrips];
+        for (int hop = 0; hop < nHops; hop++) {
+            for (int t = 0; t < nTrips; t++)
+                keys[t] = sortKey(getTime(hop, t, departures), t);
+            Arrays.sort(keys);
+            int offset = hop * nTrips;
+            for (int i = 0; i < nTrips; i++)
+                trips[offset + i] = (int) keys[i];
+        }
+        return compressTrips(trips, nHops, nTrips);
+    }
+
+    /**
+     * Update the index after a few trips were updated, by moving each of them to its new
+     * position in each column. This is linear in the number of trips (at worst) rather than
+     * requiring a sort of every column.
+     */
+    private void reindex(BitSet trips) {
+        int nHops = pattern.stops.length - 1;
+        // the index may be shared with the timetable this one was copied from, so make new ones
+        departureTripsIndex = reinsertTrips(departureTripsIndex, nHops, trips, true);
+        arrivalTripsIndex = reinsertTrips(arrivalTripsIndex, nHops, trips, false);
+        if (Arrays.equals(arrivalTripsIndex, departureTripsIndex))
+            arrivalTripsIndex = departureTripsIndex;
+    }
+
+    /**
+     * @return new trip columns in which the moved trips are at the positions of their new times.
+     * The other trips keep their order, which is still sorted since their times did not change.
+     */
+    private int[] reinsertTrips(int[] index, int nHops, BitSet moved, boolean departures) {
+        int nTrips = nIndexedTrips;
+        int[] trips = new int[nHops * nTrips];
         for (int hop = 0; hop < nHops; hop++) {
-            // copy canonical TripTimes List into new arrays
-            arrivalsIndex[hop] = tripTimes.toArray(new TripTimes[tripTimes.size()]);
-            departuresIndex[hop] = tripTimes.toArray(new TripTimes[tripTimes.size()]);
-            // TODO: STOP VS HOP
-            Arrays.sort(arrivalsIndex[hop], new TripTimes.ArrivalsComparator(hop));
-            Arrays.sort(departuresIndex[hop], new TripTimes.DeparturesComparator(hop));
-            if (hop > 0) {
-                if (Arrays.equals(departuresIndex[hop], departuresIndex[hop - 1]))
-                    departuresIndex[hop] = departuresIndex[hop - 1];
-                else
-                    departuresFifo = false;
+            int from = index.length == nTrips ? 0 : hop * nTrips;
+            int offset = hop * nTrips;
+            int n = 0;
+            for (int i = from; i < from + nTrips; i++) {
+                if ( ! moved.get(index[i]))
+                    trips[offset + n++] = index[i];
+            }
+            for (int t = moved.nextSetBit(0); t >= 0; t = moved.nextSetBit(t + 1)) {
+                long key = sortKey(getTime(hop, t, departures), t);
+                int pos = offset + n;
+                while (pos > offset
+                        && sortKey(getTime(hop, trips[pos - 1], departures), trips[pos - 1]) > key) {
+                    trips[pos] = trips[pos - 1];
+                    pos--;
+                }
+                trips[pos] = t;
+                n++;
             }
-            if (Arrays.equals(departuresIndex[hop], arrivalsIndex[hop]))
-                arrivalsIndex[hop] = departuresIndex[hop];
-            else
-                arrivalsMatchDepartures = false;
         }
-        if (departuresFifo) {
-            //LOG.debug("Compressing FIFO Timetable index.");
-            departuresIndex = Arrays.copyOf(departuresIndex, 1);
+        return compressTrips(trips, nHops, nTrips);
+    }
+
+    /** Orders the columns by time, and trips with the same time by index. */
+    private static long sortKey(int time, int trip) {
+        return ((long) time << 32) | trip;
+    }
+
+    /** @return the trip columns, compressed to a single column if the timetable is FIFO */
+    private static int[] compressTrips(int[] trips, int nHops, int nTrips) {
+        for (int i = nTrips; i < nHops * nTrips; i++) {
+            if (trips[i] != trips[i % nTrips])
+                return trips;
         }
-        if (arrivalsMatchDepartures) {
-            //LOG.debug("Reusing departures index where arrivals index is identical.");
-            arrivalsIndex = departuresIndex;
+        //LOG.debug("Compressing FIFO Timetable index.");
+        return Arrays.copyOf(trips, nTrips);
+    }
+
+    /**
+     * @return the first position in the given trip column (starting at from) whose trip departs
+     * (arrives) at the given hop at or after the given time
+     */
+    private int firstAtOrAfter(int[] trips, int from, int hop, boolean departures, int time) {
+        int lo = from, hi = from + nIndexedTrips;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getTime(hop, trips[mid], departures) < time)
+                lo = mid + 1;
+            else
+                hi = mid;
         }
+        return lo;
     }
-    
+
     /** 
      * Get the next (previous) trip that departs (arrives) from the specified stop 
      * at or after (before) the specified time. The haveBicycle parameter must be passed in 
@@ -158,39 +317,32 @@ public class Timetable implements Serializable {
             RoutingRequest options, boolean boarding) {
         TripTimes bestTrip = null;
         int idxLo = -1, idxHi = Integer.MAX_VALUE;
-        TripTimes[][] tableIndex = boarding ? departuresIndex : arrivalsIndex; 
-        // sorted = tripTimes; ARGH, Array versus List APIs
-        // for the purposes of adjacent trips, guess that unindexed tables are roughly FIFO
-        List<TripTimes> ordered = tripTimes;
-        if (tableIndex != null) {
-            TripTimes[] sorted;
+        int[] trips = boarding ? departureTripsIndex : arrivalTripsIndex;
+        if (trips != null) {
             // this timetable has been indexed, use binary search
-            if (tableIndex.length == 1) // for optimized FIFO patterns
-                sorted = tableIndex[0]; 
-            else
-                sorted = tableIndex[stopIndex];
-            // an alternative to conditional increment/decrement would be to sort the arrivals
-            // index in decreasing order, but that would require changing the search algorithm
+            int nTrips = nIndexedTrips;
+            // for optimized FIFO patterns, the trip order is the same at every hop
+            int offset = trips.length == nTrips ? 0 : stopIndex * nTrips;
             if (boarding) {
-                idxLo = idxHi = TripTimes.binarySearchDepartures(sorted, stopIndex, time); 
-                for (; idxHi < sorted.length; idxHi++) {
-                    TripTimes tt = sorted[idxHi];
+                int first = firstAtOrAfter(trips, offset, stopIndex, true, time);
+                for (idxLo = idxHi = first; idxHi < offset + nTrips; idxHi++) {
+                    TripTimes tt = tripTimes.get(trips[idxHi]);
                     if (tt.tripAcceptable(options, haveBicycle, stopIndex)) {
                         bestTrip = tt;
                         break;
                     }
                 }
             } else {
-                idxLo = idxHi = TripTimes.binarySearchArrivals(sorted, stopIndex, time); 
-                for (; idxLo >= 0; idxLo--) {
-                    TripTimes tt = sorted[idxLo];
+                // start from the last arrival at or before the given time
+                int last = firstAtOrAfter(trips, offset, stopIndex, false, time + 1) - 1;
+                for (idxLo = idxHi = last; idxLo >= offset; idxLo--) {
+                    TripTimes tt = tripTimes.get(trips[idxLo]);
                     if (tt.tripAcceptable(options, haveBicycle, stopIndex)) {
                         bestTrip = tt;
                         break;
                     }
                 }
             }
-            ordered = Arrays.asList(sorted); // find adjacent entries in the sorted list
         } else { 
             // no index present on this timetable. use a linear search:
             // because trips may change with stoptime updates, we cannot count on them being sorted
@@ -221,33 +373,55 @@ public class Timetable implements Serializable {
     
     /** Gets the departure time for a given hop on a given trip */
     public int getDepartureTime(int hop, int trip) {
+        if (isPacked(trip))
+            return departureTimes[trip * stride + hop];
         return tripTimes.get(trip).getDepartureTime(hop);
     }
 
     /** Gets the arrival time for a given hop on a given trip */
     public int getArrivalTime(int hop, int trip) {
+        if (isPacked(trip)) {
+            if (arrivalTimes == null)
+                return departureTimes[trip * stride + hop + 1];
+            return arrivalTimes[trip * stride + hop];
+        }
         return tripTimes.get(trip).getArrivalTime(hop);
     }
 
     /** Gets the running time after a given stop (i.e. for the given hop) on a given trip */
     public int getRunningTime(int stopIndex, int trip) {
-        return tripTimes.get(trip).getRunningTime(stopIndex);
+        return getArrivalTime(stopIndex, trip) - getDepartureTime(stopIndex, trip);
     }
 
     /** Gets the dwell time at a given stop (i.e. before then given hop) on a given trip */
     public int getDwellTime(int hop, int trip) {
         // the dwell time of a hop is the dwell time *before* that hop.
-        return tripTimes.get(trip).getDwellTime(hop);
+        return getDepartureTime(hop, trip) - getArrivalTime(hop - 1, trip);
     }
 
     /**
      * Finish off a TripPattern once all TripTimes have been added to it. This involves caching
      * lower bounds on the running times and dwell times at each stop, and may perform other
      * actions to compact the data structure such as trimming and deduplicating arrays.
+     * If only a few trips were updated since the last call, only their contribution is updated.
      */
     public void finish() {
         int nHops = pattern.stops.length - 1;
         int nTrips = tripTimes.size();
+        if (updatedTrips != null && nTrips == nIndexedTrips
+                && updatedTrips.cardinality() <= nTrips * REINDEX_FRACTION) {
+            if ( ! updatedTrips.isEmpty()) {
+                updateBestTimes(updatedTrips);
+                if (departureTripsIndex != null)
+                    reindex(updatedTrips);
+                updatedTrips = new BitSet();
+            }
+            return;
+        }
+        if (realtimeTrips == null && nPackedTrips != nTrips)
+            pack();
+        nIndexedTrips = nTrips;
+        updatedTrips = new BitSet();
         bestRunningTimes = new int[nHops];
         boolean nullArrivals = false; // TODO: should scan through triptimes?
         if ( ! nullArrivals) {
@@ -277,8 +451,27 @@ public class Timetable implements Serializable {
             //LOG.debug("indexing pattern with {} trips", nTrips);
             index(); 
         } else {
-            arrivalsIndex = null;
-            departuresIndex = null;
+            departureTripsIndex = null;
+            arrivalTripsIndex = null;
+        }
+    }
+
+    /**
+     * Lower the best running and dwell times to those of the given trips where needed. The
+     * results are still lower bounds, though they may no longer be the tightest ones.
+     */
+    private void updateBestTimes(BitSet trips) {
+        int nHops = pattern.stops.length - 1;
+        // the arrays may be shared with the timetable this one was copied from
+        bestRunningTimes = bestRunningTimes.clone();
+        if (bestDwellTimes != null)
+            bestDwellTimes = bestDwellTimes.clone();
+        for (int t = trips.nextSetBit(0); t >= 0; t = trips.nextSetBit(t + 1)) {
+            for (int h = 0; h < nHops; ++h) {
+                bestRunningTimes[h] = Math.min(bestRunningTimes[h], getRunningTime(h, t));
+                if (bestDwellTimes != null && h > 0)
+                    bestDwellTimes[h] = Math.min(bestDwellTimes[h], getDwellTime(h, t));
+            }
         }
     }
     
@@ -299,7 +492,7 @@ public class Timetable implements Serializable {
 
         @Override
         public Integer next() {
-            return tripTimes.get(nextPosition++).getDepartureTime(stopIndex);
+            return getDepartureTime(stopIndex, nextPosition++);
         }
 
         @Override
@@ -389,6 +582,11 @@ public class Timetable implements Serializable {
             }
             // Update succeeded, save the new TripTimes back into this Timetable.
             this.tripTimes.set(tripIndex, newTimes);
+            if (realtimeTrips == null)
+                realtimeTrips = new BitSet();
+            realtimeTrips.set(tripIndex);
+            if (updatedTrips != null)
+                updatedTrips.set(tripIndex);
             return true;
         } catch (Exception e) { // prevent server from dying while debugging
             e.printStackTrace();
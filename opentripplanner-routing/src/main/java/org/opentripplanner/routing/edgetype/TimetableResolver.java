@@ -80,13 +80,14 @@ public class TimetableResolver {
     }
     
     /**
-     * This produces a small delay of typically around 50ms, which is almost entirely due to
-     * the indexing step. Cloning the map is much faster (2ms). 
+     * This produces a small delay, which is almost entirely due to the indexing step. Cloning
+     * the map is much faster (2ms). Timetables in which only a few trips were updated are
+     * indexed incrementally, by moving the updated trips within the index of the timetable
+     * they were copied from.
      * It is perhaps better to index timetables as they are changed to avoid experiencing all 
      * this lag at once, but we want to avoid re-indexing when receiving multiple updates for
      * the same timetable in rapid succession. This compromise is expressed by the 
-     * maxSnapshotFrequency property of StoptimeUpdater. The indexing could be made much more 
-     * efficient as well.
+     * maxSnapshotFrequency property of StoptimeUpdater.
      * @return an immutable copy of this TimetableResolver with all updates applied
      */
     @SuppressWarnings("unchecked")
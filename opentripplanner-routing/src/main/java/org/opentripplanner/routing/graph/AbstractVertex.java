@@ -60,6 +60,9 @@ public abstract class AbstractVertex implements Vertex {
 
     private transient Set<Edge> outgoing = new CopyOnWriteArraySet<Edge>();
 
+    /* incremented on every edge list modification, see getEdgeListModCount() */
+    private transient volatile int edgeListModCount = 0;
+
     
     /* PUBLIC CONSTRUCTORS */
     
@@ -106,6 +109,7 @@ public abstract class AbstractVertex implements Vertex {
             LOG.error("repeatedly added edge {} to vertex {}", ee, this);
         } else {
             outgoing.add(ee);
+            edgeListModCount++;
         }
     }
     
@@ -115,6 +119,7 @@ public abstract class AbstractVertex implements Vertex {
             LOG.error("Removing edge which isn't connected to this vertex");
         }
         boolean removed = outgoing.remove(ee);
+        edgeListModCount++;
         if (outgoing.contains(ee)) {
             LOG.error("edge {} still in edgelist of {} after removed. there must have been multiple copies.");
         }
@@ -133,6 +138,7 @@ public abstract class AbstractVertex implements Vertex {
             LOG.error("repeatedly added edge {} to vertex {}", ee, this);
         } else {        
             incoming.add(ee);
+            edgeListModCount++;
         }
     }
     
@@ -142,6 +148,7 @@ public abstract class AbstractVertex implements Vertex {
             LOG.error("Removing edge which isn't connected to this vertex");
         }
         boolean removed = incoming.remove(ee);
+        edgeListModCount++;
         if (incoming.contains(ee)) {
             LOG.error("edge {} still in edgelist of {} after removed. there must have been multiple copies.");
         }
@@ -165,6 +172,12 @@ public abstract class AbstractVertex implements Vertex {
     public int getDegreeIn() {
         return incoming.size();
     }
+
+    @Override
+    @XmlTransient
+    public int getEdgeListModCount() {
+        return edgeListModCount;
+    }
     
     @Override
     public void setDistanceToNearestTransitStop(double distance) {
@@ -331,6 +344,7 @@ public abstract class AbstractVertex implements Vertex {
         }
         incoming = new CopyOnWriteArraySet<Edge>();
         outgoing = new CopyOnWriteArraySet<Edge>();
+        edgeListModCount++;
     }
     
     
@@ -0,0 +1,967 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.common.TurnRestriction;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.PackedCoordinateSequence;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.patch.Alert;
+import org.opentripplanner.routing.patch.Patch;
+import org.opentripplanner.routing.services.StreetVertexIndexFactory;
+import org.opentripplanner.routing.util.ElevationProfileSegment;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * A versioned binary graph file format. The street layer (IntersectionVertices and the
+ * PlainStreetEdges between them), which makes up the bulk of any graph, is stored as primitive
+ * columns written and read in bulk through NIO channels. Everything else (the Graph object
+ * itself, transit and other edge types, alerts, turn restrictions, patches and debug data) follows
+ * as a standard Java serialization stream, in which references to street vertices and edges are
+ * replaced by their positions in the columns.
+ *
+ * Graph.load() recognizes files in this format by their leading magic number and falls back on
+ * plain Java serialization otherwise, so older graph files remain readable.
+ */
+public class BinaryGraphFormat {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryGraphFormat.class);
+
+    /** "OTPG" */
+    public static final int MAGIC = 0x4F545047;
+
+    /** Increment this whenever the layout of the columnar section changes. */
+    public static final int FORMAT_VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /* vertex flag bits */
+    private static final byte V_TRAFFIC_LIGHT = 1;
+
+    private static final byte V_FREE_FLOWING = 2;
+
+    /* edge flag bits */
+    private static final short E_BACK = 1;
+
+    private static final short E_WHEELCHAIR = 1 << 1;
+
+    private static final short E_ROUNDABOUT = 1 << 2;
+
+    private static final short E_BOGUS_NAME = 1 << 3;
+
+    private static final short E_NO_THRU_TRAFFIC = 1 << 4;
+
+    private static final short E_STAIRS = 1 << 5;
+
+    private static final short E_TOLL = 1 << 6;
+
+    private static final short E_SLOPE_OVERRIDE = 1 << 7;
+
+    private static final short E_FLATTENED = 1 << 8;
+
+    private static final short E_EXTRAS = 1 << 9;
+
+    private static final StreetTraversalPermission[] PERMISSIONS = StreetTraversalPermission
+            .values();
+
+    private BinaryGraphFormat() {
+    }
+
+    /**
+     * @return true if the next bytes in the given stream are the binary format magic number. The
+     *         stream must support mark/reset, and is left at the same position.
+     */
+    public static boolean isBinaryGraph(InputStream in) throws IOException {
+        in.mark(4);
+        int magic = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = in.read();
+            if (b < 0) {
+                in.reset();
+                return false;
+            }
+            magic = (magic << 8) | b;
+        }
+        in.reset();
+        return magic == MAGIC;
+    }
+
+    /* WRITING */
+
+    /** Only these vertices and edges are stored in columns, their subclasses carry more state. */
+    private static boolean isCompactVertex(Vertex v) {
+        return v.getClass() == IntersectionVertex.class;
+    }
+
+    private static boolean isCompactEdge(Edge e) {
+        return e.getClass() == PlainStreetEdge.class && isCompactVertex(e.getFromVertex())
+                && isCompactVertex(e.getToVertex());
+    }
+
+    public static void write(Graph graph, WritableByteChannel channel) throws IOException {
+        LOG.debug("Assigning vertex/edge ID numbers...");
+        graph.rebuildVertexAndEdgeIndices();
+
+        final Map<Object, Integer> vertexPositions = new IdentityHashMap<Object, Integer>();
+        final Map<Object, Integer> edgePositions = new IdentityHashMap<Object, Integer>();
+        List<IntersectionVertex> vertices = new ArrayList<IntersectionVertex>();
+        List<PlainStreetEdge> streetEdges = new ArrayList<PlainStreetEdge>();
+        List<Edge> otherEdges = new ArrayList<Edge>();
+        for (Vertex v : graph.getVertices()) {
+            if (isCompactVertex(v)) {
+                vertexPositions.put(v, vertices.size());
+                vertices.add((IntersectionVertex) v);
+            }
+            if (v.getDegreeOut() + v.getDegreeIn() == 0)
+                LOG.debug("vertex {} has no edges, it will not survive serialization.", v);
+        }
+        for (Vertex v : graph.getVertices()) {
+            for (Edge e : v.getOutgoing()) {
+                if (isCompactEdge(e)) {
+                    edgePositions.put(e, streetEdges.size());
+                    streetEdges.add((PlainStreetEdge) e);
+                } else {
+                    otherEdges.add(e);
+                }
+            }
+        }
+        LOG.info("Writing {} street vertices and {} street edges in columns, {} other edges.",
+                vertices.size(), streetEdges.size(), otherEdges.size());
+
+        ChannelOutput out = new ChannelOutput(channel);
+        out.putInt(MAGIC);
+        out.putInt(FORMAT_VERSION);
+        out.putLong(MavenVersion.VERSION.getUID());
+
+        StringTable strings = new StringTable();
+        int nv = vertices.size();
+        String[] labels = new String[nv];
+        double[] xs = new double[nv];
+        double[] ys = new double[nv];
+        int[] vertexNames = new int[nv];
+        int[] groupIndices = new int[nv];
+        double[] transitDistances = new double[nv];
+        byte[] vertexFlags = new byte[nv];
+        for (int i = 0; i < nv; i++) {
+            IntersectionVertex v = vertices.get(i);
+            labels[i] = v.getLabel();
+            xs[i] = v.getX();
+            ys[i] = v.getY();
+            vertexNames[i] = strings.add(v.getName());
+            groupIndices[i] = v.getGroupIndex();
+            transitDistances[i] = v.getDistanceToNearestTransitStop();
+            byte flags = 0;
+            if (v.isTrafficLight())
+                flags |= V_TRAFFIC_LIGHT;
+            if (v.isFreeFlowing())
+                flags |= V_FREE_FLOWING;
+            vertexFlags[i] = flags;
+        }
+
+        int ne = streetEdges.size();
+        int[] ids = new int[ne];
+        int[] froms = new int[ne];
+        int[] tos = new int[ne];
+        double[] lengths = new double[ne];
+        int[] edgeNames = new int[ne];
+        byte[] permissions = new byte[ne];
+        short[] edgeFlags = new short[ne];
+        int[] streetClasses = new int[ne];
+        float[] carSpeeds = new float[ne];
+        short[] inAngles = new short[ne];
+        short[] outAngles = new short[ne];
+        double[] profileLengths = new double[ne];
+        double[] slopeSpeedLengths = new double[ne];
+        double[] safetyLengths = new double[ne];
+        double[] workCosts = new double[ne];
+        double[] maxSlopes = new double[ne];
+        int[] geomSizes = new int[ne];
+        int[] elevSizes = new int[ne];
+        int nGeomCoords = 0;
+        int nElevCoords = 0;
+        List<Integer> extraPositions = new ArrayList<Integer>();
+        List<Object[]> extras = new ArrayList<Object[]>();
+        for (int i = 0; i < ne; i++) {
+            PlainStreetEdge e = streetEdges.get(i);
+            ids[i] = e.getId();
+            froms[i] = vertexPositions.get(e.getFromVertex());
+            tos[i] = vertexPositions.get(e.getToVertex());
+            lengths[i] = e.getLength();
+            edgeNames[i] = strings.add(e.getName());
+            permissions[i] = (byte) (e.getPermission() == null ? -1 : e.getPermission().ordinal());
+            streetClasses[i] = e.getStreetClass();
+            carSpeeds[i] = e.getCarSpeed();
+            inAngles[i] = (short) e.getInAngle();
+            outAngles[i] = (short) e.getOutAngle();
+            ElevationProfileSegment eps = e.getElevationProfileSegment();
+            profileLengths[i] = eps.getLength();
+            slopeSpeedLengths[i] = eps.getSlopeSpeedEffectiveLength();
+            safetyLengths[i] = eps.getBicycleSafetyEffectiveLength();
+            workCosts[i] = eps.getSlopeWorkCost();
+            maxSlopes[i] = eps.getMaxSlope();
+            LineString geometry = e.getGeometry();
+            geomSizes[i] = geometry == null ? -1 : geometry.getNumPoints();
+            if (geometry != null)
+                nGeomCoords += geometry.getNumPoints();
+            PackedCoordinateSequence elev = eps.getElevationProfile();
+            elevSizes[i] = elev == null ? -1 : elev.size();
+            if (elev != null)
+                nElevCoords += elev.size();
+            short flags = 0;
+            if (e.back)
+                flags |= E_BACK;
+            if (e.isWheelchairAccessible())
+                flags |= E_WHEELCHAIR;
+            if (e.isRoundabout())
+                flags |= E_ROUNDABOUT;
+            if (e.hasBogusName())
+                flags |= E_BOGUS_NAME;
+            if (e.isNoThruTraffic())
+                flags |= E_NO_THRU_TRAFFIC;
+            if (e.isStairs())
+                flags |= E_STAIRS;
+            if (e.getToll())
+                flags |= E_TOLL;
+            if (eps.getSlopeOverride())
+                flags |= E_SLOPE_OVERRIDE;
+            if (eps.isFlattened())
+                flags |= E_FLATTENED;
+            // rarely used fields travel in the serialized section
+            if (e.getNotes() != null || e.getWheelchairNotes() != null
+                    || e.hasExplicitTurnRestrictions() || !e.getPatches().isEmpty()) {
+                flags |= E_EXTRAS;
+                extraPositions.add(i);
+                extras.add(new Object[] { e.getNotes(), e.getWheelchairNotes(),
+                        e.hasExplicitTurnRestrictions() ? e.getTurnRestrictions() : null,
+                        e.getPatches().isEmpty() ? null : new ArrayList<Patch>(e.getPatches()) });
+            }
+            edgeFlags[i] = flags;
+        }
+        double[] geomCoords = new double[nGeomCoords * 2];
+        double[] elevCoords = new double[nElevCoords * 2];
+        int g = 0;
+        int h = 0;
+        for (int i = 0; i < ne; i++) {
+            PlainStreetEdge e = streetEdges.get(i);
+            if (geomSizes[i] > 0) {
+                CoordinateSequence seq = e.getGeometry().getCoordinateSequence();
+                for (int c = 0; c < geomSizes[i]; c++) {
+                    geomCoords[g++] = seq.getX(c);
+                    geomCoords[g++] = seq.getY(c);
+                }
+            }
+            if (elevSizes[i] > 0) {
+                PackedCoordinateSequence elev = e.getElevationProfileSegment()
+                        .getElevationProfile();
+                for (int c = 0; c < elevSizes[i]; c++) {
+                    elevCoords[h++] = elev.getX(c);
+                    elevCoords[h++] = elev.getY(c);
+                }
+            }
+        }
+
+        strings.write(out);
+        out.putInt(nv);
+        out.putStrings(labels);
+        out.putDoubles(xs);
+        out.putDoubles(ys);
+        out.putInts(vertexNames);
+        out.putInts(groupIndices);
+        out.putDoubles(transitDistances);
+        out.putBytes(vertexFlags);
+
+        out.putInt(ne);
+        out.putInts(ids);
+        out.putInts(froms);
+        out.putInts(tos);
+        out.putDoubles(lengths);
+        out.putInts(edgeNames);
+        out.putBytes(permissions);
+        out.putShorts(edgeFlags);
+        out.putInts(streetClasses);
+        out.putFloats(carSpeeds);
+        out.putShorts(inAngles);
+        out.putShorts(outAngles);
+        out.putDoubles(profileLengths);
+        out.putDoubles(slopeSpeedLengths);
+        out.putDoubles(safetyLengths);
+        out.putDoubles(workCosts);
+        out.putDoubles(maxSlopes);
+        out.putInts(geomSizes);
+        out.putInt(geomCoords.length);
+        out.putDoubles(geomCoords);
+        out.putInts(elevSizes);
+        out.putInt(elevCoords.length);
+        out.putDoubles(elevCoords);
+        out.flush();
+
+        LOG.debug("Writing serialized section...");
+        int[] extraPositionArray = new int[extraPositions.size()];
+        for (int i = 0; i < extraPositionArray.length; i++)
+            extraPositionArray[i] = extraPositions.get(i);
+        // the channel stream writes through on every call, and serialization makes many small ones
+        ObjectOutputStream oos = new ReferenceReplacingOutputStream(new BufferedOutputStream(
+                Channels.newOutputStream(channel)), vertexPositions, edgePositions);
+        oos.writeObject(graph);
+        oos.writeObject(otherEdges);
+        oos.writeObject(extraPositionArray);
+        oos.writeObject(extras.toArray(new Object[extras.size()][]));
+        graph.writeDebugData(oos);
+        // push the buffered tail into the channel before the caller closes it
+        oos.flush();
+        LOG.info("Graph written.");
+    }
+
+    /* READING */
+
+    /**
+     * Read a graph in binary format from the given stream, which should be buffered by the caller
+     * if it is not backed by a file.
+     */
+    public static Graph read(InputStream is, LoadLevel level, StreetVertexIndexFactory indexFactory,
+            ClassLoader classLoader) throws IOException, ClassNotFoundException {
+        return read(new ChannelInput(Channels.newChannel(is)), level, indexFactory, classLoader,
+                false);
+    }
+
+    /**
+     * Read a graph in binary format from a memory-mapped file. Street geometries and elevation
+     * profiles are not copied onto the heap but remain in the mapped file, where the operating
+     * system can share them between processes and keep them cached across restarts. This means
+     * several routers (or several server processes) can be loaded without each holding its own
+     * copy of the bulkiest part of the street layer.
+     * 
+     * Files too large to be mapped in one piece are read normally.
+     */
+    public static Graph readMapped(File file, LoadLevel level,
+            StreetVertexIndexFactory indexFactory) throws IOException, ClassNotFoundException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            FileChannel channel = fis.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                LOG.warn("Graph file {} is too large to be memory-mapped, reading it instead.",
+                        file);
+                return read(new BufferedInputStream(fis), level, indexFactory, null);
+            }
+            // the mapping remains valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            LOG.info("Graph file {} mapped into memory ({} bytes).", file, size);
+            return read(new ChannelInput(buffer), level, indexFactory, null, true);
+        } finally {
+            fis.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Graph read(ChannelInput in, LoadLevel level,
+            StreetVertexIndexFactory indexFactory, ClassLoader classLoader, boolean mapped)
+            throws IOException, ClassNotFoundException {
+        if (in.getInt() != MAGIC)
+            throw new IOException("Not a binary graph file.");
+        int version = in.getInt();
+        long uid = in.getLong();
+        if (version != FORMAT_VERSION || uid != MavenVersion.VERSION.getUID()) {
+            LOG.error("Stored graph is incompatible with this version of OTP, please rebuild it.");
+            throw new IllegalStateException("Stored Graph version error");
+        }
+
+        String[] strings = in.getStrings(in.getInt());
+        int nv = in.getInt();
+        String[] labels = in.getStrings(nv);
+        double[] xs = in.getDoubles(nv);
+        double[] ys = in.getDoubles(nv);
+        int[] vertexNames = in.getInts(nv);
+        int[] groupIndices = in.getInts(nv);
+        double[] transitDistances = in.getDoubles(nv);
+        byte[] vertexFlags = in.getBytes(nv);
+
+        IntersectionVertex[] vertices = new IntersectionVertex[nv];
+        for (int i = 0; i < nv; i++) {
+            // null graph: the vertex map is rebuilt from the edges below
+            IntersectionVertex v = new IntersectionVertex(null, labels[i], xs[i], ys[i],
+                    lookup(strings, vertexNames[i]));
+            v.setGroupIndex(groupIndices[i]);
+            v.setDistanceToNearestTransitStop(transitDistances[i]);
+            v.setTrafficLight((vertexFlags[i] & V_TRAFFIC_LIGHT) != 0);
+            v.setFreeFlowing((vertexFlags[i] & V_FREE_FLOWING) != 0);
+            vertices[i] = v;
+        }
+        labels = null;
+
+        int ne = in.getInt();
+        int[] ids = in.getInts(ne);
+        int[] froms = in.getInts(ne);
+        int[] tos = in.getInts(ne);
+        double[] lengths = in.getDoubles(ne);
+        int[] edgeNames = in.getInts(ne);
+        byte[] permissions = in.getBytes(ne);
+        short[] edgeFlags = in.getShorts(ne);
+        int[] streetClasses = in.getInts(ne);
+        float[] carSpeeds = in.getFloats(ne);
+        short[] inAngles = in.getShorts(ne);
+        short[] outAngles = in.getShorts(ne);
+        double[] profileLengths = in.getDoubles(ne);
+        double[] slopeSpeedLengths = in.getDoubles(ne);
+        double[] safetyLengths = in.getDoubles(ne);
+        double[] workCosts = in.getDoubles(ne);
+        double[] maxSlopes = in.getDoubles(ne);
+        int[] geomSizes = in.getInts(ne);
+        CoordinateColumn geomCoords = new CoordinateColumn(in, in.getInt(), mapped);
+        int[] elevSizes = in.getInts(ne);
+        CoordinateColumn elevCoords = new CoordinateColumn(in, in.getInt(), mapped);
+
+        PlainStreetEdge[] edges = new PlainStreetEdge[ne];
+        for (int i = 0; i < ne; i++) {
+            LineString geometry = null;
+            if (geomSizes[i] >= 0) {
+                geometry = GeometryUtils.getGeometryFactory().createLineString(
+                        geomCoords.next(geomSizes[i]));
+            }
+            short flags = edgeFlags[i];
+            StreetTraversalPermission permission = permissions[i] < 0 ? null
+                    : PERMISSIONS[permissions[i]];
+            PlainStreetEdge e = new PlainStreetEdge(vertices[froms[i]], vertices[tos[i]],
+                    geometry, lookup(strings, edgeNames[i]), lengths[i], permission,
+                    (flags & E_BACK) != 0, carSpeeds[i]);
+            ((Edge) e).setId(ids[i]); // not inherited outside this package
+            e.setWheelchairAccessible((flags & E_WHEELCHAIR) != 0);
+            e.setRoundabout((flags & E_ROUNDABOUT) != 0);
+            e.setHasBogusName((flags & E_BOGUS_NAME) != 0);
+            e.setNoThruTraffic((flags & E_NO_THRU_TRAFFIC) != 0);
+            e.setStairs((flags & E_STAIRS) != 0);
+            e.setToll((flags & E_TOLL) != 0);
+            e.setStreetClass(streetClasses[i]);
+            e.inAngle = inAngles[i];
+            e.outAngle = outAngles[i];
+            ElevationProfileSegment eps = e.getElevationProfileSegment();
+            eps.setLength(profileLengths[i]);
+            eps.setSlopeSpeedEffectiveLength(slopeSpeedLengths[i]);
+            eps.setBicycleSafetyEffectiveLength(safetyLengths[i]);
+            eps.setSlopeWorkCost(workCosts[i]);
+            eps.setMaxSlope(maxSlopes[i]);
+            eps.setSlopeOverride((flags & E_SLOPE_OVERRIDE) != 0);
+            eps.setFlattened((flags & E_FLATTENED) != 0);
+            if (elevSizes[i] >= 0) {
+                eps.setElevationProfile(elevCoords.next(elevSizes[i]));
+            }
+            edges[i] = e;
+        }
+        LOG.debug("Street layer read. |V|={} |E|={}", nv, ne);
+
+        try {
+            ObjectInputStream ois = new ReferenceResolvingInputStream(in, vertices, edges,
+                    classLoader);
+            Graph graph = (Graph) ois.readObject();
+            LOG.debug("Basic graph info read.");
+            if (graph.graphVersionMismatch())
+                throw new RuntimeException("Graph version mismatch detected.");
+            if (level == LoadLevel.BASIC)
+                return graph;
+            List<Edge> otherEdges = (List<Edge>) ois.readObject();
+            int[] extraPositions = (int[]) ois.readObject();
+            Object[][] extras = (Object[][]) ois.readObject();
+            for (int i = 0; i < extraPositions.length; i++) {
+                PlainStreetEdge e = edges[extraPositions[i]];
+                Object[] extra = extras[i];
+                e.setNote((Set<Alert>) extra[0]);
+                e.setWheelchairNote((Set<Alert>) extra[1]);
+                if (extra[2] != null) {
+                    for (TurnRestriction tr : (List<TurnRestriction>) extra[2])
+                        e.addTurnRestriction(tr);
+                }
+                if (extra[3] != null) {
+                    for (Patch p : (List<Patch>) extra[3])
+                        e.addPatch(p);
+                }
+            }
+            List<Edge> allEdges = new ArrayList<Edge>(ne + otherEdges.size());
+            for (PlainStreetEdge e : edges)
+                allEdges.add(e);
+            allEdges.addAll(otherEdges);
+            graph.indexLoadedEdges(allEdges, indexFactory);
+            if (level == LoadLevel.FULL)
+                return graph;
+            graph.readDebugData(ois);
+            return graph;
+        } catch (InvalidClassException ex) {
+            LOG.error("Stored graph is incompatible with this version of OTP, please rebuild it.");
+            throw new IllegalStateException("Stored Graph version error", ex);
+        }
+    }
+
+    private static String lookup(String[] strings, int i) {
+        return i < 0 ? null : strings[i];
+    }
+
+    /* STREAM HELPERS */
+
+    /**
+     * A column of packed 2D coordinates, split into consecutive sequences. When mapped, the
+     * sequences are views on the underlying buffer rather than copies.
+     */
+    private static class CoordinateColumn {
+
+        private double[] coords;
+
+        private DoubleBuffer buffer;
+
+        private int position = 0;
+
+        CoordinateColumn(ChannelInput in, int length, boolean mapped) throws IOException {
+            if (mapped)
+                buffer = in.getDoubleView(length);
+            else
+                coords = in.getDoubles(length);
+        }
+
+        PackedCoordinateSequence next(int size) {
+            PackedCoordinateSequence seq;
+            if (buffer != null) {
+                seq = new PackedCoordinateSequence.Mapped(buffer, position, size, 2);
+            } else {
+                double[] copy = new double[size * 2];
+                System.arraycopy(coords, position, copy, 0, copy.length);
+                seq = new PackedCoordinateSequence.Double(copy, 2);
+            }
+            position += size * 2;
+            return seq;
+        }
+    }
+
+    /** Interns the (often repeated) names of streets and vertices. */
+    private static class StringTable {
+
+        private Map<String, Integer> index = new HashMap<String, Integer>();
+
+        private List<String> strings = new ArrayList<String>();
+
+        int add(String s) {
+            if (s == null)
+                return -1;
+            Integer i = index.get(s);
+            if (i == null) {
+                i = strings.size();
+                strings.add(s);
+                index.put(s, i);
+            }
+            return i;
+        }
+
+        void write(ChannelOutput out) throws IOException {
+            out.putInt(strings.size());
+            out.putStrings(strings.toArray(new String[strings.size()]));
+        }
+    }
+
+    /** Buffered writing of primitives and primitive arrays to a channel. */
+    private static class ChannelOutput {
+
+        private final WritableByteChannel channel;
+
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        ChannelOutput(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining())
+                channel.write(buf);
+            buf.clear();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buf.remaining() < bytes)
+                flush();
+        }
+
+        void putInt(int i) throws IOException {
+            ensure(4);
+            buf.putInt(i);
+        }
+
+        void putLong(long l) throws IOException {
+            ensure(8);
+            buf.putLong(l);
+        }
+
+        void putBytes(byte[] a) throws IOException {
+            int off = 0;
+            while (off < a.length) {
+                ensure(1);
+                int n = Math.min(buf.remaining(), a.length - off);
+                buf.put(a, off, n);
+                off += n;
+            }
+        }
+
+        void putShorts(short[] a) throws IOException {
+            int off = 0;
+            while (off < a.length) {
+                ensure(2);
+                int n = Math.min(buf.remaining() / 2, a.length - off);
+                buf.asShortBuffer().put(a, off, n);
+                buf.position(buf.position() + n * 2);
+                off += n;
+            }
+        }
+
+        void putInts(int[] a) throws IOException {
+            int off = 0;
+            while (off < a.length) {
+                ensure(4);
+                int n = Math.min(buf.remaining() / 4, a.length - off);
+                buf.asIntBuffer().put(a, off, n);
+                buf.position(buf.position() + n * 4);
+                off += n;
+            }
+        }
+
+        void putFloats(float[] a) throws IOException {
+            int off = 0;
+            while (off < a.length) {
+                ensure(4);
+                int n = Math.min(buf.remaining() / 4, a.length - off);
+                buf.asFloatBuffer().put(a, off, n);
+                buf.position(buf.position() + n * 4);
+                off += n;
+            }
+        }
+
+        void putDoubles(double[] a) throws IOException {
+            int off = 0;
+            while (off < a.length) {
+                ensure(8);
+                int n = Math.min(buf.remaining() / 8, a.length - off);
+                buf.asDoubleBuffer().put(a, off, n);
+                buf.position(buf.position() + n * 8);
+                off += n;
+            }
+        }
+
+        /** Strings are stored as a column of byte lengths followed by their UTF-8 bytes. */
+        void putStrings(String[] a) throws IOException {
+            byte[][] encoded = new byte[a.length][];
+            int[] lengths = new int[a.length];
+            for (int i = 0; i < a.length; i++) {
+                if (a[i] == null) {
+                    lengths[i] = -1;
+                } else {
+                    encoded[i] = a[i].getBytes(UTF8);
+                    lengths[i] = encoded[i].length;
+                }
+            }
+            putInts(lengths);
+            for (byte[] bytes : encoded) {
+                if (bytes != null)
+                    putBytes(bytes);
+            }
+        }
+    }
+
+    /**
+     * Buffered bulk reading of primitive arrays from a channel. This is also an InputStream so the
+     * serialized section can be read from the same buffer once the columns are consumed.
+     */
+    private static class ChannelInput extends InputStream {
+
+        private final ReadableByteChannel channel;
+
+        private final ByteBuffer buf;
+
+        ChannelInput(ReadableByteChannel channel) {
+            this.channel = channel;
+            this.buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buf.limit(0);
+        }
+
+        /** Read from a buffer holding the entire file, e.g. a memory-mapped one. */
+        ChannelInput(ByteBuffer buffer) {
+            this.channel = null;
+            this.buf = buffer;
+        }
+
+        /** @return false at end of stream */
+        private boolean fill() throws IOException {
+            if (channel == null)
+                return false;
+            buf.compact();
+            int n = 0;
+            while (n == 0)
+                n = channel.read(buf);
+            buf.flip();
+            return n > 0;
+        }
+
+        private void require(int bytes) throws IOException {
+            while (buf.remaining() < bytes) {
+                if (!fill())
+                    throw new EOFException();
+            }
+        }
+
+        int getInt() throws IOException {
+            require(4);
+            return buf.getInt();
+        }
+
+        long getLong() throws IOException {
+            require(8);
+            return buf.getLong();
+        }
+
+        byte[] getBytes(int len) throws IOException {
+            byte[] a = new byte[len];
+            int off = 0;
+            while (off < len) {
+                require(1);
+                int n = Math.min(buf.remaining(), len - off);
+                buf.get(a, off, n);
+                off += n;
+            }
+            return a;
+        }
+
+        short[] getShorts(int len) throws IOException {
+            short[] a = new short[len];
+            int off = 0;
+            while (off < len) {
+                require(2);
+                int n = Math.min(buf.remaining() / 2, len - off);
+                buf.asShortBuffer().get(a, off, n);
+                buf.position(buf.position() + n * 2);
+                off += n;
+            }
+            return a;
+        }
+
+        int[] getInts(int len) throws IOException {
+            int[] a = new int[len];
+            int off = 0;
+            while (off < len) {
+                require(4);
+                int n = Math.min(buf.remaining() / 4, len - off);
+                buf.asIntBuffer().get(a, off, n);
+                buf.position(buf.position() + n * 4);
+                off += n;
+            }
+            return a;
+        }
+
+        float[] getFloats(int len) throws IOException {
+            float[] a = new float[len];
+            int off = 0;
+            while (off < len) {
+                require(4);
+                int n = Math.min(buf.remaining() / 4, len - off);
+                buf.asFloatBuffer().get(a, off, n);
+                buf.position(buf.position() + n * 4);
+                off += n;
+            }
+            return a;
+        }
+
+        double[] getDoubles(int len) throws IOException {
+            double[] a = new double[len];
+            int off = 0;
+            while (off < len) {
+                require(8);
+                int n = Math.min(buf.remaining() / 8, len - off);
+                buf.asDoubleBuffer().get(a, off, n);
+                buf.position(buf.position() + n * 8);
+                off += n;
+            }
+            return a;
+        }
+
+        /**
+         * @return a view on the next len doubles, which must already be in the buffer (as is the
+         *         case for a mapped file).
+         */
+        DoubleBuffer getDoubleView(int len) throws IOException {
+            if (channel != null)
+                throw new IllegalStateException("Double views require a fully buffered input.");
+            require(len * 8);
+            ByteBuffer slice = buf.slice();
+            slice.limit(len * 8);
+            buf.position(buf.position() + len * 8);
+            return slice.asDoubleBuffer();
+        }
+
+        String[] getStrings(int len) throws IOException {
+            int[] lengths = getInts(len);
+            String[] a = new String[len];
+            for (int i = 0; i < len; i++) {
+                if (lengths[i] >= 0)
+                    a[i] = new String(getBytes(lengths[i]), UTF8);
+            }
+            return a;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!buf.hasRemaining() && !fill())
+                return -1;
+            return buf.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (!buf.hasRemaining() && !fill())
+                return -1;
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (channel != null)
+                channel.close();
+        }
+    }
+
+    /** Stands in for a street vertex in the serialized section. */
+    private static class VertexRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int position;
+
+        VertexRef(int position) {
+            this.position = position;
+        }
+    }
+
+    /** Stands in for a street edge in the serialized section. */
+    private static class EdgeRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final int position;
+
+        EdgeRef(int position) {
+            this.position = position;
+        }
+    }
+
+    private static class ReferenceReplacingOutputStream extends ObjectOutputStream {
+
+        private final Map<Object, Integer> vertexPositions;
+
+        private final Map<Object, Integer> edgePositions;
+
+        ReferenceReplacingOutputStream(OutputStream out, Map<Object, Integer> vertexPositions,
+                Map<Object, Integer> edgePositions) throws IOException {
+            super(out);
+            this.vertexPositions = vertexPositions;
+            this.edgePositions = edgePositions;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) {
+            if (obj instanceof Vertex) {
+                Integer position = vertexPositions.get(obj);
+                if (position != null)
+                    return new VertexRef(position);
+            } else if (obj instanceof Edge) {
+                Integer position = edgePositions.get(obj);
+                if (position != null)
+                    return new EdgeRef(position);
+            }
+            return obj;
+        }
+    }
+
+    private static class ReferenceResolvingInputStream extends ObjectInputStream {
+
+        private final Vertex[] vertices;
+
+        private final Edge[] edges;
+
+        private final ClassLoader classLoader;
+
+        ReferenceResolvingInputStream(InputStream in, Vertex[] vertices, Edge[] edges,
+                ClassLoader classLoader) throws IOException {
+            super(in);
+            this.vertices = vertices;
+            this.edges = edges;
+            this.classLoader = classLoader;
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) {
+            if (obj instanceof VertexRef)
+                return vertices[((VertexRef) obj).position];
+            if (obj instanceof EdgeRef)
+                return edges[((EdgeRef) obj).position];
+            return obj;
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass osc) throws IOException,
+                ClassNotFoundException {
+            if (classLoader == null)
+                return super.resolveClass(osc);
+            return Class.forName(osc.getName(), false, classLoader);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import java.util.Collection;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A frozen, array-backed copy of the vertex edge lists of a Graph in compressed sparse row (CSR)
+ * layout. The outgoing edges of the vertex with index i are found in outEdges[outStart[i - base]]
+ * up to (but not including) outEdges[outStart[i - base + 1]], and likewise for incoming edges.
+ *
+ * The vertex edge lists remain the authoritative representation of the graph, so these arrays
+ * speed up vertex expansion at the cost of some memory in addition to them. Temporary edges
+ * (e.g. those created by StreetLocation) are attached to permanent vertices after the adjacency
+ * arrays are built; such vertices are detected by comparing their edge list modification counter
+ * with the one recorded at build time, in which case callers must fall back on the vertex edge
+ * lists. Vertices created after the freeze (including all temporary vertices) are never covered.
+ */
+public class CompactAdjacency {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactAdjacency.class);
+
+    private static final Edge[] EMPTY_EDGES = new Edge[0];
+
+    /* lowest vertex index covered by these arrays, vertex indices are not zero-based per graph */
+    private final int base;
+
+    private final int nVertices;
+
+    /* identity of the vertex each slot was built from, to reject vertices reusing an index */
+    private final Vertex[] vertices;
+
+    private final int[] modCounts;
+
+    private final int[] outStart;
+
+    private final Edge[] outEdges;
+
+    private final int[] inStart;
+
+    private final Edge[] inEdges;
+
+    /**
+     * Freeze the current edge lists of all vertices in the given graph. Indices must already be
+     * assigned, see Graph.rebuildVertexAndEdgeIndices().
+     */
+    public CompactAdjacency(Graph graph) {
+        Collection<Vertex> allVertices = graph.getVertices();
+        int min = Integer.MAX_VALUE;
+        int max = -1;
+        for (Vertex v : allVertices) {
+            int i = v.getIndex();
+            if (i < min)
+                min = i;
+            if (i > max)
+                max = i;
+        }
+        if (max < 0) {
+            min = 0;
+        }
+        base = min;
+        nVertices = max - min + 1;
+        vertices = new Vertex[nVertices];
+        modCounts = new int[nVertices];
+        int[] outDegree = new int[nVertices];
+        int[] inDegree = new int[nVertices];
+        // copy edge lists once, they may be modified concurrently by other threads
+        Edge[][] outLists = new Edge[nVertices][];
+        Edge[][] inLists = new Edge[nVertices][];
+        int nOut = 0;
+        int nIn = 0;
+        for (Vertex v : allVertices) {
+            int slot = v.getIndex() - base;
+            vertices[slot] = v;
+            modCounts[slot] = v.getEdgeListModCount();
+            outLists[slot] = v.getOutgoing().toArray(EMPTY_EDGES);
+            inLists[slot] = v.getIncoming().toArray(EMPTY_EDGES);
+            if (v.getEdgeListModCount() != modCounts[slot]) {
+                // changed while copying, leave this vertex to the edge list fallback
+                modCounts[slot] = -1;
+            }
+            outDegree[slot] = outLists[slot].length;
+            inDegree[slot] = inLists[slot].length;
+            nOut += outDegree[slot];
+            nIn += inDegree[slot];
+        }
+        outStart = new int[nVertices + 1];
+        inStart = new int[nVertices + 1];
+        for (int slot = 0; slot < nVertices; slot++) {
+            outStart[slot + 1] = outStart[slot] + outDegree[slot];
+            inStart[slot + 1] = inStart[slot] + inDegree[slot];
+        }
+        outEdges = new Edge[nOut];
+        inEdges = new Edge[nIn];
+        for (int slot = 0; slot < nVertices; slot++) {
+            if (outLists[slot] == null)
+                continue;
+            int o = outStart[slot];
+            for (Edge e : outLists[slot]) {
+                outEdges[o++] = e;
+            }
+            int i = inStart[slot];
+            for (Edge e : inLists[slot]) {
+                inEdges[i++] = e;
+            }
+        }
+        LOG.info("Compact adjacency built for {} vertex slots, {} outgoing and {} incoming edges.",
+                nVertices, nOut, nIn);
+    }
+
+    /**
+     * @return true if the edge lists of the given vertex are identical to those captured in these
+     *         arrays, so that getStart/getEnd/getEdges can be used in place of its edge lists.
+     */
+    public boolean covers(Vertex v) {
+        int slot = v.getIndex() - base;
+        if (slot < 0 || slot >= nVertices)
+            return false;
+        return vertices[slot] == v && modCounts[slot] == v.getEdgeListModCount();
+    }
+
+    /** @return the edge array to index with getStart and getEnd for the given search direction. */
+    public Edge[] getEdges(boolean incoming) {
+        return incoming ? inEdges : outEdges;
+    }
+
+    /** @return the position of the first edge of a covered vertex. */
+    public int getStart(Vertex v, boolean incoming) {
+        int slot = v.getIndex() - base;
+        return incoming ? inStart[slot] : outStart[slot];
+    }
+
+    /** @return the position one past the last edge of a covered vertex. */
+    public int getEnd(Vertex v, boolean incoming) {
+        int slot = v.getIndex() - base;
+        return incoming ? inStart[slot + 1] : outStart[slot + 1];
+    }
+
+    /** @return the lowest vertex index covered by these arrays. */
+    public int getBaseIndex() {
+        return base;
+    }
+
+    /** @return the number of vertex slots in these arrays (some may be empty). */
+    public int getVertexSlots() {
+        return nVertices;
+    }
+
+    /** @return the vertex with the given index when the adjacency was built, or null. */
+    public Vertex getVertex(int index) {
+        int slot = index - base;
+        if (slot < 0 || slot >= nVertices)
+            return null;
+        return vertices[slot];
+    }
+
+}
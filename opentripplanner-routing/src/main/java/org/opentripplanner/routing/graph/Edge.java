@@ -80,6 +80,11 @@ public abstract class Edge implements Serializable {
         tov.addIncoming(this);
     }
 
+    /** Restore a stored identifier, for use when loading graphs only. */
+    void setId(int id) {
+        this.id = id;
+    }
+
     public Vertex getFromVertex() {
         return fromv;
     }
@@ -16,7 +16,6 @@ package org.opentripplanner.routing.graph;
 import static org.opentripplanner.common.IterableLibrary.filter;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -51,6 +50,8 @@ import org.opentripplanner.gbannotation.GraphBuilderAnnotation;
 import org.opentripplanner.gbannotation.NoFutureDates;
 import org.opentripplanner.model.GraphBundle;
 import org.opentripplanner.routing.core.MortonVertexComparatorFactory;
+import org.opentripplanner.routing.core.ServiceDateIndex;
+import org.opentripplanner.routing.core.ServiceIdToNumberService;
 import org.opentripplanner.routing.core.TransferTable;
 import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.edgetype.TimetableSnapshotSource;
@@ -102,6 +103,9 @@ public class Graph implements Serializable {
 
     public transient TimetableSnapshotSource timetableSnapshotSource = null;
 
+    /* frozen array copy of the vertex edge lists for use in searches, null until frozen */
+    private transient CompactAdjacency compactAdjacency = null;
+
     private transient List<GraphBuilderAnnotation> graphBuilderAnnotations = new LinkedList<GraphBuilderAnnotation>(); // initialize for tests
 
     private Collection<String> agenciesIds = new HashSet<String>();
@@ -363,6 +367,24 @@ public class Graph implements Serializable {
         }
     }
 
+    /**
+     * Build array-backed copies of all vertex edge lists (see CompactAdjacency) for use by the
+     * search algorithms. This should be done once the graph is complete, i.e. after loading.
+     * Vertices whose edge lists are changed later fall back on their own edge lists, so calling
+     * this again is only needed to restore compact access after large-scale modifications.
+     */
+    public void freezeAdjacency() {
+        this.compactAdjacency = new CompactAdjacency(this);
+    }
+
+    /**
+     * @return the frozen adjacency arrays for this graph, or null if freezeAdjacency() has not
+     *         been called.
+     */
+    public CompactAdjacency getCompactAdjacency() {
+        return compactAdjacency;
+    }
+
     private void readObject(ObjectInputStream inputStream) throws ClassNotFoundException,
             IOException {
         inputStream.defaultReadObject();
@@ -398,21 +420,58 @@ public class Graph implements Serializable {
     public static Graph load(File file, LoadLevel level) throws IOException, ClassNotFoundException {
         LOG.info("Reading graph " + file.getAbsolutePath() + " ...");
         // cannot use getClassLoader() in static context
-        ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
-        return load(in, level);
+        return load(new FileInputStream(file), level);
     }
 
     public static Graph load(ClassLoader classLoader, File file, LoadLevel level)
             throws IOException, ClassNotFoundException {
         LOG.info("Reading graph " + file.getAbsolutePath() + " with alternate classloader ...");
-        ObjectInputStream in = new GraphObjectInputStream(new BufferedInputStream(
-                new FileInputStream(file)), classLoader);
+        InputStream is = new BufferedInputStream(new FileInputStream(file));
+        if (BinaryGraphFormat.isBinaryGraph(is))
+            return BinaryGraphFormat.read(is, level, new DefaultStreetVertexIndexFactory(),
+                    classLoader);
+        ObjectInputStream in = new GraphObjectInputStream(is, classLoader);
         return load(in, level);
     }
 
     public static Graph load(InputStream is, LoadLevel level) throws ClassNotFoundException,
             IOException {
-        return load(new ObjectInputStream(is), level);
+        return load(is, level, new DefaultStreetVertexIndexFactory());
+    }
+
+    /**
+     * Load a graph from a stream in either the binary format (see BinaryGraphFormat) or plain Java
+     * serialization, detected from the first bytes of the stream.
+     */
+    public static Graph load(InputStream is, LoadLevel level, StreetVertexIndexFactory indexFactory)
+            throws ClassNotFoundException, IOException {
+        if (!is.markSupported())
+            is = new BufferedInputStream(is);
+        if (BinaryGraphFormat.isBinaryGraph(is)) {
+            LOG.debug("Graph stream is in binary format.");
+            return BinaryGraphFormat.read(is, level, indexFactory, null);
+        }
+        return load(new ObjectInputStream(is), level, indexFactory);
+    }
+
+    /**
+     * Load a graph file, memory-mapping the street geometries if it is in the binary format (see
+     * BinaryGraphFormat.readMapped). Graphs in other formats are loaded normally.
+     */
+    public static Graph loadMapped(File file, LoadLevel level,
+            StreetVertexIndexFactory indexFactory) throws IOException, ClassNotFoundException {
+        LOG.info("Reading graph " + file.getAbsolutePath() + " (memory-mapped) ...");
+        InputStream is = new BufferedInputStream(new FileInputStream(file));
+        boolean binary;
+        try {
+            binary = BinaryGraphFormat.isBinaryGraph(is);
+        } finally {
+            is.close();
+        }
+        if (binary)
+            return BinaryGraphFormat.readMapped(file, level, indexFactory);
+        LOG.warn("Graph file {} is not in binary format, it cannot be memory-mapped.", file);
+        return load(new FileInputStream(file), level, indexFactory);
     }
 
     /**
@@ -451,33 +510,13 @@ public class Graph implements Serializable {
             // vertex list is transient because it can be reconstructed from edges
             LOG.debug("Loading edges...");
             List<Edge> edges = (ArrayList<Edge>) in.readObject();
-            graph.vertices = new HashMap<String, Vertex>();
-            
-            for (Edge e : edges) {
-                graph.vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
-                graph.vertices.put(e.getToVertex().getLabel(), e.getToVertex());
-            }
-            // trim edge lists to length
-            for (Vertex v : graph.getVertices())
-                v.compact();
-            LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
-            
-            graph.streetIndex = indexFactory.newIndex(graph);
-            LOG.debug("street index built.");
-            
-            LOG.debug("Rebuilding edge and vertex indices");
-            graph.rebuildVertexAndEdgeIndices();
+            graph.indexLoadedEdges(edges, indexFactory);
             
             if (level == LoadLevel.FULL) {
                 return graph;
             }
             
-            if (graph.debugData) {
-                graph.graphBuilderAnnotations = (List<GraphBuilderAnnotation>) in.readObject();
-                LOG.debug("Debug info read.");
-            } else {
-                LOG.warn("Graph file does not contain debug data.");
-            }
+            graph.readDebugData(in);
             return graph;
         } catch (InvalidClassException ex) {
             LOG.error("Stored graph is incompatible with this version of OTP, please rebuild it.");
@@ -485,6 +524,44 @@ public class Graph implements Serializable {
         }
     }
 
+    /**
+     * Reconstruct the vertex map and all transient indices of a freshly deserialized graph from
+     * its edges. Vertices without edges do not survive serialization.
+     */
+    void indexLoadedEdges(Collection<Edge> edges, StreetVertexIndexFactory indexFactory) {
+        this.vertices = new HashMap<String, Vertex>();
+        
+        for (Edge e : edges) {
+            this.vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
+            this.vertices.put(e.getToVertex().getLabel(), e.getToVertex());
+        }
+        // trim edge lists to length
+        for (Vertex v : this.getVertices())
+            v.compact();
+        LOG.info("Main graph read. |V|={} |E|={}", this.countVertices(), this.countEdges());
+        
+        this.streetIndex = indexFactory.newIndex(this);
+        LOG.debug("street index built.");
+        
+        LOG.debug("Rebuilding edge and vertex indices");
+        this.rebuildVertexAndEdgeIndices();
+
+        LOG.debug("Freezing vertex edge lists");
+        this.freezeAdjacency();
+
+        this.indexServiceDates();
+    }
+
+    @SuppressWarnings("unchecked")
+    void readDebugData(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        if (this.debugData) {
+            this.graphBuilderAnnotations = (List<GraphBuilderAnnotation>) in.readObject();
+            LOG.debug("Debug info read.");
+        } else {
+            LOG.warn("Graph file does not contain debug data.");
+        }
+    }
+
     /**
      * Compares the OTP version number stored in the graph with that of the currently running instance. Logs warnings explaining that mismatched
      * versions can cause problems.
@@ -492,7 +569,7 @@ public class Graph implements Serializable {
      * @return false if Maven versions match (even if commit ids do not match), true if Maven version of graph does not match this version of OTP or
      *         graphs are otherwise obviously incompatible.
      */
-    private boolean graphVersionMismatch() {
+    boolean graphVersionMismatch() {
         MavenVersion v = MavenVersion.VERSION;
         MavenVersion gv = this.mavenVersion;
         LOG.info("Graph version: {}", gv);
@@ -518,13 +595,15 @@ public class Graph implements Serializable {
         }
     }
 
+    /**
+     * Save this graph to a file in the binary format (see BinaryGraphFormat).
+     */
     public void save(File file) throws IOException {
         LOG.info("Main graph size: |V|={} |E|={}", this.countVertices(), this.countEdges());
         LOG.info("Writing graph " + file.getAbsolutePath() + " ...");
-        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
-                new FileOutputStream(file)));
+        FileOutputStream out = new FileOutputStream(file);
         try {
-            save(out);
+            BinaryGraphFormat.write(this, out.getChannel());
             out.close();
         } catch (RuntimeException e) {
             out.close();
@@ -533,6 +612,10 @@ public class Graph implements Serializable {
         }
     }
 
+    /**
+     * Save this graph using plain Java serialization. This is much slower to read back than the
+     * binary format written by save(File), but does not depend on the street layer layout.
+     */
     public void save(ObjectOutputStream out) throws IOException {
         LOG.debug("Consolidating edges...");
         // this is not space efficient
@@ -549,6 +632,11 @@ public class Graph implements Serializable {
         LOG.debug("Writing edges...");
         out.writeObject(this);
         out.writeObject(edges);
+        writeDebugData(out);
+        LOG.info("Graph written.");
+    }
+
+    void writeDebugData(ObjectOutputStream out) throws IOException {
         if (debugData) {
             // should we make debug info generation conditional?
             LOG.debug("Writing debug data...");
@@ -558,7 +646,6 @@ public class Graph implements Serializable {
         } else {
             LOG.debug("Skipping debug data.");
         }
-        LOG.info("Graph written.");
     }
 
     /* deserialization for org.opentripplanner.customize */
@@ -596,6 +683,19 @@ public class Graph implements Serializable {
         return this.calendarService;
     }
 
+    /**
+     * Precompute the services running on each date, so that the ServiceDays of requests need not
+     * query the CalendarService.
+     */
+    public void indexServiceDates() {
+        CalendarService cs = getCalendarService();
+        ServiceIdToNumberService serviceNumbers = getService(ServiceIdToNumberService.class);
+        if (cs == null || serviceNumbers == null)
+            return;
+        putService(ServiceDateIndex.class, new ServiceDateIndex(cs, serviceNumbers));
+        LOG.debug("service dates indexed.");
+    }
+
     public int removeEdgelessVertices() {
         int removed = 0;
         List<Vertex> toRemove = new LinkedList<Vertex>();
@@ -41,6 +41,13 @@ public interface Vertex extends Serializable, Cloneable {
     public abstract boolean removeIncoming(Edge ee);
     public abstract int getDegreeIn();
 
+    /**
+     * Get a counter that changes every time an edge is added to or removed from this vertex's
+     * edge lists. Used to detect when a frozen copy of the edge lists (see CompactAdjacency) is
+     * no longer valid for this vertex, e.g. because temporary edges have been attached to it.
+     */
+    public abstract int getEdgeListModCount();
+
     
     /* ACCESSOR METHODS */
     
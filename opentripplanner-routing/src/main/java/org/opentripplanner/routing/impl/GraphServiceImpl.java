@@ -16,7 +16,6 @@ package org.opentripplanner.routing.impl;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -77,6 +76,13 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
     @Setter
     private boolean attemptRegisterDefault = true;
 
+    /**
+     * If true, graph files on the local filesystem are memory-mapped so that street geometries
+     * stay in the (shared) OS page cache rather than on the heap of each router.
+     */
+    @Setter
+    private boolean mapStreetGeometries = false;
+
     /** 
      * Router IDs may contain alphanumeric characters, underscores, and dashes only. 
      * This prevents any confusion caused by the presence of special characters that might have a 
@@ -198,7 +204,20 @@ public class GraphServiceImpl implements GraphService, ResourceLoaderAware {
         }
         LOG.debug("graph input stream successfully opened. now loading.");
         try {
-            return Graph.load(new ObjectInputStream(is), loadLevel, indexFactory);
+            if (mapStreetGeometries) {
+                File graphFile = null;
+                try {
+                    graphFile = graphResource.getFile();
+                } catch (IOException ex) {
+                    LOG.warn("Graph for routerId '{}' is not a file, it will not be memory-mapped.",
+                            routerId);
+                }
+                if (graphFile != null) {
+                    is.close();
+                    return Graph.loadMapped(graphFile, loadLevel, indexFactory);
+                }
+            }
+            return Graph.load(is, loadLevel, indexFactory);
         } catch (Exception ex) {
             LOG.error("Exception while loading graph from {}.", graphResource);
             ex.printStackTrace();
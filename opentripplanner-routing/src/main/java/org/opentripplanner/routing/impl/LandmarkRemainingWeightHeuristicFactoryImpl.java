@@ -0,0 +1,39 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import org.opentripplanner.routing.algorithm.strategies.DefaultRemainingWeightHeuristic;
+import org.opentripplanner.routing.algorithm.strategies.LandmarkRemainingWeightHeuristic;
+import org.opentripplanner.routing.algorithm.strategies.LandmarkTable;
+import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.services.RemainingWeightHeuristicFactory;
+
+/**
+ * This RemainingWeightHeuristicFactory returns a landmark heuristic for searches on graphs that
+ * have a LandmarkTable, when the table's lower bounds hold for the request, and a Euclidean
+ * heuristic otherwise.
+ */
+public class LandmarkRemainingWeightHeuristicFactoryImpl implements
+        RemainingWeightHeuristicFactory {
+
+    @Override
+    public RemainingWeightHeuristic getInstanceForSearch(RoutingRequest opt) {
+        LandmarkTable table = opt.rctx.graph.getService(LandmarkTable.class);
+        if (table != null && table.getLandmarkCount() > 0 && table.isAdmissible(opt))
+            return new LandmarkRemainingWeightHeuristic(table);
+        return new DefaultRemainingWeightHeuristic();
+    }
+
+}
@@ -15,9 +15,17 @@ package org.opentripplanner.routing.impl;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.opentripplanner.routing.core.RoutingRequest;
@@ -49,6 +57,10 @@ public class RetryingPathServiceImpl implements PathService {
 
     private double firstPathTimeout = 0; // seconds
     private double multiPathTimeout = 0; // seconds
+
+    private int parallelism = 1;
+
+    private ExecutorService executor;
     
     /** Give up on searching for itineraries after this many seconds have elapsed. */
     public void setTimeout (double seconds) {
@@ -76,6 +88,18 @@ public class RetryingPathServiceImpl implements PathService {
         multiPathTimeout = seconds;
     }
 
+    /**
+     * Run up to this many searches for additional itineraries (beyond the first one) at the same
+     * time. Each itinerary found then also yields searches with each of its trips banned
+     * separately, to give the extra threads something to do. All of these searches share the
+     * deadline given by the multiPathTimeout, and their results are merged in the order the
+     * searches were queued, so the itineraries returned do not depend on thread timing.
+     * A value of one (the default) searches for one itinerary at a time.
+     */
+    public void setParallelism (int parallelism) {
+        this.parallelism = parallelism;
+    }
+
     @Override
     public List<GraphPath> getPaths(RoutingRequest options) {
 
@@ -100,8 +124,56 @@ public class RetryingPathServiceImpl implements PathService {
         double maxWalk = options.getMaxWalkDistance();
         double initialMaxWalk = maxWalk;
         long maxTime = options.isArriveBy() ? 0 : Long.MAX_VALUE;
+        // the sets of banned trips that have already been queued, for parallel searches
+        Set<Set<AgencyAndId>> queuedBans = new HashSet<Set<AgencyAndId>>();
         RoutingRequest currOptions;
         while (paths.size() < options.numItineraries) {
+            if (parallelism > 1 && !paths.isEmpty()) {
+                List<RoutingRequest> batch = new ArrayList<RoutingRequest>();
+                while (batch.size() < parallelism && !optionQueue.isEmpty()) {
+                    RoutingRequest variant = optionQueue.poll();
+                    variant.setMaxWalkDistance(maxWalk);
+                    batch.add(variant);
+                }
+                if (batch.isEmpty()) {
+                    LOG.debug("Ran out of options to try.");
+                    break;
+                }
+                double timeout = 0;
+                if (multiPathTimeout > 0) {
+                    timeout = multiPathTimeout
+                            - (System.currentTimeMillis() - searchBeginTime) / 1000.0;
+                    if (timeout <= 0)
+                        break;
+                }
+                List<ShortestPathTree> spts = searchConcurrently(batch, timeout);
+                if (spts == null)
+                    break;
+                List<RoutingRequest> noPaths = new ArrayList<RoutingRequest>();
+                // merge in batch order, up to the number of itineraries requested
+                for (int i = 0; i < batch.size() && paths.size() < options.numItineraries; i++) {
+                    ShortestPathTree spt = spts.get(i);
+                    if (spt == null || spt.getPaths() == null)
+                        // timeout, other searches may still have found something
+                        continue;
+                    if (spt.getPaths().isEmpty()) {
+                        noPaths.add(batch.get(i));
+                        continue;
+                    }
+                    maxWalk = addPaths(spt.getPaths(), batch.get(i), paths,
+                            options.numItineraries, optionQueue, queuedBans, maxWalk);
+                }
+                LOG.debug("{} / {} itineraries", paths.size(), options.numItineraries);
+                if (!noPaths.isEmpty()) {
+                    //try again doubling maxwalk, as for a single search
+                    if (maxWalk > initialMaxWalk * MAX_WALK_MULTIPLE || maxWalk >= Double.MAX_VALUE)
+                        break;
+                    maxWalk *= 2;
+                    optionQueue.addAll(noPaths);
+                    LOG.debug("No paths were found by {} searches.", noPaths.size());
+                }
+                continue;
+            }
             currOptions = optionQueue.poll();
             if (currOptions == null) {
                 LOG.debug("Ran out of options to try.");
@@ -160,32 +232,113 @@ public class RetryingPathServiceImpl implements PathService {
                 LOG.debug("No paths were found.");
                 continue;
             }
-            for (GraphPath path : somePaths) {
-                if (!paths.contains(path)) {
-                    if (path.getWalkDistance() > maxWalk) {
-                        maxWalk = path.getWalkDistance() * 1.25;
-                    }
-                    paths.add(path);
-                    // now, create a list of options, one with each trip in this journey banned.
+            maxWalk = addPaths(somePaths, currOptions, paths, options.numItineraries, optionQueue,
+                    queuedBans, maxWalk);
+            LOG.debug("{} / {} itineraries", paths.size(), currOptions.numItineraries);
+        }
+        if (paths.size() == 0) {
+            return null;
+        }
+        // We order the list of returned paths by the time of arrival or departure (not path duration)
+        Collections.sort(paths, new PathComparator(options.isArriveBy()));
+        return paths;
+    }
 
-                    LOG.debug("New trips: {}", path.getTrips());
-                    RoutingRequest newOptions = currOptions.clone();
-                    for (AgencyAndId trip : path.getTrips()) {
-                        newOptions.banTrip(trip);
-                    }
+    /**
+     * Add the new paths among somePaths to paths until it holds maxPaths, and queue the options
+     * for the searches they lead to. Returns the maximum walk distance to use for subsequent
+     * searches.
+     */
+    private double addPaths(List<GraphPath> somePaths, RoutingRequest currOptions,
+            List<GraphPath> paths, int maxPaths, Queue<RoutingRequest> optionQueue,
+            Set<Set<AgencyAndId>> queuedBans, double maxWalk) {
+        for (GraphPath path : somePaths) {
+            if (paths.size() >= maxPaths)
+                break;
+            if (!paths.contains(path)) {
+                if (path.getWalkDistance() > maxWalk) {
+                    maxWalk = path.getWalkDistance() * 1.25;
+                }
+                paths.add(path);
+                // now, create a list of options, one with each trip in this journey banned.
+
+                LOG.debug("New trips: {}", path.getTrips());
+                List<AgencyAndId> trips = path.getTrips();
+                RoutingRequest newOptions = currOptions.clone();
+                for (AgencyAndId trip : trips) {
+                    newOptions.banTrip(trip);
+                }
+                if (parallelism <= 1) {
                     if (!optionQueue.contains(newOptions)) {
                         optionQueue.add(newOptions);
                     }
+                    continue;
+                }
+                if (queuedBans.add(new HashSet<AgencyAndId>(newOptions.bannedTrips.keySet()))) {
+                    optionQueue.add(newOptions);
+                }
+                if (trips.size() < 2)
+                    continue;
+                for (AgencyAndId trip : trips) {
+                    newOptions = currOptions.clone();
+                    newOptions.banTrip(trip);
+                    if (queuedBans.add(new HashSet<AgencyAndId>(newOptions.bannedTrips.keySet()))) {
+                        optionQueue.add(newOptions);
+                    }
                 }
             }
-            LOG.debug("{} / {} itineraries", paths.size(), currOptions.numItineraries);
         }
-        if (paths.size() == 0) {
+        return maxWalk;
+    }
+
+    /**
+     * Search for all of the given options at the same time, each with its own copy of the routing
+     * context. Returns the trees in the same order as the options, or null if interrupted.
+     */
+    private List<ShortestPathTree> searchConcurrently(List<RoutingRequest> batch,
+            final double timeout) {
+        List<Future<ShortestPathTree>> futures = new ArrayList<Future<ShortestPathTree>>();
+        ExecutorService pool = getExecutor();
+        for (final RoutingRequest variant : batch) {
+            variant.rctx = variant.rctx.copy(variant);
+            futures.add(pool.submit(new Callable<ShortestPathTree>() {
+                @Override
+                public ShortestPathTree call() {
+                    return sptService.getShortestPathTree(variant, timeout);
+                }
+            }));
+        }
+        List<ShortestPathTree> spts = new ArrayList<ShortestPathTree>();
+        try {
+            for (Future<ShortestPathTree> future : futures) {
+                spts.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            for (Future<ShortestPathTree> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
             return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
         }
-        // We order the list of returned paths by the time of arrival or departure (not path duration)
-        Collections.sort(paths, new PathComparator(options.isArriveBy()));
-        return paths;
+        return spts;
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "itinerary-search");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
     }
 
     public GraphService getGraphService() {
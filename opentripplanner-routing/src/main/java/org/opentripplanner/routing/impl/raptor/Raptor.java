@@ -14,13 +14,19 @@
 package org.opentripplanner.routing.impl.raptor;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.annotation.PostConstruct;
 
@@ -28,6 +34,8 @@ import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.Stop;
 import org.opentripplanner.common.geometry.DistanceLibrary;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
+import org.opentripplanner.routing.algorithm.GenericDijkstra;
+import org.opentripplanner.routing.algorithm.strategies.MultiTargetTerminationStrategy;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.ServiceDay;
 import org.opentripplanner.routing.core.State;
@@ -49,6 +57,7 @@ import org.opentripplanner.routing.services.GraphService;
 import org.opentripplanner.routing.services.PathService;
 import org.opentripplanner.routing.services.SPTService;
 import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.ShortestPathTree;
 import org.opentripplanner.routing.vertextype.TransitStop;
 import org.opentripplanner.routing.vertextype.TransitVertex;
 import org.slf4j.Logger;
@@ -83,6 +92,37 @@ public class Raptor implements PathService {
      */
     private double shortPathCutoff = 10000;
 
+    /**
+     * The interval, in seconds, between the departure times of the searches making up a range
+     * search.
+     */
+    private int rangeStep = 60;
+
+    /**
+     * The number of threads scanning the routes of a round. Rounds reaching only a few routes are
+     * scanned by the searching thread alone.
+     */
+    private int parallelism = 1;
+
+    /**
+     * The fewest routes each thread scanning a round is given.
+     */
+    private int minRoutesPerTask = 64;
+
+    private ExecutorService executor;
+
+    /**
+     * Take walking transfers from the transfer table precomputed by the graph builder, if there is
+     * one, instead of searching the street graph after each round.
+     */
+    private boolean useTransferTable = false;
+
+    /**
+     * The criteria of the Pareto sets kept by the search. Besides the best itinerary by weight,
+     * the best one by each criterion is returned.
+     */
+    private RaptorCriterion[] criteria = RaptorState.DEFAULT_CRITERIA;
+
     @PostConstruct
     public void setup() {
         shortPathService.setGraphService(graphService);
@@ -106,6 +146,9 @@ public class Raptor implements PathService {
     @Override
     public List<GraphPath> getPaths(RoutingRequest options) {
 
+        if (options.getDepartureWindow() > 0)
+            return getPathsInWindow(options, options.getDepartureWindow());
+
         final Graph graph = graphService.getGraph(options.getRouterId());
         if (options.rctx == null) {
             options.setRoutingContext(graph);
@@ -113,16 +156,9 @@ public class Raptor implements PathService {
                     new NoThruTrafficPathParser() };
         }
 
-        if (!options.getModes().isTransit()) {
-            return sptService.getShortestPathTree(options).getPaths();
-        }
-
-        //also fall back to A* for short trips
-        double distance = distanceLibrary.distance(options.rctx.origin.getCoordinate(), options.rctx.target.getCoordinate());
-        if (distance < shortPathCutoff) {
-            log.debug("Falling back to A* for very short path");
-            return shortPathService.getPaths(options);
-        }
+        List<GraphPath> nonTransitPaths = getNonTransitPaths(options);
+        if (nonTransitPaths != null)
+            return nonTransitPaths;
 
         RaptorDataService service = graph.getService(RaptorDataService.class);
         if (service == null) {
@@ -134,40 +170,15 @@ public class Raptor implements PathService {
         //we multiply the initial walk distance to account for epsilon dominance.
         double initialWalk = options.getMaxWalkDistance() * WALK_EPSILON;
         options.setMaxWalkDistance(initialWalk);
-
-        //do not even bother with obviously impossible walks
-        double minWalk = options.rctx.origin.getDistanceToNearestTransitStop() + options.rctx.target.getDistanceToNearestTransitStop();
-        if (options.getMaxWalkDistance() < minWalk) {
-            options.setMaxWalkDistance(minWalk);
-        }
+        applyMinWalk(options);
 
         RoutingRequest walkOptions = options.clone();
         walkOptions.rctx.pathParsers = new PathParser[0];
         TraverseModeSet modes = options.getModes().clone();
         modes.setTransit(false);
         walkOptions.setModes(modes);
-        RaptorSearch search = new RaptorSearch(data, options);
-
-        if (data.maxTransitRegions != null) {
-            Calendar tripDate = Calendar.getInstance(graph.getTimeZone());
-            tripDate.setTime(new Date(1000L * options.dateTime));
-
-            Calendar maxTransitStart = Calendar.getInstance(graph.getTimeZone());
-            maxTransitStart.set(Calendar.YEAR, data.maxTransitRegions.startYear);
-            maxTransitStart.set(Calendar.MONTH, data.maxTransitRegions.startMonth);
-            maxTransitStart.set(Calendar.DAY_OF_MONTH, data.maxTransitRegions.startDay);
-
-            int day = 0;
-            while (tripDate.after(maxTransitStart)) {
-                day++;
-                tripDate.add(Calendar.DAY_OF_MONTH, -1);
-            }
-            if (day > data.maxTransitRegions.maxTransit.length || options.isWheelchairAccessible()) {
-                day = -1;
-            }
-
-            search.maxTimeDayIndex = day;
-        }
+        RaptorSearch search = newSearch(data, options);
+        setMaxTransitDay(graph, data, options, search);
 
         int rushAheadRound = preliminaryRaptorSearch(data, options, walkOptions, search);
 
@@ -263,7 +274,7 @@ public class Raptor implements PathService {
             walkOptions.setMaxWalkDistance(firstWalkDistance);
 
             targetStates.addAll(search.getTargetStates());
-            search = new RaptorSearch(data, options);
+            search = newSearch(data, options);
 
         } while (targetStates.size() < options.getNumItineraries());
 
@@ -273,27 +284,249 @@ public class Raptor implements PathService {
             log.info("RAPTOR found no paths");
         }
         Collections.sort(targetStates);
-
-        if (targetStates.size() > options.getNumItineraries())
-            targetStates = targetStates.subList(0, options.getNumItineraries());
+        targetStates = selectItineraries(targetStates, options.getNumItineraries(), criteria);
 
         List<GraphPath> paths = new ArrayList<GraphPath>();
         for (RaptorState targetState : targetStates) {
-            // reconstruct path
-            ArrayList<RaptorState> states = new ArrayList<RaptorState>();
-            RaptorState cur = targetState;
-            while (cur != null) {
-                states.add(cur);
-                cur = cur.getParent();
+            GraphPath path = makePath(data, targetState);
+            if (path != null)
+                paths.add(path);
+        }
+
+        return paths;
+    }
+
+    /**
+     * @return the paths of the requests that are not answered with RAPTOR (non-transit requests
+     *         and very short trips), or null for other requests
+     */
+    private List<GraphPath> getNonTransitPaths(RoutingRequest options) {
+        if (!options.getModes().isTransit()) {
+            return sptService.getShortestPathTree(options).getPaths();
+        }
+
+        //also fall back to A* for short trips
+        double distance = distanceLibrary.distance(options.rctx.origin.getCoordinate(), options.rctx.target.getCoordinate());
+        if (distance < shortPathCutoff) {
+            log.debug("Falling back to A* for very short path");
+            return shortPathService.getPaths(options);
+        }
+        return null;
+    }
+
+    /**
+     * Do not even bother with obviously impossible walks: raise the maximum walk distance to the
+     * walk to and from the nearest transit stops.
+     */
+    private void applyMinWalk(RoutingRequest options) {
+        double minWalk = options.rctx.origin.getDistanceToNearestTransitStop() + options.rctx.target.getDistanceToNearestTransitStop();
+        if (options.getMaxWalkDistance() < minWalk) {
+            options.setMaxWalkDistance(minWalk);
+        }
+    }
+
+    /**
+     * Tell the search which day of the precomputed maximum transit times applies, if there are
+     * any.
+     */
+    private void setMaxTransitDay(Graph graph, RaptorData data, RoutingRequest options,
+            RaptorSearch search) {
+        if (data.maxTransitRegions == null)
+            return;
+        Calendar tripDate = Calendar.getInstance(graph.getTimeZone());
+        tripDate.setTime(new Date(1000L * options.dateTime));
+
+        Calendar maxTransitStart = Calendar.getInstance(graph.getTimeZone());
+        maxTransitStart.set(Calendar.YEAR, data.maxTransitRegions.startYear);
+        maxTransitStart.set(Calendar.MONTH, data.maxTransitRegions.startMonth);
+        maxTransitStart.set(Calendar.DAY_OF_MONTH, data.maxTransitRegions.startDay);
+
+        int day = 0;
+        while (tripDate.after(maxTransitStart)) {
+            day++;
+            tripDate.add(Calendar.DAY_OF_MONTH, -1);
+        }
+        if (day > data.maxTransitRegions.maxTransit.length || options.isWheelchairAccessible()) {
+            day = -1;
+        }
+
+        search.maxTimeDayIndex = day;
+    }
+
+    /**
+     * Find all the journeys departing within the given number of seconds after the requested
+     * time (arriving within that many seconds before it, for arriveBy searches).
+     * 
+     * This is range RAPTOR: one round-based search is made for each departure time in the
+     * window, from the latest to the earliest, and all of them share the same states at stops.
+     * The states found for a later departure remain valid for an earlier one, so each search
+     * only keeps (and explores from) the states that improve on those of the later departures.
+     * The target bound is not shared: it prunes by times elapsed since the departure.
+     * 
+     * Requests that getPaths() does not answer with RAPTOR get the single result of getPaths().
+     * 
+     * @return the journeys that are not dominated by one departing no earlier and arriving no
+     * later (with no more boardings or walking), in order of departure.
+     */
+    public List<GraphPath> getPathsInWindow(RoutingRequest options, int window) {
+        final Graph graph;
+        if (options.rctx == null) {
+            graph = graphService.getGraph(options.getRouterId());
+            options.setRoutingContext(graph);
+            options.rctx.pathParsers = new PathParser[] { new BasicPathParser(),
+                    new NoThruTrafficPathParser() };
+        } else {
+            graph = options.rctx.graph;
+        }
+
+        List<GraphPath> nonTransitPaths = getNonTransitPaths(options);
+        if (nonTransitPaths != null)
+            return nonTransitPaths;
+
+        RaptorDataService service = graph.getService(RaptorDataService.class);
+        if (service == null) {
+            log.warn("No raptor data.  Rebuild with RaptorDataBuilder");
+            return Collections.emptyList();
+        }
+        RaptorData data = service.getData();
+
+        //we multiply the initial walk distance to account for epsilon dominance.
+        options.setMaxWalkDistance(options.getMaxWalkDistance() * WALK_EPSILON);
+        applyMinWalk(options);
+
+        RoutingRequest walkOptions = options.clone();
+        walkOptions.rctx.pathParsers = new PathParser[0];
+        TraverseModeSet modes = options.getModes().clone();
+        modes.setTransit(false);
+        walkOptions.setModes(modes);
+        RaptorSearch search = newSearch(data, options);
+        setMaxTransitDay(graph, data, options, search);
+
+        // the most constrained search comes first: the latest departure, or the earliest arrival
+        int direction = options.isArriveBy() ? 1 : -1;
+        // target states, with the time of the search that first found them
+        Map<RaptorState, Long> found = new LinkedHashMap<RaptorState, Long>();
+        for (long time = options.dateTime - direction * window; 
+                (time - options.dateTime) * direction <= 0; time += direction * rangeStep) {
+            RoutingRequest iterationOptions = options.clone();
+            iterationOptions.dateTime = time;
+            RoutingRequest iterationWalkOptions = walkOptions.clone();
+            iterationWalkOptions.dateTime = time;
+            search.startIteration(iterationOptions);
+            for (int round = 0; round < options.getMaxTransfers() + 2; ++round) {
+                if (!round(data, iterationOptions, iterationWalkOptions, search, round))
+                    break;
+            }
+            for (RaptorState state : search.getTargetStates()) {
+                if (!found.containsKey(state))
+                    found.put(state, time);
             }
-            // states is in reverse order of time
-            State state = getState(targetState.getRequest(), data, states);
-            paths.add(new GraphPath(state, true));
         }
 
+        List<RaptorState> states = new ArrayList<RaptorState>(found.keySet());
+        List<Long> times = new ArrayList<Long>(found.values());
+        List<GraphPath> paths = new ArrayList<GraphPath>();
+        STATE: for (int i = 0; i < states.size(); ++i) {
+            RaptorState state = states.get(i);
+            for (int j = 0; j < states.size(); ++j) {
+                RaptorState other = states.get(j);
+                if (j == i || (times.get(j) - times.get(i)) * direction > 0
+                        || !other.eDominates(state))
+                    continue;
+                // of two equivalent journeys, keep the first one found
+                if (j > i && times.get(j).equals(times.get(i)) && state.eDominates(other))
+                    continue;
+                continue STATE;
+            }
+            GraphPath path = makePath(data, state);
+            if (path != null)
+                paths.add(path);
+        }
+        if (!options.isArriveBy())
+            Collections.reverse(paths);
         return paths;
     }
 
+    /**
+     * Choose at most n of the target states, which are sorted by weight: the best one, then the
+     * best one by each criterion (such as the one with the fewest boardings, even if it is slower),
+     * then the next best ones by weight.
+     */
+    static List<RaptorState> selectItineraries(List<RaptorState> targetStates, int n,
+            RaptorCriterion[] criteria) {
+        if (targetStates.size() <= n)
+            return targetStates;
+        List<RaptorState> selected = new ArrayList<RaptorState>(n);
+        selected.add(targetStates.get(0));
+        for (RaptorCriterion criterion : criteria) {
+            if (selected.size() >= n)
+                break;
+            RaptorState best = null;
+            for (RaptorState state : targetStates) {
+                if (best == null || criterion.compare(state, best) < 0)
+                    best = state;
+            }
+            if (!selected.contains(best))
+                selected.add(best);
+        }
+        for (RaptorState state : targetStates) {
+            if (selected.size() >= n)
+                break;
+            if (!selected.contains(state))
+                selected.add(state);
+        }
+        Collections.sort(selected);
+        return selected;
+    }
+
+    private GraphPath makePath(RaptorData data, RaptorState targetState) {
+        // reconstruct path
+        ArrayList<RaptorState> states = new ArrayList<RaptorState>();
+        RaptorState cur = targetState;
+        while (cur != null) {
+            if (cur.walkTransfer && cur.walkPath == null) {
+                State walkPath = findTransferPath(cur);
+                if (walkPath == null) {
+                    log.warn("No street path for the transfer to " + cur.stop);
+                    return null;
+                }
+                // the search boarded at the time the precomputed transfer arrives
+                int walkTime = Math.abs(cur.arrivalTime - cur.getParent().arrivalTime);
+                if (walkPath.getElapsedTime() > walkTime) {
+                    log.warn("Street path for the transfer to " + cur.stop + " takes "
+                            + walkPath.getElapsedTime() + "s rather than " + walkTime + "s");
+                    return null;
+                }
+                cur.walkPath = walkPath;
+            }
+            states.add(cur);
+            cur = cur.getParent();
+        }
+        // states is in reverse order of time
+        State state = getState(targetState.getRequest(), data, states);
+        return new GraphPath(state, true);
+    }
+
+    /**
+     * Find the street path of a transfer taken from the transfer table, which the search itself
+     * did not need.
+     */
+    private State findTransferPath(RaptorState transfer) {
+        RoutingRequest options = transfer.getRequest();
+        RoutingRequest walkOptions = options.clone();
+        TraverseModeSet modes = options.getModes().clone();
+        modes.setTransit(false);
+        walkOptions.setModes(modes);
+        Vertex fromVertex = transfer.getParent().stop.stopVertex;
+        Vertex toVertex = transfer.stop.stopVertex;
+        GenericDijkstra dijkstra = new GenericDijkstra(walkOptions);
+        dijkstra.setSearchTerminationStrategy(new MultiTargetTerminationStrategy(Collections
+                .singleton(toVertex)));
+        ShortestPathTree spt = dijkstra.getShortestPathTree(new MaxWalkState(fromVertex,
+                walkOptions));
+        return spt.getState(toVertex);
+    }
+
     private void collectRoutesUsed(RaptorData data, RoutingRequest options,
             List<RaptorState> targetStates) {
         // find start/end regions
@@ -364,6 +597,7 @@ public class Raptor implements PathService {
         trimmedData.stops = data.stops;
         //trimmedData.allowedStops = stops;
         trimmedData.routesForStop = data.routesForStop;
+        // no transfer table: the walks of the preliminary search are used to bound the main one
 
         double walkDistance = options.getMaxWalkDistance();
         options = options.clone();
@@ -396,7 +630,7 @@ public class Raptor implements PathService {
 
     private int doPreliminarySearch(RoutingRequest options, RoutingRequest walkOptions,
             RaptorSearch search, RaptorData trimmedData) {
-        RaptorSearch rushSearch = new RaptorSearch(trimmedData, options);
+        RaptorSearch rushSearch = newSearch(trimmedData, options);
         int bestElapsedTime = Integer.MAX_VALUE;
         int round;
         for (round = 0; round < options.getMaxTransfers() + 2; round++) {
@@ -645,6 +879,8 @@ public class Raptor implements PathService {
         pruned.stops = data.stops;
         pruned.routes = new ArrayList<RaptorRoute>();
         pruned.routesForStop = new List[pruned.stops.length];
+        pruned.transfers = data.transfers;
+        pruned.reverseTransfers = data.reverseTransfers;
 
         for (RaptorRoute route : data.routes) {
             ArrayList<Integer> keep = new ArrayList<Integer>();
@@ -697,15 +933,19 @@ public class Raptor implements PathService {
     private boolean round(RaptorData data, RoutingRequest options, RoutingRequest walkOptions,
             final RaptorSearch search, int nBoardings) {
 
-        log.debug("Round " + nBoardings);
-
         /* Phase 2: handle transit */
+        long transitBeginTime = System.currentTimeMillis();
         List<RaptorState> createdStates = search.transitPhase(options, nBoardings);
+        long walkBeginTime = System.currentTimeMillis();
+        int nTransitStates = createdStates.size();
 
         /* Phase 3: handle walking paths */
 
-        return search.walkPhase(options, walkOptions, nBoardings,
-                createdStates);
+        boolean more = search.walkPhase(options, walkOptions, nBoardings, createdStates);
+        log.debug("Round {}: {} states by transit in {} msec, walk {} msec", new Object[] {
+                nBoardings, nTransitStates, walkBeginTime - transitBeginTime,
+                System.currentTimeMillis() - walkBeginTime });
+        return more;
     }
 
     public RaptorStateSet getStateSet(RoutingRequest options) {
@@ -730,7 +970,7 @@ public class Raptor implements PathService {
         TraverseModeSet modes = options.getModes().clone();
         modes.setTransit(false);
         walkOptions.setModes(modes);
-        RaptorSearch search = new RaptorSearch(data, options);
+        RaptorSearch search = newSearch(data, options);
 
         for (int i = 0; i < options.getMaxTransfers() + 2; ++i) {
             if (!round(data, options, walkOptions, search, i))
@@ -749,4 +989,72 @@ public class Raptor implements PathService {
         this.shortPathCutoff = shortPathCutoff;
     }
 
+    public int getRangeStep() {
+        return rangeStep;
+    }
+
+    public void setRangeStep(int rangeStep) {
+        this.rangeStep = rangeStep;
+    }
+
+    public List<RaptorCriterion> getCriteria() {
+        return Arrays.asList(criteria);
+    }
+
+    public void setCriteria(List<RaptorCriterion> criteria) {
+        this.criteria = criteria.toArray(new RaptorCriterion[criteria.size()]);
+    }
+
+    public boolean isUseTransferTable() {
+        return useTransferTable;
+    }
+
+    public void setUseTransferTable(boolean useTransferTable) {
+        this.useTransferTable = useTransferTable;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int getMinRoutesPerTask() {
+        return minRoutesPerTask;
+    }
+
+    public void setMinRoutesPerTask(int minRoutesPerTask) {
+        this.minRoutesPerTask = minRoutesPerTask;
+    }
+
+    private RaptorSearch newSearch(RaptorData data, RoutingRequest options) {
+        RaptorSearch search = new RaptorSearch(data, options);
+        search.useTransferTable = useTransferTable && data.transfers != null
+                && data.transfers.appliesTo(options);
+        search.criteria = criteria;
+        search.bounder.criteria = criteria;
+        if (parallelism > 1) {
+            search.executor = getExecutor();
+            search.parallelism = parallelism;
+            search.minRoutesPerTask = minRoutesPerTask;
+        }
+        return search;
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "raptor-route-scan");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
 }
@@ -0,0 +1,53 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.impl.raptor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * A Pareto set of RaptorStates, or bag in McRAPTOR terms: no state in it dominates another by
+ * the criteria of the search. The states at each stop are kept in a bag.
+ */
+public class RaptorBag extends ArrayList<RaptorState> {
+
+    private static final long serialVersionUID = 1L;
+
+    /** @return whether a state in this bag dominates the given one. */
+    public boolean dominates(RaptorState state) {
+        for (RaptorState oldState : this) {
+            if (oldState.eDominates(state))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Add the given state unless a state in this bag dominates it, and remove the states it
+     * dominates.
+     * @return whether the state was added.
+     */
+    public boolean offer(RaptorState state) {
+        if (dominates(state))
+            return false;
+        for (Iterator<RaptorState> it = iterator(); it.hasNext();) {
+            if (state.eDominates(it.next()))
+                it.remove();
+        }
+        add(state);
+        return true;
+    }
+
+}
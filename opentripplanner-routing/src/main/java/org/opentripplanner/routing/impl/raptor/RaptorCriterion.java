@@ -0,0 +1,70 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl.raptor;
+
+/**
+ * The criteria by which RAPTOR compares states. The search keeps, at each stop and at the
+ * target, the states that no other state dominates: a state dominates another if it is no worse
+ * by every criterion of the search.
+ */
+public enum RaptorCriterion {
+
+    /** Earliest arrival, or latest departure for arriveBy searches. */
+    ARRIVAL_TIME {
+        @Override
+        public int compare(RaptorState a, RaptorState b) {
+            if (a.arrivalTime == b.arrivalTime)
+                return 0;
+            return (a.arrivalTime < b.arrivalTime) != a.arriveBy ? -1 : 1;
+        }
+    },
+
+    /** Fewest boardings. */
+    BOARDINGS {
+        @Override
+        public int compare(RaptorState a, RaptorState b) {
+            return a.nBoardings - b.nBoardings;
+        }
+    },
+
+    /** Least walking. A walk at most Raptor.WALK_EPSILON times as long is no worse. */
+    WALK_DISTANCE {
+        @Override
+        public int compare(RaptorState a, RaptorState b) {
+            return Double.compare(a.walkDistance, b.walkDistance);
+        }
+
+        @Override
+        public boolean isNoWorse(RaptorState a, RaptorState b) {
+            return a.walkDistance <= b.walkDistance * Raptor.WALK_EPSILON;
+        }
+    },
+
+    /** Lowest weight, which includes waiting, walk reluctance and boarding costs. */
+    WEIGHT {
+        @Override
+        public int compare(RaptorState a, RaptorState b) {
+            return Double.compare(a.weight, b.weight);
+        }
+    };
+
+    /** Compare two states by this criterion; a negative value means a is better. */
+    public abstract int compare(RaptorState a, RaptorState b);
+
+    /** Whether a is no worse than b by this criterion, for dominance. */
+    public boolean isNoWorse(RaptorState a, RaptorState b) {
+        return compare(a, b) <= 0;
+    }
+
+}
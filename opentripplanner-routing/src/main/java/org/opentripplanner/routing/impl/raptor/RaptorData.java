@@ -13,6 +13,8 @@
 
 package org.opentripplanner.routing.impl.raptor;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -39,6 +41,21 @@ public class RaptorData implements Serializable {
     //unused
     public List<T2<Double, RaptorStop>>[] nearbyStops;
 
+    /** Walking transfers between stops, or null if they were not precomputed. */
+    public RaptorTransfers transfers;
+
+    /** The same transfers walked the other way, for arriveBy searches. */
+    public RaptorTransfers reverseTransfers;
+
     public MaxTransitRegions maxTransitRegions;
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        // graphs built before routes were numbered have every index at zero
+        int index = 0;
+        for (RaptorRoute route : routes) {
+            route.index = index++;
+        }
+    }
+
 }
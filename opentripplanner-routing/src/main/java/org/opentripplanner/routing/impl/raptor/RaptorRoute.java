@@ -34,6 +34,9 @@ import org.opentripplanner.routing.trippattern.TripTimes;
 public class RaptorRoute implements Serializable {
     private static final long serialVersionUID = -882026076718046636L;
 
+    /** The position of this route in RaptorData.routes, used to index per-route search state */
+    public int index;
+
     public RaptorStop[] stops;
 
     public TransitBoardAlight[/* stops - 1 */][/* patterns */] boards;// array of patternboards for each
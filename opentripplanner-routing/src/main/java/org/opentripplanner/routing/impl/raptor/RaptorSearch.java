@@ -15,12 +15,15 @@ package org.opentripplanner.routing.impl.raptor;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.opentripplanner.common.pqueue.BinHeap;
@@ -45,13 +48,47 @@ import org.slf4j.LoggerFactory;
 public class RaptorSearch {
     private static final Logger log = LoggerFactory.getLogger(RaptorSearch.class);
 
-    List<RaptorState>[] statesByStop;
+    RaptorBag[] statesByStop;
 
     private List<RaptorState> targetStates = new ArrayList<RaptorState>();
 
-    Set<RaptorStop> visitedEver = new HashSet<RaptorStop>();
+    /* the following sets of stops and routes are indexed by RaptorStop.index and RaptorRoute.index */
 
-    Set<RaptorStop> visitedLastRound = new HashSet<RaptorStop>();
+    BitSet visitedEver = new BitSet();
+
+    BitSet visitedLastRound = new BitSet();
+
+    private BitSet visitedThisRound = new BitSet();
+
+    /* the stops in the data this search uses, which may be a subset of all stops */
+    private BitSet usableStops = new BitSet();
+
+    private BitSet routesMarked = new BitSet();
+
+    private List<RaptorRoute> routesToVisit = new ArrayList<RaptorRoute>();
+
+    private RouteScan routeScan = new RouteScan();
+
+    /**
+     * If set, the routes of a round are scanned by up to this many tasks on the executor, each
+     * given at least minRoutesPerTask routes.
+     */
+    ExecutorService executor;
+
+    int parallelism = 1;
+
+    int minRoutesPerTask = 64;
+
+    /**
+     * If set, walking transfers after the first round are taken from the transfer table of the
+     * data, and the street graph is only searched from the origin and the target.
+     */
+    boolean useTransferTable;
+
+    RaptorCriterion[] criteria = RaptorState.DEFAULT_CRITERIA;
+
+    /* the walks from stops to the target, by stop index, when using the transfer table */
+    private State[] egressStates;
 
     HashMap<RaptorStop, StopNearTarget> stopsNearTarget = new HashMap<RaptorStop, StopNearTarget>();
 
@@ -68,19 +105,21 @@ public class RaptorSearch {
     private RaptorData data;
 
 
-    @SuppressWarnings("unchecked")
     RaptorSearch(RaptorData data, RoutingRequest options) {
-        statesByStop = new List[data.stops.length];
+        statesByStop = new RaptorBag[data.stops.length];
         bounder = new TargetBound(options);
         this.data = data;
+        for (RaptorStop stop : data.raptorStopsForStopId.values()) {
+            usableStops.set(stop.index);
+        }
     }
 
-    public void addStates(int stop, List<RaptorState> list) {
+    public void addStates(int stop, RaptorBag list) {
         assert (statesByStop[stop] == null);
         statesByStop[stop] = list;
     }
 
-    public void setStates(int stop, List<RaptorState> list) {
+    public void setStates(int stop, RaptorBag list) {
         statesByStop[stop] = list;
     }
 
@@ -109,27 +148,28 @@ public class RaptorSearch {
         }
     }
 
-    public List<RaptorState> transitPhase(RoutingRequest options, int nBoardings) {
-
-        Collection<RaptorRoute> routesToVisit = new HashSet<RaptorRoute>();
-
-        if (data.routesForStop == null) {
-            Collection<RaptorRoute> routes = data.routes;
-            for (RaptorStop stop : visitedLastRound) {
-                for (RaptorRoute route : data.routesForStop[stop.index]) {
-                    if (routes.contains(route)) {
-                        routesToVisit.add(route);
-                    }
-                }
-            }
-        } else {
-            for (RaptorStop stop : visitedLastRound) {
-                for (RaptorRoute route : data.routesForStop[stop.index]) {
+    /**
+     * Collect each route serving a stop reached last round once, in the order of the stops. The
+     * list returned is reused by the next round.
+     */
+    List<RaptorRoute> markRoutes() {
+        routesToVisit.clear();
+        routesMarked.clear();
+        for (int s = visitedLastRound.nextSetBit(0); s >= 0; s = visitedLastRound.nextSetBit(s + 1)) {
+            for (RaptorRoute route : data.routesForStop[s]) {
+                if (!routesMarked.get(route.index)) {
+                    routesMarked.set(route.index);
                     routesToVisit.add(route);
                 }
             }
         }
-        HashSet<RaptorStop> visitedThisRound = new HashSet<RaptorStop>();
+        return routesToVisit;
+    }
+
+    public List<RaptorState> transitPhase(RoutingRequest options, int nBoardings) {
+
+        markRoutes();
+        visitedThisRound.clear();
 
         List<RaptorState> createdStates = new ArrayList<RaptorState>();
 
@@ -141,199 +181,261 @@ public class RaptorSearch {
             boardSlack = nBoardings == 1 ? options.getBoardSlack()
                     : (options.getTransferSlack() - options.getAlightSlack());
         }
-        for (RaptorRoute route : routesToVisit) {
-            List<RaptorState> boardStates = new ArrayList<RaptorState>(); // not really states
-            boolean started;
-
-            int firstStop, lastStop, direction, lastBoardStop;
-            if (options.isArriveBy()) {
-                firstStop = route.getNStops() - 1;
-                lastStop = -1;
-                direction = -1;
-                lastBoardStop = 0;
-                //check for interlining on the first stop
-                started = checkForInterliningArriveBy(options, nBoardings, route, boardStates);
-            } else {
-                firstStop = 0;
-                lastStop = route.getNStops();
-                direction = 1;
-                lastBoardStop = lastStop - 1;
-                started = checkForInterliningDepartAt(options, nBoardings, route, boardStates);
-            }
-            for (int stopNo = firstStop; stopNo != lastStop; stopNo += direction) {
-                // find the current time at this stop
-                RaptorStop stop = route.stops[stopNo];
-                if (!started && !visitedLastRound.contains(stop))
-                    continue;
-                started = true;
+        int nTasks = Math.min(parallelism, routesToVisit.size() / minRoutesPerTask);
+        if (executor == null || nTasks < 2) {
+            for (RaptorRoute route : routesToVisit) {
+                scanRoute(options, nBoardings, boardSlack, route, routeScan, createdStates);
+            }
+        } else {
+            scanRoutesConcurrently(options, nBoardings, boardSlack, nTasks, createdStates);
+        }
+        BitSet swap = visitedLastRound;
+        visitedLastRound = visitedThisRound;
+        visitedThisRound = swap;
+        return createdStates;
+    }
 
-                //skip stops which aren't in this set of data;
-                //this is used for the rush ahead search
-                if (!data.raptorStopsForStopId.containsKey(stop.stopVertex.getStopId())) {
-                    continue;
+    /**
+     * Scan the routes to visit in nTasks contiguous slices on the executor. The routes only read
+     * the states at stops while they are scanned, so the states they find are merged in only once
+     * every task has finished, in the order of the routes.
+     */
+    private void scanRoutesConcurrently(final RoutingRequest options, final int nBoardings,
+            final int boardSlack, int nTasks, List<RaptorState> createdStates) {
+        List<Future<RouteScan>> futures = new ArrayList<Future<RouteScan>>(nTasks);
+        final int nRoutes = routesToVisit.size();
+        for (int task = 0; task < nTasks; task++) {
+            final List<RaptorRoute> slice = routesToVisit.subList(nRoutes * task / nTasks,
+                    nRoutes * (task + 1) / nTasks);
+            futures.add(executor.submit(new Callable<RouteScan>() {
+                @Override
+                public RouteScan call() {
+                    RouteScan scan = new RouteScan();
+                    for (RaptorRoute route : slice) {
+                        scanRoute(options, nBoardings, boardSlack, route, scan, null);
+                    }
+                    return scan;
                 }
+            }));
+        }
+        List<RouteScan> scans = new ArrayList<RouteScan>(nTasks);
+        try {
+            for (Future<RouteScan> future : futures) {
+                scans.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            for (Future<RouteScan> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            for (Future<RouteScan> future : futures) {
+                future.cancel(true);
+            }
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        for (RouteScan scan : scans) {
+            for (RaptorState state : scan.found) {
+                addState(state, createdStates);
+            }
+        }
+    }
 
-                List<RaptorState> states = statesByStop[stop.index];
-                List<RaptorState> newStates = new ArrayList<RaptorState>();
+    /**
+     * Ride a route from each stop where it can be boarded. If createdStates is null, the states
+     * at stops are not modified and the states found are collected in the scan instead.
+     */
+    private void scanRoute(RoutingRequest options, int nBoardings, int boardSlack,
+            RaptorRoute route, RouteScan scan, List<RaptorState> createdStates) {
+        List<RaptorState> boardStates = scan.boardStates; // not really states
+        RaptorBag newStates = scan.newStates;
+        boardStates.clear();
+        boolean started;
+
+        int firstStop, lastStop, direction, lastBoardStop;
+        if (options.isArriveBy()) {
+            firstStop = route.getNStops() - 1;
+            lastStop = -1;
+            direction = -1;
+            lastBoardStop = 0;
+            //check for interlining on the first stop
+            started = checkForInterliningArriveBy(options, nBoardings, route, boardStates);
+        } else {
+            firstStop = 0;
+            lastStop = route.getNStops();
+            direction = 1;
+            lastBoardStop = lastStop - 1;
+            started = checkForInterliningDepartAt(options, nBoardings, route, boardStates);
+        }
+        for (int stopNo = firstStop; stopNo != lastStop; stopNo += direction) {
+            // find the current time at this stop
+            RaptorStop stop = route.stops[stopNo];
+            if (!started && !visitedLastRound.get(stop.index))
+                continue;
+            started = true;
 
-                if (states == null) {
-                    states = new ArrayList<RaptorState>();
-                    statesByStop[stop.index] = states;
-                }
-                // this checks the case of continuing on the current trips.
-                CONTINUE: for (RaptorState boardState : boardStates) {
+            //skip stops which aren't in this set of data;
+            //this is used for the rush ahead search
+            if (!usableStops.get(stop.index)) {
+                continue;
+            }
 
-                    if (boardState.boardStop == stop) {
-                        // this only happens due to interlines where
-                        // the last stop of the first route is equal to the first stop of the
-                        // subsequent route.
-                        continue;
-                    }
+            List<RaptorState> states = statesByStop[stop.index];
+            newStates.clear();
 
-                    RaptorState newState = new RaptorState(boardState.getParent());
+            if (states == null) {
+                states = Collections.emptyList();
+            }
+            // this checks the case of continuing on the current trips.
+            CONTINUE: for (RaptorState boardState : boardStates) {
 
-                    ServiceDay sd = boardState.serviceDay;
+                if (boardState.boardStop == stop) {
+                    // this only happens due to interlines where
+                    // the last stop of the first route is equal to the first stop of the
+                    // subsequent route.
+                    continue;
+                }
 
-                    int travelTime;
-                    if (options.isArriveBy()) {
-                        if (!route.alights[0][boardState.patternIndex].getPattern().canBoard(stopNo))
-                            continue;
-                        int boardTime = route.getBoardTime(boardState.tripTimes, stopNo);
-                        newState.arrivalTime = (int) sd.time(boardTime);
-                        // add in slack
-                        newState.arrivalTime -= options.getBoardSlack();
-                        travelTime = newState.getParent().arrivalTime - newState.arrivalTime;
-                    } else {
-                        if (!route.boards[0][boardState.patternIndex].getPattern()
-                                .canAlight(stopNo))
-                            continue;
-                        int alightTime = route.getAlightTime(boardState.tripTimes, stopNo);
-                        newState.arrivalTime = (int) sd.time(alightTime);
-                        // add in slack
-                        newState.arrivalTime += options.getAlightSlack();
-                        travelTime = newState.arrivalTime - newState.getParent().arrivalTime;
-                    }
+                RaptorState newState = new RaptorState(boardState.getParent());
 
-                    newState.weight += travelTime;
-
-                    //TODO: consider transfer penalties
-                    newState.weight += boardState.weight;
-                    newState.boardStop = boardState.boardStop;
-                    newState.boardStopSequence = boardState.boardStopSequence;
-                    newState.route = route;
-                    newState.patternIndex = boardState.patternIndex;
-                    newState.tripTimes = boardState.tripTimes;
-                    newState.nBoardings = boardState.nBoardings;
-                    newState.walkDistance = boardState.walkDistance;
-                    newState.tripId = boardState.tripId;
-                    newState.stop = stop;
-                    newState.serviceDay = boardState.serviceDay;
-
-                    for (RaptorState oldState : states) {
-                        if (oldState.eDominates(newState)) {
-                            continue CONTINUE;
-                        }
-                    }
+                ServiceDay sd = boardState.serviceDay;
 
-                    for (RaptorState oldState : newStates) {
-                        if (oldState.eDominates(newState)) {
-                            continue CONTINUE;
-                        }
-                    }
+                int travelTime;
+                if (options.isArriveBy()) {
+                    if (!route.alights[0][boardState.patternIndex].getPattern().canBoard(stopNo))
+                        continue;
+                    int boardTime = route.getBoardTime(boardState.tripTimes, stopNo);
+                    newState.arrivalTime = (int) sd.time(boardTime);
+                    // add in slack
+                    newState.arrivalTime -= options.getBoardSlack();
+                    travelTime = newState.getParent().arrivalTime - newState.arrivalTime;
+                } else {
+                    if (!route.boards[0][boardState.patternIndex].getPattern()
+                            .canAlight(stopNo))
+                        continue;
+                    int alightTime = route.getAlightTime(boardState.tripTimes, stopNo);
+                    newState.arrivalTime = (int) sd.time(alightTime);
+                    // add in slack
+                    newState.arrivalTime += options.getAlightSlack();
+                    travelTime = newState.arrivalTime - newState.getParent().arrivalTime;
+                }
 
-                    Iterator<RaptorState> it = states.iterator();
-                    while (it.hasNext()) {
-                        RaptorState oldState = it.next();
-                        if (newState.eDominates(oldState)) {
-                            it.remove();
-                        }
+                newState.weight += travelTime;
+
+                //TODO: consider transfer penalties
+                newState.weight += boardState.weight;
+                newState.boardStop = boardState.boardStop;
+                newState.boardStopSequence = boardState.boardStopSequence;
+                newState.route = route;
+                newState.patternIndex = boardState.patternIndex;
+                newState.tripTimes = boardState.tripTimes;
+                newState.nBoardings = boardState.nBoardings;
+                newState.walkDistance = boardState.walkDistance;
+                newState.tripId = boardState.tripId;
+                newState.stop = stop;
+                newState.serviceDay = boardState.serviceDay;
+
+                for (RaptorState oldState : states) {
+                    if (oldState.eDominates(newState)) {
+                        continue CONTINUE;
                     }
+                }
 
-                    it = newStates.iterator();
-                    while (it.hasNext()) {
-                        RaptorState oldState = it.next();
-                        if (newState.eDominates(oldState)) {
-                            it.remove();
-                        }
-                    }
+                newStates.offer(newState);
+            }
 
-                    visitedThisRound.add(stop);
-                    visitedEver.add(stop);
-                    newStates.add(newState);
+            if (createdStates == null) {
+                scan.found.addAll(newStates);
+            } else if (!newStates.isEmpty()) {
+                for (RaptorState newState : newStates) {
+                    addState(newState, createdStates);
                 }
+                states = statesByStop[stop.index];
+            }
 
-                if (stopNo != lastBoardStop) {
+            if (stopNo != lastBoardStop) {
 
-                    if (stop.stopVertex.isLocal() && nBoardings > 1) {
-                        // cannot transfer at a local stop
-                        createdStates.addAll(newStates);
-                        states.addAll(newStates);
+                if (stop.stopVertex.isLocal() && nBoardings > 1) {
+                    // cannot transfer at a local stop
+                    continue;
+                }
+
+                // try boarding here
+                TRYBOARD: for (RaptorState oldState : states) {
+                    if (oldState.nBoardings != nBoardings - 1)
                         continue;
-                    }
+                    if (oldState.getRoute() == route)
+                        continue; // we got here via this route, so no reason to transfer
 
-                    // try boarding here
-                    TRYBOARD: for (RaptorState oldState : states) {
-                        if (oldState.nBoardings != nBoardings - 1)
+                    RaptorBoardSpec boardSpec;
+                    int waitTime;
+                    if (options.isArriveBy()) {
+                        int arrivalTime = oldState.arrivalTime - boardSlack;
+                        boardSpec = route.getTripIndexReverse(options, arrivalTime, stopNo);
+                        if (boardSpec == null)
                             continue;
-                        if (oldState.getRoute() == route)
-                            continue; // we got here via this route, so no reason to transfer
-
-                        RaptorBoardSpec boardSpec;
-                        int waitTime;
-                        if (options.isArriveBy()) {
-                            int arrivalTime = oldState.arrivalTime - boardSlack;
-                            boardSpec = route.getTripIndexReverse(options, arrivalTime, stopNo);
-                            if (boardSpec == null)
-                                continue;
-                            waitTime = oldState.arrivalTime - boardSpec.departureTime;
-                        } else {
-                            int arrivalTime = oldState.arrivalTime + boardSlack;
-                            boardSpec = route.getTripIndex(options, arrivalTime, stopNo);
-                            if (boardSpec == null)
-                                continue;
-                            waitTime = boardSpec.departureTime - oldState.arrivalTime;
-                        }
+                        waitTime = oldState.arrivalTime - boardSpec.departureTime;
+                    } else {
+                        int arrivalTime = oldState.arrivalTime + boardSlack;
+                        boardSpec = route.getTripIndex(options, arrivalTime, stopNo);
+                        if (boardSpec == null)
+                            continue;
+                        waitTime = boardSpec.departureTime - oldState.arrivalTime;
+                    }
 
-                        RaptorState boardState = new RaptorState(oldState);
-                        if (nBoardings == 1) {
-                            //do not count initial wait time, since it will be optimized away later
-                            boardState.initialWaitTime = waitTime;
-                            waitTime = 0;
-                        }
+                    RaptorState boardState = new RaptorState(oldState);
+                    if (nBoardings == 1) {
+                        //do not count initial wait time, since it will be optimized away later
+                        boardState.initialWaitTime = waitTime;
+                        waitTime = 0;
+                    }
 
-                        boardState.weight = options.getBoardCost(route.mode) + waitTime;
-                        boardState.nBoardings = nBoardings;
-                        boardState.boardStop = stop;
-                        boardState.boardStopSequence = stopNo;
-                        boardState.arrivalTime = boardSpec.departureTime;
-                        boardState.patternIndex = boardSpec.patternIndex;
-                        boardState.tripTimes = boardSpec.tripTimes;
-                        boardState.serviceDay = boardSpec.serviceDay;
-                        boardState.route = route;
-                        boardState.walkDistance = oldState.walkDistance;
-                        boardState.tripId = boardSpec.tripId;
-
-                        for (RaptorState state : boardStates) {
-                            if (state.eDominates(boardState)) {
-                                continue TRYBOARD;
-                            }
+                    boardState.weight = options.getBoardCost(route.mode) + waitTime;
+                    boardState.nBoardings = nBoardings;
+                    boardState.boardStop = stop;
+                    boardState.boardStopSequence = stopNo;
+                    boardState.arrivalTime = boardSpec.departureTime;
+                    boardState.patternIndex = boardSpec.patternIndex;
+                    boardState.tripTimes = boardSpec.tripTimes;
+                    boardState.serviceDay = boardSpec.serviceDay;
+                    boardState.route = route;
+                    boardState.walkDistance = oldState.walkDistance;
+                    boardState.tripId = boardSpec.tripId;
+
+                    for (RaptorState state : boardStates) {
+                        if (state.eDominates(boardState)) {
+                            continue TRYBOARD;
                         }
+                    }
 
-                        for (RaptorState state : newStates) {
-                            if (state.eDominates(boardState)) {
-                                continue TRYBOARD;
-                            }
+                    for (RaptorState state : newStates) {
+                        if (state.eDominates(boardState)) {
+                            continue TRYBOARD;
                         }
-
-                        boardStates.add(boardState);
                     }
+
+                    boardStates.add(boardState);
                 }
-                createdStates.addAll(newStates);
-                states.addAll(newStates);
             }
         }
-        visitedLastRound = visitedThisRound;
-        return createdStates;
+    }
+
+    /** Add a state reached by transit to its stop, unless a state already there dominates it. */
+    private void addState(RaptorState newState, List<RaptorState> createdStates) {
+        RaptorStop stop = newState.stop;
+        RaptorBag states = statesByStop[stop.index];
+        if (states == null) {
+            states = new RaptorBag();
+            statesByStop[stop.index] = states;
+        }
+        if (!states.offer(newState))
+            return;
+        visitedThisRound.set(stop.index);
+        visitedEver.set(stop.index);
+        createdStates.add(newState);
     }
 
     private boolean checkForInterliningDepartAt(RoutingRequest options, int nBoardings,
@@ -466,6 +568,10 @@ public class RaptorSearch {
     public boolean walkPhase(RoutingRequest options, RoutingRequest walkOptions, int nBoardings,
             List<RaptorState> createdStates) {
 
+        if (useTransferTable && nBoardings > 0) {
+            return transferPhase(options, walkOptions, nBoardings, createdStates);
+        }
+
         double distanceToNearestTransitStop = 0;
         if (options.rctx.target != null) {
             distanceToNearestTransitStop = options.rctx.target.getDistanceToNearestTransitStop();
@@ -492,6 +598,9 @@ public class RaptorSearch {
                 if (state.getVertex() instanceof TransitStop || state.getVertex() instanceof TransitStopArrive || state.getVertex() instanceof TransitStopDepart)
                     transitStopStates.add(state);
             }
+            if (useTransferTable && options.rctx.target != null && egressStates == null) {
+                findEgress(walkOptions);
+            }
             // also, compute an initial spt from the target so that we can find out what transit
             // stops are nearby and what
             // the time is to them, so that we can start target bounding earlier
@@ -563,7 +672,7 @@ public class RaptorSearch {
             if (startPoints.size() == 0) {
                 return false;
             }
-            System.out.println("walk starts: " + startPoints.size() + " / " + visitedEver.size());
+            System.out.println("walk starts: " + startPoints.size() + " / " + visitedEver.cardinality());
             dijkstra.setPriorityQueueFactory(new PrefilledPriorityQueueFactory(startPoints.subList(
                     1, startPoints.size())));
 
@@ -586,7 +695,7 @@ public class RaptorSearch {
         if (walkOptions.rctx.target != null)
             targetStates = spt.getStates(walkOptions.rctx.target);
         if (targetStates != null) {
-            TARGET: for (State targetState : targetStates) {
+            for (State targetState : targetStates) {
                 RaptorState parent = (RaptorState) targetState.getExtension("raptorParent");
                 RaptorState state;
                 if (parent != null) {
@@ -594,22 +703,13 @@ public class RaptorSearch {
                     state.nBoardings = parent.nBoardings;
                     state.rentingBike = targetState.isBikeRenting();
                 } else {
-                    state = new RaptorState(options);
+                    state = new RaptorState(options, criteria);
                 }
                 state.weight = targetState.getWeight();
                 state.walkDistance = targetState.getWalkDistance();
                 state.arrivalTime = (int) targetState.getTime();
                 state.walkPath = targetState;
-                for (Iterator<RaptorState> it = getTargetStates().iterator(); it.hasNext();) {
-                    RaptorState oldState = it.next();
-                    if (oldState.eDominates(state)) {
-                        continue TARGET;
-                    } else if (state.eDominates(oldState)) {
-                        it.remove();
-                    }
-                }
-                addTargetState(state);
-                log.debug("Found target at: " + state + " on " + state.getTrips());
+                offerTargetState(state);
             }
         }
         for (State state : bounder.removedBoundingStates) {
@@ -658,9 +758,9 @@ public class RaptorSearch {
                     }
                 }
             }
-            List<RaptorState> states = statesByStop[stop.index];
+            RaptorBag states = statesByStop[stop.index];
             if (states == null) {
-                states = new ArrayList<RaptorState>();
+                states = new RaptorBag();
                 statesByStop[stop.index] = states;
             }
 
@@ -670,7 +770,7 @@ public class RaptorSearch {
                 newState = new RaptorState(parent);
             } else {
                 //this only happens in round 0
-                newState = new RaptorState(options);
+                newState = new RaptorState(options, criteria);
             }
             newState.weight = state.getWeight();
             newState.nBoardings = nBoardings;
@@ -680,20 +780,155 @@ public class RaptorSearch {
             newState.stop = stop;
             newState.rentingBike = state.isBikeRenting();
 
-            for (RaptorState oldState : states) {
-                if (oldState.eDominates(newState)) {
-                    continue SPTSTATE;
-                }
+            if (states.dominates(newState)) {
+                continue SPTSTATE;
             }
 
-            visitedLastRound.add(stop);
-            visitedEver.add(stop);
+            visitedLastRound.set(stop.index);
+            visitedEver.set(stop.index);
             states.add(newState);
 
         }
         return true;
     }
 
+    /** Add a target state, unless one already found dominates it. */
+    private void offerTargetState(RaptorState state) {
+        for (Iterator<RaptorState> it = getTargetStates().iterator(); it.hasNext();) {
+            RaptorState oldState = it.next();
+            if (oldState.eDominates(state)) {
+                return;
+            } else if (state.eDominates(oldState)) {
+                it.remove();
+            }
+        }
+        addTargetState(state);
+        log.debug("Found target at: " + state + " on " + state.getTrips());
+    }
+
+    private boolean dominatedByTarget(RaptorState state) {
+        for (RaptorState targetState : getTargetStates()) {
+            if (targetState.eDominates(state)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the walks between the target and every stop within the maximum walk distance of it,
+     * with a single street search from the target.
+     */
+    private void findEgress(RoutingRequest walkOptions) {
+        egressStates = new State[data.stops.length];
+        RoutingRequest reversedWalkOptions = walkOptions.clone();
+        reversedWalkOptions.setArriveBy(!walkOptions.isArriveBy());
+        GenericDijkstra dijkstra = new GenericDijkstra(reversedWalkOptions);
+        MaxWalkState start = new MaxWalkState(walkOptions.rctx.target, reversedWalkOptions);
+        ShortestPathTree spt = dijkstra.getShortestPathTree(start);
+        for (State state : spt.getAllStates()) {
+            final Vertex vertex = state.getVertex();
+            if (!(vertex instanceof TransitStop))
+                continue;
+            RaptorStop stop = data.raptorStopsForStopId.get(((TransitStop) vertex).getStopId());
+            if (stop == null)
+                continue;
+            State old = egressStates[stop.index];
+            if (old == null || state.getWeight() < old.getWeight())
+                egressStates[stop.index] = state;
+        }
+    }
+
+    /**
+     * The walk phase after a transit round when using the transfer table: the states reached by
+     * transit are extended to the target along the walks found by findEgress, and to other stops
+     * along the precomputed transfers, without searching the street graph. ArriveBy searches
+     * walk the transfers backward, from the stops the transfers lead to.
+     * 
+     * @return whether search should continue
+     */
+    private boolean transferPhase(RoutingRequest options, RoutingRequest walkOptions,
+            int nBoardings, List<RaptorState> createdStates) {
+        if (createdStates.isEmpty()) {
+            return false;
+        }
+        final double maxWalk = options.getMaxWalkDistance();
+        final double walkSpeed = walkOptions.getWalkSpeed();
+        final double walkReluctance = walkOptions.getWalkReluctance();
+        final int direction = options.isArriveBy() ? -1 : 1;
+        final RaptorTransfers transfers = options.isArriveBy() ? data.reverseTransfers
+                : data.transfers;
+        for (RaptorState state : createdStates) {
+            RaptorStop stop = state.stop;
+
+            State egress = egressStates == null ? null : egressStates[stop.index];
+            if (egress != null && state.walkDistance + egress.getWalkDistance() <= maxWalk) {
+                RaptorState targetState = new RaptorState(state);
+                targetState.nBoardings = state.nBoardings;
+                targetState.rentingBike = egress.isBikeRenting();
+                targetState.weight += egress.getWeight();
+                targetState.walkDistance = state.walkDistance + egress.getWalkDistance();
+                targetState.arrivalTime = state.arrivalTime + direction
+                        * (int) egress.getElapsedTime();
+                targetState.walkPath = egress;
+                offerTargetState(targetState);
+            }
+
+            if (stop.stopVertex.isLocal()) {
+                // cannot transfer at a local stop
+                continue;
+            }
+            int[] transferStops = transfers.stops[stop.index];
+            float[] transferDistances = transfers.distances[stop.index];
+            TRANSFER: for (int i = 0; i < transferStops.length; ++i) {
+                final double walkDistance = state.walkDistance + transferDistances[i];
+                if (walkDistance > maxWalk) {
+                    // the transfers are sorted by distance
+                    break;
+                }
+                RaptorStop toStop = data.stops[transferStops[i]];
+                if (!usableStops.get(toStop.index)) {
+                    continue;
+                }
+                final int walkTime = transfers.getTime(stop.index, i, walkSpeed);
+                RaptorState newState = new RaptorState(state);
+                newState.weight += walkTime * walkReluctance;
+                newState.nBoardings = nBoardings;
+                newState.walkDistance = walkDistance;
+                newState.arrivalTime = state.arrivalTime + direction * walkTime;
+                newState.stop = toStop;
+                newState.walkTransfer = true;
+
+                if (dominatedByTarget(newState)) {
+                    continue;
+                }
+                RaptorBag states = statesByStop[toStop.index];
+                if (states == null) {
+                    states = new RaptorBag();
+                    statesByStop[toStop.index] = states;
+                }
+                if (!states.offer(newState)) {
+                    continue TRANSFER;
+                }
+                visitedLastRound.set(toStop.index);
+                visitedEver.set(toStop.index);
+            }
+        }
+        return true;
+    }
+
+    /** The lists used while scanning routes, reused for each route and stop by one thread. */
+    static class RouteScan {
+
+        List<RaptorState> boardStates = new ArrayList<RaptorState>();
+
+        RaptorBag newStates = new RaptorBag();
+
+        /** The states found at stops, when they are added to the stops after the scan. */
+        List<RaptorState> found = new ArrayList<RaptorState>();
+
+    }
+
     class PrefilledPriorityQueueFactory implements OTPPriorityQueueFactory {
 
         private List<? extends State> startPoints;
@@ -714,8 +949,22 @@ public class RaptorSearch {
 
     }
 
+    /**
+     * Prepare for the next search of a range search, which departs earlier (or arrives later,
+     * for arriveBy searches) than the previous one. The states at stops and the target states
+     * are kept: they are still valid, and prune the states of the new search that do not
+     * improve on them. Only the stops reached by the new search will be explored from. The
+     * target bound and the maximum time, which are relative to the departure time, start over.
+     */
+    public void startIteration(RoutingRequest options) {
+        visitedLastRound.clear();
+        bounder.startIteration(options);
+        maxTime = Integer.MAX_VALUE;
+    }
+
     public void reset(RoutingRequest options) {
         bounder.reset(options);
+        egressStates = null;
         Arrays.fill(statesByStop, null);
     }
 
@@ -26,11 +26,15 @@ import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.trippattern.TripTimes;
 
 /* RaptorStates are always at some transit stop;
- * they either got there via a walk, in which case walkPath != null, or
+ * they either got there via a walk, in which case walkPath != null or walkTransfer is set, or
  * via a transit hop, in which case boardStop etc have been set.
 */
 
 public class RaptorState implements Comparable<RaptorState>, Cloneable {
+    /* the criteria of the original RAPTOR implementation */
+    static final RaptorCriterion[] DEFAULT_CRITERIA = { RaptorCriterion.ARRIVAL_TIME,
+            RaptorCriterion.BOARDINGS, RaptorCriterion.WALK_DISTANCE };
+
     /* dominance characteristics */
     double walkDistance;
     int nBoardings;
@@ -49,12 +53,16 @@ public class RaptorState implements Comparable<RaptorState>, Cloneable {
 
     /* if has walked to transit,  */
     State walkPath;
+
+    /* if has walked from the parent's stop along a precomputed transfer; walkPath is found later */
+    boolean walkTransfer;
     
     /* path info */
     private RaptorState parent;
     public ServiceDay serviceDay;
     public RaptorStop stop;
-    private boolean arriveBy;
+    boolean arriveBy;
+    private RaptorCriterion[] criteria = DEFAULT_CRITERIA;
 
     public double weight;
     public int initialWaitTime;
@@ -66,10 +74,16 @@ public class RaptorState implements Comparable<RaptorState>, Cloneable {
         this.request = request;
         arriveBy = request.arriveBy;
     }
+
+    public RaptorState(RoutingRequest request, RaptorCriterion[] criteria) {
+        this(request);
+        this.criteria = criteria;
+    }
     
     public RaptorState(RaptorState parent) {
         this.parent = parent;
         this.arriveBy = parent.arriveBy;
+        this.criteria = parent.criteria;
         this.weight = parent.weight;
         this.initialWaitTime = parent.initialWaitTime;
         this.rentingBike = parent.rentingBike;
@@ -116,15 +130,11 @@ public class RaptorState implements Comparable<RaptorState>, Cloneable {
     public boolean eDominates(RaptorState other) {
         if (rentingBike != other.rentingBike)
             return false;
-        if (arriveBy) {
-            return nBoardings <= other.nBoardings
-                    && walkDistance <= other.walkDistance * Raptor.WALK_EPSILON
-                    && arrivalTime >= other.arrivalTime;
-        } else {
-            return nBoardings <= other.nBoardings
-                    && walkDistance <= other.walkDistance * Raptor.WALK_EPSILON
-                    && arrivalTime <= other.arrivalTime;
-            }
+        for (RaptorCriterion criterion : criteria) {
+            if (!criterion.isNoWorse(this, other))
+                return false;
+        }
+        return true;
     }
 
     @Override
@@ -0,0 +1,125 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl.raptor;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseModeSet;
+
+/**
+ * Walking transfers between stops, precomputed by the graph builder. For the stop with index i,
+ * stops[i] holds the indexes of the stops within the maximum transfer distance, by increasing
+ * distance, distances[i] the walking distances to them and times[i] the walking times, in
+ * seconds, at the walk speed of the request the transfers were found with.
+ */
+public class RaptorTransfers implements Serializable {
+    private static final long serialVersionUID = -6012466318305286207L;
+
+    public int[][] stops;
+
+    public float[][] distances;
+
+    public int[][] times;
+
+    /* the street search settings the transfers were found with */
+    public double walkSpeed;
+
+    public double maxSlope;
+
+    public RaptorTransfers(int nStops, double walkSpeed, double maxSlope) {
+        stops = new int[nStops][];
+        distances = new float[nStops][];
+        times = new int[nStops][];
+        this.walkSpeed = walkSpeed;
+        this.maxSlope = maxSlope;
+    }
+
+    /**
+     * @return whether the transfers are those the street search would find for this request: it
+     *         walks, without wheelchair or other slope restrictions.
+     */
+    public boolean appliesTo(RoutingRequest options) {
+        TraverseModeSet modes = options.getModes();
+        return modes.getWalk() && !modes.getBicycle() && !modes.getDriving()
+                && !options.wheelchairAccessible && options.maxSlope == maxSlope;
+    }
+
+    /**
+     * @return the walking time of the j-th transfer from stop i at the given walk speed
+     */
+    public int getTime(int i, int j, double speed) {
+        return (int) Math.ceil(times[i][j] * walkSpeed / speed);
+    }
+
+    /**
+     * @return the same transfers, walked the other way: for the stop with index i, the stops from
+     *         which it can be reached, by increasing distance. These are the transfers of arriveBy
+     *         searches, which explore from the end of each walk.
+     */
+    public RaptorTransfers reverse() {
+        final int nStops = stops.length;
+        int[] counts = new int[nStops];
+        for (int i = 0; i < nStops; ++i) {
+            for (int to : stops[i]) {
+                counts[to]++;
+            }
+        }
+        RaptorTransfers reversed = new RaptorTransfers(nStops, walkSpeed, maxSlope);
+        for (int i = 0; i < nStops; ++i) {
+            reversed.stops[i] = new int[counts[i]];
+            reversed.distances[i] = new float[counts[i]];
+            reversed.times[i] = new int[counts[i]];
+        }
+        // the transfers into each stop, in no particular order
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < nStops; ++i) {
+            for (int j = 0; j < stops[i].length; ++j) {
+                int to = stops[i][j];
+                int k = counts[to]++;
+                reversed.stops[to][k] = i;
+                reversed.distances[to][k] = distances[i][j];
+                reversed.times[to][k] = times[i][j];
+            }
+        }
+        for (int i = 0; i < nStops; ++i) {
+            reversed.sortByDistance(i);
+        }
+        return reversed;
+    }
+
+    /** Insertion sort of the transfers of one stop; there are only a few of them. */
+    private void sortByDistance(int i) {
+        int[] s = stops[i];
+        float[] d = distances[i];
+        int[] t = times[i];
+        for (int j = 1; j < s.length; ++j) {
+            int stop = s[j];
+            float distance = d[j];
+            int time = t[j];
+            int k = j - 1;
+            while (k >= 0 && d[k] > distance) {
+                s[k + 1] = s[k];
+                d[k + 1] = d[k];
+                t[k + 1] = t[k];
+                --k;
+            }
+            s[k + 1] = stop;
+            d[k + 1] = distance;
+            t[k + 1] = time;
+        }
+    }
+
+}
@@ -93,6 +93,12 @@ public class TargetBound implements SearchTerminationStrategy, SkipTraverseResul
 
     private double transferTimeInWalkDistance;
 
+    /**
+     * The criteria of the search: a state is pruned when a bounding state is no worse than the
+     * best it could achieve by each of them.
+     */
+    RaptorCriterion[] criteria = RaptorState.DEFAULT_CRITERIA;
+
     public TargetBound(RoutingRequest options) {
         this.options = options;
         if (options.rctx.target != null) {
@@ -212,19 +218,21 @@ public class TargetBound implements SearchTerminationStrategy, SkipTraverseResul
 
         double walkDistance = FastMath.max(optimisticDistance * Raptor.WALK_EPSILON, optimisticDistance + transferTimeInWalkDistance);
 
+        final double optimisticWeight = current.getWeight() + minTime + walkTime * (options.getWalkReluctance() - 1);
+
         int i = 0;
         boolean prevBounded = !bounders.isEmpty();
         for (State bounder : bounders) {
             if (removedBoundingStates.contains(bounder))
                 continue;
-            if (current.getWeight() + minTime + walkTime * (options.getWalkReluctance() - 1) > bounder.getWeight() * WORST_WEIGHT_DIFFERENCE_FACTOR) {
+            if (optimisticWeight > bounder.getWeight() * WORST_WEIGHT_DIFFERENCE_FACTOR) {
                 return true;
             }
             int prevTime = previousArrivalTime.get(i++);
 
-            if (walkDistance > bounder.getWalkDistance()
-                    && current.getNumBoardings() >= bounder.getNumBoardings()) {
-                if (current.getElapsedTime() + minTime >= bounder.getElapsedTime()) {
+            if (isNoBetterThan(current, bounder, walkDistance, optimisticWeight)) {
+                if (!hasCriterion(RaptorCriterion.ARRIVAL_TIME)
+                        || current.getElapsedTime() + minTime >= bounder.getElapsedTime()) {
                     return true;
                 } else if (prevTime > 0 && (options.arriveBy ? (current.getTime() - minTime >= prevTime) : ((current.getTime() + minTime) <= prevTime))) {
                     prevBounded = false;
@@ -241,6 +249,41 @@ public class TargetBound implements SearchTerminationStrategy, SkipTraverseResul
         return prevBounded;
     }
 
+    /**
+     * @return whether the current state, with the given optimistic walk distance and weight at the
+     *         target, cannot improve on the bounding state by any criterion besides arrival time
+     */
+    private boolean isNoBetterThan(State current, State bounder, double walkDistance,
+            double optimisticWeight) {
+        for (RaptorCriterion criterion : criteria) {
+            switch (criterion) {
+            case BOARDINGS:
+                if (current.getNumBoardings() < bounder.getNumBoardings())
+                    return false;
+                break;
+            case WALK_DISTANCE:
+                if (walkDistance <= bounder.getWalkDistance())
+                    return false;
+                break;
+            case WEIGHT:
+                if (optimisticWeight < bounder.getWeight())
+                    return false;
+                break;
+            default:
+                break;
+            }
+        }
+        return true;
+    }
+
+    private boolean hasCriterion(RaptorCriterion criterion) {
+        for (RaptorCriterion c : criteria) {
+            if (c == criterion)
+                return true;
+        }
+        return false;
+    }
+
     public static int getNextDepartTime(RoutingRequest request, int departureTime, Vertex stopVertex) {
 
         int bestArrivalTime = Integer.MAX_VALUE;
@@ -372,6 +415,21 @@ public class TargetBound implements SearchTerminationStrategy, SkipTraverseResul
         transitStopsVisited.clear();
     }
 
+    /**
+     * Prepare for a search from the same origin at another time. The bounding states are
+     * dropped, since their elapsed times were measured from the previous departure time; the
+     * distances to the target are kept.
+     */
+    public void startIteration(RoutingRequest options) {
+        this.options = options;
+        if (bounders != null)
+            bounders.clear();
+        previousArrivalTime.clear();
+        removedBoundingStates.clear();
+        transitStopsVisited.clear();
+        spt = new ArrayMultiShortestPathTree(options);
+    }
+
     public void reset(RoutingRequest options) {
         this.options = options;
         if (realTarget != options.rctx.target) {
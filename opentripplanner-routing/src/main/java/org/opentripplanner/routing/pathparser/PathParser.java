@@ -16,6 +16,12 @@ package org.opentripplanner.routing.pathparser;
 import org.opentripplanner.routing.automata.DFA;
 import org.opentripplanner.routing.core.State;
 
+/**
+ * Accepts or rejects paths while they are explored, according to a DFA over terminals derived
+ * from States. The current parse state of each path is kept in its States, not in the parser,
+ * so implementations must be stateless: a single PathParser may be used by several concurrent
+ * searches (see RoutingContext.copy()).
+ */
 public abstract class PathParser {
 
 	public int transition(int initState, int terminal) {
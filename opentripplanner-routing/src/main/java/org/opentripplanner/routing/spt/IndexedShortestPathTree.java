@@ -0,0 +1,244 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.graph.CompactAdjacency;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+
+/**
+ * A ShortestPathTree with a single optimal state per vertex, like BasicShortestPathTree, but
+ * keeping states in an array indexed by vertex index rather than in a hash map. The arrays cover
+ * the vertex index range of the graph's CompactAdjacency; vertices outside it (temporary vertices
+ * created for a request, or all vertices if the graph adjacency was never frozen) go to a small
+ * side map. The arrays are recycled between searches: calling release() once the tree is no
+ * longer needed clears only the slots that were touched and returns the arrays to a shared pool
+ * for the next tree. Trees that are never released are simply garbage collected.
+ */
+public class IndexedShortestPathTree extends AbstractShortestPathTree {
+
+    private static final long serialVersionUID = MavenVersion.VERSION.getUID();
+
+    public static final ShortestPathTreeFactory FACTORY = new Factory();
+
+    /* a few sets of arrays per thread is plenty, anything beyond that is left to the GC */
+    private static final int MAX_POOLED = 2 * Runtime.getRuntime().availableProcessors();
+
+    private static final List<Storage> pool = new ArrayList<Storage>();
+
+    private transient Storage storage;
+
+    public IndexedShortestPathTree(RoutingRequest options) {
+        super(options);
+        synchronized (pool) {
+            if (!pool.isEmpty())
+                storage = pool.remove(pool.size() - 1);
+        }
+        if (storage == null)
+            storage = new Storage();
+        CompactAdjacency adjacency = null;
+        if (options.rctx != null && options.rctx.graph != null)
+            adjacency = options.rctx.graph.getCompactAdjacency();
+        if (adjacency == null)
+            storage.setRange(0, 0);
+        else
+            storage.setRange(adjacency.getBaseIndex(), adjacency.getVertexSlots());
+    }
+
+    /**
+     * Clear this tree and make its arrays available to other trees. The tree must not be used
+     * afterward, though paths and states already extracted from it remain valid.
+     */
+    public void release() {
+        Storage s = storage;
+        if (s == null)
+            return;
+        storage = null;
+        s.clear();
+        synchronized (pool) {
+            if (pool.size() < MAX_POOLED)
+                pool.add(s);
+        }
+    }
+
+    private State get(Vertex v) {
+        return storage.get(v);
+    }
+
+    @Override
+    public Collection<State> getAllStates() {
+        List<State> ret = new ArrayList<State>(getVertexCount());
+        for (int i = 0; i < storage.nTouched; i++) {
+            ret.add(storage.states[storage.touched[i]]);
+        }
+        ret.addAll(storage.others.values());
+        return ret;
+    }
+
+    /****
+     * {@link ShortestPathTree} Interface
+     ****/
+
+    @Override
+    public boolean add(State state) {
+        Vertex here = state.getVertex();
+        State existing = get(here);
+        if (existing == null || state.betterThan(existing)) {
+            storage.put(here, state);
+            return true;
+        } else {
+            final Edge backEdge = existing.getBackEdge();
+            if (backEdge instanceof PlainStreetEdge) {
+                PlainStreetEdge pseBack = (PlainStreetEdge) backEdge;
+                if (pseBack.hasExplicitTurnRestrictions()) {
+                    // as in BasicShortestPathTree, the previous path may be prevented from
+                    // reaching the end by turn restrictions, so continue the search
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public List<State> getStates(Vertex dest) {
+        State s = get(dest);
+        if (s == null)
+            return Collections.emptyList();
+        else
+            return Arrays.asList(s); // single-element array-backed list
+    }
+
+    @Override
+    public State getState(Vertex dest) {
+        return get(dest);
+    }
+
+    @Override
+    public boolean visit(State s) {
+        final State existing = get(s.getVertex());
+        final Edge backEdge = existing.getBackEdge();
+        if (backEdge instanceof PlainStreetEdge) {
+            PlainStreetEdge pseBack = (PlainStreetEdge) backEdge;
+            if (pseBack.hasExplicitTurnRestrictions()) {
+                return true;
+            }
+        }
+        return (s == existing);
+    }
+
+    @Override
+    public int getVertexCount() {
+        return storage.nTouched + storage.others.size();
+    }
+
+    public String toString() {
+        return "IndexedSPT(" + getVertexCount() + " vertices)";
+    }
+
+    /** The reusable arrays backing a tree. */
+    private static class Storage {
+
+        State[] states = new State[0];
+
+        /* vertex index of states[0] */
+        int base = 0;
+
+        /* number of slots of states in use by the current tree */
+        int nSlots = 0;
+
+        /* slots of the non-null entries in states, in order of first use */
+        int[] touched = new int[64];
+
+        int nTouched = 0;
+
+        /* states at vertices outside the slot range */
+        Map<Vertex, State> others = new IdentityHashMap<Vertex, State>();
+
+        /** Cover the vertex indices from base (inclusive) to base + nSlots. Must be empty. */
+        void setRange(int base, int nSlots) {
+            this.base = base;
+            this.nSlots = nSlots;
+            if (nSlots > states.length)
+                states = new State[nSlots];
+        }
+
+        State get(Vertex v) {
+            int slot = v.getIndex() - base;
+            if (slot >= 0 && slot < nSlots) {
+                State s = states[slot];
+                if (s != null && s.getVertex() == v)
+                    return s;
+            }
+            if (others.isEmpty())
+                return null;
+            return others.get(v);
+        }
+
+        void put(Vertex v, State state) {
+            int slot = v.getIndex() - base;
+            if (slot < 0 || slot >= nSlots) {
+                others.put(v, state);
+                return;
+            }
+            State existing = states[slot];
+            if (existing == null) {
+                if (nTouched == touched.length)
+                    touched = Arrays.copyOf(touched, touched.length * 2);
+                touched[nTouched++] = slot;
+            } else if (existing.getVertex() != v) {
+                // the index was reassigned to another vertex while this tree is in use
+                others.put(v, state);
+                return;
+            }
+            states[slot] = state;
+        }
+
+        void clear() {
+            for (int i = 0; i < nTouched; i++) {
+                states[touched[i]] = null;
+            }
+            nTouched = 0;
+            others.clear();
+        }
+    }
+
+    /**
+     * Creates IndexedShortestPathTrees for searches that keep a single state per vertex, and
+     * returns null (leaving the choice to the search algorithm) for those that need several, i.e.
+     * transit and bike rental searches.
+     */
+    public static class Factory implements ShortestPathTreeFactory {
+        @Override
+        public ShortestPathTree create(RoutingRequest options) {
+            if (options.getModes().isTransit() || options.getModes().getWalk()
+                    && options.getModes().getBicycle())
+                return null;
+            return new IndexedShortestPathTree(options);
+        }
+    }
+
+}
@@ -48,23 +48,29 @@ public class ScheduledTripTimes extends TripTimes implements Serializable {
     
     /** 
      * The time in seconds after midnight at which the vehicle begins traversing each inter-stop 
-     * segment ("hop"). Field is non-final to support compaction.
+     * segment ("hop"), starting at offset. Field is non-final to support compaction and packing
+     * into the columns of a Timetable, in which case the array is shared with the other trips.
      */ //@XmlElement
     private int[] departureTimes;
 
     /** 
      * The time in seconds after midnight at which the vehicle arrives at the end of each 
-     * inter-stop segment ("hop"). A null value indicates that all dwells are 0-length, and arrival 
-     * times are to be derived from the departure times array. Field is non-final to support 
-     * compaction.
+     * inter-stop segment ("hop"), starting at offset. A null value indicates that all dwells are
+     * 0-length, and arrival times are to be derived from the departure times array. Field is
+     * non-final to support compaction and packing.
      */ //@XmlElement
     private int[] arrivalTimes; 
 
+    /** The position of this trip's first hop in the times arrays. */
+    private int offset = 0;
+
+    private final int nHops;
+
     /** The provided stopTimes are assumed to be pre-filtered, valid, and monotonically increasing. */ 
     public ScheduledTripTimes(Trip trip, List<StopTime> stopTimes) {
         this.trip = trip;
         int nStops = stopTimes.size();
-        int nHops = nStops - 1;
+        nHops = nStops - 1;
         departureTimes = new int[nHops];
         arrivalTimes = new int[nHops];
         // this might be clearer if time array indexes were stops instead of hops
@@ -115,12 +121,7 @@ public class ScheduledTripTimes extends TripTimes implements Serializable {
     
     @Override
     public int getNumHops() {
-        // The arrivals array may not be present, and the departures array may have grown by 1 due 
-        // to compaction, so we can't directly use array lengths as an indicator of number of hops.
-        if (arrivalTimes == null)
-            return departureTimes.length - 1;
-        else
-            return arrivalTimes.length;
+        return nHops;
     }
     
     @Override
@@ -130,24 +131,41 @@ public class ScheduledTripTimes extends TripTimes implements Serializable {
     
     @Override
     public int getDepartureTime(int hop) {
-        return departureTimes[hop];
+        return departureTimes[offset + hop];
     }
 
     @Override
     public int getArrivalTime(int hop) {
         if (arrivalTimes == null) // add range checking?
-            return departureTimes[hop + 1];
-        return arrivalTimes[hop];
+            return departureTimes[offset + hop + 1];
+        return arrivalTimes[offset + hop];
     }
     
+    /**
+     * Copy the times of this trip into arrays shared by all the trips of a Timetable, starting at
+     * the given offset, and read them from there from now on. If arrivals is null, departures
+     * must have room for one more time after the last hop, which is the final arrival; this is
+     * only possible if this trip has no dwell times.
+     */
+    public void pack(int[] departures, int[] arrivals, int offset) {
+        for (int hop = 0; hop < nHops; hop++) {
+            departures[offset + hop] = getDepartureTime(hop);
+            if (arrivals != null)
+                arrivals[offset + hop] = getArrivalTime(hop);
+        }
+        if (arrivals == null)
+            departures[offset + nHops] = getArrivalTime(nHops - 1);
+        this.departureTimes = departures;
+        this.arrivalTimes = arrivals;
+        this.offset = offset;
+    }
+
     /** {@inheritDoc} Replaces the arrivals array with null if all dwell times are zero. */
     @Override
     public boolean compact() {
-        if (arrivalTimes == null)
+        // times that were packed into shared arrays cannot be compacted individually
+        if (arrivalTimes == null || offset != 0 || arrivalTimes.length != nHops)
             return false;
-        // use arrivalTimes to determine number of hops because departureTimes may have grown by 1
-        // due to successive compact/decompact operations
-        int nHops = arrivalTimes.length;
         // dwell time is undefined for hop 0, because there is no arrival for hop -1
         for (int hop = 1; hop < nHops; hop++) {
             if (this.getDwellTime(hop) != 0) {
@@ -164,12 +182,11 @@ public class ScheduledTripTimes extends TripTimes implements Serializable {
     
     @SuppressWarnings("unused")
     private boolean decompact() {
-        if (arrivalTimes != null)
+        if (arrivalTimes != null || offset != 0)
             return false;
-        int nHops = departureTimes.length;
         if (nHops < 1)
             throw new RuntimeException("improper array length in TripTimes");
-        arrivalTimes = Arrays.copyOfRange(departureTimes, 1, nHops);
+        arrivalTimes = Arrays.copyOfRange(departureTimes, 1, nHops + 1);
         return true;
     }
 
@@ -59,6 +59,10 @@ public class ElevationProfileSegment implements Serializable {
         return maxSlope;
     }
 
+    public void setMaxSlope(double maxSlope) {
+        this.maxSlope = maxSlope;
+    }
+
     public void setSlopeOverride(boolean slopeOverride) {
         this.slopeOverride = slopeOverride;
     }
@@ -158,4 +162,8 @@ public class ElevationProfileSegment implements Serializable {
     public boolean isFlattened() {
         return flattened;
     }
+
+    public void setFlattened(boolean flattened) {
+        this.flattened = flattened;
+    }
 }
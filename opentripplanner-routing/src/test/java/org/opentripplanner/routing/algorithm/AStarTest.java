@@ -16,6 +16,7 @@ package org.opentripplanner.routing.algorithm;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import java.util.HashSet;
 import java.util.List;
@@ -23,19 +24,29 @@ import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.algorithm.strategies.LandmarkRemainingWeightHeuristic;
+import org.opentripplanner.routing.algorithm.strategies.LandmarkTable;
 import org.opentripplanner.routing.algorithm.strategies.MultiTargetTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.SimpleConcreteEdge;
 import org.opentripplanner.routing.graph.SimpleConcreteVertex;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.location.StreetLocation;
 import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.IndexedShortestPathTree;
 import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
 
 public class AStarTest {
 
@@ -244,6 +255,166 @@ public class AStarTest {
         }
     }
 
+    @Test
+    public void testIndexedShortestPathTree() {
+
+        RoutingRequest options = new RoutingRequest();
+        options.setWalkSpeed(1.0);
+        options.setRoutingContext(_graph, _graph.getVertex("56th_24th"), _graph.getVertex("leary_20th"));
+        GenericAStar aStar = new GenericAStar();
+        aStar.setShortestPathTreeFactory(IndexedShortestPathTree.FACTORY);
+        ShortestPathTree tree = aStar.getShortestPathTree(options);
+        assertTrue(tree instanceof IndexedShortestPathTree);
+        ShortestPathTree basic = new GenericAStar().getShortestPathTree(options);
+
+        assertEquals(basic.getVertexCount(), tree.getVertexCount());
+        for (Vertex v : _graph.getVertices()) {
+            State s = basic.getState(v);
+            if (s == null)
+                assertNull(tree.getState(v));
+            else
+                assertEquals(s.getWeight(), tree.getState(v).getWeight(), 0.0);
+        }
+        GraphPath path = tree.getPath(_graph.getVertex("leary_20th"), false);
+        assertEquals(7, path.states.size());
+
+        // recycled arrays must come back empty
+        ((IndexedShortestPathTree) tree).release();
+        tree = aStar.getShortestPathTree(options);
+        assertEquals(basic.getVertexCount(), tree.getVertexCount());
+    }
+
+    @Test
+    public void testIndexedShortestPathTreeTemporaryVertices() {
+
+        // the arrays cover the frozen vertices, the temporary ones go to the side map
+        _graph.freezeAdjacency();
+        RoutingRequest options = new RoutingRequest();
+        options.setWalkSpeed(1.0);
+
+        StreetLocation fromLocation = new StreetLocation(_graph, "near_shilshole_22nd", new Coordinate(
+                -122.385050, 47.666620), "near_shilshole_22nd");
+        fromLocation.getExtra().add(
+                new SimpleConcreteEdge(fromLocation, _graph.getVertex("shilshole_22nd")));
+
+        StreetLocation toLocation = new StreetLocation(_graph, "near_56th_20th", new Coordinate(
+                -122.382347, 47.669518), "near_56th_20th");
+        toLocation.getExtra().add(new SimpleConcreteEdge(_graph.getVertex("56th_20th"), toLocation));
+
+        options.setRoutingContext(_graph, fromLocation, toLocation);
+        GenericAStar aStar = new GenericAStar();
+        aStar.setShortestPathTreeFactory(IndexedShortestPathTree.FACTORY);
+        ShortestPathTree tree = aStar.getShortestPathTree(options);
+        assertTrue(tree instanceof IndexedShortestPathTree);
+        ShortestPathTree basic = new GenericAStar().getShortestPathTree(options);
+
+        assertEquals(basic.getVertexCount(), tree.getVertexCount());
+        assertEquals(basic.getVertexCount(), tree.getAllStates().size());
+        assertNotNull(tree.getState(fromLocation));
+        GraphPath path = tree.getPath(toLocation, false);
+        assertEquals(9, path.states.size());
+        assertEquals(basic.getState(toLocation).getWeight(), tree.getState(toLocation)
+                .getWeight(), 0.0);
+        ((IndexedShortestPathTree) tree).release();
+    }
+
+    @Test
+    public void testIndexedQueue() {
+
+        // the indexed queue covers the frozen adjacency
+        _graph.freezeAdjacency();
+        RoutingRequest options = new RoutingRequest();
+        options.setWalkSpeed(1.0);
+        options.setRoutingContext(_graph, _graph.getVertex("56th_24th"), _graph.getVertex("leary_20th"));
+        GenericAStar aStar = new GenericAStar();
+        aStar.setUseIndexedQueue(true);
+        ShortestPathTree tree = aStar.getShortestPathTree(options);
+        ShortestPathTree basic = new GenericAStar().getShortestPathTree(options);
+
+        GraphPath path = tree.getPath(_graph.getVertex("leary_20th"), false);
+        GraphPath expected = basic.getPath(_graph.getVertex("leary_20th"), false);
+        assertEquals(7, path.states.size());
+        assertEquals(expected.getWeight(), path.getWeight(), 0.0);
+    }
+
+    @Test
+    public void testBidirectional() {
+
+        for (boolean arriveBy : new boolean[] { false, true }) {
+            RoutingRequest options = new RoutingRequest();
+            options.setWalkSpeed(1.0);
+            options.setArriveBy(arriveBy);
+            options.setRoutingContext(_graph, _graph.getVertex("56th_24th"), _graph.getVertex("shilshole_20th"));
+            Vertex target = arriveBy ? _graph.getVertex("56th_24th") : _graph.getVertex("shilshole_20th");
+
+            ShortestPathTree tree = new BidirectionalAStar().getShortestPathTree(options);
+            GraphPath path = tree.getPath(target, false);
+            GraphPath expected = new GenericAStar().getShortestPathTree(options).getPath(target, false);
+
+            assertNotNull(path);
+            assertEquals(expected.getWeight(), path.getWeight(), 1e-6);
+            assertEquals("56th_24th", path.states.getFirst().getVertex().getLabel());
+            assertEquals("shilshole_20th", path.states.getLast().getVertex().getLabel());
+        }
+    }
+
+    @Test
+    public void testBidirectionalTurnCostAtMeetingVertex() {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", 0.0, 0.0);
+        IntersectionVertex light = new IntersectionVertex(graph, "light", 0.001, 0.0);
+        IntersectionVertex detour = new IntersectionVertex(graph, "detour", 0.001, 0.0002);
+        IntersectionVertex b = new IntersectionVertex(graph, "b", 0.002, 0.0);
+        light.setTrafficLight(true);
+
+        // going straight through the light is shorter, but waiting at it is not
+        streetEdge(a, light, 120);
+        streetEdge(light, b, 120);
+        streetEdge(a, detour, 125);
+        streetEdge(detour, b, 125);
+
+        RoutingRequest options = new RoutingRequest(TraverseMode.CAR);
+        options.setCarSpeed(10.0);
+        options.setRoutingContext(graph, a, b);
+
+        // the searches first meet at the light, before the turn there has been paid for
+        GraphPath path = new BidirectionalAStar().getShortestPathTree(options).getPath(b, false);
+        GraphPath expected = new GenericAStar().getShortestPathTree(options).getPath(b, false);
+
+        assertNotNull(path);
+        assertEquals(expected.getWeight(), path.getWeight(), 1e-6);
+        assertEquals(3, path.states.size());
+        assertEquals("detour", path.states.get(1).getVertex().getLabel());
+    }
+
+    @Test
+    public void testLandmarkHeuristic() {
+
+        LandmarkTable table = new LandmarkTable(_graph, 4);
+        assertEquals(4, table.getLandmarkCount());
+        Vertex target = _graph.getVertex("leary_20th");
+
+        RoutingRequest options = new RoutingRequest();
+        options.setWalkSpeed(1.0);
+        options.setRoutingContext(_graph, _graph.getVertex("56th_24th"), target);
+        GraphPath expected = new GenericAStar().getShortestPathTree(options).getPath(target, false);
+        options.rctx.remainingWeightHeuristic = new LandmarkRemainingWeightHeuristic(table);
+        GraphPath path = new GenericAStar().getShortestPathTree(options).getPath(target, false);
+        assertEquals(expected.getWeight(), path.getWeight(), 1e-6);
+
+        // the estimate never exceeds the remaining weight
+        LandmarkRemainingWeightHeuristic heuristic = new LandmarkRemainingWeightHeuristic(table);
+        heuristic.computeInitialWeight(new State(options), target);
+        for (Vertex v : _graph.getVertices()) {
+            RoutingRequest req = new RoutingRequest();
+            req.setWalkSpeed(1.0);
+            req.setRoutingContext(_graph, v, target);
+            GraphPath p = new GenericAStar().getShortestPathTree(req).getPath(target, false);
+            double h = heuristic.computeForwardWeight(new State(v, options), target);
+            assertTrue(h <= p.getWeight() + 1e-3);
+        }
+    }
+
     /****
      * Private Methods
      ****/
@@ -253,6 +424,13 @@ public class AStarTest {
         return v;
     }
 
+    private PlainStreetEdge streetEdge(StreetVertex vA, StreetVertex vB, double length) {
+        Coordinate[] coords = new Coordinate[] { vA.getCoordinate(), vB.getCoordinate() };
+        LineString geom = GeometryUtils.getGeometryFactory().createLineString(coords);
+        return new PlainStreetEdge(vA, vB, geom, vA.getLabel() + "_" + vB.getLabel(), length,
+                StreetTraversalPermission.ALL, false);
+    }
+
     private void edges(String... vLabels) {
         for (int i = 0; i < vLabels.length - 1; i++) {
             Vertex vA = _graph.getVertex(vLabels[i]);
@@ -0,0 +1,211 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+
+public class ContractionHierarchyTest {
+
+    private static final int SIZE = 8;
+
+    private Graph _graph;
+
+    private StreetVertex[][] grid;
+
+    @Before
+    public void before() {
+        _graph = new Graph();
+        grid = new StreetVertex[SIZE][SIZE];
+        for (int i = 0; i < SIZE; i++)
+            for (int j = 0; j < SIZE; j++)
+                grid[i][j] = new IntersectionVertex(_graph, i + "_" + j, i * 0.001, j * 0.001);
+
+        // a grid with random block lengths, some one-way and some car-free streets
+        Random random = new Random(42);
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE; j++) {
+                if (i + 1 < SIZE)
+                    edges(grid[i][j], grid[i + 1][j], random);
+                if (j + 1 < SIZE)
+                    edges(grid[i][j], grid[i][j + 1], random);
+            }
+        }
+    }
+
+    @Test
+    public void testShortestRoutes() {
+        for (TraverseMode mode : new TraverseMode[] { TraverseMode.WALK, TraverseMode.CAR }) {
+            ContractionHierarchy ch = ContractionHierarchy.build(_graph, mode, 1.0);
+            assertEquals(SIZE * SIZE, ch.getNodeCount());
+            for (Vertex from : _graph.getVertices()) {
+                for (Vertex to : _graph.getVertices()) {
+                    double expected = dijkstra(ch, from, to);
+                    List<Edge> route = ch.route(from, to);
+                    if (expected == Double.POSITIVE_INFINITY) {
+                        assertNull(route);
+                        continue;
+                    }
+                    assertNotNull(route);
+                    double weight = 0;
+                    Vertex v = from;
+                    for (Edge e : route) {
+                        assertSame(v, e.getFromVertex());
+                        weight += ch.weight(e);
+                        v = e.getToVertex();
+                    }
+                    assertSame(to, v);
+                    assertEquals(expected, weight, 1e-6);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSPTService() {
+        ContractionHierarchySet hierarchies = new ContractionHierarchySet();
+        hierarchies.put(ContractionHierarchy.build(_graph, TraverseMode.WALK, 1.0));
+        _graph.putService(ContractionHierarchySet.class, hierarchies);
+        ContractionHierarchySPTService service = new ContractionHierarchySPTService();
+
+        for (boolean arriveBy : new boolean[] { false, true }) {
+            RoutingRequest options = new RoutingRequest();
+            options.setWalkSpeed(1.0);
+            options.setArriveBy(arriveBy);
+            Vertex from = grid[0][0], to = grid[SIZE - 1][SIZE - 2];
+            options.setRoutingContext(_graph, from, to);
+
+            GraphPath path = service.getShortestPathTree(options).getPath(arriveBy ? from : to,
+                    false);
+            assertNotNull(path);
+            assertSame(from, path.states.getFirst().getVertex());
+            assertSame(to, path.states.getLast().getVertex());
+        }
+    }
+
+    @Test
+    public void testProfileMatching() {
+        ContractionHierarchy walk = ContractionHierarchy.build(_graph, TraverseMode.WALK, 1.0);
+        RoutingRequest options = new RoutingRequest(TraverseMode.WALK);
+        options.setWalkSpeed(1.0);
+        assertTrue(walk.matches(options));
+
+        options.setWalkSpeed(2.0);
+        assertFalse(walk.matches(options));
+        options.setWalkSpeed(1.0);
+        options.stairsReluctance = 3.0;
+        assertFalse(walk.matches(options));
+        options.stairsReluctance = options.walkReluctance;
+        options.setWheelchairAccessible(true);
+        assertFalse(walk.matches(options));
+
+        ContractionHierarchy bike = ContractionHierarchy.build(_graph, TraverseMode.BICYCLE, 5.0);
+        options = new RoutingRequest(TraverseMode.BICYCLE);
+        options.setBikeSpeed(5.0);
+        assertTrue(bike.matches(options));
+        options.setOptimize(OptimizeType.SAFE);
+        assertFalse(bike.matches(options));
+
+        ContractionHierarchy car = ContractionHierarchy.build(_graph, TraverseMode.CAR, 1.0);
+        options = new RoutingRequest(TraverseMode.CAR);
+        assertTrue(car.matches(options));
+        options.driveOnRight = false;
+        assertFalse(car.matches(options));
+    }
+
+    /****
+     * Private Methods
+     ****/
+
+    private void edges(StreetVertex vA, StreetVertex vB, Random random) {
+        double length = 50 + random.nextInt(200);
+        StreetTraversalPermission perm = random.nextInt(5) == 0 ? StreetTraversalPermission.PEDESTRIAN
+                : StreetTraversalPermission.ALL;
+        new PlainStreetEdge(vA, vB, geometry(vA, vB), vA.getLabel() + "_" + vB.getLabel(),
+                length, perm, false);
+        if (random.nextInt(5) > 0)
+            new PlainStreetEdge(vB, vA, geometry(vB, vA), vB.getLabel() + "_" + vA.getLabel(),
+                    length, perm, true);
+    }
+
+    private LineString geometry(Vertex vA, Vertex vB) {
+        return GeometryUtils.getGeometryFactory().createLineString(
+                new Coordinate[] { vA.getCoordinate(), vB.getCoordinate() });
+    }
+
+    /* a plain Dijkstra over the hierarchy's own edge weights */
+    private double dijkstra(ContractionHierarchy ch, Vertex from, Vertex to) {
+        final Map<Vertex, Double> dist = new HashMap<Vertex, Double>();
+        PriorityQueue<Vertex> queue = new PriorityQueue<Vertex>(11,
+                new Comparator<Vertex>() {
+                    public int compare(Vertex a, Vertex b) {
+                        return Double.compare(dist.get(a), dist.get(b));
+                    }
+                });
+        Set<Vertex> settled = new HashSet<Vertex>();
+        dist.put(from, 0.0);
+        queue.add(from);
+        while (!queue.isEmpty()) {
+            Vertex u = queue.poll();
+            if (!settled.add(u))
+                continue;
+            if (u == to)
+                return dist.get(u);
+            for (Edge e : u.getOutgoing()) {
+                double w = ch.weight(e);
+                if (w < 0)
+                    continue;
+                Vertex x = e.getToVertex();
+                double d = dist.get(u) + w;
+                if (!settled.contains(x) && (!dist.containsKey(x) || d < dist.get(x))) {
+                    queue.remove(x);
+                    dist.put(x, d);
+                    queue.add(x);
+                }
+            }
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+}
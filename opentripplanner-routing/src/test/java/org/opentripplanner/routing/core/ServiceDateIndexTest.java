@@ -0,0 +1,102 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.TimeZone;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.gtfs.impl.calendar.CalendarServiceImpl;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.onebusaway.gtfs.services.calendar.CalendarService;
+import org.opentripplanner.routing.graph.Graph;
+
+public class ServiceDateIndexTest {
+
+    private static final TimeZone TIME_ZONE = TimeZone.getTimeZone("America/New_York");
+
+    private ServiceDate monday = new ServiceDate(2013, 4, 1);
+
+    private ServiceDate tuesday = new ServiceDate(2013, 4, 2);
+
+    private ServiceDate wednesday = new ServiceDate(2013, 4, 3);
+
+    private CalendarServiceData data;
+
+    private ServiceIdToNumberService serviceNumbers;
+
+    @Before
+    public void before() {
+        AgencyAndId weekdays = new AgencyAndId("agency", "weekdays");
+        AgencyAndId mondays = new AgencyAndId("agency", "mondays");
+        data = new CalendarServiceData();
+        data.putTimeZoneForAgencyId("agency", TIME_ZONE);
+        data.putServiceDatesForServiceId(weekdays, Arrays.asList(monday, tuesday, wednesday));
+        data.putServiceDatesForServiceId(mondays, Arrays.asList(monday));
+        // a service without a number, used by no trip
+        data.putServiceDatesForServiceId(new AgencyAndId("agency", "unused"),
+                Arrays.asList(wednesday));
+        HashMap<AgencyAndId, Integer> numbers = new HashMap<AgencyAndId, Integer>();
+        numbers.put(weekdays, 0);
+        numbers.put(mondays, 1);
+        serviceNumbers = new ServiceIdToNumberService(numbers);
+    }
+
+    @Test
+    public void testServicesRunning() {
+        CalendarServiceImpl calendarService = new CalendarServiceImpl();
+        calendarService.setData(data);
+        ServiceDateIndex index = new ServiceDateIndex(calendarService, serviceNumbers);
+
+        BitSet running = index.getServicesRunning(monday);
+        assertTrue(running.get(0));
+        assertTrue(running.get(1));
+        running = index.getServicesRunning(tuesday);
+        assertTrue(running.get(0));
+        assertFalse(running.get(1));
+        // dates with the same services share their set
+        assertSame(running, index.getServicesRunning(wednesday));
+        assertTrue(index.getServicesRunning(new ServiceDate(2013, 4, 4)).isEmpty());
+    }
+
+    @Test
+    public void testServiceDay() {
+        Graph graph = new Graph();
+        graph.putService(CalendarServiceData.class, data);
+        graph.putService(ServiceIdToNumberService.class, serviceNumbers);
+        CalendarService calendarService = graph.getCalendarService();
+        for (ServiceDate date : Arrays.asList(monday, tuesday)) {
+            long noon = date.getAsDate(TIME_ZONE).getTime() / 1000 + 12 * 3600;
+            graph.putService(ServiceDateIndex.class, null);
+            ServiceDay queried = new ServiceDay(graph, noon, calendarService, "agency");
+            graph.indexServiceDates();
+            ServiceDay indexed = new ServiceDay(graph, noon, calendarService, "agency");
+            assertEquals(queried, indexed);
+            for (int n = 0; n < 2; n++) {
+                assertEquals(queried.serviceIdRunning(n), indexed.serviceIdRunning(n));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,98 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.SimpleConcreteEdge;
+import org.opentripplanner.routing.graph.SimpleConcreteVertex;
+import org.opentripplanner.routing.patch.Alert;
+
+public class StateEditorTest {
+
+    private Edge edge, next;
+
+    private State s0;
+
+    @Before
+    public void before() {
+        Graph graph = new Graph();
+        SimpleConcreteVertex a = new SimpleConcreteVertex(graph, "a", 47.669457, -122.387577);
+        SimpleConcreteVertex b = new SimpleConcreteVertex(graph, "b", 47.669462, -122.384739);
+        SimpleConcreteVertex c = new SimpleConcreteVertex(graph, "c", 47.669457, -122.382106);
+        edge = new SimpleConcreteEdge(a, b);
+        next = new SimpleConcreteEdge(b, c);
+        s0 = new State(a, new RoutingRequest());
+    }
+
+    @Test
+    public void testStreetStatesShareStateData() {
+        State s1 = edge.traverse(s0);
+        assertSame(s0.stateData, s1.stateData);
+        assertNull(s1.stateData.transit);
+        assertEquals(0, s1.getNumBoardings());
+        assertNull(s1.getRoute());
+    }
+
+    @Test
+    public void testTransitStateDataIsCopiedOnWrite() {
+        StateEditor editor = s0.edit(edge);
+        editor.incrementNumBoardings();
+        editor.setZone("1");
+        State s1 = editor.makeState();
+        assertEquals(1, s1.getNumBoardings());
+        assertEquals("1", s1.getZone());
+        assertEquals(0, s0.getNumBoardings());
+        assertNull(s0.getZone());
+
+        editor = s1.edit(next);
+        editor.incrementNumBoardings();
+        State s2 = editor.makeState();
+        assertNotSame(s1.stateData.transit, s2.stateData.transit);
+        assertEquals(2, s2.getNumBoardings());
+        assertEquals("1", s2.getZone());
+        assertEquals(1, s1.getNumBoardings());
+    }
+
+    @Test
+    public void testAlerts() {
+        Set<Alert> alerts = Collections.singleton(Alert.createSimpleAlerts("first"));
+        StateEditor editor = s0.edit(edge);
+        editor.addAlerts(alerts);
+        State s1 = editor.makeState();
+        assertSame(alerts, s1.getBackAlerts());
+        assertSame(s0.stateData, s1.stateData);
+
+        // the shared set must not be modified
+        editor = s0.edit(edge);
+        editor.addAlerts(alerts);
+        editor.addAlert(Alert.createSimpleAlerts("second"));
+        State s2 = editor.makeState();
+        assertEquals(2, s2.getBackAlerts().size());
+        assertEquals(1, alerts.size());
+
+        // alerts only apply to the edge they were added on
+        assertNull(next.traverse(s1).getBackAlerts());
+    }
+}
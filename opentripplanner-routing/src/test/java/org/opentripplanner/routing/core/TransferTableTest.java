@@ -0,0 +1,93 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.SimpleConcreteVertex;
+import org.opentripplanner.routing.graph.Vertex;
+
+public class TransferTableTest {
+
+    private static final int N_STOPS = 50;
+
+    private Vertex[] stops;
+
+    private TransferTable table;
+
+    @Before
+    public void before() {
+        Graph graph = new Graph();
+        stops = new Vertex[N_STOPS];
+        for (int s = 0; s < N_STOPS; s++) {
+            stops[s] = new SimpleConcreteVertex(graph, "stop" + s, 47.6 + s * 0.001, -122.3);
+        }
+        table = new TransferTable();
+        // transfers between neighbouring stops, in one direction only
+        for (int s = 0; s < N_STOPS - 1; s++) {
+            table.setTransferTime(stops[s], stops[s + 1], s * 10);
+        }
+    }
+
+    @Test
+    public void testTransferTimes() {
+        for (int s = 0; s < N_STOPS - 1; s++) {
+            assertEquals(s * 10, table.getTransferTime(stops[s], stops[s + 1]));
+            assertEquals(TransferTable.UNKNOWN_TRANSFER,
+                    table.getTransferTime(stops[s + 1], stops[s]));
+        }
+        assertEquals(TransferTable.UNKNOWN_TRANSFER, table.getTransferTime(null, stops[0]));
+        assertFalse(table.hasPreferredTransfers());
+
+        // setting a transfer after a lookup must be visible
+        table.setTransferTime(stops[3], stops[1], TransferTable.PREFERRED_TRANSFER);
+        table.setTransferTime(stops[0], stops[1], TransferTable.FORBIDDEN_TRANSFER);
+        assertEquals(TransferTable.PREFERRED_TRANSFER, table.getTransferTime(stops[3], stops[1]));
+        assertEquals(TransferTable.FORBIDDEN_TRANSFER, table.getTransferTime(stops[0], stops[1]));
+        assertTrue(table.hasPreferredTransfers());
+    }
+
+    @Test
+    public void testSerialization() throws Exception {
+        table.getTransferTime(stops[0], stops[1]);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(table);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+                bytes.toByteArray()));
+        TransferTable copy = (TransferTable) in.readObject();
+
+        // the vertices have been given new indices
+        int n = 0;
+        for (TransferTable.Transfer transfer : copy.getAllTransfers()) {
+            assertEquals(transfer.seconds, copy.getTransferTime(transfer.from, transfer.to));
+            assertEquals(TransferTable.UNKNOWN_TRANSFER,
+                    copy.getTransferTime(transfer.to, transfer.from));
+            n++;
+        }
+        assertEquals(N_STOPS - 1, n);
+    }
+
+}
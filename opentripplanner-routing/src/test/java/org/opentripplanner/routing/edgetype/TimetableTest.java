@@ -0,0 +1,217 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.edgetype;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.trippattern.TripTimes;
+import org.opentripplanner.routing.trippattern.Update;
+import org.opentripplanner.routing.trippattern.UpdateBlock;
+
+public class TimetableTest {
+
+    private static final int N_STOPS = 5;
+
+    private static final int N_TRIPS = 40;
+
+    /** The stop times of each trip of the last pattern made. */
+    private List<List<StopTime>> stopTimesByTrip = new ArrayList<List<StopTime>>();
+
+    /**
+     * Build a pattern whose trips leave in random order and overtake each other, which makes
+     * it non-FIFO and with dwell times that differ between trips.
+     */
+    private TableTripPattern makePattern(boolean overtaking) {
+        Random random = new Random(42);
+        List<Stop> stops = new ArrayList<Stop>();
+        for (int s = 0; s < N_STOPS; s++) {
+            Stop stop = new Stop();
+            stop.setId(new AgencyAndId("agency", "stop" + s));
+            stops.add(stop);
+        }
+        TableTripPattern pattern = null;
+        stopTimesByTrip.clear();
+        for (int t = 0; t < N_TRIPS; t++) {
+            Trip trip = new Trip();
+            trip.setId(new AgencyAndId("agency", "trip" + t));
+            trip.setServiceId(new AgencyAndId("agency", "service"));
+            List<StopTime> stopTimes = new ArrayList<StopTime>();
+            // several trips may leave at the same time
+            int time = 6 * 3600 + random.nextInt(N_TRIPS) * 300;
+            for (int s = 0; s < N_STOPS; s++) {
+                StopTime st = new StopTime();
+                st.setStop(stops.get(s));
+                st.setTrip(trip);
+                st.setStopSequence(s);
+                st.setArrivalTime(time);
+                if (overtaking)
+                    time += random.nextInt(3) * 60;
+                st.setDepartureTime(time);
+                stopTimes.add(st);
+                time += overtaking ? 60 + random.nextInt(20) * 60 : 300;
+            }
+            if (pattern == null)
+                pattern = new TableTripPattern(trip, ScheduledStopPattern.fromTrip(trip,
+                        stopTimes), 0);
+            pattern.scheduledTimetable.addTrip(trip, stopTimes);
+            stopTimesByTrip.add(stopTimes);
+        }
+        pattern.scheduledTimetable.finish();
+        return pattern;
+    }
+
+    /** The trip found by a linear search over all trips. */
+    private TripTimes linearSearch(Timetable timetable, int stopIndex, int time,
+            RoutingRequest options, boolean boarding) {
+        TripTimes best = null;
+        for (int t = 0; t < N_TRIPS; t++) {
+            TripTimes tt = timetable.getTripTimes(t);
+            if (!tt.tripAcceptable(options, false, stopIndex))
+                continue;
+            if (boarding) {
+                int dep = tt.getDepartureTime(stopIndex);
+                if (dep >= time && (best == null || dep < best.getDepartureTime(stopIndex)))
+                    best = tt;
+            } else {
+                int arv = tt.getArrivalTime(stopIndex);
+                if (arv <= time && (best == null || arv > best.getArrivalTime(stopIndex)))
+                    best = tt;
+            }
+        }
+        return best;
+    }
+
+    private void checkSearch(Timetable timetable) {
+        RoutingRequest options = new RoutingRequest();
+        options.banTrip(new AgencyAndId("agency", "trip3"));
+        for (int hop = 0; hop < N_STOPS - 1; hop++) {
+            for (int time = 5 * 3600; time < 11 * 3600; time += 30) {
+                for (boolean boarding : new boolean[] { true, false }) {
+                    TripTimes expected = linearSearch(timetable, hop, time, options, boarding);
+                    TripTimes found = timetable.getNextTrip(hop, time, false, options, boarding);
+                    if (expected == null) {
+                        assertNull(found);
+                    } else if (boarding) {
+                        assertEquals(expected.getDepartureTime(hop), found.getDepartureTime(hop));
+                    } else {
+                        assertEquals(expected.getArrivalTime(hop), found.getArrivalTime(hop));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFifoIndex() {
+        checkSearch(makePattern(false).scheduledTimetable);
+    }
+
+    @Test
+    public void testNonFifoIndex() {
+        checkSearch(makePattern(true).scheduledTimetable);
+    }
+
+    /** Delay all stops of the given trip in a copy of the scheduled timetable. */
+    private boolean delayTrip(TableTripPattern pattern, Timetable timetable, int trip, int delay) {
+        TripTimes tt = pattern.scheduledTimetable.getTripTimes(trip);
+        List<Update> updates = new ArrayList<Update>();
+        for (int s = 0; s < N_STOPS; s++) {
+            int arrive = s == 0 ? tt.getDepartureTime(0) : tt.getArrivalTime(s - 1);
+            int depart = s == N_STOPS - 1 ? tt.getArrivalTime(s - 1) : tt.getDepartureTime(s);
+            updates.add(new Update(tt.getTrip().getId(), "stop" + s, s, arrive + delay,
+                    depart + delay, Update.Status.PREDICTION, 0));
+        }
+        return timetable.update(UpdateBlock.splitByTrip(updates).get(0));
+    }
+
+    @Test
+    public void testIncrementalReindex() {
+        TableTripPattern pattern = makePattern(true);
+        Timetable updated = pattern.scheduledTimetable.copy();
+        assertTrue(delayTrip(pattern, updated, 5, 1800));
+        assertTrue(delayTrip(pattern, updated, 17, -600));
+        assertTrue(delayTrip(pattern, updated, 30, 120));
+        updated.finish();
+        checkSearch(updated);
+        // the index of the scheduled timetable must not have been modified
+        checkSearch(pattern.scheduledTimetable);
+        // updating a copy of the updated timetable again
+        Timetable updatedTwice = updated.copy();
+        assertTrue(delayTrip(pattern, updatedTwice, 5, 0));
+        updatedTwice.finish();
+        checkSearch(updatedTwice);
+        checkSearch(updated);
+    }
+
+    /** Check the times of the timetable against the stop times, shifted by the given delays. */
+    private void checkTimes(Timetable timetable, int[] delays) {
+        for (int t = 0; t < N_TRIPS; t++) {
+            List<StopTime> stopTimes = stopTimesByTrip.get(t);
+            TripTimes tt = timetable.getTripTimes(t);
+            for (int hop = 0; hop < N_STOPS - 1; hop++) {
+                int dep = stopTimes.get(hop).getDepartureTime() + delays[t];
+                int arv = stopTimes.get(hop + 1).getArrivalTime() + delays[t];
+                assertEquals(dep, timetable.getDepartureTime(hop, t));
+                assertEquals(dep, tt.getDepartureTime(hop));
+                assertEquals(arv, timetable.getArrivalTime(hop, t));
+                assertEquals(arv, tt.getArrivalTime(hop));
+                assertEquals(arv - dep, timetable.getRunningTime(hop, t));
+                if (hop > 0) {
+                    int dwell = dep - stopTimes.get(hop).getArrivalTime() - delays[t];
+                    assertEquals(dwell, timetable.getDwellTime(hop, t));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPackedTimes() {
+        for (boolean overtaking : new boolean[] { false, true }) {
+            TableTripPattern pattern = makePattern(overtaking);
+            int[] delays = new int[N_TRIPS];
+            checkTimes(pattern.scheduledTimetable, delays);
+            // realtime updates are layered over the packed scheduled times
+            Timetable updated = pattern.scheduledTimetable.copy();
+            assertTrue(delayTrip(pattern, updated, 7, 300));
+            updated.finish();
+            delays[7] = 300;
+            checkTimes(updated, delays);
+            checkTimes(pattern.scheduledTimetable, new int[N_TRIPS]);
+        }
+    }
+
+    @Test
+    public void testFullReindex() {
+        TableTripPattern pattern = makePattern(false);
+        Timetable updated = pattern.scheduledTimetable.copy();
+        for (int t = 0; t < N_TRIPS; t += 2)
+            assertTrue(delayTrip(pattern, updated, t, 420));
+        updated.finish();
+        checkSearch(updated);
+        checkSearch(pattern.scheduledTimetable);
+    }
+
+}
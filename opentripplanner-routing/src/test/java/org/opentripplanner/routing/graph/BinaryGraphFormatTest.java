@@ -0,0 +1,110 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.common.geometry.PackedCoordinateSequence;
+import org.opentripplanner.routing.edgetype.FreeEdge;
+import org.opentripplanner.routing.edgetype.PlainStreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+
+public class BinaryGraphFormatTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", -122.0, 47.0, "first");
+        IntersectionVertex b = new IntersectionVertex(graph, "b", -122.001, 47.001, "second");
+        a.setTrafficLight(true);
+        PlainStreetEdge ab = new PlainStreetEdge(a, b, GeometryUtils.makeLineString(-122.0,
+                47.0, -122.0005, 47.0002, -122.001, 47.001), "Main St", 130.0,
+                StreetTraversalPermission.PEDESTRIAN_AND_BICYCLE, false, 8.0f);
+        ab.setStairs(true);
+        ab.setBicycleSafetyEffectiveLength(99.0);
+        new PlainStreetEdge(b, a, null, "Main St", 130.0, StreetTraversalPermission.ALL, true);
+        new FreeEdge(a, b);
+
+        File file = File.createTempFile("graph", ".obj");
+        file.deleteOnExit();
+        graph.save(file);
+        Graph loaded = Graph.load(file, LoadLevel.FULL);
+
+        assertEquals(2, loaded.countVertices());
+        assertEquals(3, loaded.countEdges());
+        IntersectionVertex a2 = (IntersectionVertex) loaded.getVertex("a");
+        IntersectionVertex b2 = (IntersectionVertex) loaded.getVertex("b");
+        assertTrue(a2.isTrafficLight());
+        assertFalse(b2.isTrafficLight());
+        assertEquals("second", b2.getName());
+        assertEquals(-122.001, b2.getX(), 0.0);
+
+        PlainStreetEdge ab2 = null;
+        int freeEdges = 0;
+        for (Edge e : a2.getOutgoing()) {
+            if (e instanceof PlainStreetEdge)
+                ab2 = (PlainStreetEdge) e;
+            else if (e instanceof FreeEdge && e.getToVertex() == b2)
+                freeEdges++;
+        }
+        assertEquals(1, freeEdges);
+        assertNotNull(ab2);
+        assertEquals(ab.getId(), ab2.getId());
+        assertEquals(b2, ab2.getToVertex());
+        assertEquals("Main St", ab2.getName());
+        assertEquals(130.0, ab2.getLength(), 0.0);
+        assertEquals(StreetTraversalPermission.PEDESTRIAN_AND_BICYCLE, ab2.getPermission());
+        assertEquals(8.0f, ab2.getCarSpeed(), 0.0f);
+        assertTrue(ab2.isStairs());
+        assertFalse(ab2.back);
+        assertEquals(99.0, ab2.getBicycleSafetyEffectiveLength(), 0.0);
+        assertEquals(3, ab2.getGeometry().getNumPoints());
+        assertEquals(ab.getInAngle(), ab2.getInAngle());
+        assertEquals(ab.getOutAngle(), ab2.getOutAngle());
+        assertNotNull(loaded.getCompactAdjacency());
+    }
+
+    @Test
+    public void testMappedGeometries() throws Exception {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", -122.0, 47.0);
+        IntersectionVertex b = new IntersectionVertex(graph, "b", -122.001, 47.001);
+        new PlainStreetEdge(a, b, GeometryUtils.makeLineString(-122.0, 47.0, -122.0005, 47.0002,
+                -122.001, 47.001), "Main St", 130.0, StreetTraversalPermission.ALL, false);
+
+        File file = File.createTempFile("graph", ".obj");
+        file.deleteOnExit();
+        graph.save(file);
+        Graph loaded = Graph.loadMapped(file, LoadLevel.FULL,
+                new DefaultStreetVertexIndexFactory());
+
+        PlainStreetEdge ab2 = (PlainStreetEdge) loaded.getVertex("a").getOutgoing().iterator()
+                .next();
+        CoordinateSequence seq = ab2.getGeometry().getCoordinateSequence();
+        assertTrue(seq instanceof PackedCoordinateSequence.Mapped);
+        assertEquals(3, seq.size());
+        assertEquals(-122.0005, seq.getX(1), 0.0);
+        assertEquals(47.0002, seq.getY(1), 0.0);
+        assertEquals(47.001, ab2.getGeometry().getEnvelopeInternal().getMaxY(), 0.0);
+    }
+}
@@ -0,0 +1,83 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompactAdjacencyTest {
+
+    Graph _graph;
+
+    Vertex a, b, c;
+
+    Edge ab, ac, bc;
+
+    @Before
+    public void before() {
+        _graph = new Graph();
+        a = new SimpleConcreteVertex(_graph, "a", 47.669457, -122.387577);
+        b = new SimpleConcreteVertex(_graph, "b", 47.669462, -122.384739);
+        c = new SimpleConcreteVertex(_graph, "c", 47.670000, -122.384000);
+        ab = new SimpleConcreteEdge(a, b);
+        ac = new SimpleConcreteEdge(a, c);
+        bc = new SimpleConcreteEdge(b, c);
+        _graph.rebuildVertexAndEdgeIndices();
+        _graph.freezeAdjacency();
+    }
+
+    private Set<Edge> slice(CompactAdjacency adj, Vertex v, boolean incoming) {
+        Set<Edge> ret = new HashSet<Edge>();
+        Edge[] edges = adj.getEdges(incoming);
+        for (int i = adj.getStart(v, incoming); i < adj.getEnd(v, incoming); i++) {
+            ret.add(edges[i]);
+        }
+        return ret;
+    }
+
+    @Test
+    public void testEdgeLists() {
+        CompactAdjacency adj = _graph.getCompactAdjacency();
+        assertNotNull(adj);
+        for (Vertex v : new Vertex[] { a, b, c }) {
+            assertTrue(adj.covers(v));
+            assertEquals(new HashSet<Edge>(v.getOutgoing()), slice(adj, v, false));
+            assertEquals(new HashSet<Edge>(v.getIncoming()), slice(adj, v, true));
+            assertEquals(v, adj.getVertex(v.getIndex()));
+        }
+        Edge[] edges = adj.getEdges(false);
+        for (int i = adj.getStart(b, false); i < adj.getEnd(b, false); i++) {
+            assertEquals(c, edges[i].getToVertex());
+        }
+    }
+
+    @Test
+    public void testModifiedVertexNotCovered() {
+        CompactAdjacency adj = _graph.getCompactAdjacency();
+        Vertex temp = new SimpleConcreteVertex(null, "temp", 47.67, -122.38);
+        assertFalse(adj.covers(temp));
+        Edge e = new SimpleConcreteEdge(c, temp);
+        assertFalse(adj.covers(c));
+        assertTrue(adj.covers(a));
+        e.detach();
+        assertFalse(adj.covers(c));
+        _graph.freezeAdjacency();
+        assertTrue(_graph.getCompactAdjacency().covers(c));
+    }
+}
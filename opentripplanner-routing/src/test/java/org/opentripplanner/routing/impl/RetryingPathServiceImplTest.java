@@ -0,0 +1,78 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.routing.algorithm.GenericAStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.util.TestUtils;
+
+public class RetryingPathServiceImplTest {
+
+    private static Graph graph;
+
+    @BeforeClass
+    public static void setUp() {
+        graph = ConstantsForTests.buildGraph(ConstantsForTests.CALTRAIN_GTFS);
+    }
+
+    private List<GraphPath> getPaths(int parallelism, int numItineraries) {
+        RetryingPathServiceImpl pathService = new RetryingPathServiceImpl();
+        pathService.setGraphService(new GraphServiceBeanImpl(graph));
+        pathService.setSptService(new GenericAStar());
+        pathService.setParallelism(parallelism);
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = TestUtils.dateInSeconds("America/Los_Angeles", 2009, 8, 7, 12, 0, 0);
+        options.setNumItineraries(numItineraries);
+        options.setRoutingContext(graph, "Caltrain_Millbrae Caltrain",
+                "Caltrain_Mountain View Caltrain");
+        return pathService.getPaths(options);
+    }
+
+    private List<List<AgencyAndId>> getTrips(List<GraphPath> paths) {
+        List<List<AgencyAndId>> trips = new ArrayList<List<AgencyAndId>>();
+        for (GraphPath path : paths)
+            trips.add(path.getTrips());
+        return trips;
+    }
+
+    /**
+     * Parallel searches must not return more itineraries than requested. The results of each
+     * batch are merged in the order the searches were queued, and while the itineraries found
+     * use a single train, as they do between these stations, the first search of each batch is
+     * the one a sequential search would run next. The itineraries are then also the same.
+     */
+    @Test
+    public void testParallelItineraries() {
+        for (int n = 1; n <= 3; n++) {
+            List<GraphPath> sequential = getPaths(1, n);
+            List<GraphPath> parallel = getPaths(4, n);
+            assertEquals(n, sequential.size());
+            assertEquals(n, parallel.size());
+            assertEquals(getTrips(sequential), getTrips(parallel));
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.routing.impl.raptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+public class RaptorSearchTest {
+
+    private static final int N_STOPS = 4;
+
+    private RaptorData data;
+
+    private RaptorRoute r01, r12, r23;
+
+    private RoutingRequest options;
+
+    private RaptorRoute makeRoute(int index, int... stops) {
+        RaptorRoute route = new RaptorRoute(stops.length, 1);
+        route.index = index;
+        for (int i = 0; i < stops.length; i++) {
+            route.stops[i] = data.stops[stops[i]];
+            data.routesForStop[stops[i]].add(route);
+        }
+        data.routes.add(route);
+        return route;
+    }
+
+    /** Three routes along a line of stops: 0-1, 1-2 and 2-3. */
+    @SuppressWarnings("unchecked")
+    @Before
+    public void setUp() {
+        Graph graph = new Graph();
+        data = new RaptorData();
+        data.stops = new RaptorStop[N_STOPS];
+        data.routesForStop = new List[N_STOPS];
+        for (int s = 0; s < N_STOPS; s++) {
+            Stop stop = new Stop();
+            stop.setId(new AgencyAndId("agency", "stop" + s));
+            stop.setLat(0);
+            stop.setLon(0.001 * s);
+            RaptorStop raptorStop = new RaptorStop();
+            raptorStop.index = s;
+            raptorStop.stopVertex = new TransitStop(graph, stop);
+            data.stops[s] = raptorStop;
+            data.routesForStop[s] = new ArrayList<RaptorRoute>();
+            data.raptorStopsForStopId.put(stop.getId(), raptorStop);
+        }
+        r01 = makeRoute(0, 0, 1);
+        r12 = makeRoute(1, 1, 2);
+        r23 = makeRoute(2, 2, 3);
+        options = new RoutingRequest();
+        options.setDummyRoutingContext(graph);
+    }
+
+    @Test
+    public void testMarkRoutes() {
+        RaptorSearch search = new RaptorSearch(data, options);
+        search.visitedLastRound.set(1);
+        search.visitedLastRound.set(2);
+        // routes serving several marked stops are only visited once, in the order of the stops
+        assertEquals(Arrays.asList(r01, r12, r23), search.markRoutes());
+        search.visitedLastRound.clear();
+        search.visitedLastRound.set(3);
+        assertEquals(Arrays.asList(r23), search.markRoutes());
+        search.visitedLastRound.clear();
+        assertTrue(search.markRoutes().isEmpty());
+    }
+
+    /** A round that reaches no new stop leaves none to visit in the next round. */
+    @Test
+    public void testEmptyRound() {
+        RaptorSearch search = new RaptorSearch(data, options);
+        search.visitedLastRound.set(0);
+        search.visitedEver.set(0);
+        List<RaptorState> created = search.transitPhase(options, 1);
+        assertTrue(created.isEmpty());
+        assertTrue(search.visitedLastRound.isEmpty());
+        assertEquals(1, search.visitedEver.cardinality());
+        assertTrue(search.markRoutes().isEmpty());
+    }
+
+}
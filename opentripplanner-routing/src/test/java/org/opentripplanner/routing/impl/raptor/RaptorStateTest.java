@@ -0,0 +1,126 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl.raptor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.opentripplanner.routing.core.RoutingRequest;
+
+public class RaptorStateTest {
+
+    private RaptorState makeState(RoutingRequest options, RaptorCriterion[] criteria,
+            int arrivalTime, int nBoardings, double walkDistance, double weight) {
+        RaptorState state = new RaptorState(new RaptorState(options, criteria));
+        state.arrivalTime = arrivalTime;
+        state.nBoardings = nBoardings;
+        state.walkDistance = walkDistance;
+        state.weight = weight;
+        return state;
+    }
+
+    @Test
+    public void testDefaultDominance() {
+        RoutingRequest options = new RoutingRequest();
+        RaptorCriterion[] criteria = RaptorState.DEFAULT_CRITERIA;
+        RaptorState fast = makeState(options, criteria, 1000, 2, 500, 0);
+        RaptorState slow = makeState(options, criteria, 1200, 2, 500, 0);
+        RaptorState direct = makeState(options, criteria, 1200, 1, 500, 0);
+        assertTrue(fast.eDominates(slow));
+        assertFalse(slow.eDominates(fast));
+        assertFalse(fast.eDominates(direct));
+        assertFalse(direct.eDominates(fast));
+        // walking a little more is within epsilon
+        RaptorState walker = makeState(options, criteria, 1200, 2, 520, 0);
+        assertTrue(walker.eDominates(slow));
+        // weight is not a default criterion
+        RaptorState costly = makeState(options, criteria, 1000, 2, 500, 1000);
+        assertTrue(costly.eDominates(fast));
+
+        // when arriving by a time, later departures are better
+        options.setArriveBy(true);
+        fast = makeState(options, criteria, 1000, 2, 500, 0);
+        slow = makeState(options, criteria, 1200, 2, 500, 0);
+        assertTrue(slow.eDominates(fast));
+        assertFalse(fast.eDominates(slow));
+    }
+
+    @Test
+    public void testCustomCriteria() {
+        RoutingRequest options = new RoutingRequest();
+        RaptorCriterion[] criteria = { RaptorCriterion.ARRIVAL_TIME, RaptorCriterion.WEIGHT };
+        RaptorState cheap = makeState(options, criteria, 1200, 3, 2000, 100);
+        RaptorState costly = makeState(options, criteria, 1200, 1, 0, 200);
+        assertTrue(cheap.eDominates(costly));
+        assertFalse(costly.eDominates(cheap));
+        // the criteria are inherited
+        RaptorState child = new RaptorState(costly);
+        child.arrivalTime = 1200;
+        child.weight = 100;
+        assertTrue(child.eDominates(cheap));
+    }
+
+    @Test
+    public void testBag() {
+        RoutingRequest options = new RoutingRequest();
+        RaptorCriterion[] criteria = RaptorState.DEFAULT_CRITERIA;
+        RaptorState slow = makeState(options, criteria, 1200, 2, 500, 0);
+        RaptorState direct = makeState(options, criteria, 1300, 1, 500, 0);
+        RaptorState fast = makeState(options, criteria, 1000, 2, 500, 0);
+        RaptorState slower = makeState(options, criteria, 1400, 2, 500, 0);
+
+        RaptorBag bag = new RaptorBag();
+        assertTrue(bag.offer(slow));
+        assertTrue(bag.offer(direct));
+        assertEquals(Arrays.asList(slow, direct), bag);
+        // a dominating state replaces the ones it dominates
+        assertTrue(bag.offer(fast));
+        assertEquals(Arrays.asList(direct, fast), bag);
+        // a dominated state is not added
+        assertTrue(bag.dominates(slower));
+        assertFalse(bag.offer(slower));
+        assertEquals(2, bag.size());
+    }
+
+    @Test
+    public void testSelectItineraries() {
+        RoutingRequest options = new RoutingRequest();
+        RaptorCriterion[] criteria = RaptorState.DEFAULT_CRITERIA;
+        RaptorState best = makeState(options, criteria, 1000, 2, 600, 100);
+        RaptorState fast = makeState(options, criteria, 900, 3, 800, 150);
+        RaptorState second = makeState(options, criteria, 1100, 2, 500, 160);
+        RaptorState direct = makeState(options, criteria, 1500, 0, 700, 300);
+        RaptorState noWalk = makeState(options, criteria, 1600, 2, 0, 400);
+        List<RaptorState> states = new ArrayList<RaptorState>(Arrays.asList(noWalk, direct,
+                second, fast, best));
+        Collections.sort(states);
+
+        List<RaptorState> selected = Raptor.selectItineraries(states, 4, criteria);
+        assertEquals(Arrays.asList(best, fast, direct, noWalk), selected);
+
+        selected = Raptor.selectItineraries(states, 2, criteria);
+        assertEquals(Arrays.asList(best, fast), selected);
+
+        assertSame(states, Raptor.selectItineraries(states, 5, criteria));
+    }
+
+}
@@ -0,0 +1,88 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl.raptor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+
+public class RaptorTransfersTest {
+
+    private RaptorTransfers makeTransfers() {
+        RoutingRequest options = new RoutingRequest();
+        RaptorTransfers transfers = new RaptorTransfers(3, options.getWalkSpeed(),
+                options.maxSlope);
+        // 0 -> 1 and 0 -> 2, with a longer way back from 1 (e.g. one-way stairs)
+        transfers.stops[0] = new int[] { 1, 2 };
+        transfers.distances[0] = new float[] { 100, 300 };
+        transfers.times[0] = new int[] { 80, 230 };
+        transfers.stops[1] = new int[] { 0, 2 };
+        transfers.distances[1] = new float[] { 150, 200 };
+        transfers.times[1] = new int[] { 120, 160 };
+        transfers.stops[2] = new int[0];
+        transfers.distances[2] = new float[0];
+        transfers.times[2] = new int[0];
+        return transfers;
+    }
+
+    @Test
+    public void testReverse() {
+        RaptorTransfers reversed = makeTransfers().reverse();
+        // stop 2 is reached from 1 and from 0, by increasing distance
+        assertArrayEquals(new int[] { 1, 0 }, reversed.stops[2]);
+        assertEquals(200, reversed.distances[2][0], 0.0);
+        assertEquals(300, reversed.distances[2][1], 0.0);
+        assertArrayEquals(new int[] { 160, 230 }, reversed.times[2]);
+        // the walks into a stop keep their own distances
+        assertArrayEquals(new int[] { 1 }, reversed.stops[0]);
+        assertEquals(150, reversed.distances[0][0], 0.0);
+        assertArrayEquals(new int[] { 0 }, reversed.stops[1]);
+        assertEquals(100, reversed.distances[1][0], 0.0);
+    }
+
+    @Test
+    public void testTimes() {
+        RaptorTransfers transfers = makeTransfers();
+        assertEquals(80, transfers.getTime(0, 0, transfers.walkSpeed));
+        assertEquals(160, transfers.getTime(0, 0, transfers.walkSpeed / 2));
+    }
+
+    @Test
+    public void testAppliesTo() {
+        RaptorTransfers transfers = makeTransfers();
+        RoutingRequest options = new RoutingRequest();
+        assertTrue(transfers.appliesTo(options));
+        options.setWalkSpeed(0.5);
+        assertTrue(transfers.appliesTo(options));
+
+        options = new RoutingRequest();
+        options.wheelchairAccessible = true;
+        assertFalse(transfers.appliesTo(options));
+
+        options = new RoutingRequest();
+        options.maxSlope = 0.04;
+        assertFalse(transfers.appliesTo(options));
+
+        options = new RoutingRequest(new TraverseModeSet(TraverseMode.BICYCLE,
+                TraverseMode.TRANSIT));
+        assertFalse(transfers.appliesTo(options));
+    }
+
+}
@@ -18,6 +18,9 @@ import static org.opentripplanner.common.IterableLibrary.filter;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
 
@@ -46,24 +49,35 @@ public class StoptimeUpdater implements Runnable, TimetableSnapshotSource {
 
     private static final Logger LOG = LoggerFactory.getLogger(StoptimeUpdater.class);
 
-    @Autowired private GraphService graphService;
+    /** How often the updater checks that the receiver thread is still alive. */
+    private static final long RECEIVER_CHECK_INTERVAL = 1000; // msec
+
+    /** How long the updater waits for the receiver thread to stop when it is interrupted. */
+    private static final long RECEIVER_JOIN_TIMEOUT = 1000; // msec
+
+    @Autowired @Setter private GraphService graphService;
     @Setter    private UpdateStreamer updateStreamer;
     @Setter    private static int logFrequency = 2000;
 
     /** 
-     * If a timetable snapshot is requested less than this number of milliseconds after the previous 
-     * snapshot, just return the same one. Thottles the potentially resource-consuming task of 
-     * duplicating a TripPattern -> Timetable map and indexing the new Timetables.
+     * Do not commit a new snapshot less than this number of milliseconds after the previous one.
+     * Throttles the potentially resource-consuming task of duplicating a TripPattern -> Timetable
+     * map and indexing the new Timetables. Updates that are still uncommitted when no more
+     * messages are waiting are committed as soon as this delay has passed.
      */
     @Setter private int maxSnapshotFrequency = 1000; // msec    
 
     /** 
-     * The last committed snapshot that was handed off to a routing thread. This snapshot may be
-     * given to more than one routing thread if the maximum snapshot frequency is exceeded. 
+     * The last committed snapshot, which is handed off to all routing threads. It is only
+     * replaced (never modified) by the updater thread, so the routing threads can read it
+     * without taking any lock.
      */
-    private TimetableResolver snapshot = null;
+    private volatile TimetableResolver snapshot = null;
     
-    /** The working copy of the timetable resolver. Should not be visible to routing threads. */
+    /** 
+     * The working copy of the timetable resolver. Should not be visible to routing threads, and
+     * is only used by the updater thread.
+     */
     private TimetableResolver buffer = new TimetableResolver();
     
     /** A map from Trip AgencyAndIds to the TripPatterns that contain them */
@@ -72,6 +86,15 @@ public class StoptimeUpdater implements Runnable, TimetableSnapshotSource {
     // graphs at once
     private Graph graph;
     private long lastSnapshotTime = -1;
+
+    /**
+     * Messages received from the UpdateStreamer but not yet applied. They are received on a
+     * separate thread so that the updater thread can tell when no more messages are waiting.
+     */
+    private final BlockingQueue<List<Update>> messages = new LinkedBlockingQueue<List<Update>>();
+
+    /** The thread receiving messages, which is restarted by the updater thread if it dies. */
+    Thread receiver;
     
     /**
      * Once the data sources and target graphs have been set, index all trip patterns on the 
@@ -94,9 +117,22 @@ public class StoptimeUpdater implements Runnable, TimetableSnapshotSource {
         graph.timetableSnapshotSource = this;
     }
     
-    public synchronized TimetableResolver getSnapshot() {
+    /**
+     * Called by routing threads. This never blocks or commits: it returns the last snapshot
+     * published by the updater thread.
+     */
+    public TimetableResolver getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Commit the buffer and publish the result as the new snapshot, if anything changed and
+     * (unless force is true) the previous commit is old enough. Only called by the updater
+     * thread.
+     */
+    private void commit(boolean force) {
         long now = System.currentTimeMillis();
-        if (now - lastSnapshotTime > maxSnapshotFrequency) {
+        if (force || now - lastSnapshotTime > maxSnapshotFrequency) {
             if (buffer.isDirty()) {
                 LOG.debug("Committing {}", buffer.toString());
                 snapshot = buffer.commit();
@@ -107,22 +143,104 @@ public class StoptimeUpdater implements Runnable, TimetableSnapshotSource {
         } else {
             LOG.debug("Snapshot frequency exceeded. Reusing snapshot {}", snapshot);
         }
-        return snapshot;
     }
     
+    /**
+     * Wait for the next message. While some updates are uncommitted, only wait until the
+     * throttle allows the next commit, and commit them if no message arrived in the meantime.
+     */
+    private List<Update> nextMessage() throws InterruptedException {
+        while (buffer.isDirty()) {
+            long wait = lastSnapshotTime + maxSnapshotFrequency - System.currentTimeMillis();
+            List<Update> updates = pollMessage(Math.max(wait, 0) + 1);
+            if (updates != null)
+                return updates;
+            // the throttle delay has passed and no more messages are waiting
+            commit(true);
+        }
+        while (true) {
+            List<Update> updates = pollMessage(RECEIVER_CHECK_INTERVAL);
+            if (updates != null)
+                return updates;
+        }
+    }
+
+    /**
+     * Wait at most the given number of milliseconds for a message. The receiver thread is
+     * restarted first if it died, since no message would ever arrive otherwise.
+     */
+    private List<Update> pollMessage(long wait) throws InterruptedException {
+        if ( ! receiver.isAlive()) {
+            LOG.error("stoptime update receiver died, restarting it");
+            startReceiver();
+        }
+        return messages.poll(wait, TimeUnit.MILLISECONDS);
+    }
+
+    private void startReceiver() {
+        receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while ( ! Thread.currentThread().isInterrupted()) {
+                    List<Update> updates;
+                    try {
+                        updates = updateStreamer.getUpdates();
+                    } catch (RuntimeException e) {
+                        LOG.error("update streamer failed", e);
+                        return;
+                    }
+                    if (updates == null) {
+                        LOG.debug("updates is null");
+                        continue;
+                    } 
+                    messages.add(updates);
+                }
+            }
+        }, "stoptime-update-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    /**
+     * Interrupt the receiver thread and wait for it to stop. An update streamer blocked in a call
+     * that ignores interrupts may keep it alive until its next message.
+     */
+    private void stopReceiver() {
+        receiver.interrupt();
+        try {
+            receiver.join(RECEIVER_JOIN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (receiver.isAlive())
+            LOG.warn("stoptime update receiver did not stop within {} msec", RECEIVER_JOIN_TIMEOUT);
+    }
+
     /**
      * Repeatedly makes blocking calls to an UpdateStreamer to retrieve new stop time updates,
-     * and applies those updates to scheduled trips.
+     * and applies those updates to scheduled trips. Runs until interrupted, and then stops the
+     * receiver thread.
      */
     @Override
     public void run() {
+        startReceiver();
+        try {
+            applyUpdates();
+        } finally {
+            stopReceiver();
+        }
+    }
+
+    private void applyUpdates() {
         int appliedBlockCount = 0;
         while (true) {
-            List<Update> updates = updateStreamer.getUpdates(); 
-            if (updates == null) {
-                LOG.debug("updates is null");
-                continue;
-            } 
+            List<Update> updates;
+            try {
+                updates = nextMessage();
+            } catch (InterruptedException e) {
+                LOG.warn("stoptime updater was interrupted");
+                return;
+            }
             List<UpdateBlock> blocks = UpdateBlock.splitByTrip(updates);
             LOG.debug("message contains {} trip update blocks", blocks.size());
             int uIndex = 0;
@@ -152,9 +270,11 @@ public class StoptimeUpdater implements Runnable, TimetableSnapshotSource {
                         LOG.info("applied {} stoptime update blocks.", appliedBlockCount);
                     }
                     // consider making a snapshot immediately in anticipation of incoming requests 
-                    getSnapshot(); 
+                    commit(false); 
                 }
             }
+            // the end of the message is committed by nextMessage() if no other message follows
+            commit(false);
             LOG.debug("end of update message");
         }
     }
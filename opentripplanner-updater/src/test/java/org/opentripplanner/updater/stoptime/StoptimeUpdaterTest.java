@@ -0,0 +1,211 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+
+package org.opentripplanner.updater.stoptime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.ScheduledStopPattern;
+import org.opentripplanner.routing.edgetype.TableTripPattern;
+import org.opentripplanner.routing.edgetype.TimetableResolver;
+import org.opentripplanner.routing.edgetype.TransitBoardAlight;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.GraphServiceBeanImpl;
+import org.opentripplanner.routing.trippattern.Update;
+import org.opentripplanner.routing.vertextype.PatternDepartVertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.opentripplanner.routing.vertextype.TransitStopDepart;
+
+public class StoptimeUpdaterTest {
+
+    private static final int DEPARTURE = 8 * 3600;
+
+    private static final int RUNNING_TIME = 600;
+
+    private static final int SNAPSHOT_FREQUENCY = 300; // msec
+
+    private static final long TIMEOUT = 5000; // msec
+
+    /** Hands the updater the messages queued by a test, and fails when given FAIL. */
+    private static class StubStreamer implements UpdateStreamer {
+
+        static final List<Update> FAIL = Collections.emptyList();
+
+        final BlockingQueue<List<Update>> queue = new LinkedBlockingQueue<List<Update>>();
+
+        @Override
+        public List<Update> getUpdates() {
+            List<Update> updates;
+            try {
+                updates = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            if (updates == FAIL)
+                throw new IllegalStateException("stub streamer failure");
+            return updates;
+        }
+
+    }
+
+    private TableTripPattern pattern;
+
+    private StubStreamer streamer;
+
+    private StoptimeUpdater updater;
+
+    private Thread updaterThread;
+
+    /** A pattern with a single trip between two stops, which can be boarded at the first. */
+    @Before
+    public void setUp() {
+        Graph graph = new Graph();
+        Trip trip = new Trip();
+        trip.setId(new AgencyAndId("agency", "trip"));
+        trip.setServiceId(new AgencyAndId("agency", "service"));
+        List<Stop> stops = new ArrayList<Stop>();
+        List<StopTime> stopTimes = new ArrayList<StopTime>();
+        for (int s = 0; s < 2; s++) {
+            Stop stop = new Stop();
+            stop.setId(new AgencyAndId("agency", "stop" + s));
+            stop.setLat(0);
+            stop.setLon(0.01 * s);
+            stops.add(stop);
+            StopTime st = new StopTime();
+            st.setStop(stop);
+            st.setTrip(trip);
+            st.setStopSequence(s);
+            st.setArrivalTime(DEPARTURE + s * RUNNING_TIME);
+            st.setDepartureTime(DEPARTURE + s * RUNNING_TIME);
+            stopTimes.add(st);
+        }
+        pattern = new TableTripPattern(trip, ScheduledStopPattern.fromTrip(trip, stopTimes), 0);
+        pattern.scheduledTimetable.addTrip(trip, stopTimes);
+        pattern.scheduledTimetable.finish();
+        TransitStop stopVertex = new TransitStop(graph, stops.get(0));
+        TransitStopDepart departVertex = new TransitStopDepart(graph, stops.get(0), stopVertex);
+        PatternDepartVertex patternVertex = new PatternDepartVertex(graph, pattern,
+                stopTimes.get(0));
+        new TransitBoardAlight(departVertex, patternVertex, 0, TraverseMode.BUS);
+
+        streamer = new StubStreamer();
+        updater = new StoptimeUpdater();
+        updater.setGraphService(new GraphServiceBeanImpl(graph));
+        updater.setUpdateStreamer(streamer);
+        updater.setMaxSnapshotFrequency(SNAPSHOT_FREQUENCY);
+        updater.setup();
+        updaterThread = new Thread(updater);
+        updaterThread.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        updaterThread.interrupt();
+        updaterThread.join(TIMEOUT);
+    }
+
+    /** A message delaying the whole trip by the given number of seconds. */
+    private List<Update> delay(int seconds) {
+        AgencyAndId tripId = new AgencyAndId("agency", "trip");
+        List<Update> updates = new ArrayList<Update>();
+        for (int s = 0; s < 2; s++) {
+            int time = DEPARTURE + s * RUNNING_TIME + seconds;
+            updates.add(new Update(tripId, "stop" + s, s, time, time,
+                    Update.Status.PREDICTION, 0));
+        }
+        return updates;
+    }
+
+    /** Wait for a snapshot other than the given one to be published. */
+    private TimetableResolver awaitSnapshot(TimetableResolver previous)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            TimetableResolver snapshot = updater.getSnapshot();
+            if (snapshot != previous)
+                return snapshot;
+            Thread.sleep(5);
+        }
+        return previous;
+    }
+
+    private int departure(TimetableResolver snapshot) {
+        return snapshot.resolve(pattern).getDepartureTime(0, 0);
+    }
+
+    @Test
+    public void testSnapshotThrottle() throws InterruptedException {
+        assertNull(updater.getSnapshot());
+        streamer.queue.add(delay(60));
+        TimetableResolver first = awaitSnapshot(null);
+        long firstTime = System.currentTimeMillis();
+        assertNotNull(first);
+        assertEquals(DEPARTURE + 60, departure(first));
+        // the scheduled timetable is left untouched
+        assertEquals(DEPARTURE, pattern.scheduledTimetable.getDepartureTime(0, 0));
+
+        // two messages in quick succession are committed together once the throttle allows it
+        streamer.queue.add(delay(120));
+        streamer.queue.add(delay(180));
+        TimetableResolver second = awaitSnapshot(first);
+        assertTrue(second != first);
+        assertTrue(System.currentTimeMillis() - firstTime >= SNAPSHOT_FREQUENCY - 50);
+        assertEquals(DEPARTURE + 180, departure(second));
+        // published snapshots are never modified
+        assertEquals(DEPARTURE + 60, departure(first));
+    }
+
+    @Test
+    public void testReceiverRestart() throws InterruptedException {
+        streamer.queue.add(StubStreamer.FAIL);
+        streamer.queue.add(delay(60));
+        TimetableResolver snapshot = awaitSnapshot(null);
+        assertNotNull(snapshot);
+        assertEquals(DEPARTURE + 60, departure(snapshot));
+    }
+
+    @Test
+    public void testStop() throws InterruptedException {
+        streamer.queue.add(delay(60));
+        assertNotNull(awaitSnapshot(null));
+        Thread receiver = updater.receiver;
+        assertTrue(receiver.isAlive());
+        updaterThread.interrupt();
+        updaterThread.join(TIMEOUT);
+        assertFalse(updaterThread.isAlive());
+        assertFalse(receiver.isAlive());
+        assertSame(receiver, updater.receiver);
+    }
+
+}
@@ -13,8 +13,10 @@
 
 package org.opentripplanner.common.geometry;
 
+import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.lang.ref.SoftReference;
+import java.nio.DoubleBuffer;
 
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.CoordinateSequence;
@@ -459,6 +461,93 @@ public abstract class PackedCoordinateSequence implements CoordinateSequence, Se
 
     }
 
+    /**
+     * Read-only packed coordinate sequence implementation backed by a region of a (usually
+     * memory-mapped) DoubleBuffer, so that the coordinates need not live on the heap. Clones and
+     * serialized copies are ordinary heap-based Double sequences.
+     */
+    public static class Mapped extends PackedCoordinateSequence {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The shared buffer holding the packed coordinates of many sequences
+         */
+        transient DoubleBuffer buffer;
+
+        /**
+         * Position of the first ordinate of this sequence in the buffer
+         */
+        int offset;
+
+        int size;
+
+        /**
+         * Builds a new packed coordinate sequence over a region of an existing buffer
+         * 
+         * @param buffer
+         * @param offset the index of the first ordinate in the buffer
+         * @param size the number of coordinates
+         * @param dimension
+         */
+        public Mapped(DoubleBuffer buffer, int offset, int size, int dimension) {
+            if (dimension < 2) {
+                throw new IllegalArgumentException("Must have at least 2 dimensions");
+            }
+            this.buffer = buffer;
+            this.offset = offset;
+            this.size = size;
+            this.dimension = dimension;
+        }
+
+        public Coordinate getCoordinateInternal(int i) {
+            double x = buffer.get(offset + i * dimension);
+            double y = buffer.get(offset + i * dimension + 1);
+            double z = dimension == 2 ? 0.0 : buffer.get(offset + i * dimension + 2);
+            return new Coordinate(x, y, z);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return a modifiable copy of this sequence on the heap
+         */
+        public Object clone() {
+            return toDouble();
+        }
+
+        public double getOrdinate(int index, int ordinate) {
+            return buffer.get(offset + index * dimension + ordinate);
+        }
+
+        public void setOrdinate(int index, int ordinate, double value) {
+            throw new UnsupportedOperationException("Mapped coordinate sequences are read-only.");
+        }
+
+        public Envelope expandEnvelope(Envelope env) {
+            int end = offset + size * dimension;
+            for (int i = offset; i < end; i += dimension) {
+                env.expandToInclude(buffer.get(i), buffer.get(i + 1));
+            }
+            return env;
+        }
+
+        private Double toDouble() {
+            double[] coords = new double[size * dimension];
+            for (int i = 0; i < coords.length; i++) {
+                coords[i] = buffer.get(offset + i);
+            }
+            return new Double(coords, dimension);
+        }
+
+        /* the buffer cannot be serialized, write a heap-based copy instead */
+        private Object writeReplace() throws ObjectStreamException {
+            return toDouble();
+        }
+    }
+
     public String toString() {
         String out = "";
         int n = Math.min(10, size());
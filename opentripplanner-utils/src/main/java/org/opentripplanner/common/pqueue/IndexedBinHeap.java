@@ -0,0 +1,237 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.pqueue;
+
+import java.util.Arrays;
+
+/**
+ * A binary heap in which each element is identified by a non-negative integer id (e.g. a vertex
+ * index), and which tracks the heap position of every id. This allows an element to be found in
+ * constant time and its key decreased in place, rather than inserting a duplicate entry and
+ * discarding the stale one when it is extracted. At most one element per id is held at a time.
+ *
+ * The position table covers the ids from 0 up to the number given on construction (or to
+ * setIdRange), and grows if a larger id is inserted. Callers with sparse ids, such as the global
+ * vertex indices of one graph among several, should map them to a dense range first.
+ */
+public class IndexedBinHeap<T> {
+
+    private static final double GROW_FACTOR = 2.0;
+
+    private double[] prio;
+
+    private T[] elem;
+
+    private int[] ids;
+
+    /* heap position of each id, 0 if the id is not in the heap (the heap is 1-based) */
+    private int[] pos;
+
+    private int size;
+
+    private int capacity;
+
+    public IndexedBinHeap() {
+        this(1000);
+    }
+
+    public IndexedBinHeap(int capacity) {
+        this(capacity, capacity);
+    }
+
+    /**
+     * @param capacity the initial number of elements
+     * @param nIds the initial size of the position table, ids from 0 to nIds - 1
+     */
+    @SuppressWarnings("unchecked")
+    public IndexedBinHeap(int capacity, int nIds) {
+        if (capacity < 10) capacity = 10;
+        this.capacity = capacity;
+        elem = (T[]) new Object[capacity + 1];
+        prio = new double[capacity + 1];
+        ids = new int[capacity + 1];
+        pos = new int[nIds];
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean empty() {
+        return size <= 0;
+    }
+
+    public boolean contains(int id) {
+        return id < pos.length && pos[id] != 0;
+    }
+
+    /** @return the element with the given id, or null if it is not in the heap. */
+    public T get(int id) {
+        return contains(id) ? elem[pos[id]] : null;
+    }
+
+    /** @return the key of the element with the given id, which must be in the heap. */
+    public double key(int id) {
+        if (!contains(id))
+            throw new IllegalArgumentException("Id " + id + " is not in the heap.");
+        return prio[pos[id]];
+    }
+
+    public double peek_min_key() {
+        if (size > 0)
+            return prio[1];
+        else
+            throw new IllegalStateException("An empty queue does not have a minimum key.");
+    }
+
+    public T peek_min() {
+        if (size > 0)
+            return elem[1];
+        else
+            return null;
+    }
+
+    /** @return the id of the minimum element. */
+    public int peek_min_id() {
+        if (size > 0)
+            return ids[1];
+        else
+            throw new IllegalStateException("An empty queue does not have a minimum id.");
+    }
+
+    /** Insert an element under an id that is not already in the heap. */
+    public void insert(int id, T e, double p) {
+        if (contains(id))
+            throw new IllegalArgumentException("Id " + id + " is already in the heap.");
+        if (id >= pos.length)
+            pos = Arrays.copyOf(pos, Math.max(id + 1, (int) (pos.length * GROW_FACTOR)));
+        size += 1;
+        if (size > capacity)
+            resize((int) (capacity * GROW_FACTOR));
+        siftUp(size, id, e, p);
+    }
+
+    /**
+     * Replace the element with the given id, which must be in the heap, and lower its key.
+     */
+    public void dec_key(int id, T e, double p) {
+        if (!contains(id))
+            throw new IllegalArgumentException("Id " + id + " is not in the heap.");
+        int i = pos[id];
+        if (p > prio[i])
+            throw new IllegalArgumentException("New key " + p + " is greater than current key "
+                    + prio[i] + ".");
+        siftUp(i, id, e, p);
+    }
+
+    /**
+     * Replace the element with the given id and change its key in either direction, or insert it
+     * if the id is not in the heap.
+     */
+    public void insert_or_rekey(int id, T e, double p) {
+        if (!contains(id)) {
+            insert(id, e, p);
+        } else {
+            int i = pos[id];
+            if (p <= prio[i])
+                siftUp(i, id, e, p);
+            else
+                siftDown(i, id, e, p);
+        }
+    }
+
+    public T extract_min() {
+        if (size <= 0)
+            return null;
+        T minElem = elem[1];
+        pos[ids[1]] = 0;
+        int lastId = ids[size];
+        T lastElem = elem[size];
+        double lastPrio = prio[size];
+        elem[size] = null;
+        size -= 1;
+        if (size > 0)
+            siftDown(1, lastId, lastElem, lastPrio);
+        return minElem;
+    }
+
+    /** Empty the queue in O(size), keeping its arrays. */
+    public void reset() {
+        for (int i = 1; i <= size; i++) {
+            pos[ids[i]] = 0;
+            elem[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * Make room for the ids from 0 to nIds - 1 in the position table, e.g. before reusing the heap
+     * for another graph. The heap must be empty.
+     */
+    public void setIdRange(int nIds) {
+        if (size > 0)
+            throw new IllegalStateException("The id range of a non-empty IndexedBinHeap cannot be changed.");
+        if (nIds > pos.length)
+            pos = new int[nIds];
+    }
+
+    public void resize(int capacity) {
+        if (capacity < size)
+            throw new IllegalStateException("IndexedBinHeap contains too many elements to fit in new capacity.");
+        this.capacity = capacity;
+        prio = Arrays.copyOf(prio, capacity + 1);
+        elem = Arrays.copyOf(elem, capacity + 1);
+        ids = Arrays.copyOf(ids, capacity + 1);
+    }
+
+    /* move the hole at position i towards the root until p fits, then fill it */
+    private void siftUp(int i, int id, T e, double p) {
+        while (i > 1 && prio[i / 2] > p) {
+            move(i / 2, i);
+            i /= 2;
+        }
+        place(i, id, e, p);
+    }
+
+    /* move the hole at position i towards the leaves until p fits, then fill it */
+    private void siftDown(int i, int id, T e, double p) {
+        int child;
+        for (; i * 2 <= size; i = child) {
+            child = i * 2;
+            if (child != size && prio[child + 1] < prio[child])
+                child++;
+            if (p > prio[child])
+                move(child, i);
+            else
+                break;
+        }
+        place(i, id, e, p);
+    }
+
+    private void move(int from, int to) {
+        elem[to] = elem[from];
+        prio[to] = prio[from];
+        ids[to] = ids[from];
+        pos[ids[to]] = to;
+    }
+
+    private void place(int i, int id, T e, double p) {
+        elem[i] = e;
+        prio[i] = p;
+        ids[i] = id;
+        pos[id] = i;
+    }
+
+}
@@ -103,6 +103,63 @@ public class TestPQueues extends TestCase {
         assertEquals(1, binHeap.size());
     }
 
+    public void testIndexedBinHeap() {
+        final int N = 20000;
+        IndexedBinHeap<Integer> heap = new IndexedBinHeap<Integer>(10);
+        double[] keys = new double[N];
+        for (int i = 0; i < N; i++) {
+            keys[i] = Math.random() * 10000;
+            heap.insert(i, i, keys[i]);
+        }
+        assertEquals(N, heap.size());
+        // decrease every other key, rekey the rest upward
+        for (int i = 0; i < N; i++) {
+            if (i % 2 == 0) {
+                keys[i] = keys[i] / 2;
+                heap.dec_key(i, i, keys[i]);
+            } else {
+                keys[i] = keys[i] * 2;
+                heap.insert_or_rekey(i, i, keys[i]);
+            }
+            assertEquals(keys[i], heap.key(i), 0.0);
+        }
+        assertEquals(N, heap.size());
+        double last = Double.NEGATIVE_INFINITY;
+        while (!heap.empty()) {
+            double k = heap.peek_min_key();
+            int id = heap.peek_min_id();
+            assertTrue(k >= last);
+            assertEquals(keys[id], k, 0.0);
+            assertEquals((Integer) id, heap.extract_min());
+            assertFalse(heap.contains(id));
+            last = k;
+        }
+        assertNull(heap.extract_min());
+        // sparse ids grow the position table, reset clears them
+        heap.insert(5 * N, 1, 1.0);
+        heap.insert_or_rekey(3, 2, 2.0);
+        assertTrue(heap.contains(5 * N));
+        heap.reset();
+        assertTrue(heap.empty());
+        assertFalse(heap.contains(5 * N));
+        assertFalse(heap.contains(3));
+        // a heap sized for an id range does not grow within it
+        heap = new IndexedBinHeap<Integer>(10, 100);
+        heap.insert(99, 1, 1.0);
+        heap.setIdRange(50);
+        assertTrue(heap.contains(99));
+        try {
+            heap.setIdRange(200);
+            fail("the id range of a non-empty heap was changed");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        heap.reset();
+        heap.setIdRange(200);
+        heap.insert(199, 2, 2.0);
+        assertEquals((Integer) 2, heap.get(199));
+    }
+
     private List<OTPPriorityQueue<Integer>> makeQueues() {
         List<OTPPriorityQueue<Integer>> queues = new ArrayList<OTPPriorityQueue<Integer>>();
         queues.add(new PriorityQueueImpl<Integer>());